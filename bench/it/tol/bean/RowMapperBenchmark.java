@@ -0,0 +1,534 @@
+/*
+ *   Trattamenti On Line (tol): Applicazione web per la gestione del 
+ *   registro delle attività di trattamento.
+ *
+ *   TOL:
+ *   web application to manage and publish information about
+ *   databases containing personal data, which are managed by subjects 
+ *   belonging to the university or involving 
+ *   the university as manager.
+ *   Copyright (C) 2023 Giovanroberto Torre
+ *   all right reserved
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA<br>
+ *
+ *   Giovanroberto Torre <gianroberto.torre@gmail.com>
+ *   Universita' degli Studi di Verona
+ *   Via Dell'Artigliere, 8
+ *   37129 Verona (Italy)
+ */
+
+package it.tol.bean;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Time;
+import java.sql.Types;
+import java.util.Random;
+import java.util.logging.Logger;
+
+
+/**
+ * <p><code>RowMapperBenchmark</code> confronta i tempi di popolamento
+ * dei bean di {@link BeanUtil#populate(Object, ResultSet)} e di
+ * {@link RowMapper#populate(Object, ResultSet)} per i bean del registro
+ * ({@link ProcessingBean}, {@link ActivityBean}, {@link ProcessBean}),
+ * ciascuno su un ResultSet in memoria con le colonne della query
+ * che lo popola in DBWrapper, e conta le righe per cui i due metodi
+ * producono bean diversi.</p>
+ * <p>Il ResultSet in memoria non ha costi di rete n&eacute; di decodifica,
+ * per cui i tempi misurano soltanto il lavoro di mappatura.</p>
+ * <p>Non fa parte dell'applicazione e non viene distribuito con essa:
+ * si compila con le classi dell'applicazione nel classpath e si esegue
+ * da riga di comando, p.es.
+ * <code>java it.tol.bean.RowMapperBenchmark [righe] [ripetizioni]</code>.</p>
+ *
+ * @author <a href="mailto:gianroberto.torre@gmail.com">Giovanroberto Torre</a>
+ */
+public class RowMapperBenchmark {
+
+    /**
+     * <p>Logger della classe su cui vengono scritti i risultati.</p>
+     */
+    private static Logger LOG = Logger.getLogger(RowMapperBenchmark.class.getName());
+    /**
+     * <p>Scenari misurati: bean e colonne (alias) della query che lo popola,
+     * comprese quelle prive di un attributo corrispondente nel bean.</p>
+     */
+    private static final Scenario[] SCENARIOS = {
+        // GET_TRATTAMENTI_RILEVAZIONE
+        new Scenario(ProcessingBean.class,
+                     new String[] { "nome", "informativa", "ordinale", "codice", "descrizione", "finalita", "terminiUltimi", "extraInfo",
+                                    "datiPersonali", "datiSanitari", "datiOrientamentoSex", "datiEtniaReligApp", "datiMinoreEta",
+                                    "datiGenetici", "datiBiometrici", "datiGiudiziari", "datiUbicazione", "datiPseudonimizzati",
+                                    "datiAnonimizzati", "dataUltimaModifica", "oraUltimaModifica", "autoreUltimaModifica", "idTipo", "idStato" },
+                     new int[] { Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+                                 Types.BIT, Types.BIT, Types.BIT, Types.BIT, Types.BIT,
+                                 Types.BIT, Types.BIT, Types.BIT, Types.BIT, Types.BIT,
+                                 Types.BIT, Types.DATE, Types.TIME, Types.INTEGER, Types.INTEGER, Types.INTEGER }),
+        // GET_ATTIVITA_TRATTAMENTI
+        new Scenario(ActivityBean.class,
+                     new String[] { "codTrattamento", "nome", "ordinale", "codice", "descrizione", "dataInizio", "dataFine",
+                                    "dataUltimaModifica", "oraUltimaModifica", "autoreUltimaModifica" },
+                     new int[] { Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.DATE, Types.DATE,
+                                 Types.DATE, Types.TIME, Types.INTEGER }),
+        // GET_BANCHE_DATI_TRATTAMENTI
+        new Scenario(ProcessBean.class,
+                     new String[] { "codTrattamento", "id", "nome", "descrizione", "ordinale", "codice", "informativa", "livello", "tipo",
+                                    "dataUltimaModifica", "oraUltimaModifica", "autoreUltimaModifica" },
+                     new int[] { Types.VARCHAR, Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.VARCHAR,
+                                 Types.DATE, Types.TIME, Types.INTEGER })
+    };
+
+
+    /**
+     * <p>Bean da popolare e struttura del ResultSet da cui popolarlo.</p>
+     */
+    private static final class Scenario {
+        /** Classe del bean */
+        final Class<?> type;
+        /** Nomi delle colonne */
+        final String[] columns;
+        /** Tipi SQL delle colonne */
+        final int[] types;
+
+        Scenario(Class<?> type, String[] columns, int[] types) {
+            this.type = type;
+            this.columns = columns;
+            this.types = types;
+        }
+
+        /**
+         * Compone righe pseudocasuali (ma riproducibili); circa una stringa
+         * su dieci &egrave; null, per verificare la conversione in stringa vuota.
+         *
+         * @param count numero di righe
+         * @return <code>Object[][]</code> - le righe
+         */
+        Object[][] rows(int count) {
+            Random random = new Random(20240630L);
+            Object[][] rows = new Object[count][columns.length];
+            for (int i = 0; i < count; i++) {
+                for (int c = 0; c < columns.length; c++) {
+                    switch (types[c]) {
+                        case Types.INTEGER:
+                            rows[i][c] = Integer.valueOf(random.nextInt(1000));
+                            break;
+                        case Types.BIT:
+                            rows[i][c] = Boolean.valueOf(random.nextBoolean());
+                            break;
+                        case Types.DATE:
+                            rows[i][c] = new java.sql.Date(1600000000000L + random.nextInt(1000) * 86400000L);
+                            break;
+                        case Types.TIME:
+                            rows[i][c] = new Time(random.nextInt(86400) * 1000L);
+                            break;
+                        default:
+                            rows[i][c] = (random.nextInt(10) == 0) ? null : columns[c] + " " + i + " " + random.nextInt(1000);
+                    }
+                }
+            }
+            return rows;
+        }
+    }
+
+
+    /**
+     * Esegue il confronto per ciascuno scenario.
+     *
+     * @param args numero di righe (default 5000) e di ripetizioni (default 20)
+     * @throws Exception se la popolazione di un bean non va a buon fine
+     */
+    public static void main(String[] args)
+                     throws Exception {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+        for (Scenario scenario : SCENARIOS) {
+            Object[][] rows = scenario.rows(count);
+            // Riscaldamento (compilazione JIT e registro dei mapper)
+            run(scenario, rows, 3, true);
+            run(scenario, rows, 3, false);
+            long start = System.nanoTime();
+            int legacyBeans = run(scenario, rows, rounds, true);
+            long legacy = System.nanoTime() - start;
+            start = System.nanoTime();
+            int mapperBeans = run(scenario, rows, rounds, false);
+            long mapper = System.nanoTime() - start;
+            long calls = (long) rounds * rows.length;
+            LOG.info(scenario.type.getSimpleName() + ": " + rows.length + " righe, " + calls + " chiamate per metodo (" + legacyBeans + "/" + mapperBeans + " bean)" +
+                     "; BeanUtil " + (legacy / calls) + " ns/riga" +
+                     "; RowMapper " + (mapper / calls) + " ns/riga" +
+                     "; rapporto " + String.format("%.2f", (double) legacy / mapper) +
+                     "; righe diverse " + compare(scenario, rows) + " su " + rows.length);
+        }
+    }
+
+
+    /**
+     * Popola un bean per ogni riga con uno dei due metodi.
+     * Come in DBWrapper, il mapper viene ottenuto una volta per ResultSet.
+     *
+     * @param scenario  bean e colonne
+     * @param rows      righe del ResultSet
+     * @param rounds    ripetizioni
+     * @param legacy    true per misurare BeanUtil, false per RowMapper
+     * @return <code>int</code> - numero di bean popolati (usato, cosi' che il lavoro non venga eliminato)
+     * @throws Exception se la popolazione di un bean non va a buon fine
+     */
+    private static int run(Scenario scenario, Object[][] rows, int rounds, boolean legacy)
+                    throws Exception {
+        int beans = 0;
+        for (int r = 0; r < rounds; r++) {
+            ResultSet rs = resultSet(scenario, rows);
+            RowMapper<?> mapper = legacy ? null : RowMapper.get(scenario.type, rs);
+            while (rs.next()) {
+                populate(scenario.type.newInstance(), rs, mapper);
+                beans++;
+            }
+        }
+        return beans;
+    }
+
+
+    /**
+     * Conta le righe per cui i due metodi producono bean
+     * con attributi mappati diversi.
+     *
+     * @param scenario  bean e colonne
+     * @param rows      righe del ResultSet
+     * @return <code>int</code> - numero di righe con bean diversi
+     * @throws Exception se la popolazione di un bean non va a buon fine
+     */
+    private static int compare(Scenario scenario, Object[][] rows)
+                        throws Exception {
+        int different = 0;
+        ResultSet legacyRs = resultSet(scenario, rows);
+        ResultSet mapperRs = resultSet(scenario, rows);
+        RowMapper<?> mapper = RowMapper.get(scenario.type, mapperRs);
+        while (legacyRs.next() && mapperRs.next()) {
+            Object a = scenario.type.newInstance();
+            Object b = scenario.type.newInstance();
+            populate(a, legacyRs, null);
+            populate(b, mapperRs, mapper);
+            for (String column : scenario.columns) {
+                if (!read(a, column).equals(read(b, column))) {
+                    different++;
+                    break;
+                }
+            }
+        }
+        return different;
+    }
+
+
+    /**
+     * @param bean      bean da popolare
+     * @param rs        ResultSet posizionato sulla riga
+     * @param mapper    mapper da usare, oppure null per BeanUtil
+     * @throws SQLException se la popolazione del bean non va a buon fine
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static void populate(Object bean, ResultSet rs, RowMapper mapper)
+                          throws SQLException {
+        if (mapper == null) {
+            BeanUtil.populate(bean, rs);
+        } else {
+            mapper.populate(bean, rs);
+        }
+    }
+
+
+    /**
+     * Legge un attributo del bean tramite il suo getter.
+     *
+     * @param bean      bean
+     * @param property  nome dell'attributo
+     * @return <code>String</code> - il valore come stringa, l'eccezione sollevata dal getter o "-" se il bean non ha l'attributo
+     * @throws IllegalAccessException se il getter non &egrave; accessibile
+     */
+    private static String read(Object bean, String property)
+                        throws IllegalAccessException {
+        String suffix = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+        for (Method m : bean.getClass().getMethods()) {
+            if (m.getParameterTypes().length == 0 && (m.getName().equals("get" + suffix) || m.getName().equals("is" + suffix))) {
+                try {
+                    return String.valueOf(m.invoke(bean));
+                } catch (InvocationTargetException ite) {
+                    return "!" + ite.getCause().getClass().getSimpleName();
+                }
+            }
+        }
+        return "-";
+    }
+
+
+    /**
+     * Restituisce un ResultSet in memoria a sola lettura e scorrimento
+     * in avanti (v. {@link Rows}).
+     *
+     * @param scenario  colonne e tipi
+     * @param rows      righe da restituire
+     * @return <code>ResultSet</code> - il ResultSet
+     */
+    private static ResultSet resultSet(Scenario scenario, Object[][] rows) {
+        return (ResultSet) Proxy.newProxyInstance(RowMapperBenchmark.class.getClassLoader(),
+                                                  new Class<?>[] { ResultSet.class },
+                                                  new Rows(scenario, rows));
+    }
+
+
+    /**
+     * <p>ResultSet in memoria, come quello di uno Statement
+     * <code>TYPE_FORWARD_ONLY</code> e <code>CONCUR_READ_ONLY</code>:
+     * scorrimento, lettura per posizione o per nome con le conversioni
+     * di JDBC, metadati delle colonne; le operazioni che un ResultSet
+     * di sola lettura in avanti non ammette sollevano, come un driver,
+     * <code>SQLFeatureNotSupportedException</code>.</p>
+     */
+    private static final class Rows implements InvocationHandler {
+        /** Colonne e tipi */
+        private final Scenario scenario;
+        /** Righe */
+        private final Object[][] rows;
+        /** Metadati */
+        private final ResultSetMetaData metaData;
+        /** Riga corrente: -1 prima della prima */
+        private int row = -1;
+        /** Vale true se l'ultimo valore letto era null */
+        private boolean wasNull;
+        /** Vale true dopo la chiusura */
+        private boolean closed;
+
+        Rows(Scenario scenario, Object[][] rows) {
+            this.scenario = scenario;
+            this.rows = rows;
+            this.metaData = (ResultSetMetaData) Proxy.newProxyInstance(RowMapperBenchmark.class.getClassLoader(),
+                                                                       new Class<?>[] { ResultSetMetaData.class },
+                                                                       new Columns(scenario));
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+                      throws SQLException {
+            String name = method.getName();
+            if (method.getDeclaringClass() == Object.class) {
+                return object(proxy, name, args);
+            }
+            if (name.equals("close")) {
+                closed = true;
+                return null;
+            } else if (name.equals("isClosed")) {
+                return Boolean.valueOf(closed);
+            }
+            if (closed) {
+                throw new SQLException("ResultSet chiuso");
+            }
+            if (name.equals("next")) {
+                if (row < rows.length) {
+                    row++;
+                }
+                return Boolean.valueOf(row < rows.length);
+            } else if (name.equals("getMetaData")) {
+                return metaData;
+            } else if (name.equals("wasNull")) {
+                return Boolean.valueOf(wasNull);
+            } else if (name.equals("findColumn")) {
+                return Integer.valueOf(column((String) args[0]));
+            } else if (name.equals("getRow")) {
+                return Integer.valueOf((row >= 0 && row < rows.length) ? row + 1 : 0);
+            } else if (name.equals("isBeforeFirst")) {
+                return Boolean.valueOf(row < 0 && rows.length > 0);
+            } else if (name.equals("isAfterLast")) {
+                return Boolean.valueOf(row >= rows.length && rows.length > 0);
+            } else if (name.equals("isFirst")) {
+                return Boolean.valueOf(row == 0 && rows.length > 0);
+            } else if (name.equals("isLast")) {
+                return Boolean.valueOf(row == rows.length - 1);
+            } else if (name.equals("getType")) {
+                return Integer.valueOf(ResultSet.TYPE_FORWARD_ONLY);
+            } else if (name.equals("getConcurrency")) {
+                return Integer.valueOf(ResultSet.CONCUR_READ_ONLY);
+            } else if (name.equals("getFetchDirection")) {
+                return Integer.valueOf(ResultSet.FETCH_FORWARD);
+            } else if (name.equals("getFetchSize")) {
+                return Integer.valueOf(rows.length);
+            } else if (name.equals("setFetchSize") || name.equals("clearWarnings")) {
+                return null;
+            } else if (name.equals("getWarnings") || name.equals("getStatement")) {
+                return null;
+            } else if (name.equals("isWrapperFor")) {
+                return Boolean.FALSE;
+            } else if (name.startsWith("get") && args != null && args.length == 1) {
+                return read(name, method.getReturnType(), args[0]);
+            }
+            throw new SQLFeatureNotSupportedException(name);
+        }
+
+        /**
+         * @param name      nome del getter
+         * @param type      tipo restituito dal getter
+         * @param column    posizione (da 1) o nome della colonna
+         * @return <code>Object</code> - il valore convertito nel tipo del getter
+         * @throws SQLException se non si &egrave; su una riga, la colonna non esiste o il valore non &egrave; convertibile
+         */
+        private Object read(String name, Class<?> type, Object column)
+                     throws SQLException {
+            if (row < 0 || row >= rows.length) {
+                throw new SQLException("Nessuna riga corrente");
+            }
+            int col = (column instanceof Integer) ? ((Integer) column).intValue() : column((String) column);
+            if (col < 1 || col > scenario.columns.length) {
+                throw new SQLException("Colonna inesistente: " + column);
+            }
+            Object value = rows[row][col - 1];
+            wasNull = (value == null);
+            if (type == Object.class) {
+                return value;
+            } else if (type == String.class) {
+                return wasNull ? null : value.toString();
+            } else if (type == int.class || type == long.class || type == short.class || type == float.class || type == double.class) {
+                Number n = wasNull ? Integer.valueOf(0) : number(value);
+                if (type == int.class) {
+                    return Integer.valueOf(n.intValue());
+                } else if (type == long.class) {
+                    return Long.valueOf(n.longValue());
+                } else if (type == short.class) {
+                    return Short.valueOf(n.shortValue());
+                } else if (type == float.class) {
+                    return Float.valueOf(n.floatValue());
+                }
+                return Double.valueOf(n.doubleValue());
+            } else if (type == boolean.class) {
+                return Boolean.valueOf(!wasNull && (value instanceof Boolean ? ((Boolean) value).booleanValue() : number(value).intValue() != 0));
+            } else if (type.isInstance(value) || wasNull) {
+                return value;
+            } else if (value instanceof java.util.Date) {
+                long time = ((java.util.Date) value).getTime();
+                if (type == java.sql.Date.class) {
+                    return new java.sql.Date(time);
+                } else if (type == Time.class) {
+                    return new Time(time);
+                } else if (type == java.sql.Timestamp.class) {
+                    return new java.sql.Timestamp(time);
+                }
+            }
+            throw new SQLException("Valore della colonna " + column + " non convertibile con " + name);
+        }
+
+        /**
+         * @param value valore
+         * @return <code>Number</code> - il valore come numero
+         * @throws SQLException se il valore non &egrave; un numero
+         */
+        private static Number number(Object value)
+                              throws SQLException {
+            if (value instanceof Number) {
+                return (Number) value;
+            }
+            try {
+                return Double.valueOf(value.toString().trim());
+            } catch (NumberFormatException nfe) {
+                throw new SQLException("Valore non numerico: " + value);
+            }
+        }
+
+        /**
+         * @param label nome della colonna
+         * @return <code>int</code> - posizione (da 1) della colonna
+         * @throws SQLException se la colonna non esiste
+         */
+        private int column(String label)
+                    throws SQLException {
+            for (int i = 0; i < scenario.columns.length; i++) {
+                if (scenario.columns[i].equalsIgnoreCase(label)) {
+                    return i + 1;
+                }
+            }
+            throw new SQLException("Colonna inesistente: " + label);
+        }
+    }
+
+
+    /**
+     * <p>Metadati delle colonne di uno scenario.</p>
+     */
+    private static final class Columns implements InvocationHandler {
+        /** Colonne e tipi */
+        private final Scenario scenario;
+
+        Columns(Scenario scenario) {
+            this.scenario = scenario;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+                      throws SQLException {
+            String name = method.getName();
+            if (method.getDeclaringClass() == Object.class) {
+                return object(proxy, name, args);
+            }
+            if (name.equals("getColumnCount")) {
+                return Integer.valueOf(scenario.columns.length);
+            } else if (name.equals("isWrapperFor")) {
+                return Boolean.FALSE;
+            }
+            if (args == null || args.length != 1 || !(args[0] instanceof Integer)) {
+                throw new SQLFeatureNotSupportedException(name);
+            }
+            int col = ((Integer) args[0]).intValue();
+            if (col < 1 || col > scenario.columns.length) {
+                throw new SQLException("Colonna inesistente: " + col);
+            }
+            int type = scenario.types[col - 1];
+            if (name.equals("getColumnName") || name.equals("getColumnLabel")) {
+                return scenario.columns[col - 1];
+            } else if (name.equals("getColumnType")) {
+                return Integer.valueOf(type);
+            } else if (name.equals("getColumnTypeName")) {
+                return (type == Types.INTEGER) ? "int4" : (type == Types.BIT) ? "bool" : (type == Types.DATE) ? "date" : (type == Types.TIME) ? "time" : "varchar";
+            } else if (name.equals("isNullable")) {
+                return Integer.valueOf(ResultSetMetaData.columnNullable);
+            } else if (name.equals("isReadOnly")) {
+                return Boolean.TRUE;
+            } else if (name.equals("getTableName") || name.equals("getSchemaName") || name.equals("getCatalogName")) {
+                return "";
+            }
+            throw new SQLFeatureNotSupportedException(name);
+        }
+    }
+
+
+    /**
+     * @param proxy il proxy
+     * @param name  metodo di Object invocato
+     * @param args  argomenti
+     * @return <code>Object</code> - il risultato del metodo di Object
+     */
+    private static Object object(Object proxy, String name, Object[] args) {
+        if (name.equals("equals")) {
+            return Boolean.valueOf(proxy == args[0]);
+        } else if (name.equals("hashCode")) {
+            return Integer.valueOf(System.identityHashCode(proxy));
+        }
+        return proxy.getClass().getName();
+    }
+
+}
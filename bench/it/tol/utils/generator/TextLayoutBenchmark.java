@@ -0,0 +1,186 @@
+/*
+ *   Trattamenti On Line (tol): Applicazione web per la gestione del 
+ *   registro delle attività di trattamento.
+ *
+ *   TOL:
+ *   web application to manage and publish information about
+ *   databases containing personal data, which are managed by subjects 
+ *   belonging to the university or involving 
+ *   the university as manager.
+ *   Copyright (C) 2023 Giovanroberto Torre
+ *   all right reserved
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA<br>
+ *
+ *   Giovanroberto Torre <gianroberto.torre@gmail.com>
+ *   Universita' degli Studi di Verona
+ *   Via Dell'Artigliere, 8
+ *   37129 Verona (Italy)
+ */
+
+package it.tol.utils.generator;
+
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.logging.Logger;
+
+
+/**
+ * <p><code>TextLayoutBenchmark</code> confronta i tempi di suddivisione
+ * in righe di {@link DocumentGenerator#wrapText(Graphics2D, String, int)}
+ * e di {@link TextLayoutEngine#wrap(Graphics2D, String, int)} su descrizioni
+ * di trattamenti lunghe, con i font e le larghezze usati nei documenti,
+ * e conta i paragrafi per cui i due metodi producono un numero di righe diverso.</p>
+ * <p>Non fa parte dell'applicazione e non viene distribuito con essa:
+ * si compila con le classi dell'applicazione nel classpath e si esegue
+ * da riga di comando, p.es.
+ * <code>java -Djava.awt.headless=true it.tol.utils.generator.TextLayoutBenchmark [paragrafi] [ripetizioni]</code>.</p>
+ *
+ * @author <a href="mailto:gianroberto.torre@gmail.com">Giovanroberto Torre</a>
+ */
+public class TextLayoutBenchmark {
+
+    /**
+     * <p>Logger della classe su cui vengono scritti i risultati.</p>
+     */
+    private static Logger LOG = Logger.getLogger(TextLayoutBenchmark.class.getName());
+    /** Parole da cui vengono composte le descrizioni di prova */
+    private static final String[] WORDS = {
+        "trattamento", "dati", "personali", "finalità", "istituzionali", "dell'Ateneo",
+        "gestione", "carriera", "studenti", "iscrizione", "esami", "conseguimento", "titolo",
+        "Regolamento", "UE", "2016/679", "art.", "6", "par.", "1", "lett.", "e)", "interessati",
+        "conservazione", "illimitata", "banche", "dati", "ESSE3", "responsabile", "comunicazione",
+        "Ministero", "dell'Università", "e", "della", "Ricerca", "ANS", "il", "la", "di", "per",
+        "https://www.univr.it/it/privacy-e-protezione-dati-personali/informative-privacy"
+    };
+    /** Larghezze delle aree di testo usate in DocWrapper */
+    private static final int[] WIDTHS = { 450, 540, 600, 700, 710 };
+
+
+    /**
+     * Esegue il confronto.
+     *
+     * @param args numero di paragrafi (default 500) e di ripetizioni (default 20)
+     */
+    public static void main(String[] args) {
+        int paragraphs = (args.length > 0) ? Integer.parseInt(args[0]) : 500;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+        String[] texts = makeTexts(paragraphs);
+        BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        Font[] fonts = { new Font("Arial", Font.PLAIN, 11), new Font("Helvetica", Font.BOLD, 14) };
+        // Riscaldamento (compilazione JIT e tabelle di avanzamento)
+        run(g, fonts, texts, 3, true);
+        run(g, fonts, texts, 3, false);
+        long legacy = run(g, fonts, texts, rounds, true);
+        long engine = run(g, fonts, texts, rounds, false);
+        long calls = (long) rounds * fonts.length * WIDTHS.length * texts.length;
+        LOG.info("paragrafi: " + texts.length + ", chiamate per metodo: " + calls +
+                 "; wrapText: " + (legacy / calls) + " ns/chiamata" +
+                 ", TextLayoutEngine: " + (engine / calls) + " ns/chiamata" +
+                 ", rapporto: " + String.format("%.2f", (double) legacy / engine) +
+                 "; righe diverse: " + compare(g, fonts, texts) + " paragrafi su " + (fonts.length * WIDTHS.length * texts.length));
+        g.dispose();
+    }
+
+
+    /**
+     * Suddivide tutti i paragrafi con uno dei due metodi e ne misura il tempo.
+     *
+     * @param g         l'oggetto Graphics2D di cui usare il contesto di rendering
+     * @param fonts     font da provare
+     * @param texts     paragrafi
+     * @param rounds    ripetizioni
+     * @param legacy    true per misurare wrapText, false per TextLayoutEngine
+     * @return <code>long</code> - tempo complessivo in nanosecondi
+     */
+    private static long run(Graphics2D g, Font[] fonts, String[] texts, int rounds, boolean legacy) {
+        long lines = 0L;
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (Font font : fonts) {
+                g.setFont(font);
+                for (int width : WIDTHS) {
+                    for (String text : texts) {
+                        lines += legacy ? DocumentGenerator.wrapText(g, text, width).length
+                                        : TextLayoutEngine.wrap(g, text, width).size();
+                    }
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        // Usa il risultato, cosi' che il lavoro non venga eliminato
+        if (lines == 0L) {
+            LOG.fine("Nessuna riga prodotta");
+        }
+        return elapsed;
+    }
+
+
+    /**
+     * Conta i paragrafi per cui i due metodi producono un numero di righe diverso
+     * (le misure di wrapText sono troncate a interi parola per parola,
+     * quelle del motore sono frazionarie).
+     *
+     * @param g     l'oggetto Graphics2D di cui usare il contesto di rendering
+     * @param fonts font da provare
+     * @param texts paragrafi
+     * @return <code>int</code> - numero di paragrafi con un numero di righe diverso
+     */
+    private static int compare(Graphics2D g, Font[] fonts, String[] texts) {
+        int different = 0;
+        for (Font font : fonts) {
+            g.setFont(font);
+            for (int width : WIDTHS) {
+                for (String text : texts) {
+                    if (DocumentGenerator.wrapText(g, text, width).length != TextLayoutEngine.wrap(g, text, width).size()) {
+                        different++;
+                    }
+                }
+            }
+        }
+        return different;
+    }
+
+
+    /**
+     * Compone paragrafi pseudocasuali (ma riproducibili) di lunghezza
+     * paragonabile alle descrizioni e alle finalit&agrave; dei trattamenti.
+     *
+     * @param count numero di paragrafi
+     * @return <code>String[]</code> - i paragrafi
+     */
+    private static String[] makeTexts(int count) {
+        Random random = new Random(20240630L);
+        String[] texts = new String[count];
+        for (int i = 0; i < count; i++) {
+            int words = 40 + random.nextInt(360);
+            StringBuilder text = new StringBuilder(words * 9);
+            for (int w = 0; w < words; w++) {
+                if (w > 0) {
+                    text.append(' ');
+                }
+                text.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            texts[i] = text.toString();
+        }
+        return texts;
+    }
+
+}
@@ -0,0 +1,32 @@
+--
+--   Trattamenti On Line (tol): Applicazione web per la gestione del
+--   registro delle attività di trattamento.
+--
+--   Sequenza degli identificativi della tabella degli accessi (access_log).
+--
+--   Da eseguire una sola volta sul database, prima di rilasciare la versione
+--   dell'applicazione che inserisce gli accessi con nextval('access_log_id_seq')
+--   (v. Query.INSERT_ACCESSLOG_BY_USER).
+--   La sequenza viene portata oltre l'identificativo massimo presente;
+--   la tabella resta bloccata in scrittura fino al termine della transazione,
+--   cosi' che nessun inserimento concorrente possa superarla.
+--   Lo script puo' essere rieseguito senza effetti collaterali.
+--
+
+BEGIN;
+
+LOCK TABLE access_log IN EXCLUSIVE MODE;
+
+CREATE SEQUENCE IF NOT EXISTS access_log_id_seq OWNED BY access_log.id;
+
+SELECT setval('access_log_id_seq'
+          ,   GREATEST((SELECT COALESCE(MAX(id), 0) + 1 FROM access_log)
+                  ,   (SELECT CASE WHEN is_called THEN last_value + 1 ELSE last_value END FROM access_log_id_seq))
+          ,   false);
+
+ALTER TABLE access_log ALTER COLUMN id SET DEFAULT nextval('access_log_id_seq');
+
+-- Sequenza hi/lo creata a runtime dalle versioni precedenti, non piu' usata
+DROP SEQUENCE IF EXISTS access_log_hilo_seq;
+
+COMMIT;
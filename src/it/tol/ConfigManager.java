@@ -34,8 +34,19 @@ package it.tol;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 
 import javax.servlet.ServletConfig;
@@ -48,6 +59,7 @@ import it.tol.bean.ItemBean;
 import it.tol.command.Command;
 import it.tol.exception.WebStorageException;
 import it.tol.interfaces.Constants;
+import it.tol.interfaces.RegistryListener;
 import it.tol.wrapper.DBWrapper;
 
 
@@ -125,21 +137,26 @@ public class ConfigManager extends HttpServlet {
      */
     /* default */ static DBWrapper db = null;
     /**
-     * Struttura vettoriale contenente le command predefinite sotto forma di voci di menu
+     * <p>Registro corrente delle command e delle rilevazioni.</p>
+     * <p>Il registro &egrave; immutabile: ogni ricaricamento ne costruisce
+     * uno nuovo e lo pubblica sostituendo il riferimento in un'unica
+     * operazione atomica, per cui i thread delle richieste non devono
+     * sincronizzarsi e non possono mai vedere strutture costruite a met&agrave;.</p>
      */
-    private static Vector<ItemBean> classiCommand;
+    private static final AtomicReference<Registry> registry = new AtomicReference<>();
     /**
-     * Tabella hash (dictionary) contenente le command predefinite.
+     * <p>Numero di registri caricati dall'avvio (generazione del registro).</p>
      */
-    private static ConcurrentHashMap<String, Command> commands;
+    private static final AtomicLong registryGenerations = new AtomicLong();
     /**
-     * Struttura vettoriale contenente le rilevazioni trovate quando il server sale.
+     * Esecutore del ricaricamento periodico del registro.
      */
-    private static ArrayList<CodeBean> surveyList;
+    private static ScheduledExecutorService refresher;
     /**
-     * Tabella hash (dictionary) contenente le rilevazioni trovate quando il server sale.
+     * <p>Componenti che dipendono dal registro o che hanno risorse da
+     * rilasciare alla chiusura (v. {@link RegistryListener}).</p>
      */
-    private static ConcurrentHashMap<String, CodeBean> surveys;
+    private static final CopyOnWriteArrayList<RegistryListener> listeners = new CopyOnWriteArrayList<>();
     /**
      * Tabella hash (dictionary) contenente etichette predefinite 
      * in funzione del valore del parametro 'p'; queste possono essere utilizzate
@@ -200,18 +217,97 @@ public class ConfigManager extends HttpServlet {
      * generati dall'applicazione e utilizzati tipicamente da librerie lato client.</p>
      */
     private static String dirJson = "json";
+    /**
+     * <p>Percorso della (sotto)directory dei file json,
+     * calcolato una volta per tutte in inizializzazione.</p>
+     */
+    private static String pathJson;
     /**
      * <p>Stringa per il puntamento al percorso di produzione</p>
      */
-    private static String realPath = new String("/var/lib/tomcat9/webapps/privacy/");
+    private static String realPath = "/var/lib/tomcat9/webapps/privacy/";
     /**
      * <p>Stringa per il puntamento al db di produzione</p>
      */
-    private static StringBuffer contextDbName = new StringBuffer("java:comp/env/jdbc/tol");
+    private static String contextDbName = "java:comp/env/jdbc/tol";
     /**
      * <p>Stringa per il puntamento a elemento grafico logo in produzione</p>
      */
-    private static StringBuffer dirImages = new StringBuffer(realPath).append("web/img/");
+    private static String dirImages = realPath + "web/img/";
+    /**
+     * <p>Occupazione massima, in byte, della cache dei trattamenti assemblati
+     * (default: 16 MB, modificabile tramite il parametro di contesto
+     * 'processingCacheSize', espresso in kilobyte).</p>
+     */
+    private static long processingCacheSize = 16L * 1024 * 1024;
+    /**
+     * <p>Percorso fisico della directory destinata a contenere le istantanee
+     * dei registri delle rilevazioni chiuse (sottodirectory 'snapshot'
+     * della directory dei documenti).</p>
+     */
+    private static String dirSnapshot = null;
+    /**
+     * <p>Percorso fisico della directory destinata a contenere i frammenti PDF
+     * gi&agrave; generati, uno per trattamento (sottodirectory 'pdfcache'
+     * della directory dei documenti).</p>
+     */
+    private static String dirPdfCache = null;
+    /**
+     * <p>Occupazione massima, in byte, della cache su disco dei frammenti PDF
+     * (default: 256 MB, modificabile tramite il parametro di contesto
+     * 'pdfCacheSize', espresso in kilobyte).</p>
+     */
+    private static long pdfCacheSize = 256L * 1024 * 1024;
+    /**
+     * <p>Numero di thread dedicati alla generazione in background
+     * del registro completo in formato PDF (parametro di contesto
+     * facoltativo 'pdfExportWorkers', default 2).</p>
+     */
+    private static int pdfExportWorkers = 2;
+    /**
+     * <p>Numero di thread dedicati alle estrazioni servite in modalit&agrave;
+     * asincrona dalla servlet Data (parametro di contesto
+     * facoltativo 'dataWorkers', default 4).</p>
+     */
+    private static int dataWorkers = 4;
+    /**
+     * <p>Tempo massimo, in secondi, concesso a un'estrazione della servlet Data
+     * (parametro di contesto facoltativo 'dataTimeout', default 600).</p>
+     */
+    private static int dataTimeout = 600;
+    /**
+     * <p>Flag che attiva il recupero parallelo, su connessioni distinte,
+     * delle collezioni collegate a un trattamento
+     * (parametro di contesto facoltativo 'parallelFetch', default false).</p>
+     */
+    private static boolean parallelFetch = false;
+    /**
+     * <p>Numero massimo di connessioni che il recupero parallelo pu&ograve;
+     * impegnare contemporaneamente; deve restare ben al di sotto della
+     * dimensione del pool configurato per il DataSource
+     * (parametro di contesto facoltativo 'parallelFetchConnections', default 10).</p>
+     */
+    private static int parallelFetchConnections = 10;
+    /**
+     * <p>Numero di righe che il driver trasferisce per ogni blocco
+     * durante l'esportazione tabellare del registro
+     * (parametro di contesto facoltativo 'csvFetchSize', default 200).</p>
+     */
+    private static int csvFetchSize = 200;
+    /**
+     * <p>Numero massimo di trattamenti i cui frammenti PDF vengono generati
+     * contemporaneamente nella stampa del registro (parametro di contesto
+     * facoltativo 'pdfParallelism', default: numero dei processori;
+     * il valore 1 impone la generazione sequenziale).</p>
+     */
+    private static int pdfParallelism = Runtime.getRuntime().availableProcessors();
+    /**
+     * <p>Flag che attiva la verifica del registro generato in parallelo:
+     * ogni registro viene generato una seconda volta in sequenza, senza cache,
+     * e confrontato byte per byte con il primo
+     * (parametro di contesto facoltativo 'pdfVerifyParallel', default false).</p>
+     */
+    private static boolean pdfVerifyParallel = false;
 
 
     /**
@@ -283,6 +379,101 @@ public class ConfigManager extends HttpServlet {
          * Nome della directory destinata a contenere documenti (da scaricare, uploadati, generati)
          */
         dirDocuments = getServletContext().getInitParameter("urlDirectoryDocumenti");
+        pathJson = dirDocuments + File.separator + dirJson;
+        /*
+         * Percorso fisico delle istantanee dei registri (solo se e' configurata la directory dei documenti)
+         */
+        if (dirDocuments != null && getServletContext().getRealPath("/") != null) {
+            dirSnapshot = getServletContext().getRealPath("/") + dirDocuments + File.separator + "snapshot";
+            dirPdfCache = getServletContext().getRealPath("/") + dirDocuments + File.separator + "pdfcache";
+        }
+        /*
+         * Recupero parallelo delle collezioni dei trattamenti (parametri facoltativi)
+         */
+        parallelFetch = Boolean.parseBoolean(getServletContext().getInitParameter("parallelFetch"));
+        String fetchConnections = getServletContext().getInitParameter("parallelFetchConnections");
+        if (fetchConnections != null) {
+            try {
+                parallelFetchConnections = Integer.parseInt(fetchConnections.trim());
+            } catch (NumberFormatException nfe) {
+                throw new ServletException(FOR_NAME + "\n\nIl parametro di contesto 'parallelFetchConnections' deve essere un numero intero!\n\n", nfe);
+            }
+        }
+        /*
+         * Dimensione dei blocchi di righe nell'esportazione tabellare (parametro facoltativo)
+         */
+        String fetchSize = getServletContext().getInitParameter("csvFetchSize");
+        if (fetchSize != null) {
+            try {
+                csvFetchSize = Integer.parseInt(fetchSize.trim());
+            } catch (NumberFormatException nfe) {
+                throw new ServletException(FOR_NAME + "\n\nIl parametro di contesto 'csvFetchSize' deve essere un numero intero!\n\n", nfe);
+            }
+        }
+        /*
+         * Parallelismo massimo nella generazione dei PDF (parametro facoltativo)
+         */
+        String parallelism = getServletContext().getInitParameter("pdfParallelism");
+        if (parallelism != null) {
+            try {
+                pdfParallelism = Math.max(1, Integer.parseInt(parallelism.trim()));
+            } catch (NumberFormatException nfe) {
+                throw new ServletException(FOR_NAME + "\n\nIl parametro di contesto 'pdfParallelism' deve essere un numero intero!\n\n", nfe);
+            }
+        }
+        pdfVerifyParallel = Boolean.parseBoolean(getServletContext().getInitParameter("pdfVerifyParallel"));
+        /*
+         * Occupazione massima della cache dei trattamenti (parametro facoltativo)
+         */
+        String cacheSize = getServletContext().getInitParameter("processingCacheSize");
+        if (cacheSize != null) {
+            try {
+                processingCacheSize = Long.parseLong(cacheSize.trim()) * 1024;
+            } catch (NumberFormatException nfe) {
+                throw new ServletException(FOR_NAME + "\n\nIl parametro di contesto 'processingCacheSize' deve essere un numero intero di kilobyte!\n\n", nfe);
+            }
+        }
+        /*
+         * Occupazione massima della cache dei frammenti PDF (parametro facoltativo)
+         */
+        String pdfCache = getServletContext().getInitParameter("pdfCacheSize");
+        if (pdfCache != null) {
+            try {
+                pdfCacheSize = Long.parseLong(pdfCache.trim()) * 1024;
+            } catch (NumberFormatException nfe) {
+                throw new ServletException(FOR_NAME + "\n\nIl parametro di contesto 'pdfCacheSize' deve essere un numero intero di kilobyte!\n\n", nfe);
+            }
+        }
+        /*
+         * Thread di generazione in background dei registri PDF (parametro facoltativo)
+         */
+        String exportWorkers = getServletContext().getInitParameter("pdfExportWorkers");
+        if (exportWorkers != null) {
+            try {
+                pdfExportWorkers = Math.max(1, Integer.parseInt(exportWorkers.trim()));
+            } catch (NumberFormatException nfe) {
+                throw new ServletException(FOR_NAME + "\n\nIl parametro di contesto 'pdfExportWorkers' deve essere un numero intero!\n\n", nfe);
+            }
+        }
+        /*
+         * Thread e tempo massimo delle estrazioni asincrone (parametri facoltativi)
+         */
+        String workers = getServletContext().getInitParameter("dataWorkers");
+        if (workers != null) {
+            try {
+                dataWorkers = Math.max(1, Integer.parseInt(workers.trim()));
+            } catch (NumberFormatException nfe) {
+                throw new ServletException(FOR_NAME + "\n\nIl parametro di contesto 'dataWorkers' deve essere un numero intero!\n\n", nfe);
+            }
+        }
+        String timeout = getServletContext().getInitParameter("dataTimeout");
+        if (timeout != null) {
+            try {
+                dataTimeout = Math.max(1, Integer.parseInt(timeout.trim()));
+            } catch (NumberFormatException nfe) {
+                throw new ServletException(FOR_NAME + "\n\nIl parametro di contesto 'dataTimeout' deve essere un numero intero!\n\n", nfe);
+            }
+        }
         /*
          * Attiva la connessione al database
          */
@@ -290,7 +481,7 @@ public class ConfigManager extends HttpServlet {
         // Prima deve capire su quale database deve insistere
         // Di default va in produzione, ma se non siamo in produzione deve andare in locale
         if ( !getServletContext().getRealPath("/").equals(realPath) ) {
-            contextDbName = new StringBuffer("java:comp/env/jdbc/toldev");
+            contextDbName = "java:comp/env/jdbc/toldev";
         }
         try {
             db = new DBWrapper();
@@ -298,13 +489,158 @@ public class ConfigManager extends HttpServlet {
         catch (WebStorageException wse) {
             throw new ServletException(FOR_NAME + "Non e\' possibile avere una connessione al database " + contextDbName + ".\n" + wse.getMessage(), wse);
         }
+        /*
+         * Carica il registro delle command e delle rilevazioni
+         * e ne pianifica il ricaricamento periodico
+         */
+        registry.set(loadRegistry());
+        notifyListeners(registry.get());
+        refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "tol-registry-refresh");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        }, Main.SCHEDULED_TIME, Main.SCHEDULED_TIME, TimeUnit.MILLISECONDS);
+        /*
+         * Ottiene il percorso del logo (di default va in produzione, ma se non siamo in produzione deve andare in locale)
+         */
+        if ( !getServletContext().getRealPath("/").equals(realPath) ) {
+            // Ambiente di sviluppo Windows
+            dirImages = "C:\\Programs\\apache-tomcat-8.5.31\\webapps\\privacy\\web\\img\\";
+            if (getServletContext().getRealPath("/").startsWith("/home/")) {
+                // Ambiente di sviluppo Linux
+                dirImages = "/home/outer-root/git/privacy/web/img/";
+            }
+
+        }
+    }
+
+
+    /**
+     * <p>Rilascia le risorse globali allocate dall'applicazione
+     * (p.es. i thread usati per il recupero parallelo dei dati),
+     * chiedendo a ciascun componente registrato di rilasciare le proprie
+     * (v. {@link RegistryListener#shutdown()}).</p>
+     */
+    @Override
+    public void destroy() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+        for (RegistryListener listener : listeners) {
+            try {
+                listener.shutdown();
+            } catch (RuntimeException re) {
+                log.severe(FOR_NAME + "Problema nel rilascio delle risorse di un componente.\n" + re.getMessage());
+            }
+        }
+        listeners.clear();
+        super.destroy();
+    }
+
+
+    /**
+     * <p>Registra un componente che dipende dal registro delle rilevazioni
+     * o che ha risorse da rilasciare alla chiusura dell'applicazione.<br>
+     * Se il registro &egrave; gi&agrave; stato caricato, il componente
+     * lo riceve subito; in seguito lo riceve a ogni ricaricamento.
+     * Registrare pi&ugrave; volte lo stesso componente non ha effetto.</p>
+     *
+     * @param listener il componente da registrare
+     */
+    public static void addRegistryListener(RegistryListener listener) {
+        if (listeners.addIfAbsent(listener)) {
+            Registry reg = registry.get();
+            if (reg != null) {
+                notifyListener(listener, reg);
+            }
+        }
+    }
+
+
+    /**
+     * <p>Ricarica dal database le command e le rilevazioni e pubblica
+     * il nuovo registro al posto di quello corrente.</p>
+     * <p>Viene invocato periodicamente (ogni {@link Main#SCHEDULED_TIME}
+     * millisecondi) e pu&ograve; essere invocato su richiesta,
+     * p.es. subito dopo la chiusura di una rilevazione, per renderla
+     * visibile senza riavviare l'applicazione.<br>
+     * Dopo la sostituzione del registro il nuovo registro viene passato
+     * ai componenti che ne dipendono (v. {@link RegistryListener}).<br>
+     * Se il caricamento non va a buon fine il registro corrente
+     * resta in uso e il problema viene soltanto registrato nel log.</p>
+     *
+     * @return <code>boolean</code> - true se il registro &egrave; stato sostituito, false altrimenti
+     */
+    public static boolean refresh() {
+        try {
+            Registry fresh = loadRegistry();
+            Registry old = registry.getAndSet(fresh);
+            log.info("Registro ricaricato: " + fresh.commands.size() + " command, " + fresh.surveyList.size() + " rilevazioni (in precedenza " + (old == null ? 0 : old.surveyList.size()) + ").");
+            notifyListeners(fresh);
+            return true;
+        } catch (ServletException se) {
+            log.severe(FOR_NAME + "Impossibile ricaricare il registro; resta in uso quello corrente.\n" + se.getMessage());
+        } catch (RuntimeException re) {
+            log.severe(FOR_NAME + "Problema inatteso nel ricaricare il registro; resta in uso quello corrente.\n" + re.getMessage());
+        }
+        return false;
+    }
+
+
+    /**
+     * <p>Passa il registro appena caricato a tutti i componenti registrati.</p>
+     *
+     * @param reg il registro appena caricato
+     */
+    private static void notifyListeners(Registry reg) {
+        for (RegistryListener listener : listeners) {
+            notifyListener(listener, reg);
+        }
+    }
+
+
+    /**
+     * <p>Passa il registro appena caricato a un componente;
+     * un problema nel componente viene soltanto registrato nel log.</p>
+     *
+     * @param listener  il componente
+     * @param reg       il registro appena caricato
+     */
+    private static void notifyListener(RegistryListener listener,
+                                       Registry reg) {
+        try {
+            listener.registryLoaded(reg.surveyList, db);
+        } catch (RuntimeException re) {
+            log.severe(FOR_NAME + "Problema inatteso nell\'aggiornare un componente dopo il caricamento del registro.\n" + re.getMessage());
+        }
+    }
+
+
+    /**
+     * <p>Costruisce un nuovo registro leggendo dal database le command
+     * e le rilevazioni e istanziando le classi Command corrispondenti.</p>
+     *
+     * @return <code>Registry</code> - il registro, completo e immutabile
+     * @throws ServletException se si verifica un problema nel caricamento delle command o delle rilevazioni
+     */
+    private static Registry loadRegistry()
+                                  throws ServletException {
         /*
          * Inizializza la tabella <code>commands</code> che deve contenere
          * tutte le classi che saranno richiamabili da questa
          * servlet. Tali classi dovrebbero essere dichiarate in un file
          * di configurazione (p.es. web.xml) o nel database.
          */
-        classiCommand = new Vector<>();
+        Vector<ItemBean> classiCommand = null;
         try {
             classiCommand = db.lookupCommand();
         }
@@ -313,7 +649,7 @@ public class ConfigManager extends HttpServlet {
         }
         ItemBean voceMenu = null;
         Command classCommand = null;
-        commands = new ConcurrentHashMap<>();
+        HashMap<String, Command> commands = new HashMap<>();
         for (int i = 0; i < classiCommand.size(); i++) {
             voceMenu = classiCommand.get(i);
             try {
@@ -341,7 +677,7 @@ public class ConfigManager extends HttpServlet {
          * Carica una struttura dati, che esporra' staticamente, contenente
          * tutte le rilevazioni.
          */
-        surveyList = null;
+        ArrayList<CodeBean> surveyList = null;
         try {
             surveyList = db.getSurveys(Constants.GET_ALL_BY_CLAUSE, Constants.GET_ALL_BY_CLAUSE);
         }
@@ -351,9 +687,8 @@ public class ConfigManager extends HttpServlet {
         catch (Exception e) {
             throw new ServletException(FOR_NAME + "Problemi nel caricare le rilevazioni.\n" + e.getMessage(), e);
         }
+        HashMap<String, CodeBean> surveys = new HashMap<>();
         try {
-            // La istanzia quando gli serve...
-            surveys = new ConcurrentHashMap<>();
             // for each
             for (CodeBean rilevazione : surveyList) {
                 // Chiave del dizionario delle rilevazioni
@@ -368,18 +703,7 @@ public class ConfigManager extends HttpServlet {
         catch (Exception e) {
             throw new ServletException(FOR_NAME + "Problemi nel caricare la struttura contenente le rilevazioni.\n" + e.getMessage(), e);
         }
-        /*
-         * Ottiene il percorso del logo (di default va in produzione, ma se non siamo in produzione deve andare in locale)
-         */
-        if ( !getServletContext().getRealPath("/").equals(realPath) ) {
-            // Ambiente di sviluppo Windows
-            dirImages = new StringBuffer("C:\\Programs\\apache-tomcat-8.5.31\\webapps\\privacy\\web\\img\\");
-            if (getServletContext().getRealPath("/").startsWith("/home/")) {
-                // Ambiente di sviluppo Linux
-                dirImages = new StringBuffer("/home/outer-root/git/privacy/web/img/");
-            }
-
-        }
+        return new Registry(classiCommand, commands, surveyList, surveys);
     }
 
 
@@ -434,7 +758,7 @@ public class ConfigManager extends HttpServlet {
      * @return <code>String</code> - il nome usato dal DbWrapper per realizzare il puntamento jdbc
      */
     public static String getDbName() {
-        return new String(contextDbName);
+        return contextDbName;
     }
 
 
@@ -445,7 +769,7 @@ public class ConfigManager extends HttpServlet {
      * @return <code>String</code> - il nome usato per l'applicazione stessa
      */
     public static String getAppName() {
-        return new String(appName);
+        return appName;
     }
 
 
@@ -456,7 +780,7 @@ public class ConfigManager extends HttpServlet {
      * @return <code>String</code> - il nome usato nell'applicazione per identificare il token delle command
      */
     public static String getEntToken() {
-        return new String(entToken);
+        return entToken;
     }
 
 
@@ -468,7 +792,7 @@ public class ConfigManager extends HttpServlet {
      * @return <code>String</code> - il nome usato nell'applicazione per identificare il token dell'output
      */
     public static String getOutToken() {
-        return new String(outToken);
+        return outToken;
     }
 
 
@@ -479,7 +803,7 @@ public class ConfigManager extends HttpServlet {
      * @return <code>String</code> - il nome usato nell'applicazione per identificare il nome della pagina di errore
      */
     public static String getErrorJsp() {
-        return new String(errorJsp);
+        return errorJsp;
     }
 
 
@@ -490,7 +814,7 @@ public class ConfigManager extends HttpServlet {
      * @return <code>String</code> - il nome usato nell'applicazione per identificare il nome della home
      */
     public static String getHomePage() {
-        return new String(homePage);
+        return homePage;
     }
 
 
@@ -501,7 +825,7 @@ public class ConfigManager extends HttpServlet {
      * @return <code>String</code> - il nome usato nell'applicazione per identificare il nome del template
      */
     public static String getTemplate() {
-        return new String(templateJsp);
+        return templateJsp;
     }
 
 
@@ -512,7 +836,7 @@ public class ConfigManager extends HttpServlet {
      * @return <code>String</code> - il nome usato nell'applicazione per identificare il nome della directory root dove vengono salvati e inseriti i files
      */
     public static String getDirDocuments() {
-        return new String(dirDocuments);
+        return dirDocuments;
     }
 
 
@@ -524,7 +848,32 @@ public class ConfigManager extends HttpServlet {
      * @return <code>String</code> - il nome usato nell'applicazione per identificare il nome della directory dove vengono salvati i files json dall'applicazione stessa generati
      */
     public static String getDirJson() {
-        return new String(dirDocuments + File.separator + dirJson);
+        return pathJson;
+    }
+
+
+    /**
+     * <p>Restituisce il percorso fisico della directory dove
+     * vengono scritte le istantanee dei registri delle rilevazioni chiuse.</p>
+     * <p>Metodo getter sulla variabile privata di classe.</p>
+     *
+     * @return <code>String</code> - il percorso della directory delle istantanee, oppure null se la directory dei documenti non &egrave; configurata
+     */
+    public static String getDirSnapshot() {
+        return dirSnapshot;
+    }
+
+
+
+    /**
+     * <p>Restituisce il percorso fisico della directory dove
+     * vengono conservati i frammenti PDF gi&agrave; generati.</p>
+     * <p>Metodo getter sulla variabile privata di classe.</p>
+     *
+     * @return <code>String</code> - il percorso della cache dei frammenti, oppure null se la directory dei documenti non &egrave; configurata
+     */
+    public static String getDirPdfCache() {
+        return dirPdfCache;
     }
 
 
@@ -533,10 +882,10 @@ public class ConfigManager extends HttpServlet {
      *  le command predefinite incapsulate dentro oggetti di tipo voce di menu.</p>
      * <p>Metodo getter sulla variabile privata di classe.</p>
      *
-     * @return <code>Vector&lt;ItemBean&gt;</code> - le command indicizzate per proprio token
+     * @return <code>List&lt;ItemBean&gt;</code> - le command indicizzate per proprio token (non modificabile)
      */
-    public static Vector<ItemBean> getClassiCommand() {
-        return classiCommand;
+    public static List<ItemBean> getClassiCommand() {
+        return registry.get().classiCommand;
     }
 
 
@@ -545,10 +894,23 @@ public class ConfigManager extends HttpServlet {
      * contenente le command predefinite gi&agrave; istanziate.</p>
      * <p>Metodo getter sulla variabile privata di classe.</p>
      *
-     * @return <code>ConcurrentHashMap&lt;String, Command&gt;</code> - le command indicizzate per proprio token
+     * @return <code>Map&lt;String, Command&gt;</code> - le command indicizzate per proprio token (non modificabile)
      */
-    public static ConcurrentHashMap<String, Command> getCommands() {
-        return commands;
+    public static Map<String, Command> getCommands() {
+        return registry.get().commands;
+    }
+
+
+    /**
+     * <p>Restituisce la generazione del registro in uso, che cresce
+     * a ogni caricamento (all'avvio e a ogni {@link #refresh()} riuscito):
+     * tutto ci&ograve; che dipende dal registro (menu, rilevazioni, command)
+     * pu&ograve; essere cambiato solo se cambia la generazione.</p>
+     *
+     * @return <code>long</code> - la generazione del registro in uso
+     */
+    public static long getRegistryGeneration() {
+        return registry.get().generation;
     }
 
 
@@ -557,10 +919,10 @@ public class ConfigManager extends HttpServlet {
      * contenente tutte le rilevazioni indicizzate per codice.</p>
      * <p>Metodo getter sulla variabile privata di classe.</p>
      *
-     * @return <code>ConcurrentHashMap&lt;String, CodeBean&gt;</code> - le rilevazioni incapsulate in CodeBean e indicizzate per proprio codice
+     * @return <code>Map&lt;String, CodeBean&gt;</code> - le rilevazioni incapsulate in CodeBean e indicizzate per proprio codice (non modificabile)
      */
-    public static ConcurrentHashMap<String, CodeBean> getSurveys() {
-        return surveys;
+    public static Map<String, CodeBean> getSurveys() {
+        return registry.get().surveys;
     }
 
 
@@ -574,7 +936,7 @@ public class ConfigManager extends HttpServlet {
      * @return <code>CodeBean</code> - la rilevazione cercata
      */
     public static CodeBean getSurvey(String key) {
-        return surveys.get(key.toUpperCase());
+        return registry.get().surveys.get(key.toUpperCase());
     }
 
 
@@ -583,10 +945,10 @@ public class ConfigManager extends HttpServlet {
      * inserimento, contenente tutte le rilevazioni indicizzate per codice.</p>
      * <p>Metodo getter sulla variabile privata di classe.</p>
      *
-     * @return <code>ArrayList&lt;CodeBean&gt;</code> - le rilevazioni incapsulate in CodeBean
+     * @return <code>List&lt;CodeBean&gt;</code> - le rilevazioni incapsulate in CodeBean (non modificabile)
      */
-    public static ArrayList<CodeBean> getSurveyList() {
-        return surveyList;
+    public static List<CodeBean> getSurveyList() {
+        return registry.get().surveyList;
     }
 
     
@@ -611,7 +973,168 @@ public class ConfigManager extends HttpServlet {
      * @return <code>String</code> - il percorso fisico delle immagini dell'applicazione
      */
     public static String getDirImages() {
-        return new String(dirImages);
+        return dirImages;
+    }
+    
+    
+    /**
+     * <p>Restituisce l'occupazione massima, in byte, consentita
+     * alla cache dei trattamenti assemblati.</p>
+     * <p>Metodo getter sulla variabile privata di classe.</p>
+     *
+     * @return <code>long</code> - limite di occupazione della cache dei trattamenti
+     */
+    public static long getProcessingCacheSize() {
+        return processingCacheSize;
+    }
+
+    
+    /**
+     * <p>Restituisce <code>true</code> se &egrave; attivo il recupero parallelo
+     * delle collezioni collegate a un trattamento.</p>
+     * <p>Metodo getter sulla variabile privata di classe.</p>
+     *
+     * @return <code>boolean</code> - true se il recupero parallelo &egrave; attivo
+     */
+    public static boolean isParallelFetch() {
+        return parallelFetch;
+    }
+
+
+    /**
+     * <p>Restituisce il numero massimo di connessioni impegnabili
+     * contemporaneamente dal recupero parallelo.</p>
+     * <p>Metodo getter sulla variabile privata di classe.</p>
+     *
+     * @return <code>int</code> - numero massimo di connessioni per il recupero parallelo
+     */
+    public static int getParallelFetchConnections() {
+        return parallelFetchConnections;
+    }
+
+
+    /**
+     * <p>Restituisce il numero di righe che il driver trasferisce
+     * per ogni blocco durante l'esportazione tabellare del registro.</p>
+     * <p>Metodo getter sulla variabile privata di classe.</p>
+     *
+     * @return <code>int</code> - dimensione di fetch dell'esportazione tabellare
+     */
+    public static int getCsvFetchSize() {
+        return csvFetchSize;
+    }
+
+
+    /**
+     * <p>Restituisce il numero massimo di frammenti PDF generabili
+     * contemporaneamente nella stampa del registro.</p>
+     * <p>Metodo getter sulla variabile privata di classe.</p>
+     *
+     * @return <code>int</code> - parallelismo massimo della generazione dei PDF
+     */
+    public static int getPdfParallelism() {
+        return pdfParallelism;
+    }
+
+
+    /**
+     * <p>Restituisce <code>true</code> se il registro generato in parallelo
+     * va verificato confrontandolo con quello generato in sequenza.</p>
+     * <p>Metodo getter sulla variabile privata di classe.</p>
+     *
+     * @return <code>boolean</code> - true se la verifica &egrave; attiva
+     */
+    public static boolean isPdfVerifyParallel() {
+        return pdfVerifyParallel;
+    }
+
+
+
+    /**
+     * <p>Restituisce l'occupazione massima, in byte,
+     * della cache su disco dei frammenti PDF.</p>
+     * <p>Metodo getter sulla variabile privata di classe.</p>
+     *
+     * @return <code>long</code> - occupazione massima della cache dei frammenti
+     */
+    public static long getPdfCacheSize() {
+        return pdfCacheSize;
+    }
+
+
+
+    /**
+     * <p>Restituisce il numero di thread dedicati alla generazione
+     * in background del registro completo in formato PDF.</p>
+     * <p>Metodo getter sulla variabile privata di classe.</p>
+     *
+     * @return <code>int</code> - numero di thread di generazione in background
+     */
+    public static int getPdfExportWorkers() {
+        return pdfExportWorkers;
+    }
+
+
+    /**
+     * <p>Restituisce il numero di thread dedicati alle estrazioni
+     * servite in modalit&agrave; asincrona dalla servlet Data.</p>
+     * <p>Metodo getter sulla variabile privata di classe.</p>
+     *
+     * @return <code>int</code> - numero di thread delle estrazioni asincrone
+     */
+    public static int getDataWorkers() {
+        return dataWorkers;
+    }
+
+
+    /**
+     * <p>Restituisce il tempo massimo, in secondi, concesso
+     * a un'estrazione della servlet Data.</p>
+     * <p>Metodo getter sulla variabile privata di classe.</p>
+     *
+     * @return <code>int</code> - tempo massimo di un'estrazione, in secondi
+     */
+    public static int getDataTimeout() {
+        return dataTimeout;
     }
     
+
+
+    /**
+     * <p>Istantanea immutabile delle command e delle rilevazioni,
+     * pubblicata atomicamente tramite {@link ConfigManager#registry}.</p>
+     */
+    private static final class Registry {
+        /** Command predefinite sotto forma di voci di menu */
+        final List<ItemBean> classiCommand;
+        /** Command predefinite, indicizzate per token */
+        final Map<String, Command> commands;
+        /** Rilevazioni, nell'ordine di estrazione */
+        final List<CodeBean> surveyList;
+        /** Rilevazioni, indicizzate per codice */
+        final Map<String, CodeBean> surveys;
+        /** Generazione del registro: cresce a ogni caricamento */
+        final long generation;
+
+        /**
+         * <p>Costruisce il registro a partire da strutture che non
+         * verranno pi&ugrave; modificate dal chiamante.</p>
+         *
+         * @param classiCommand voci di menu delle command
+         * @param commands      command istanziate
+         * @param surveyList    elenco delle rilevazioni
+         * @param surveys       dizionario delle rilevazioni
+         */
+        Registry(List<ItemBean> classiCommand,
+                 Map<String, Command> commands,
+                 List<CodeBean> surveyList,
+                 Map<String, CodeBean> surveys) {
+            this.classiCommand = Collections.unmodifiableList(classiCommand);
+            this.commands = Collections.unmodifiableMap(commands);
+            this.surveyList = Collections.unmodifiableList(surveyList);
+            this.surveys = Collections.unmodifiableMap(surveys);
+            this.generation = registryGenerations.incrementAndGet();
+        }
+    }
+
 }
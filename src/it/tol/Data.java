@@ -33,14 +33,36 @@
 package it.tol;
 
 import java.awt.print.PageFormat;
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
@@ -54,15 +76,29 @@ import javax.servlet.http.HttpSession;
 import com.oreilly.servlet.ParameterParser;
 import com.qoppa.pdfWriter.PDFDocument;
 
+import it.tol.bean.CodeBean;
+import it.tol.bean.ItemBean;
 import it.tol.bean.PersonBean;
 import it.tol.bean.ProcessingBean;
 import it.tol.command.RegisterCommand;
+import it.tol.command.ReportCommand;
 import it.tol.exception.AttributoNonValorizzatoException;
 import it.tol.exception.CommandException;
+import it.tol.exception.WebStorageException;
 import it.tol.interfaces.Constants;
+import it.tol.interfaces.RecordHandler;
+import it.tol.utils.ConditionalRequest;
+import it.tol.utils.Utils;
 import it.tol.utils.generator.DocumentGenerator;
+import it.tol.utils.generator.PdfSpool;
 import it.tol.wrapper.DBWrapper;
 import it.tol.wrapper.DocWrapper;
+import it.tol.wrapper.FacetIndex;
+import it.tol.wrapper.GraphIndex;
+import it.tol.wrapper.PdfExportQueue;
+import it.tol.wrapper.PdfFragmentCache;
+import it.tol.wrapper.SingleFlight;
+import it.tol.wrapper.Typeahead;
 
 
 /**
@@ -144,13 +180,61 @@ public class Data extends HttpServlet implements Constants {
      */
     private ServletContext servletContext;
     /**
-     * Parametro della query string identificante una Command.
+     * Esecutore dedicato alle estrazioni (JSON, CSV, PDF), servite in modalit&agrave;
+     * asincrona per non impegnare i thread del container.
      */
-    private String qToken;
+    private static ThreadPoolExecutor workers;
     /**
-     * Parametro della query string per richiedere un certo formato di output.
+     * Numero massimo di estrazioni in attesa, per ciascun thread dell'esecutore.
      */
-    private String format;
+    private static final int QUEUED_PER_WORKER = 4;
+    /**
+     * Dimensione massima, in byte, di ciascun trasferimento di un file sulla risposta:
+     * tra un trasferimento e l'altro si verifica che l'estrazione non sia stata annullata.
+     */
+    private static final long TRANSFER_CHUNK = 1L << 20;
+    /**
+     * Attributi della richiesta con cui Tomcat segnala il supporto di sendfile
+     * e riceve il file (e l'intervallo di byte) da spedire.
+     */
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    /**
+     * Dimensione, in byte, del buffer della risposta nell'esportazione CSV:
+     * finch&eacute; le prime righe stanno nel buffer la risposta non parte
+     * e un errore pu&ograve; ancora essere restituito come tale.
+     */
+    private static final int CSV_BUFFER_SIZE = 64 * 1024;
+    /**
+     * Riga aggiunta in coda a un'esportazione CSV interrotta da un errore
+     * dopo l'invio delle prime righe, cos&igrave; che il file
+     * non possa essere scambiato per completo.
+     */
+    private static final String CSV_TRUNCATED = "*** ESPORTAZIONE INCOMPLETA: si e' verificato un errore e il file non contiene tutti i trattamenti ***";
+    /**
+     * Numero massimo di righe restituibili in una pagina dell'elenco in formato JSON.
+     */
+    private static final int MAX_PAGE_LENGTH = 100;
+    /**
+     * Parametro della query string identificante un lavoro di generazione in background.
+     */
+    private static final String JOB = "job";
+    /**
+     * Valore del parametro 'job' che richiede un nuovo lavoro.
+     */
+    private static final String NEW_JOB = "new";
+    /**
+     * Attesa massima, in millisecondi, di una generazione PDF condivisa (5 minuti).
+     */
+    private static final long PDF_RENDER_WAIT = 5L * 60 * 1000;
+    /**
+     * Accorpatore delle generazioni contemporanee dello stesso documento PDF
+     * (la generazione del registro completo pu&ograve; durare minuti:
+     * chi la attende ne ripete una propria solo dopo {@link #PDF_RENDER_WAIT} millisecondi).
+     */
+    private static final SingleFlight<String> pdfRenders = new SingleFlight<>("pdf", null, PDF_RENDER_WAIT);
 
 
     /**
@@ -169,6 +253,34 @@ public class Data extends HttpServlet implements Constants {
          *  Inizializzazione del servletToken
          */
         servletContext = getServletContext();
+        /*
+         *  Esecutore delle estrazioni asincrone: coda limitata, oltre la quale
+         *  le richieste vengono respinte anziche' accumularsi
+         */
+        final int size = ConfigManager.getDataWorkers();
+        final AtomicInteger count = new AtomicInteger();
+        workers = new ThreadPoolExecutor(size, size, 60L, TimeUnit.SECONDS,
+                                         new ArrayBlockingQueue<Runnable>(size * QUEUED_PER_WORKER),
+                                         new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "tol-data-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+
+    /**
+     * Arresta l'esecutore delle estrazioni, interrompendo quelle in corso.
+     */
+    @Override
+    public void destroy() {
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        super.destroy();
     }
 
 
@@ -182,23 +294,41 @@ public class Data extends HttpServlet implements Constants {
         // La pagina della servlet e' sganciata dal template, anzi ne costituisce un frammento
         String fileJsp = null;
         // Recupera valore di ent (servito da un ConfigManager esterno alla Data)
-        qToken = req.getParameter(ConfigManager.getEntToken());
+        // Parametri locali alla richiesta: la servlet serve richieste concorrenti
+        String qToken = req.getParameter(ConfigManager.getEntToken());
         // Recupera il formato dell'output, se specificato
-        format = req.getParameter(ConfigManager.getOutToken());
-        // Struttura da restituire in Request
-        AbstractList<?> list = null;
+        String format = req.getParameter(ConfigManager.getOutToken());
         // Message
         log.info("===> Log su servlet Data. <===");
         // Decodifica la richiesta
         try {
-            // Verifica se deve servire un output PDF
-            if (format != null && !format.isEmpty() && format.equalsIgnoreCase(PDF)) {
-                // Recupero elementi in base alla richiesta
-                list = retrieve(req, qToken);
-                // Passaggio in request per uso delle lista
-                req.setAttribute("lista", list);
-                // Genera il file PDF
-                generatePDF(req, res);
+            // Il registro di una rilevazione chiusa si puo' validare senza rigenerarlo
+            if (format != null && req.getParameter(JOB) == null) {
+                ConditionalRequest validator = ConditionalRequest.of(req);
+                if (validator != null) {
+                    // Il client ha gia' la versione corrente: niente database ne' PDF
+                    if (validator.isNotModified(req)) {
+                        validator.notModified(res);
+                        return;
+                    }
+                    validator.apply(res);
+                }
+            }
+            // Verifica se deve gestire un lavoro di generazione del registro in background
+            if (format != null && format.equalsIgnoreCase(PDF) && req.getParameter(JOB) != null) {
+                // Accoda il lavoro, ne riporta lo stato o ne serve il file
+                generateJob(req, res, qToken);
+                // Ha finito
+                return;
+            }
+            // Verifica se deve servire un'estrazione (JSON, CSV, PDF)
+            if (format != null && (format.equalsIgnoreCase(JSON) || format.equalsIgnoreCase(CSV) || format.equalsIgnoreCase(PDF))) {
+                if (req.isAsyncSupported() && workers != null) {
+                    // Passa il lavoro all'esecutore dedicato e libera il thread del container
+                    extractAsync(req, res, qToken, format);
+                } else {
+                    extract(req, res, qToken, format, new Extraction());
+                }
                 // Ha finito
                 return;
             }
@@ -211,6 +341,162 @@ public class Data extends HttpServlet implements Constants {
     }
 
 
+    /**
+     * <p>Serve un'estrazione (pagina JSON dell'elenco, file CSV o PDF)
+     * sul thread corrente.</p>
+     *
+     * @param req       HttpServletRequest contenente i parametri dell'estrazione
+     * @param res       HttpServletResponse su cui scrivere il risultato
+     * @param qToken    il token della commmand di cui si vuole l'estrazione
+     * @param format    formato dell'output richiesto
+     * @param extraction stato dell'estrazione, da consultare per sapere se &egrave; stata annullata
+     * @throws CommandException se si verifica un problema nel recupero dei dati o in qualche puntamento
+     * @throws ServletException se si verifica un problema nella generazione del documento
+     * @throws IOException      se si verifica un problema nella scrittura della risposta
+     */
+    private void extract(HttpServletRequest req,
+                         HttpServletResponse res,
+                         String qToken,
+                         String format,
+                         Extraction extraction)
+                  throws CommandException, ServletException, IOException {
+        // Verifica se deve servire un'interrogazione per faccette in formato JSON
+        if (format.equalsIgnoreCase(JSON) && PART_FACETS.equals(req.getParameter("p"))) {
+            // Interroga l'indice a faccette della rilevazione
+            generateFacets(req, res, qToken);
+        // Verifica se deve servire i suggerimenti per il completamento automatico
+        } else if (format.equalsIgnoreCase(JSON) && PART_TYPEAHEAD.equals(req.getParameter("p"))) {
+            // Interroga l'albero dei suggerimenti della rilevazione
+            generateSuggestions(req, res, qToken);
+        // Verifica se deve servire un'interrogazione sul grafo delle relazioni
+        } else if (format.equalsIgnoreCase(JSON) && PART_GRAPH.equals(req.getParameter("p"))) {
+            // Interroga il grafo delle relazioni della rilevazione
+            generateGraph(req, res, qToken);
+        // Verifica se deve servire una pagina dell'elenco in formato JSON
+        } else if (format.equalsIgnoreCase(JSON)) {
+            // Genera la pagina richiesta
+            generateJSON(req, res, qToken);
+        // Verifica se deve servire un output CSV
+        } else if (format.equalsIgnoreCase(CSV)) {
+            // Genera il file CSV, scrivendolo man mano che le righe vengono estratte
+            generateCSV(req, res, qToken, extraction);
+        // Verifica se deve servire un output PDF
+        } else if (format.equalsIgnoreCase(PDF)) {
+            // Recupero elementi in base alla richiesta
+            AbstractList<?> list = retrieve(req, qToken);
+            // Richiesta chiusa durante il recupero: req e res non vanno piu' toccate
+            if (extraction.isCancelled()) {
+                return;
+            }
+            // Passaggio in request per uso delle lista
+            req.setAttribute("lista", list);
+            // Genera il file PDF
+            generatePDF(req, res, extraction);
+        }
+    }
+
+
+    /**
+     * <p>Serve un'estrazione in modalit&agrave; asincrona (Servlet 3.0):
+     * il thread del container viene rilasciato subito e il lavoro
+     * viene eseguito dall'esecutore dedicato di questa servlet.</p>
+     * <p>Se la coda dell'esecutore &egrave; piena la richiesta viene respinta
+     * con <code>503 Service Unavailable</code>; se l'estrazione supera
+     * il tempo massimo configurato, o se la connessione con il client
+     * si interrompe, la richiesta viene chiusa e il lavoro viene annullato
+     * interrompendo il thread che lo esegue e la query in corso
+     * ({@link Extraction}): la generazione del PDF si ferma al frammento
+     * successivo, l'esportazione CSV alla riga successiva e il trasferimento
+     * di un file al blocco successivo. Una volta chiusa la richiesta,
+     * il lavoro non tocca pi&ugrave; n&eacute; la richiesta n&eacute; la risposta.</p>
+     *
+     * @param req       HttpServletRequest contenente i parametri dell'estrazione
+     * @param res       HttpServletResponse su cui scrivere il risultato
+     * @param qToken    il token della commmand di cui si vuole l'estrazione
+     * @param format    formato dell'output richiesto
+     * @throws IOException se si verifica un problema nella scrittura della risposta di rifiuto
+     */
+    private void extractAsync(final HttpServletRequest req,
+                              final HttpServletResponse res,
+                              final String qToken,
+                              final String format)
+                       throws IOException {
+        final AsyncContext async = req.startAsync(req, res);
+        async.setTimeout(ConfigManager.getDataTimeout() * 1000L);
+        // Stato condiviso tra il lavoro e il listener che lo annulla
+        final Extraction extraction = new Extraction();
+        async.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                /*;*/   // It doesn't anything
+            }
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                if (extraction.close()) {
+                    extraction.cancel();
+                    log.warning(FOR_NAME + "Estrazione annullata per superamento del tempo massimo: " + req.getQueryString());
+                    if (!res.isCommitted()) {
+                        res.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                    }
+                    async.complete();
+                }
+            }
+            @Override
+            public void onError(AsyncEvent event) {
+                // Tipicamente il client ha chiuso la connessione
+                if (extraction.close()) {
+                    extraction.cancel();
+                    async.complete();
+                }
+            }
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+                /*;*/   // It doesn't anything
+            }
+        });
+        try {
+            extraction.task.set(workers.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // La richiesta potrebbe essere gia' scaduta mentre era in coda
+                        if (!extraction.isCancelled()) {
+                            extract(req, res, qToken, format, extraction);
+                        }
+                    } catch (Exception e) {
+                        // Se la richiesta e' gia' stata chiusa (timeout o errore) non va piu' toccata
+                        if (extraction.close()) {
+                            log.severe(FOR_NAME + "Problema in un'estrazione asincrona di Data.\n" + e.getMessage());
+                            try {
+                                if (!res.isCommitted()) {
+                                    res.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                                }
+                            } catch (IOException ioe) {
+                                log.warning(FOR_NAME + "Impossibile segnalare l'errore al client: " + ioe.getMessage());
+                            } finally {
+                                async.complete();
+                            }
+                        } else {
+                            log.info(FOR_NAME + "Estrazione interrotta dopo la chiusura della richiesta: " + e.getMessage());
+                        }
+                    } finally {
+                        if (extraction.close()) {
+                            async.complete();
+                        }
+                    }
+                }
+            }));
+        } catch (RejectedExecutionException ree) {
+            log.warning(FOR_NAME + "Coda delle estrazioni piena: richiesta respinta.\n");
+            if (extraction.close()) {
+                res.setHeader("Retry-After", "30");
+                res.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                async.complete();
+            }
+        }
+    }
+
+
     /**
      * <p>Restituisce un elenco generico di elementi relativi a una richiesta specifica.</p>
      *
@@ -302,6 +588,398 @@ public class Data extends HttpServlet implements Constants {
     }
 
 
+    /**
+     * <p>Gestisce i lavori di generazione in background del registro
+     * completo in formato PDF ({@link PdfExportQueue}):
+     * <ul>
+     * <li><code>job=new</code> accoda la generazione del registro della rilevazione
+     * <code>r</code>, oppure si aggancia a quella gi&agrave; in corso,
+     * e restituisce lo stato del lavoro;</li>
+     * <li><code>job=&lt;id&gt;</code> restituisce lo stato del lavoro;</li>
+     * <li><code>job=&lt;id&gt;&amp;file=true</code> serve il file prodotto,
+     * se il lavoro &egrave; concluso.</li>
+     * </ul>
+     * Stato e file di un lavoro vengono restituiti soltanto a chi lo ha
+     * richiesto, con gli stessi ruoli e per la stessa rilevazione
+     * <code>r</code>; negli altri casi il lavoro risulta inesistente.
+     * Lo stato &egrave; un documento JSON con identificativo, stato,
+     * trattamenti generati, trattamenti totali ed eventuale errore.</p>
+     *
+     * @param req HttpServletRequest contenente i parametri del lavoro
+     * @param res HttpServletResponse su cui scrivere lo stato o il file
+     * @param qToken il token della commmand di cui si vuole il registro
+     * @throws CommandException se l'utente non &egrave; autenticato o se si verifica un problema in qualche puntamento
+     * @throws IOException se si verifica un problema nella scrittura della risposta
+     */
+    private static void generateJob(HttpServletRequest req,
+                                    HttpServletResponse res,
+                                    String qToken)
+                             throws CommandException, IOException {
+        if (qToken == null || !qToken.equalsIgnoreCase(COMMAND_REGISTER)) {
+            String msg = FOR_NAME + "La Servlet Data non accetta la stringa passata come valore di 'ent': " + qToken;
+            log.severe(msg + "Tentativo di indirizzare alla Servlet Data una richiesta non gestita. Hacking test?\n");
+            throw new IOException(msg);
+        }
+        // Ottiene i parametri della richiesta
+        ParameterParser parser = new ParameterParser(req);
+        String jobId = parser.getStringParameter(JOB, VOID_STRING);
+        // Recupera la sessione creata e valorizzata per riferimento nella req dal metodo authenticate
+        HttpSession ses = req.getSession(IF_EXISTS_DONOT_CREATE_NEW);
+        PersonBean user = (ses == null) ? null : (PersonBean) ses.getAttribute("usr");
+        if (user == null) {
+            throw new CommandException(FOR_NAME + "Attenzione: controllare di essere autenticati nell\'applicazione!\n");
+        }
+        PdfExportQueue queue = PdfExportQueue.getInstance();
+        PdfExportQueue.Job job = null;
+        CodeBean survey = ConfigManager.getSurvey(parser.getStringParameter("r", VOID_STRING));
+        if (survey == null) {
+            throw new CommandException(FOR_NAME + "Attenzione: codice rilevazione non valido!\n");
+        }
+        if (jobId.equalsIgnoreCase(NEW_JOB)) {
+            try {
+                job = queue.submit(user, survey);
+            } catch (CommandException ce) {
+                // Coda piena: il client potra' riprovare
+                res.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, ce.getMessage());
+                return;
+            }
+        } else {
+            job = queue.getJob(jobId, user, survey);
+            if (job == null) {
+                res.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            // Richiesta del file prodotto
+            if (parser.getBooleanParameter("file", false)) {
+                if (!PdfExportQueue.DONE.equals(job.getState())) {
+                    res.sendError(HttpServletResponse.SC_CONFLICT);
+                    return;
+                }
+                res.setContentType(MIME_TYPE_PDF);
+                res.setHeader("Content-Disposition","attachment;filename=" + makeFilename(Constants.TREATMENTS) + DOT + PDF);
+                // Se il container lo consente, il file viene spedito dal container stesso (sendfile)
+                if (sendfile(req, res, job.getFile())) {
+                    return;
+                }
+                ServletOutputStream out = res.getOutputStream();
+                transfer(FileChannel.open(job.getFile().toPath(), StandardOpenOption.READ), res, out, new Extraction());
+                out.close();
+                return;
+            }
+        }
+        // Stato del lavoro
+        res.setContentType(MIME_TYPE_JSON);
+        res.setCharacterEncoding("UTF-8");
+        res.setHeader("Cache-Control", "no-store");
+        PrintWriter out = res.getWriter();
+        out.print("{\"id\":" + Utils.toJsonString(job.getId()) +
+                  ",\"state\":" + Utils.toJsonString(job.getState()) +
+                  ",\"done\":" + job.getDone() +
+                  ",\"total\":" + job.getTotal() +
+                  ",\"error\":" + Utils.toJsonString(job.getError()) + "}");
+        out.flush();
+    }
+
+
+    /**
+     * <p>Serve una pagina dell'elenco dei trattamenti in formato JSON,
+     * secondo il protocollo <em>server-side processing</em> di DataTables:
+     * riceve il contatore della richiesta (<code>draw</code>), la posizione
+     * (<code>start</code>) e la dimensione (<code>length</code>) della pagina,
+     * la colonna e il verso di ordinamento e il testo da cercare;
+     * restituisce il totale dei trattamenti, il totale di quelli filtrati
+     * e le sole righe della pagina.</p>
+     * <p>Ordinamento, filtro e paginazione vengono eseguiti dal database;
+     * se il client passa la chiave dell'ultima riga della pagina precedente
+     * (parametri <code>afterCodice</code> ed eventualmente <code>afterNome</code>)
+     * la pagina successiva viene individuata per posizionamento sulla chiave.</p>
+     *
+     * @param req HttpServletRequest contenente i parametri di DataTables
+     * @param res HttpServletResponse su cui scrivere il documento JSON
+     * @param qToken il token della commmand di cui si vuole l'elenco
+     * @throws CommandException se si verifica un problema nel recupero dei dati o in qualche puntamento
+     * @throws IOException se si verifica un problema nella scrittura della risposta
+     */
+    private static void generateJSON(HttpServletRequest req,
+                                     HttpServletResponse res,
+                                     String qToken)
+                              throws CommandException, IOException {
+        JsonRequest context = new JsonRequest(req, qToken);
+        ParameterParser parser = context.parser;
+        // Parametri di DataTables
+        int draw = parser.getIntParameter("draw", NOTHING);
+        int start = Math.max(parser.getIntParameter("start", NOTHING), NOTHING);
+        int length = parser.getIntParameter("length", MAX_PAGE_LENGTH);
+        if (length <= NOTHING || length > MAX_PAGE_LENGTH) {
+            length = MAX_PAGE_LENGTH;
+        }
+        String filter = parser.getStringParameter("search[value]", VOID_STRING);
+        // Colonne ordinabili: 2 = nome del trattamento; qualsiasi altra = codice
+        boolean byName = parser.getIntParameter("order[0][column]", DEFAULT_ID) == 2;
+        boolean descending = "desc".equalsIgnoreCase(parser.getStringParameter("order[0][dir]", VOID_STRING));
+        // Chiave dell'ultima riga della pagina precedente, se disponibile
+        String afterCodice = parser.getStringParameter("afterCodice", null);
+        String afterNome = parser.getStringParameter("afterNome", null);
+        int[] counts = null;
+        ArrayList<ItemBean> page = null;
+        try {
+            counts = context.db.countTrattamenti(context.survey, filter);
+            page = context.db.getTrattamenti(context.user, context.survey, filter, byName, descending, afterCodice, afterNome, start, length);
+        } catch (Exception e) {
+            String msg = FOR_NAME + "Si e\' verificato un problema nel recupero della pagina di trattamenti.\n" + e.getLocalizedMessage();
+            log.severe(msg);
+            throw new CommandException(msg);
+        }
+        context.start(res);
+        // Scrive il documento
+        PrintWriter out = res.getWriter();
+        out.print("{\"draw\":");
+        out.print(draw);
+        out.print(",\"recordsTotal\":");
+        out.print(counts[0]);
+        out.print(",\"recordsFiltered\":");
+        out.print(counts[1]);
+        out.print(",\"data\":[");
+        for (int i = 0; i < page.size(); i++) {
+            ItemBean trattamento = page.get(i);
+            if (i > NOTHING) {
+                out.print(',');
+            }
+            out.print("{\"codice\":");
+            out.print(Utils.toJsonString(trattamento.getCodice()));
+            out.print(",\"nome\":");
+            out.print(Utils.toJsonString(trattamento.getNome()));
+            out.print('}');
+        }
+        out.print("]}");
+        out.flush();
+    }
+
+
+    /**
+     * <p>Serve in formato JSON il risultato di un'interrogazione
+     * sull'indice a faccette del registro di una rilevazione:
+     * l'espressione (parametro <code>f</code>, v. {@link FacetIndex}),
+     * il totale dei trattamenti, il numero e i codici di quelli selezionati
+     * e, per ciascuna faccetta, quanti dei selezionati vi appartengono.<br />
+     * Un'espressione non valida (malformata, troppo lunga o troppo annidata)
+     * riceve <code>400 Bad Request</code>.</p>
+     *
+     * @param req HttpServletRequest contenente la rilevazione e l'espressione
+     * @param res HttpServletResponse su cui scrivere il documento JSON
+     * @param qToken il token della commmand di cui si vuole l'interrogazione
+     * @throws CommandException se si verifica un problema nel recupero dei dati
+     * @throws IOException se si verifica un problema nella scrittura della risposta
+     */
+    private static void generateFacets(HttpServletRequest req,
+                                       HttpServletResponse res,
+                                       String qToken)
+                                throws CommandException, IOException {
+        JsonRequest context = new JsonRequest(req, qToken);
+        String expression = context.parser.getStringParameter("f", VOID_STRING);
+        FacetIndex index = ReportCommand.retrieveFacets(context.user, context.survey, context.db);
+        long[] selection = null;
+        try {
+            selection = index.query(expression);
+        } catch (CommandException ce) {
+            // Espressione malformata, troppo lunga o annidata: e' un errore del client
+            res.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        LinkedHashMap<String, Integer> counts = index.counts(selection);
+        context.start(res);
+        // Scrive il documento
+        PrintWriter out = res.getWriter();
+        out.print("{\"query\":");
+        out.print(Utils.toJsonString(expression));
+        out.print(",\"total\":");
+        out.print(index.size());
+        out.print(",\"count\":");
+        out.print(FacetIndex.count(selection));
+        out.print(",\"facets\":{");
+        boolean first = true;
+        for (Map.Entry<String, Integer> e : counts.entrySet()) {
+            if (!first) {
+                out.print(',');
+            }
+            out.print(Utils.toJsonString(e.getKey()));
+            out.print(':');
+            out.print(e.getValue());
+            first = false;
+        }
+        out.print("},\"codici\":[");
+        first = true;
+        for (String codice : index.codes(selection)) {
+            if (!first) {
+                out.print(',');
+            }
+            out.print(Utils.toJsonString(codice));
+            first = false;
+        }
+        out.print("]}");
+        out.flush();
+    }
+
+
+    /**
+     * <p>Serve in formato JSON i suggerimenti per il completamento automatico
+     * di quanto digitato (parametro <code>term</code>): al pi&ugrave;
+     * <code>k</code> trattamenti (v. {@link Typeahead#TOP_K}), ciascuno
+     * con codice, nome, testo corrispondente e tipo di corrispondenza.</p>
+     *
+     * @param req HttpServletRequest contenente la rilevazione e il testo digitato
+     * @param res HttpServletResponse su cui scrivere il documento JSON
+     * @param qToken il token della commmand di cui si vogliono i suggerimenti
+     * @throws CommandException se si verifica un problema nel recupero dei dati
+     * @throws IOException se si verifica un problema nella scrittura della risposta
+     */
+    private static void generateSuggestions(HttpServletRequest req,
+                                            HttpServletResponse res,
+                                            String qToken)
+                                     throws CommandException, IOException {
+        JsonRequest context = new JsonRequest(req, qToken);
+        String typed = context.parser.getStringParameter("term", VOID_STRING);
+        int k = Math.min(context.parser.getIntParameter("k", Typeahead.TOP_K), Typeahead.TOP_K);
+        // Il databound viene usato solo se l'albero va ricostruito
+        Typeahead index = ReportCommand.retrieveTypeahead(context.user, context.survey, context.db);
+        ArrayList<Typeahead.Suggestion> suggestions = index.suggest(typed, k);
+        context.start(res);
+        // Scrive il documento
+        PrintWriter out = res.getWriter();
+        out.print('[');
+        for (int i = 0; i < suggestions.size(); i++) {
+            Typeahead.Suggestion s = suggestions.get(i);
+            if (i > NOTHING) {
+                out.print(',');
+            }
+            out.print("{\"codice\":");
+            out.print(Utils.toJsonString(s.getCodice()));
+            out.print(",\"nome\":");
+            out.print(Utils.toJsonString(s.getNome()));
+            out.print(",\"match\":");
+            out.print(Utils.toJsonString(s.getMatch()));
+            out.print(",\"tipo\":");
+            out.print(Utils.toJsonString(s.getTipo()));
+            out.print('}');
+        }
+        out.print(']');
+        out.flush();
+    }
+
+
+    /**
+     * <p>Serve in formato JSON un'interrogazione sul grafo delle relazioni
+     * del registro di una rilevazione (v. {@link GraphIndex});
+     * il parametro <code>op</code> sceglie l'interrogazione:
+     * <dl>
+     * <dt>nodes</dt>
+     * <dd>i nodi del tipo indicato dal parametro <code>type</code>;</dd>
+     * <dt>neighbours</dt>
+     * <dd>i nodi del tipo <code>type</code> (per default i trattamenti)
+     * adiacenti al nodo di chiave <code>n</code>, p.es. i trattamenti
+     * che condividono una base giuridica;</dd>
+     * <dt>impact</dt>
+     * <dd>banche dati, trattamenti e interessati coinvolti dalla violazione
+     * del nodo di chiave <code>n</code> (tipo di database, database,
+     * banca dati o trattamento);</dd>
+     * <dt>orphans</dt>
+     * <dd>le banche dati non collegate ad alcun trattamento.</dd>
+     * </dl></p>
+     *
+     * @param req HttpServletRequest contenente la rilevazione e l'interrogazione
+     * @param res HttpServletResponse su cui scrivere il documento JSON
+     * @param qToken il token della commmand di cui si vuole l'interrogazione
+     * @throws CommandException se l'interrogazione o il nodo non sono validi o si verifica un problema nel recupero dei dati
+     * @throws IOException se si verifica un problema nella scrittura della risposta
+     */
+    private static void generateGraph(HttpServletRequest req,
+                                      HttpServletResponse res,
+                                      String qToken)
+                               throws CommandException, IOException {
+        JsonRequest context = new JsonRequest(req, qToken);
+        ParameterParser parser = context.parser;
+        String op = parser.getStringParameter("op", VOID_STRING);
+        String type = parser.getStringParameter("type", GraphIndex.NODE_TREATMENT);
+        // Il databound viene usato solo se il grafo va ricostruito
+        GraphIndex graph = ReportCommand.retrieveGraph(context.user, context.survey, context.db);
+        GraphIndex.Node node = null;
+        if (op.equals("neighbours") || op.equals("impact")) {
+            node = graph.getNode(parser.getStringParameter("n", null));
+            if (node == null) {
+                throw new CommandException(FOR_NAME + "Nodo del grafo non trovato: " + parser.getStringParameter("n", VOID_STRING) + "\n");
+            }
+        }
+        // Prepara il documento prima di scriverlo, per non servire documenti parziali
+        StringBuilder json = new StringBuilder(1024);
+        if (op.equals("nodes")) {
+            appendNodes(json, graph.getNodes(type));
+        } else if (op.equals("neighbours")) {
+            appendNodes(json, graph.neighbours(node, type));
+        } else if (op.equals("orphans")) {
+            appendNodes(json, graph.orphans());
+        } else if (op.equals("impact")) {
+            GraphIndex.Impact impact = graph.impact(node);
+            json.append("{\"origine\":");
+            appendNode(json, impact.getOrigine());
+            json.append(",\"banche\":");
+            appendNodes(json, impact.getBanche());
+            json.append(",\"trattamenti\":");
+            appendNodes(json, impact.getTrattamenti());
+            json.append(",\"interessati\":[");
+            boolean first = true;
+            for (Map.Entry<GraphIndex.Node, Integer> e : impact.getInteressati().entrySet()) {
+                if (!first) {
+                    json.append(',');
+                }
+                json.append("{\"nodo\":");
+                appendNode(json, e.getKey());
+                json.append(",\"trattamenti\":").append(e.getValue()).append('}');
+                first = false;
+            }
+            json.append("]}");
+        } else {
+            String msg = FOR_NAME + "Interrogazione sul grafo non gestita: " + op + "\n";
+            log.warning(msg);
+            throw new CommandException(msg);
+        }
+        context.start(res);
+        PrintWriter out = res.getWriter();
+        out.print(json);
+        out.flush();
+    }
+
+
+    /**
+     * @param json  documento su cui scrivere
+     * @param list  nodi del grafo da scrivere come array JSON
+     */
+    private static void appendNodes(StringBuilder json,
+                                    ArrayList<GraphIndex.Node> list) {
+        json.append('[');
+        for (int i = 0; i < list.size(); i++) {
+            if (i > NOTHING) {
+                json.append(',');
+            }
+            appendNode(json, list.get(i));
+        }
+        json.append(']');
+    }
+
+
+    /**
+     * @param json  documento su cui scrivere
+     * @param node  nodo del grafo da scrivere come oggetto JSON
+     */
+    private static void appendNode(StringBuilder json,
+                                   GraphIndex.Node node) {
+        json.append("{\"key\":").append(Utils.toJsonString(node.getKey()))
+            .append(",\"tipo\":").append(Utils.toJsonString(node.getTipo()))
+            .append(",\"nome\":").append(Utils.toJsonString(node.getNome()))
+            .append(",\"grado\":").append(node.getGrado())
+            .append('}');
+    }
+
+
     /**
      * <p>Genera un nome univoco a partire da un prefisso dato come parametro.</p>
      *
@@ -322,7 +1000,7 @@ public class Data extends HttpServlet implements Constants {
     }
     
     
-    private void generatePDF (HttpServletRequest req, HttpServletResponse res) 
+    private void generatePDF (HttpServletRequest req, HttpServletResponse res, Extraction extraction) 
                        throws IOException, ServletException {
         if (req.getParameter(ConfigManager.getEntToken()).equalsIgnoreCase(COMMAND_REGISTER)) {
             try {
@@ -350,7 +1028,7 @@ public class Data extends HttpServlet implements Constants {
                 // Configura l'header
                 res.setHeader("Content-Disposition","attachment;filename=" + fileName + DOT + PDF);
                 // Stampa il file sullo standard output
-                pdfPrintf(req, res);
+                pdfPrintf(req, res, extraction);
             } catch (AttributoNonValorizzatoException anve) {
                 String msg = FOR_NAME + "Si e\' verificato un problema nel recupero di attributi obbligatori contestualmente alla generazione del pdf.\n" + anve.getMessage();
                 log.severe(msg);
@@ -398,10 +1076,11 @@ public class Data extends HttpServlet implements Constants {
      * @param req HttpServletRequest da passare al metodo di stampa
      * @param res HttpServletResponse per impostarvi i valori che la predispongono a servire csv anziche' html
      * @param qToken token della commmand in base al quale bisogna preparare la lista di elementi
+     * @param extraction stato dell'estrazione, da consultare per sapere se &egrave; stata annullata
      * @throws ServletException eccezione eventualmente proveniente dalla fprinf, da propagare
      * @throws IOException  eccezione eventualmente proveniente dalla fprinf, da propagare
      */
-    private static void generateCSV(HttpServletRequest req, HttpServletResponse res, String qToken)
+    private static void generateCSV(HttpServletRequest req, HttpServletResponse res, String qToken, Extraction extraction)
                              throws ServletException, IOException {
         // Genera un nome univoco per il file che verrà servito
         String fileName = makeFilename(qToken);
@@ -411,8 +1090,10 @@ public class Data extends HttpServlet implements Constants {
         res.setCharacterEncoding("UTF-8");
         // Configura l'header
         res.setHeader("Content-Disposition","attachment;filename=" + fileName + DOT + CSV);
+        // Trattiene le prime righe, cosi' che un errore iniziale diventi una risposta di errore
+        res.setBufferSize(CSV_BUFFER_SIZE);
         // Stampa il file sullo standard output
-        csvPrintf(req, res);
+        csvPrintf(req, res, extraction);
     }
     
     
@@ -440,11 +1121,12 @@ public class Data extends HttpServlet implements Constants {
      *
      * @param req la HttpServletRequest contenente il valore di 'ent' e gli altri parametri necessari a formattare opportunamente l'output
      * @param res la HttpServletResponse utilizzata per ottenere il 'Writer' su cui stampare il contenuto, cioe' il file stesso
+     * @param extraction stato dell'estrazione: una volta annullata, la risposta non viene pi&ugrave; toccata
      * @throws ServletException   java.lang.Throwable.Exception.ServletException che viene sollevata se manca un parametro di configurazione considerato obbligatorio o per via di qualche altro problema di puntamento
      * @throws IOException        java.io.IOException che viene sollevata se si verifica un puntamento a null o in genere nei casi in cui nella gestione del flusso informativo di questo metodo si verifica un problema
      */
     @SuppressWarnings("unchecked")
-    private static void pdfPrintf(HttpServletRequest req, HttpServletResponse res)
+    private static void pdfPrintf(HttpServletRequest req, HttpServletResponse res, final Extraction extraction)
                            throws ServletException, IOException {
         // Genera l'oggetto per il servlet output stream
         ServletOutputStream out = res.getOutputStream();
@@ -454,24 +1136,76 @@ public class Data extends HttpServlet implements Constants {
          *     Gestione elaborazione contenuto PDF per trattamenti dati     *
          * **************************************************************** */
         if (req.getParameter(ConfigManager.getEntToken()).equalsIgnoreCase(COMMAND_REGISTER)) {
+            // Cache dei frammenti e dei documenti gia' generati
+            final PdfFragmentCache cache = PdfFragmentCache.getInstance();
             try {
-                // Genera il documento PDF
-                PDFDocument pdfDoc = DocumentGenerator.getPDFDocument();
-                // Ottiene il formato della pagina
-                PageFormat pf = DocumentGenerator.getPageFormat();
-                // Se sta stampando il registro bisogna aggiungere le intestazioni
-                if (list.size() > ELEMENT_LEV_1) {
-                    // 0. Frontespizio
-                    DocWrapper.makeFrontPage(pf, pdfDoc);
+                // Identificativo della rilevazione, che entra nell'indirizzo dei frammenti
+                ParameterParser parser = new ParameterParser(req);
+                final int idSurvey = ConfigManager.getSurvey(parser.getStringParameter("r", VOID_STRING)).getId();
+                // Indirizzi dei frammenti, calcolati una volta sola e riusati nella generazione
+                final Map<ProcessingBean, String> fragments = (list.size() == ELEMENT_LEV_1) ?
+                                                              null :
+                                                              PdfFragmentCache.addresses(idSurvey, list);
+                // Indirizzo del documento: un solo trattamento oppure l'intero registro
+                final String address = (list.size() == ELEMENT_LEV_1) ?
+                                       PdfFragmentCache.address(PdfFragmentCache.DOCUMENT, idSurvey, list.get(MAIN_MENU)) :
+                                       PdfFragmentCache.address(idSurvey, list, fragments);
+                // Serve il documento dalla cache, generandolo solo se manca
+                FileChannel channel = cache.open(address);
+                if (channel == null) {
+                    SingleFlight.Call<String> generation = new SingleFlight.Call<String>() {
+                        @Override
+                        public String call() throws CommandException {
+                            try (PdfSpool spool = new PdfSpool(cache.getDir())) {
+                                File file = render(list, idSurvey, spool, fragments);
+                                cache.put(address, file);
+                                return address;
+                            } catch (AttributoNonValorizzatoException | IOException e) {
+                                String msg = FOR_NAME + "Problema nella generazione del documento " + address + ".\n" + e.getMessage();
+                                log.severe(msg);
+                                throw new CommandException(msg, e);
+                            }
+                        }
+                    };
+                    try {
+                        // Richieste identiche contemporanee attendono un'unica generazione
+                        pdfRenders.execute(address, generation);
+                    } catch (CommandException ce) {
+                        /*
+                         * Un errore della generazione vale per tutte le richieste in attesa;
+                         * solo se era stata annullata (p.es. chi la eseguiva si e' disconnesso)
+                         * si riprova, una sola volta e di nuovo con un'unica generazione condivisa
+                         */
+                        if (extraction.isCancelled() || !isCancellation(ce)) {
+                            throw ce;
+                        }
+                        log.warning(FOR_NAME + "Generazione condivisa annullata, nuovo tentativo per il documento " + address + ".\n");
+                        pdfRenders.execute(address, generation);
+                    }
+                    channel = cache.open(address);
+                }
+                // Documento non conservato in cache (p.es. piu' grande della cache stessa): lo genera per questa richiesta
+                if (channel == null) {
+                    try (PdfSpool spool = new PdfSpool(cache.getDir())) {
+                        File file = render(list, idSurvey, spool, fragments);
+                        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                        transfer(channel, res, out, extraction);
+                    }
+                } else {
+                    transfer(channel, res, out, extraction);
                 }
-                // Dettagli trattamento/i
-                DocWrapper.makePages(pf, pdfDoc, list);
-                // Save the document to the servlet output stream. This goes directly to the browser
-                pdfDoc.saveDocument(out);
-    
             } catch (Exception e) {
-                log.severe(FOR_NAME + "Problema in un fprintf di Data" + e.getMessage());
-                out.println(e.getMessage());
+                String msg = FOR_NAME + "Problema in un fprintf di Data.\n";
+                log.severe(msg + e.getMessage());
+                // Il dettaglio dell'errore resta nel log: non deve finire nel corpo del documento
+                // (e una richiesta gia' chiusa dal timeout o da un errore non va piu' toccata)
+                if (!extraction.isCancelled() && !res.isCommitted()) {
+                    res.reset();
+                    res.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    return;
+                }
+                // Trasferimento gia' iniziato: la risposta viene interrotta, non completata
+                throw new IOException(msg, e);
             }
         } else {
             String msg = FOR_NAME + "La Servlet Data non accetta la stringa passata come valore di 'ent': " + req.getParameter(ConfigManager.getEntToken());
@@ -483,6 +1217,144 @@ public class Data extends HttpServlet implements Constants {
     }
     
     
+    /**
+     * <p>Restituisce true se l'eccezione passata come argomento, o una delle
+     * sue cause, segnala l'annullamento di una generazione (interruzione del
+     * thread che la eseguiva) anzich&eacute; un errore nei dati o nel documento.</p>
+     *
+     * @param e eccezione da esaminare
+     * @return <code>boolean</code> - true se si tratta di un annullamento
+     */
+    private static boolean isCancellation(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof InterruptedIOException || t instanceof InterruptedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * <p>Genera in un file dell'area di appoggio passata come argomento
+     * il documento PDF dei trattamenti dati: la stampa del singolo trattamento
+     * oppure, se i trattamenti sono pi&ugrave; d'uno, il registro completo
+     * con il frontespizio, assemblato dai frammenti in cache o generati.</p>
+     *
+     * @param list      trattamenti da stampare
+     * @param idSurvey  identificativo della rilevazione
+     * @param spool     area di appoggio in cui scrivere il documento e gli eventuali frammenti
+     * @param fragments indirizzi dei frammenti dei trattamenti gi&agrave; calcolati, oppure null
+     * @return <code>File</code> - il documento generato
+     * @throws CommandException se si verifica un problema nella generazione delle pagine
+     * @throws AttributoNonValorizzatoException se un attributo obbligatorio di un trattamento non &egrave; valorizzato
+     * @throws IOException se si verifica un problema nella scrittura del documento
+     */
+    private static File render(ArrayList<ProcessingBean> list,
+                               int idSurvey,
+                               PdfSpool spool,
+                               Map<ProcessingBean, String> fragments)
+                        throws CommandException,
+                               AttributoNonValorizzatoException,
+                               IOException {
+        // Ottiene il formato della pagina
+        PageFormat pf = DocumentGenerator.getPageFormat();
+        File file = null;
+        if (list.size() == ELEMENT_LEV_1) {
+            // Genera il documento PDF
+            PDFDocument pdfDoc = DocumentGenerator.getPDFDocument();
+            file = spool.newFile(list.get(MAIN_MENU).getCodice());
+            DocWrapper.makePages(pf, pdfDoc, list);
+            pdfDoc.saveDocument(file.getPath());
+        } else {
+            file = spool.newFile(Constants.TREATMENTS);
+            // Registro completo: trattamenti recuperati dalla cache o generati, scritti e rilasciati uno alla volta
+            DocWrapper.makeRegister(pf, list, spool, idSurvey, fragments, file);
+        }
+        return file;
+    }
+
+
+    /**
+     * <p>Affida al container (Tomcat) la spedizione di un file su disco
+     * tramite sendfile, cio&egrave; a copia zero dal file al socket,
+     * se il container lo consente per la richiesta passata come argomento
+     * (attributo <code>org.apache.tomcat.sendfile.support</code>); in tal caso
+     * dichiara la lunghezza del file e non scrive nulla sulla risposta,
+     * altrimenti restituisce false e il chiamante deve trasferire il file
+     * da s&eacute; (v. {@link #transfer(FileChannel, HttpServletResponse, ServletOutputStream, Extraction)}).</p>
+     * <p>Il file viene letto dal container dopo la fine del servizio
+     * della richiesta, per cui deve restare al suo posto; per lo stesso
+     * motivo sendfile non viene usato per le richieste asincrone,
+     * il cui completamento non passa per la spedizione del file.</p>
+     *
+     * @param req   la HttpServletRequest che ha richiesto il file
+     * @param res   la HttpServletResponse su cui dichiarare la lunghezza
+     * @param file  il file da spedire
+     * @return <code>boolean</code> - true se la spedizione &egrave; stata affidata al container
+     * @throws IOException se non &egrave; possibile risolvere il percorso del file
+     */
+    private static boolean sendfile(HttpServletRequest req,
+                                    HttpServletResponse res,
+                                    File file)
+                             throws IOException {
+        if (req.isAsyncStarted() || !Boolean.TRUE.equals(req.getAttribute(SENDFILE_SUPPORT))) {
+            return false;
+        }
+        long size = file.length();
+        res.setHeader("Content-Length", String.valueOf(size));
+        req.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+        req.setAttribute(SENDFILE_START, Long.valueOf(0L));
+        req.setAttribute(SENDFILE_END, Long.valueOf(size));
+        return true;
+    }
+
+
+    /**
+     * <p>Trasferisce sulla risposta l'intero contenuto di un file
+     * conservato su disco, dichiarandone la lunghezza.
+     * Il trasferimento avviene tramite il canale NIO del file
+     * ({@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}):
+     * poich&eacute; lo stream della risposta non &egrave; un canale
+     * del sistema operativo, i dati passano comunque dal buffer del canale
+     * che lo avvolge e dal buffer della risposta, per cui non si tratta
+     * di un trasferimento a copia zero (v. {@link #sendfile(HttpServletRequest, HttpServletResponse, File)}).
+     * Il trasferimento avviene a blocchi
+     * di {@link #TRANSFER_CHUNK} byte: prima di ogni blocco si verifica
+     * che l'estrazione non sia stata annullata, nel qual caso il trasferimento
+     * si interrompe senza pi&ugrave; toccare la risposta;
+     * il canale viene chiuso al termine.</p>
+     *
+     * @param channel   canale in lettura sul file da trasferire
+     * @param res       la HttpServletResponse su cui dichiarare la lunghezza
+     * @param out       lo stream di output della risposta
+     * @param extraction stato dell'estrazione, da consultare per sapere se &egrave; stata annullata
+     * @throws InterruptedIOException se l'estrazione viene annullata durante il trasferimento
+     * @throws IOException se si verifica un problema nella lettura del file o nella scrittura della risposta
+     */
+    private static void transfer(FileChannel channel,
+                                 HttpServletResponse res,
+                                 ServletOutputStream out,
+                                 Extraction extraction)
+                          throws IOException {
+        try (FileChannel in = channel) {
+            long size = in.size();
+            if (extraction.isCancelled()) {
+                throw new InterruptedIOException(FOR_NAME + "Trasferimento annullato prima dell'inizio.\n");
+            }
+            res.setHeader("Content-Length", String.valueOf(size));
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = 0L;
+            while (position < size) {
+                if (extraction.isCancelled()) {
+                    throw new InterruptedIOException(FOR_NAME + "Trasferimento annullato dopo " + position + " byte su " + size + ".\n");
+                }
+                position += in.transferTo(position, Math.min(TRANSFER_CHUNK, size - position), target);
+            }
+        }
+    }
+    
+    
     /**
      * <p>Genera il contenuto dello stream, che questa classe tratta
      * sotto forma di file, che viene trasmesso sulla risposta in output,
@@ -501,6 +1373,7 @@ public class Data extends HttpServlet implements Constants {
      *
      * @param req la HttpServletRequest contenente il valore di 'ent' e gli altri parametri necessari a formattare opportunamente l'output
      * @param res la HttpServletResponse utilizzata per ottenere il 'Writer' su cui stampare il contenuto, cioe' il file stesso
+     * @param extraction stato dell'estrazione: una volta annullata, la risposta non viene pi&ugrave; toccata
      * @return <code>int</code> - un valore intero restituito per motivi storici.
      *                            Tradizionalmente, tutte le funzioni della famiglia x-printf restituiscono un intero,
      *                            che vale il numero dei caratteri scritti - qui il numero delle righe scritte - in caso di successo
@@ -509,10 +1382,10 @@ public class Data extends HttpServlet implements Constants {
      * @throws IOException        java.io.IOException che viene sollevata se si verifica un puntamento a null o in genere nei casi in cui nella gestione del flusso informativo di questo metodo si verifica un problema
      */
     @SuppressWarnings("unchecked")
-    private static int csvPrintf(HttpServletRequest req, HttpServletResponse res)
+    private static int csvPrintf(HttpServletRequest req, final HttpServletResponse res, final Extraction extraction)
                           throws ServletException, IOException {
         // Genera l'oggetto per lo standard output
-        PrintWriter out = res.getWriter();
+        final PrintWriter out = res.getWriter();
         // Tradizionalmente, ogni funzione della famiglia x-printf restituisce un intero
         int success = DEFAULT_ID;
         // Ottiene i parametri della richiesta
@@ -524,8 +1397,90 @@ public class Data extends HttpServlet implements Constants {
          * **************************************************************** */
         if (req.getParameter(ConfigManager.getEntToken()).equalsIgnoreCase(COMMAND_REGISTER)) {
             /* ************************************************************ *
-             *    Generazione contenuto files CSV di tutte le interviste    *
+             *   Generazione contenuto file CSV del registro dei trattamenti *
              * ************************************************************ */
+            // Recupera o inizializza parametro per identificare la rilevazione
+            String codeSur = parser.getStringParameter("r", VOID_STRING);
+            // Recupera la sessione creata e valorizzata per riferimento nella req dal metodo authenticate
+            HttpSession ses = req.getSession(IF_EXISTS_DONOT_CREATE_NEW);
+            PersonBean user = (ses == null) ? null : (PersonBean) ses.getAttribute("usr");
+            if (user == null) {
+                throw new ServletException(FOR_NAME + "Attenzione: controllare di essere autenticati nell\'applicazione!\n");
+            }
+            CodeBean survey = ConfigManager.getSurvey(codeSur);
+            if (survey == null) {
+                throw new ServletException(FOR_NAME + "Attenzione: codice rilevazione non valido!\n");
+            }
+            // Richiesta chiusa mentre era in coda: la risposta non va piu' toccata
+            if (extraction.isCancelled()) {
+                return DEFAULT_ID;
+            }
+            // Byte Order Mark: permette ai fogli di calcolo di riconoscere la codifica UTF-8
+            out.write('\uFEFF');
+            try {
+                // Istanzia nuovo Databound
+                DBWrapper db = new DBWrapper();
+                // Scrive ogni riga appena viene letta dal cursore
+                success = db.exportTrattamenti(user, survey, new ItemBean(STATE_ACTIVE, STATE_ACTIVE), new RecordHandler() {
+                    /** Righe scritte dall'ultimo controllo della connessione */
+                    private int pending = NOTHING;
+                    @Override
+                    public void statement(Statement statement) throws IOException {
+                        // Lo rende annullabile dal timeout prima di verificare, cosi' che nessuna chiusura vada persa
+                        extraction.statement.set(statement);
+                        checkCancelled();
+                    }
+                    @Override
+                    public void header(String[] labels) throws IOException {
+                        checkCancelled();
+                        csvPrintln(out, labels);
+                    }
+                    @Override
+                    public void record(String[] values) throws IOException {
+                        checkCancelled();
+                        csvPrintln(out, values);
+                        // Il PrintWriter non solleva eccezioni: ogni tanto verifica che il client sia ancora in ascolto
+                        // (solo dopo che la risposta e' partita: la verifica svuota il buffer)
+                        if (++pending == ConfigManager.getCsvFetchSize()) {
+                            pending = NOTHING;
+                            if (res.isCommitted() && out.checkError()) {
+                                throw new IOException(FOR_NAME + "Impossibile scrivere sulla risposta: connessione chiusa dal client?\n");
+                            }
+                        }
+                    }
+                    /** Interrompe l'estrazione se la richiesta e' stata chiusa o il lavoro annullato */
+                    private void checkCancelled() throws InterruptedIOException {
+                        if (extraction.isCancelled()) {
+                            throw new InterruptedIOException(FOR_NAME + "Esportazione CSV annullata.\n");
+                        }
+                    }
+                });
+            } catch (WebStorageException wse) {
+                String msg = FOR_NAME + "Problema nell\'esportazione CSV del registro.\n";
+                // Una richiesta chiusa dal timeout o da un errore non va piu' toccata
+                if (extraction.isCancelled()) {
+                    log.info(msg + wse.getMessage());
+                    return DEFAULT_ID;
+                }
+                if (!res.isCommitted()) {
+                    // Non e' ancora partito nulla: scarta le righe nel buffer e segnala l'errore
+                    res.reset();
+                    throw new ServletException(msg + wse.getMessage(), wse);
+                }
+                // Le prime righe sono gia' partite: chiude il file con una riga che lo dichiara incompleto
+                log.severe(msg + "Risposta gia\' inviata in parte: il file viene chiuso come incompleto.\n" + wse.getMessage());
+                csvPrintln(out, new String[] { CSV_TRUNCATED });
+                out.flush();
+                return DEFAULT_ID;
+            } finally {
+                // Lo statement e' chiuso: non c'e' piu' nulla da annullare
+                extraction.statement.set(null);
+            }
+            // Una richiesta chiusa dal timeout o da un errore non va piu' toccata
+            if (extraction.isCancelled()) {
+                return DEFAULT_ID;
+            }
+            out.flush();
         }
         else {
             String msg = FOR_NAME + "La Servlet Data non accetta la stringa passata come valore di 'ent': " + req.getParameter(ConfigManager.getEntToken());
@@ -535,4 +1490,160 @@ public class Data extends HttpServlet implements Constants {
         return success;
     }
     
+
+
+    /**
+     * <p>Scrive una riga CSV sul PrintWriter passato come argomento,
+     * separando i valori con il punto e virgola (il separatore atteso
+     * dai fogli di calcolo con impostazioni locali italiane)
+     * e racchiudendo tra doppi apici, con raddoppio di quelli interni,
+     * i valori che contengono separatori, doppi apici o a capo.<br>
+     * I valori null vengono scritti come campi vuoti.</p>
+     *
+     * @param out       il PrintWriter su cui scrivere
+     * @param values    i valori della riga
+     */
+    /* default */ static void csvPrintln(PrintWriter out, String[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (i > NOTHING) {
+                out.write(SEMICOLON);
+            }
+            String value = values[i];
+            if (value != null) {
+                if (value.indexOf(';') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                    out.write('"');
+                    out.write(value.replace("\"", "\"\""));
+                    out.write('"');
+                } else {
+                    out.write(value);
+                }
+            }
+        }
+        out.write("\r\n");
+    }
+
+
+    /**
+     * <p>Contesto comune alle interrogazioni in formato JSON sul registro
+     * di una rilevazione (elenco, faccette, suggerimenti, grafo):
+     * verifica che la richiesta riguardi il registro e che l'utente
+     * sia autenticato, individua la rilevazione (parametro <code>r</code>)
+     * e istanzia il databound.</p>
+     */
+    private static final class JsonRequest {
+        /** Parametri della richiesta */
+        final ParameterParser parser;
+        /** Utente loggato */
+        final PersonBean user;
+        /** Rilevazione interrogata */
+        final CodeBean survey;
+        /** Databound, usato se i dati o gli indici vanno caricati */
+        final DBWrapper db;
+
+        /**
+         * @param req       HttpServletRequest contenente la rilevazione e i parametri dell'interrogazione
+         * @param qToken    il token della commmand di cui si vuole l'interrogazione
+         * @throws CommandException se l'utente non &egrave; autenticato, la rilevazione non &egrave; valida o il database non &egrave; disponibile
+         * @throws IOException se la richiesta non riguarda il registro
+         */
+        JsonRequest(HttpServletRequest req,
+                    String qToken)
+             throws CommandException, IOException {
+            if (qToken == null || !qToken.equalsIgnoreCase(COMMAND_REGISTER)) {
+                String msg = FOR_NAME + "La Servlet Data non accetta la stringa passata come valore di 'ent': " + qToken;
+                log.severe(msg + "Tentativo di indirizzare alla Servlet Data una richiesta non gestita. Hacking test?\n");
+                throw new IOException(msg);
+            }
+            parser = new ParameterParser(req);
+            // Recupera la sessione creata e valorizzata per riferimento nella req dal metodo authenticate
+            HttpSession ses = req.getSession(IF_EXISTS_DONOT_CREATE_NEW);
+            user = (ses == null) ? null : (PersonBean) ses.getAttribute("usr");
+            if (user == null) {
+                throw new CommandException(FOR_NAME + "Attenzione: controllare di essere autenticati nell\'applicazione!\n");
+            }
+            survey = ConfigManager.getSurvey(parser.getStringParameter("r", VOID_STRING));
+            if (survey == null) {
+                throw new CommandException(FOR_NAME + "Attenzione: codice rilevazione non valido!\n");
+            }
+            try {
+                // Istanzia nuovo Databound
+                db = new DBWrapper();
+            } catch (WebStorageException wse) {
+                String msg = FOR_NAME + "Non e\' disponibile un collegamento al database.\n" + wse.getMessage();
+                log.severe(msg);
+                throw new CommandException(msg, wse);
+            }
+        }
+
+        /**
+         * <p>Configura il response per il browser: le interrogazioni
+         * su una rilevazione chiusa hanno gi&agrave; i validatori,
+         * le altre non vanno conservate.</p>
+         *
+         * @param res HttpServletResponse su cui scrivere il documento JSON
+         */
+        void start(HttpServletResponse res) {
+            res.setContentType(MIME_TYPE_JSON);
+            res.setCharacterEncoding("UTF-8");
+            if (!res.containsHeader("ETag")) {
+                res.setHeader("Cache-Control", "no-store");
+            }
+        }
+    }
+
+
+    /**
+     * <p>Stato di un'estrazione, condiviso tra il thread che la esegue
+     * e il listener che, in modalit&agrave; asincrona, la annulla allo scadere
+     * del tempo massimo o in caso di errore sulla connessione.</p>
+     * <p>Una volta chiusa la richiesta ({@link #close()}) il lavoro non deve
+     * pi&ugrave; toccare n&eacute; la richiesta n&eacute; la risposta:
+     * per questo va consultato {@link #isCancelled()} prima di ogni scrittura.
+     * L'annullamento ({@link #cancel()}) interrompe il thread del lavoro
+     * e annulla l'eventuale query in corso.</p>
+     */
+    private static final class Extraction {
+        /** Vale true quando la richiesta e' stata chiusa (dal lavoro, dal timeout o da un errore) */
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+        /** Lavoro che esegue l'estrazione, se accodato */
+        private final AtomicReference<Future<?>> task = new AtomicReference<>();
+        /** Statement della query in corso, se l'estrazione ne sta leggendo le righe */
+        private final AtomicReference<Statement> statement = new AtomicReference<>();
+
+        /**
+         * @return <code>boolean</code> - true se la richiesta &egrave; stata chiusa o il thread corrente interrotto
+         */
+        boolean isCancelled() {
+            return closed.get() || Thread.currentThread().isInterrupted();
+        }
+
+        /**
+         * <p>Chiude la richiesta.</p>
+         *
+         * @return <code>boolean</code> - true solo per chi la chiude per primo, che deve completare il contesto asincrono
+         */
+        boolean close() {
+            return closed.compareAndSet(false, true);
+        }
+
+        /**
+         * <p>Annulla il lavoro, interrompendo il thread che lo esegue,
+         * e la query eventualmente in corso.</p>
+         */
+        void cancel() {
+            Future<?> future = task.get();
+            if (future != null) {
+                future.cancel(true);
+            }
+            Statement running = statement.getAndSet(null);
+            if (running != null) {
+                try {
+                    running.cancel();
+                } catch (SQLException sqle) {
+                    log.warning(FOR_NAME + "Impossibile annullare la query dell'estrazione: " + sqle.getMessage());
+                }
+            }
+        }
+    }
+
 }
@@ -36,7 +36,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -51,6 +51,7 @@ import it.tol.bean.ItemBean;
 import it.tol.command.Command;
 import it.tol.command.HomeCommand;
 import it.tol.exception.CommandException;
+import it.tol.utils.ConditionalRequest;
 import it.tol.utils.Utils;
 
 
@@ -197,6 +198,16 @@ public class Main extends HttpServlet {
             log(FOR_NAME + "Eccezione generica: " + e);
             flush(req, res, errorJsp);
         }
+        /*
+         * Le pagine del registro di una rilevazione chiusa sono validabili:
+         * se il client ne ha gia' la versione corrente risponde 304
+         * senza eseguire la Command
+         */
+        ConditionalRequest validator = ConditionalRequest.of(req);
+        if (validator != null && validator.isNotModified(req)) {
+            validator.notModified(res);
+            return;
+        }
         /*
          * Prepara le breadcrumbs (questo valore puo' essere sovrascritto da Command)
          */
@@ -274,11 +285,15 @@ public class Main extends HttpServlet {
          */
         req.setAttribute("baseHref", baseHref);
         /*
-         * Disabilita Cache
+         * Disabilita Cache, tranne che per le pagine validabili
          */
-        res.setHeader("Cache-Control", "no-cache, no-store, must-revalidate"); // HTTP 1.1
-        res.setHeader("Pragma", "no-cache"); // HTTP 1.0
-        res.setDateHeader("Expires", 0); // Proxies.
+        if (validator != null) {
+            validator.apply(res);
+        } else {
+            res.setHeader("Cache-Control", "no-cache, no-store, must-revalidate"); // HTTP 1.1
+            res.setHeader("Pragma", "no-cache"); // HTTP 1.0
+            res.setDateHeader("Expires", 0); // Proxies.
+        }
         /*
          * Finally, it ends in a proper way
          */
@@ -390,7 +405,7 @@ public class Main extends HttpServlet {
      */
     private static Command lookupCommand(String cmd)
                            throws CommandException {
-        ConcurrentHashMap<String, Command> commands = ConfigManager.getCommands();
+        Map<String, Command> commands = ConfigManager.getCommands();
         // Controllo sull'input
         if (cmd == null)
             cmd = ConfigManager.getHomePage();
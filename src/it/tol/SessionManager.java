@@ -63,6 +63,7 @@ import it.tol.exception.NotFoundException;
 import it.tol.exception.WebStorageException;
 import it.tol.interfaces.Constants;
 import it.tol.utils.Utils;
+import it.tol.wrapper.AccessLogWriter;
 import it.tol.wrapper.DBWrapper;
 
 
@@ -176,6 +177,17 @@ public class SessionManager extends HttpServlet implements Constants {
     }
 
 
+    /**
+     * <p>Arresta lo scrittore asincrono degli accessi,
+     * scrivendo nel database gli accessi ancora in coda.</p>
+     */
+    @Override
+    public void destroy() {
+        AccessLogWriter.shutdown();
+        super.destroy();
+    }
+
+
     /**
      * <p>Gestisce le richieste del client effettuate con il metodo GET.</p>
      *
@@ -432,8 +444,9 @@ public class SessionManager extends HttpServlet implements Constants {
     /**
      * <p>Prepara le informazioni da registrare nel database per tracciare
      * l'evento di login di un determinato utente, passato come argomento.<br />
-     * Chiama il metodo del model, un cui riferimento viene passato come
-     * argomento, che scriver&agrave; nel database i dati  dell'accesso
+     * Accoda l'accesso allo scrittore asincrono degli accessi, che,
+     * tramite il model un cui riferimento viene passato come argomento,
+     * scriver&agrave; nel database i dati dell'accesso
      * &ndash; o ne aggiorner&agrave; gli estremi nel caso in cui
      * l'utente si fosse precedentemente gi&agrave; loggato.</p>
      *
@@ -450,7 +463,13 @@ public class SessionManager extends HttpServlet implements Constants {
                              throws WebStorageException,
                                     UnknownHostException,
                                     RuntimeException {
-        db.manageAccess(username);
+        // La scrittura nel database avviene in background, in batch
+        AccessLogWriter.getInstance(db).trace(username);
+        String msg = "Si e\' loggato l\'utente: " + username +
+                     " in data:" + Utils.format(Utils.getCurrentDate()) +
+                     " alle ore:" + Utils.getCurrentTime() +
+                     ".\n";
+        LOG.info(msg);
     }
 
 
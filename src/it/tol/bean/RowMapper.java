@@ -0,0 +1,392 @@
+/*
+ *   Trattamenti On Line (tol): Applicazione web per la gestione del 
+ *   registro delle attività di trattamento.
+ *
+ *   TOL:
+ *   web application to manage and publish information about
+ *   databases containing personal data, which are managed by subjects 
+ *   belonging to the university or involving 
+ *   the university as manager.
+ *   Copyright (C) 2023 Giovanroberto Torre
+ *   all right reserved
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA<br>
+ *
+ *   Giovanroberto Torre <gianroberto.torre@gmail.com>
+ *   Universita' degli Studi di Verona
+ *   Via Dell'Artigliere, 8
+ *   37129 Verona (Italy)
+ */
+
+package it.tol.bean;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import org.apache.commons.beanutils.ConvertUtils;
+
+
+/**
+ * <p><code>RowMapper.java</code> &egrave; un mapper compilato che popola
+ * un Java Data Bean a partire dalla riga corrente di un ResultSet.</p>
+ * <p>Rispetto a {@link BeanUtil#populate(Object, ResultSet)}, che per ogni riga
+ * interroga i metadati del ResultSet e risolve ogni attributo tramite
+ * introspezione e conversione di tipo, il mapper viene costruito una volta
+ * sola per ogni coppia (classe del bean, struttura delle colonne) e conservato
+ * in un registro; per ciascuna colonna che trova corrispondenza nel bean
+ * memorizza il setter (come <code>MethodHandle</code>) e il metodo tipizzato
+ * del ResultSet da usare per leggerne il valore.
+ * Le colonne prive di un attributo corrispondente vengono scartate
+ * in fase di costruzione, senza sollevare eccezioni riga per riga.</p>
+ * <p>Come in BeanUtil, il valore null di una colonna di tipo VARCHAR
+ * viene inserito nel bean come stringa vuota.</p>
+ * <p>Uso tipico:<pre>
+ * RowMapper&lt;ActivityBean&gt; mapper = RowMapper.get(ActivityBean.class, rs);
+ * while (rs.next()) {
+ *     ActivityBean attivita = new ActivityBean();
+ *     mapper.populate(attivita, rs);
+ * }</pre></p>
+ *
+ * @param <T> tipo del bean da popolare
+ * @author <a href="mailto:gianroberto.torre@gmail.com">Giovanroberto Torre</a>
+ */
+public class RowMapper<T> {
+
+    /**
+     * <p>Logger della classe per scrivere i messaggi di errore.
+     * All logging goes through this logger.</p>
+     */
+    private static Logger LOG = Logger.getLogger(RowMapper.class.getName());
+    /**
+     * <p>Nome di questa classe
+     * (viene utilizzato per contestualizzare i messaggi di errore).</p>
+     */
+    static final String FOR_NAME = "\n" + Logger.getLogger(new Throwable().getStackTrace()[0].getClassName()) + ": ";
+    /**
+     * <p>Registro dei mapper gi&agrave; compilati,
+     * indicizzati per classe del bean e struttura delle colonne.</p>
+     */
+    private static final ConcurrentHashMap<String, RowMapper<?>> MAPPERS = new ConcurrentHashMap<>();
+    /*
+     * Modalita' di lettura del valore di una colonna dal ResultSet,
+     * determinate in base al tipo dell'argomento del setter
+     */
+    private static final int READ_STRING = 1;
+    private static final int READ_INT = 2;
+    private static final int READ_LONG = 3;
+    private static final int READ_DOUBLE = 4;
+    private static final int READ_FLOAT = 5;
+    private static final int READ_BOOLEAN = 6;
+    private static final int READ_SHORT = 7;
+    private static final int READ_DATE = 8;
+    private static final int READ_TIME = 9;
+    private static final int READ_TIMESTAMP = 10;
+    private static final int READ_OBJECT = 11;
+    /** Indici (1-based) delle colonne mappate */
+    private final int[] columns;
+    /** Setter corrispondenti alle colonne mappate */
+    private final MethodHandle[] setters;
+    /** Modalit&agrave; di lettura di ciascuna colonna mappata */
+    private final int[] reads;
+    /** Tipi degli argomenti dei setter (usati solo per READ_OBJECT) */
+    private final Class<?>[] types;
+    /** Indica, per ciascuna colonna mappata, se &egrave; di tipo VARCHAR */
+    private final boolean[] varchar;
+    /** Nomi delle colonne mappate (per i messaggi di errore) */
+    private final String[] names;
+
+
+    /**
+     * <p>Costruttore privato: i mapper si ottengono tramite
+     * {@link #get(Class, ResultSet)}.</p>
+     *
+     * @param columns   indici delle colonne mappate
+     * @param setters   setter corrispondenti
+     * @param reads     modalita' di lettura
+     * @param types     tipi degli argomenti dei setter
+     * @param varchar   flag delle colonne di tipo VARCHAR
+     * @param names     nomi delle colonne mappate
+     */
+    private RowMapper(int[] columns,
+                      MethodHandle[] setters,
+                      int[] reads,
+                      Class<?>[] types,
+                      boolean[] varchar,
+                      String[] names) {
+        this.columns = columns;
+        this.setters = setters;
+        this.reads = reads;
+        this.types = types;
+        this.varchar = varchar;
+        this.names = names;
+    }
+
+
+    /**
+     * <p>Restituisce il mapper per la classe di bean e per la struttura
+     * di colonne del ResultSet passati come argomenti,
+     * compilandolo al primo utilizzo.</p>
+     * <p>I metadati vengono letti una volta per ResultSet, non per riga:
+     * il chiamante ottiene il mapper prima di iniziare a scorrere le righe.</p>
+     *
+     * @param <T>       tipo del bean
+     * @param beanClass classe del bean da popolare
+     * @param rs        ResultSet di cui si vogliono mappare le righe
+     * @return <code>RowMapper&lt;T&gt;</code> - mapper pronto all'uso
+     * @throws SQLException se si verifica un problema nell'acquisizione dei metadati o nell'introspezione del bean
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> RowMapper<T> get(Class<T> beanClass,
+                                       ResultSet rs)
+                                throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        int cols = metaData.getColumnCount();
+        String[] columnNames = new String[cols];
+        int[] sqlTypes = new int[cols];
+        StringBuffer key = new StringBuffer(beanClass.getName());
+        for (int i = 1; i <= cols; i++) {
+            // Come in BeanUtil: il driver PostgreSQL restituisce l'alias della colonna
+            columnNames[i - 1] = metaData.getColumnName(i);
+            sqlTypes[i - 1] = metaData.getColumnType(i);
+            key.append('|').append(columnNames[i - 1]).append(':').append(sqlTypes[i - 1]);
+        }
+        RowMapper<?> mapper = MAPPERS.get(key.toString());
+        if (mapper == null) {
+            mapper = compile(beanClass, columnNames, sqlTypes);
+            RowMapper<?> previous = MAPPERS.putIfAbsent(key.toString(), mapper);
+            if (previous != null) {
+                mapper = previous;
+            }
+        }
+        return (RowMapper<T>) mapper;
+    }
+
+
+    /**
+     * <p>Popola gli attributi del bean con i valori della riga corrente
+     * del ResultSet.</p>
+     *
+     * @param bean  il bean da popolare
+     * @param rs    il ResultSet, gi&agrave; posizionato sulla riga da leggere
+     * @throws SQLException se si verifica un problema nella lettura di un valore o nell'impostazione di un attributo
+     */
+    public void populate(T bean,
+                         ResultSet rs)
+                  throws SQLException {
+        for (int i = 0; i < columns.length; i++) {
+            int col = columns[i];
+            Object value = null;
+            switch (reads[i]) {
+                case READ_STRING:
+                    value = rs.getString(col);
+                    if (value == null && varchar[i]) {
+                        value = "";
+                    }
+                    break;
+                case READ_INT:
+                    value = Integer.valueOf(rs.getInt(col));
+                    break;
+                case READ_LONG:
+                    value = Long.valueOf(rs.getLong(col));
+                    break;
+                case READ_DOUBLE:
+                    value = Double.valueOf(rs.getDouble(col));
+                    break;
+                case READ_FLOAT:
+                    value = Float.valueOf(rs.getFloat(col));
+                    break;
+                case READ_BOOLEAN:
+                    value = Boolean.valueOf(rs.getBoolean(col));
+                    break;
+                case READ_SHORT:
+                    value = Short.valueOf(rs.getShort(col));
+                    break;
+                case READ_DATE:
+                    value = rs.getDate(col);
+                    break;
+                case READ_TIME:
+                    value = rs.getTime(col);
+                    break;
+                case READ_TIMESTAMP:
+                    value = rs.getTimestamp(col);
+                    break;
+                default:
+                    value = rs.getObject(col);
+                    if (value != null && !types[i].isInstance(value)) {
+                        value = ConvertUtils.convert(value.toString(), types[i]);
+                    }
+            }
+            // Sui wrapper dei tipi primitivi preserva il null
+            if (value != null && !types[i].isPrimitive() && reads[i] != READ_STRING && rs.wasNull()) {
+                value = null;
+            }
+            // Un null non puo' essere assegnato a un tipo primitivo: resta il valore di default
+            if (value == null && types[i].isPrimitive()) {
+                continue;
+            }
+            try {
+                setters[i].invoke(bean, value);
+            } catch (Throwable t) {
+                throw new SQLException("Problemi nel settare l'attributo '" + names[i] + "' nel bean di tipo '"
+                        + bean.getClass() + "': " + t.getMessage(), t);
+            }
+        }
+    }
+
+
+    /**
+     * <p>Compila un mapper risolvendo, per ciascuna colonna,
+     * il setter del bean avente nome uguale al nome della colonna.</p>
+     *
+     * @param beanClass   classe del bean
+     * @param columnNames nomi delle colonne
+     * @param sqlTypes    tipi SQL delle colonne
+     * @return <code>RowMapper&lt;?&gt;</code> - mapper compilato
+     * @throws SQLException se l'introspezione del bean non va a buon fine
+     */
+    private static RowMapper<?> compile(Class<?> beanClass,
+                                        String[] columnNames,
+                                        int[] sqlTypes)
+                                 throws SQLException {
+        HashMap<String, Method> writers = new HashMap<>();
+        try {
+            BeanInfo info = Introspector.getBeanInfo(beanClass);
+            for (PropertyDescriptor pd : info.getPropertyDescriptors()) {
+                if (pd.getWriteMethod() != null) {
+                    writers.put(pd.getName(), pd.getWriteMethod());
+                }
+            }
+        } catch (IntrospectionException ie) {
+            String msg = FOR_NAME + "Impossibile analizzare il bean di tipo '" + beanClass.getName() + "'.\n";
+            LOG.severe(msg);
+            throw new SQLException(msg + ie.getMessage(), ie);
+        }
+        // Setter non riconosciuti dall'Introspector (p.es. attributi con setter sovraccarichi)
+        for (Method m : beanClass.getMethods()) {
+            if (m.getName().startsWith("set") && m.getName().length() > 3 &&
+                    m.getParameterTypes().length == 1 && !Modifier.isStatic(m.getModifiers())) {
+                String property = Introspector.decapitalize(m.getName().substring(3));
+                if (!writers.containsKey(property)) {
+                    writers.put(property, m);
+                }
+            }
+        }
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        ArrayList<Integer> columns = new ArrayList<>();
+        ArrayList<MethodHandle> setters = new ArrayList<>();
+        ArrayList<Integer> reads = new ArrayList<>();
+        ArrayList<Class<?>> types = new ArrayList<>();
+        ArrayList<Boolean> varchar = new ArrayList<>();
+        ArrayList<String> names = new ArrayList<>();
+        for (int i = 0; i < columnNames.length; i++) {
+            Method writer = writers.get(columnNames[i]);
+            if (writer == null) {
+                // Il result set e' piu' ricco del bean: la colonna viene ignorata
+                LOG.fine("La colonna '" + columnNames[i] + "' non e\' presente nel bean '" + beanClass.getName() + "'");
+                continue;
+            }
+            Class<?> type = writer.getParameterTypes()[0];
+            try {
+                MethodHandle setter = lookup.unreflect(writer)
+                        .asType(MethodType.methodType(void.class, Object.class, Object.class));
+                columns.add(Integer.valueOf(i + 1));
+                setters.add(setter);
+                reads.add(Integer.valueOf(readFor(type, sqlTypes[i])));
+                types.add(type);
+                varchar.add(Boolean.valueOf(sqlTypes[i] == Types.VARCHAR));
+                names.add(columnNames[i]);
+            } catch (IllegalAccessException iae) {
+                String msg = FOR_NAME + "Non e\' possibile accedere al metodo associato a '" + columnNames[i]
+                        + "' nel bean di tipo '" + beanClass.getName() + "'.\n";
+                LOG.severe(msg);
+                throw new SQLException(msg + iae.getMessage(), iae);
+            }
+        }
+        int size = columns.size();
+        int[] cols = new int[size];
+        int[] rds = new int[size];
+        boolean[] vch = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            cols[i] = columns.get(i).intValue();
+            rds[i] = reads.get(i).intValue();
+            vch[i] = varchar.get(i).booleanValue();
+        }
+        return new RowMapper<>(cols,
+                               setters.toArray(new MethodHandle[size]),
+                               rds,
+                               types.toArray(new Class<?>[size]),
+                               vch,
+                               names.toArray(new String[size]));
+    }
+
+
+    /**
+     * <p>Determina il metodo tipizzato del ResultSet da usare
+     * per leggere una colonna, in base al tipo dell'argomento del setter
+     * e al tipo SQL della colonna.</p>
+     *
+     * @param type      tipo dell'argomento del setter
+     * @param sqlType   tipo SQL della colonna
+     * @return <code>int</code> - modalita' di lettura
+     */
+    private static int readFor(Class<?> type,
+                               int sqlType) {
+        if (type == String.class) {
+            return READ_STRING;
+        } else if (type == int.class || type == Integer.class) {
+            return READ_INT;
+        } else if (type == long.class || type == Long.class) {
+            return READ_LONG;
+        } else if (type == double.class || type == Double.class) {
+            return READ_DOUBLE;
+        } else if (type == float.class || type == Float.class) {
+            return READ_FLOAT;
+        } else if (type == boolean.class || type == Boolean.class) {
+            return READ_BOOLEAN;
+        } else if (type == short.class || type == Short.class) {
+            return READ_SHORT;
+        } else if (type == java.sql.Time.class) {
+            return READ_TIME;
+        } else if (type == java.sql.Timestamp.class) {
+            return READ_TIMESTAMP;
+        } else if (type == java.sql.Date.class) {
+            return READ_DATE;
+        } else if (type == java.util.Date.class) {
+            if (sqlType == Types.TIMESTAMP) {
+                return READ_TIMESTAMP;
+            } else if (sqlType == Types.TIME) {
+                return READ_TIME;
+            }
+            return READ_DATE;
+        }
+        return READ_OBJECT;
+    }
+
+}
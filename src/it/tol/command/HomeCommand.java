@@ -37,8 +37,8 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.Vector;
 import java.util.logging.Logger;
 import java.util.regex.PatternSyntaxException;
 
@@ -423,7 +423,7 @@ public class HomeCommand extends ItemBean implements Command, Constants {
                                                 throws CommandException {
         int prime = 13;                 // per ottimizzare
         // Ottiene l'elenco delle Command
-        Vector<ItemBean> classiCommand = ConfigManager.getClassiCommand();
+        List<ItemBean> classiCommand = ConfigManager.getClassiCommand();
         // Genera l'etichetta per nodo radice
         final String homeLbl = Utils.capitalize(COMMAND_HOME);
         // Dichiara la struttura per la lista di voci da usare per generare le breadcrumbs
@@ -33,6 +33,7 @@
 package it.tol.command;
 
 import java.sql.Time;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -61,6 +62,9 @@ import it.tol.exception.CommandException;
 import it.tol.exception.WebStorageException;
 import it.tol.interfaces.Constants;
 import it.tol.wrapper.DBWrapper;
+import it.tol.wrapper.ProcessingCache;
+import it.tol.wrapper.SingleFlight;
+import it.tol.wrapper.SnapshotStore;
 
 
 /** 
@@ -105,6 +109,16 @@ public class RegisterCommand extends ItemBean implements Command, Constants {
      *  Tabella chiave/valore contenente il numero di quesiti per ogni rilevazione
      */
     private static ConcurrentHashMap<String, Integer> questionAmounts; 
+    /**
+     *  Accorpatore dei caricamenti contemporanei dello stesso trattamento
+     *  (i bean sono modificabili: le richieste accorpate ne ricevono una copia)
+     */
+    private static final SingleFlight<ProcessingBean> treatmentLoads = new SingleFlight<>("trattamento", SingleFlight.<ProcessingBean>bySerialization());
+    /**
+     *  Accorpatore dei caricamenti contemporanei dello stesso registro
+     *  (i bean sono modificabili: le richieste accorpate ne ricevono una copia)
+     */
+    private static final SingleFlight<ArrayList<ProcessingBean>> registerLoads = new SingleFlight<>("registro", SingleFlight.<ArrayList<ProcessingBean>>bySerialization());
 
     
     /** 
@@ -268,8 +282,8 @@ public class RegisterCommand extends ItemBean implements Command, Constants {
                             /* ************************************************ *
                              *             SELECT List of Treatments            *
                              * ************************************************ */
-                            treats = db.getTrattamenti(user, survey);
-                            fileJspT = fileElenco;                            
+                            // Le righe vengono richieste pagina per pagina alla Data (out=json)
+                            fileJspT = fileElenco;
                         }
                     }
                 }
@@ -353,15 +367,54 @@ public class RegisterCommand extends ItemBean implements Command, Constants {
      * @return <code>ProcessingBean</code> - trattamento 
      * @throws CommandException se si verifica un problema nella query o nell'estrazione, nel recupero di valori o in qualche altro tipo di puntamento
      */
-    public static ProcessingBean retrieve(PersonBean user,
-                                          String codeT,
-                                          int idStato,
-                                          CodeBean survey,
-                                          DBWrapper db)
+    public static ProcessingBean retrieve(final PersonBean user,
+                                          final String codeT,
+                                          final int idStato,
+                                          final CodeBean survey,
+                                          final DBWrapper db)
                                    throws CommandException {
+        // Richieste identiche contemporanee condividono un unico caricamento
+        return treatmentLoads.execute(flightKey(survey, codeT, idStato), new SingleFlight.Call<ProcessingBean>() {
+            @Override
+            public ProcessingBean call() throws CommandException {
+                return load(user, codeT, idStato, survey, db);
+            }
+        });
+    }
+    
+    
+    /**
+     * <p>Carica un trattamento dati, dalla cache se ancora allineata
+     * al database, v. {@link #retrieve(PersonBean, String, int, CodeBean, DBWrapper)}.</p>
+     * 
+     * @param user      utente loggato
+     * @param codeT     codice identificativo del trattamento
+     * @param idStato   identificativo dello stato del trattamento
+     * @param survey    rilevazione
+     * @param db        databound gia' istanziato
+     * @return <code>ProcessingBean</code> - trattamento 
+     * @throws CommandException se si verifica un problema nella query o nell'estrazione, nel recupero di valori o in qualche altro tipo di puntamento
+     */
+    private static ProcessingBean load(PersonBean user,
+                                       String codeT,
+                                       int idStato,
+                                       CodeBean survey,
+                                       DBWrapper db)
+                                throws CommandException {
         try {
             ItemBean stato = new ItemBean(idStato, idStato);
-            ProcessingBean treat = db.getTrattamento(user, codeT, stato, survey);
+            // Il registro di una rilevazione con istantanea su disco non cambia: nessuna verifica
+            if (SnapshotStore.getInstance().contains(survey.getId())) {
+                return db.getTrattamento(user, codeT, stato, survey);
+            }
+            ProcessingCache cache = ProcessingCache.getInstance();
+            // Verifica se la copia in cache e' ancora allineata al database
+            Timestamp lastModified = db.getUltimaModifica(codeT, stato, survey);
+            ProcessingBean treat = cache.get(survey.getId(), codeT, idStato, lastModified);
+            if (treat == null) {
+                treat = db.getTrattamento(user, codeT, stato, survey);
+                cache.put(survey.getId(), codeT, idStato, lastModified, treat);
+            }
             return treat;
         } catch (WebStorageException wse) {
             String msg = FOR_NAME + "Si e\' verificato un problema nel recupero di valori dal db.\n";
@@ -393,22 +446,41 @@ public class RegisterCommand extends ItemBean implements Command, Constants {
      * @return <code>ArrayList&lt;ProcessingBean&gt;</code> - ArrayList di trattamenti trovati 
      * @throws CommandException se si verifica un problema nella query o nell'estrazione, nel recupero di valori o in qualche altro tipo di puntamento
      */
-    public static ArrayList<ProcessingBean> retrieve(PersonBean user,
-                                                     int idStato,
-                                                     CodeBean survey,
-                                                     DBWrapper db)
+    public static ArrayList<ProcessingBean> retrieve(final PersonBean user,
+                                                     final int idStato,
+                                                     final CodeBean survey,
+                                                     final DBWrapper db)
                                               throws CommandException {
-        // Dichiara lista di trattamenti
-        ArrayList<ProcessingBean> vTr = new ArrayList<>();
-        try {
-            ArrayList<ItemBean> vRaw = db.getTrattamenti(user, survey);
-            // Cicla sui trattamenti trovati
-            for (ItemBean raw : vRaw) {
-                String codeT = raw.getCodice();
-                ItemBean stato = new ItemBean(idStato, idStato);
-                ProcessingBean t = db.getTrattamento(user, codeT, stato, survey);
-                vTr.add(t);
+        // Richieste identiche contemporanee condividono un unico caricamento, ciascuna con i propri bean
+        return registerLoads.execute(flightKey(survey, null, idStato), new SingleFlight.Call<ArrayList<ProcessingBean>>() {
+            @Override
+            public ArrayList<ProcessingBean> call() throws CommandException {
+                return load(user, idStato, survey, db);
             }
+        });
+    }
+    
+    
+    /**
+     * <p>Carica dal database l'elenco dei trattamenti di una rilevazione,
+     * v. {@link #retrieve(PersonBean, int, CodeBean, DBWrapper)}.</p>
+     * 
+     * @param user      utente loggato
+     * @param idStato   identificativo dello stato trattamento
+     * @param survey    rilevazione
+     * @param db        databound gia' istanziato
+     * @return <code>ArrayList&lt;ProcessingBean&gt;</code> - ArrayList di trattamenti trovati 
+     * @throws CommandException se si verifica un problema nella query o nell'estrazione, nel recupero di valori o in qualche altro tipo di puntamento
+     */
+    private static ArrayList<ProcessingBean> load(PersonBean user,
+                                                  int idStato,
+                                                  CodeBean survey,
+                                                  DBWrapper db)
+                                           throws CommandException {
+        try {
+            ItemBean stato = new ItemBean(idStato, idStato);
+            // Estrae tutti i trattamenti con una query per ciascuna relazione
+            ArrayList<ProcessingBean> vTr = db.getTrattamenti(user, survey, stato);
             return vTr;
         } catch (WebStorageException wse) {
             String msg = FOR_NAME + "Si e\' verificato un problema nel recupero di valori dal db.\n";
@@ -422,6 +494,40 @@ public class RegisterCommand extends ItemBean implements Command, Constants {
     }
 
     
+    /**
+     * <p>Compone la chiave con cui vengono accorpate le richieste identiche
+     * contemporanee: rilevazione, codice del trattamento (null per l'intero
+     * registro) e stato, cio&egrave; tutti e soli i valori da cui dipendono
+     * le query di caricamento. L'utente non entra nella chiave perch&eacute;
+     * le query di {@link DBWrapper} non filtrano i trattamenti in base
+     * all'utente (i diritti vengono verificati prima, per ciascuna richiesta);
+     * se un giorno lo facessero, la chiave dovrebbe comprendere anche
+     * i valori dell'utente usati dalle query.</p>
+     * 
+     * @param survey    rilevazione
+     * @param codeT     codice del trattamento, oppure null per l'intero registro
+     * @param idStato   identificativo dello stato
+     * @return <code>String</code> - chiave della richiesta
+     * @throws CommandException se un attributo obbligatorio della rilevazione non &egrave; valorizzato
+     */
+    public static String flightKey(CodeBean survey,
+                                   String codeT,
+                                   int idStato)
+                            throws CommandException {
+        try {
+            StringBuilder key = new StringBuilder(64);
+            key.append(survey.getId()).append('|')
+               .append(codeT == null ? VOID_STRING : codeT).append('|')
+               .append(idStato);
+            return key.toString();
+        } catch (AttributoNonValorizzatoException anve) {
+            String msg = FOR_NAME + "Si e\' verificato un problema nel recupero di un attributo obbligatorio.\n";
+            LOG.severe(msg);
+            throw new CommandException(msg + anve.getMessage(), anve);
+        }
+    }
+    
+    
     /**
      * <p>Valorizza per riferimento una mappa contenente tutti i valori 
      * parametrici riscontrati sulla richiesta.</p>
@@ -37,6 +37,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.logging.Logger;
 
 import javax.servlet.http.HttpServletRequest;
@@ -44,14 +45,25 @@ import javax.servlet.http.HttpSession;
 
 import com.oreilly.servlet.ParameterParser;
 
+import it.tol.ConfigManager;
 import it.tol.Main;
+import it.tol.bean.CodeBean;
 import it.tol.bean.ItemBean;
 import it.tol.bean.PersonBean;
 import it.tol.bean.ProcessBean;
+import it.tol.bean.ProcessingBean;
+import it.tol.exception.AttributoNonValorizzatoException;
 import it.tol.exception.CommandException;
 import it.tol.exception.WebStorageException;
 import it.tol.interfaces.Constants;
+import it.tol.interfaces.RegistryListener;
 import it.tol.wrapper.DBWrapper;
+import it.tol.wrapper.FacetIndex;
+import it.tol.wrapper.GraphIndex;
+import it.tol.wrapper.SearchIndex;
+import it.tol.wrapper.SingleFlight;
+import it.tol.wrapper.SnapshotStore;
+import it.tol.wrapper.Typeahead;
 
 
 /**
@@ -86,10 +98,48 @@ public class ReportCommand extends ItemBean implements Command, Constants {
      * Pagina a cui la command fa riferimento per mostrare la form di ricerca
      */
     private static final String nomeFileSearch = "/jsp/muRicerca.jsp";
+    /**
+     * Pagina a cui la command fa riferimento per mostrare l'analisi delle relazioni del registro
+     */
+    private static final String nomeFileGraph = "/jsp/muGrafo.jsp";
     /**
      * Struttura contenente le pagina a cui la command fa riferimento per mostrare tutti gli attributi del progetto
      */
     private static final HashMap<String, String> nomeFile = new HashMap<String, String>();
+    /**
+     * Costruzioni contemporanee dell'indice a faccette di una stessa rilevazione
+     */
+    private static final SingleFlight<FacetIndex> facetBuilds = new SingleFlight<>("faccette");
+    /**
+     * Aggiornamenti contemporanei dell'indice di ricerca di una stessa rilevazione
+     */
+    private static final SingleFlight<SearchIndex> searchRefreshes = new SingleFlight<>("ricerca");
+    /**
+     * Costruzioni contemporanee dell'albero dei suggerimenti di una stessa rilevazione
+     */
+    private static final SingleFlight<Typeahead> typeaheadBuilds = new SingleFlight<>("suggerimenti");
+    /**
+     * Ricostruisce gli alberi dei suggerimenti a ogni ricaricamento del registro
+     * (v. {@link #refreshTypeaheads(List, DBWrapper)})
+     */
+    private static final RegistryListener typeaheadRefresher = new RegistryListener() {
+        @Override
+        public void registryLoaded(List<CodeBean> surveys, DBWrapper db) {
+            refreshTypeaheads(surveys, db);
+        }
+        @Override
+        public void shutdown() {
+            /*;*/   // Nessuna risorsa da rilasciare
+        }
+    };
+    /**
+     * Costruzioni contemporanee del grafo delle relazioni di una stessa rilevazione
+     */
+    private static final SingleFlight<GraphIndex> graphBuilds = new SingleFlight<>("grafo");
+    /**
+     * Numero massimo di risultati mostrati dalla ricerca a testo libero
+     */
+    private static final int MAX_HITS = 50;
     /**
      *  Processo di dato id
      */
@@ -125,7 +175,10 @@ public class ReportCommand extends ItemBean implements Command, Constants {
         }
         // Carica la hashmap contenente le pagine da includere in funzione dei parametri sulla querystring
         nomeFile.put(PART_SEARCH,     nomeFileSearch);
+        nomeFile.put(PART_GRAPH,      nomeFileGraph);
         //nomeFile.put(Query.PART_PROJECT, this.getPaginaJsp());
+        // Gli alberi dei suggerimenti vanno ricostruiti a ogni ricaricamento del registro
+        ConfigManager.addRegistryListener(typeaheadRefresher);
     }
 
 
@@ -165,6 +218,18 @@ public class ReportCommand extends ItemBean implements Command, Constants {
         HashMap<String, LinkedHashMap<String, String>> params = null;
         // Preprara BreadCrumbs
         LinkedList<ItemBean> bC = null;
+        // Dichiara conteggi per faccetta dei trattamenti selezionati
+        LinkedHashMap<String, Integer> facets = null;
+        // Dichiara codici dei trattamenti selezionati
+        ArrayList<String> selection = null;
+        // Recupera o inizializza il testo da cercare
+        String text = parser.getStringParameter("s", VOID_STRING).trim();
+        // Dichiara risultati della ricerca a testo libero
+        ArrayList<SearchIndex.Hit> hits = null;
+        // Dichiara grafo delle relazioni del registro
+        GraphIndex graph = null;
+        // Dichiara nodo del grafo da analizzare, se richiesto
+        GraphIndex.Node node = null;
         /* ******************************************************************** *
          *      Instanzia nuova classe WebStorage per il recupero dei dati      *
          * ******************************************************************** */
@@ -228,6 +293,40 @@ public class ReportCommand extends ItemBean implements Command, Constants {
             LOG.severe(msg);
             throw new CommandException(msg + e.getMessage(), e);
         }
+        /* ******************************************************************** *
+         *                 Interroga l'indice a faccette                        *
+         * ******************************************************************** */
+        if (part.equals(PART_FACETS)) {
+            CodeBean survey = ConfigManager.getSurvey(codeSur);
+            if (survey == null) {
+                throw new CommandException(FOR_NAME + "Attenzione: codice rilevazione non valido!\n");
+            }
+            FacetIndex index = retrieveFacets(user, survey, db);
+            long[] bits = index.query(parser.getStringParameter("f", VOID_STRING));
+            facets = index.counts(bits);
+            selection = index.codes(bits);
+        }
+        /* ******************************************************************** *
+         *                Esegue la ricerca a testo libero                      *
+         * ******************************************************************** */
+        if (part.equals(PART_SEARCH) && !text.isEmpty()) {
+            CodeBean survey = ConfigManager.getSurvey(codeSur);
+            if (survey == null) {
+                throw new CommandException(FOR_NAME + "Attenzione: codice rilevazione non valido!\n");
+            }
+            hits = retrieveSearch(user, survey, db).search(text, MAX_HITS);
+        }
+        /* ******************************************************************** *
+         *             Prepara l'analisi delle relazioni del registro           *
+         * ******************************************************************** */
+        if (part.equals(PART_GRAPH)) {
+            CodeBean survey = ConfigManager.getSurvey(codeSur);
+            if (survey == null) {
+                throw new CommandException(FOR_NAME + "Attenzione: codice rilevazione non valido!\n");
+            }
+            graph = retrieveGraph(user, survey, db);
+            node = graph.getNode(parser.getStringParameter("n", null));
+        }
         /* ******************************************************************** *
          *              Settaggi in request dei valori calcolati                *
          * ******************************************************************** */
@@ -248,8 +347,304 @@ public class ReportCommand extends ItemBean implements Command, Constants {
             req.removeAttribute("breadCrumbs");
             req.setAttribute("breadCrumbs", bC);
         }
+        // Imposta nella request conteggi per faccetta e trattamenti selezionati, se richiesti
+        if (facets != null) {
+            req.setAttribute("faccette", facets);
+            req.setAttribute("selezione", selection);
+        }
+        // Imposta nella request testo cercato e risultati, se e' stata eseguita una ricerca
+        if (hits != null) {
+            req.setAttribute("ricerca", text);
+            req.setAttribute("risultati", hits);
+        }
+        // Imposta nella request il grafo e, se richiesta, l'analisi di un nodo
+        if (graph != null) {
+            req.setAttribute("database", graph.getNodes(GraphIndex.NODE_DATABASE));
+            req.setAttribute("basiGiuridiche", graph.getNodes(GraphIndex.NODE_LEGAL_BASIS));
+            req.setAttribute("orfane", graph.orphans());
+            if (node != null) {
+                req.setAttribute("nodo", node);
+                req.setAttribute("condivisi", graph.neighbours(node, GraphIndex.NODE_TREATMENT));
+                req.setAttribute("impatto", graph.impact(node));
+            }
+        }
         // Imposta la Pagina JSP di forwarding
         req.setAttribute("fileJsp", fileJspT);
     }
+    
+    
+    /**
+     * <p>Restituisce l'indice a faccette del registro di una rilevazione,
+     * costruendolo se non esiste ancora o se non &egrave; pi&uacute; valido
+     * (v. {@link FacetIndex#get(int, long)}).<br />
+     * Le richieste contemporanee sulla stessa rilevazione condividono
+     * un'unica costruzione.</p>
+     * 
+     * @param user      utente loggato
+     * @param survey    rilevazione
+     * @param db        databound gia' istanziato
+     * @return <code>FacetIndex</code> - l'indice a faccette del registro
+     * @throws CommandException se si verifica un problema nel recupero dei trattamenti o di attributi obbligatori
+     */
+    public static FacetIndex retrieveFacets(final PersonBean user,
+                                            final CodeBean survey,
+                                            final DBWrapper db)
+                                     throws CommandException {
+        try {
+            final int idSurvey = survey.getId();
+            FacetIndex index = FacetIndex.get(idSurvey, stamp(idSurvey));
+            if (index != null) {
+                return index;
+            }
+            return facetBuilds.execute(String.valueOf(idSurvey), new SingleFlight.Call<FacetIndex>() {
+                @Override
+                public FacetIndex call() throws CommandException {
+                    // Stessi trattamenti, attivi, mostrati dal registro
+                    ArrayList<ProcessingBean> list = RegisterCommand.retrieve(user, STATE_ACTIVE, survey, db);
+                    try {
+                        // L'istantanea potrebbe essere stata costruita proprio ora
+                        FacetIndex built = FacetIndex.build(idSurvey, stamp(idSurvey), list);
+                        FacetIndex.put(built);
+                        return built;
+                    } catch (AttributoNonValorizzatoException anve) {
+                        String msg = FOR_NAME + "Si e\' verificato un problema nel recupero del codice di un trattamento.\n";
+                        LOG.severe(msg);
+                        throw new CommandException(msg + anve.getMessage(), anve);
+                    }
+                }
+            });
+        } catch (AttributoNonValorizzatoException anve) {
+            String msg = FOR_NAME + "Si e\' verificato un problema nel recupero dell\'identificativo della rilevazione.\n";
+            LOG.severe(msg);
+            throw new CommandException(msg + anve.getMessage(), anve);
+        }
+    }
+    
+    
+    /**
+     * <p>Restituisce l'indice di ricerca a testo libero del registro
+     * di una rilevazione, allineandolo prima al registro corrente se
+     * non &egrave; pi&ugrave; valido (v. {@link SearchIndex#isFresh(long)});
+     * l'allineamento rianalizza solo i trattamenti cambiati.<br />
+     * Le richieste contemporanee sulla stessa rilevazione condividono
+     * un unico allineamento.</p>
+     * 
+     * @param user      utente loggato
+     * @param survey    rilevazione
+     * @param db        databound gia' istanziato
+     * @return <code>SearchIndex</code> - l'indice di ricerca del registro
+     * @throws CommandException se si verifica un problema nel recupero dei trattamenti o di attributi obbligatori
+     */
+    public static SearchIndex retrieveSearch(final PersonBean user,
+                                             final CodeBean survey,
+                                             final DBWrapper db)
+                                      throws CommandException {
+        try {
+            final int idSurvey = survey.getId();
+            final SearchIndex index = SearchIndex.getInstance(idSurvey);
+            if (index.isFresh(stamp(idSurvey))) {
+                return index;
+            }
+            return searchRefreshes.execute(String.valueOf(idSurvey), new SingleFlight.Call<SearchIndex>() {
+                @Override
+                public SearchIndex call() throws CommandException {
+                    // Stessi trattamenti, attivi, mostrati dal registro
+                    ArrayList<ProcessingBean> list = RegisterCommand.retrieve(user, STATE_ACTIVE, survey, db);
+                    try {
+                        index.refresh(stamp(idSurvey), list);
+                        return index;
+                    } catch (AttributoNonValorizzatoException anve) {
+                        String msg = FOR_NAME + "Si e\' verificato un problema nel recupero di un attributo di un trattamento.\n";
+                        LOG.severe(msg);
+                        throw new CommandException(msg + anve.getMessage(), anve);
+                    }
+                }
+            });
+        } catch (AttributoNonValorizzatoException anve) {
+            String msg = FOR_NAME + "Si e\' verificato un problema nel recupero dell\'identificativo della rilevazione.\n";
+            LOG.severe(msg);
+            throw new CommandException(msg + anve.getMessage(), anve);
+        }
+    }
+    
+    
+    /**
+     * <p>Restituisce l'albero dei suggerimenti per il completamento
+     * automatico del registro di una rilevazione; se il registro
+     * &egrave; cambiato (v. {@link Typeahead#get(int, long)}) ne costruisce
+     * uno nuovo, che sostituisce il precedente in un'unica operazione.<br />
+     * Le richieste contemporanee sulla stessa rilevazione condividono
+     * un'unica costruzione.</p>
+     * 
+     * @param user      utente loggato
+     * @param survey    rilevazione
+     * @param db        databound gia' istanziato
+     * @return <code>Typeahead</code> - l'albero dei suggerimenti del registro
+     * @throws CommandException se si verifica un problema nel recupero dei trattamenti o di attributi obbligatori
+     */
+    public static Typeahead retrieveTypeahead(final PersonBean user,
+                                              final CodeBean survey,
+                                              final DBWrapper db)
+                                       throws CommandException {
+        try {
+            final int idSurvey = survey.getId();
+            Typeahead index = Typeahead.get(idSurvey, stamp(idSurvey));
+            if (index != null) {
+                return index;
+            }
+            return rebuildTypeahead(user, survey, db);
+        } catch (AttributoNonValorizzatoException anve) {
+            String msg = FOR_NAME + "Si e\' verificato un problema nel recupero dell\'identificativo della rilevazione.\n";
+            LOG.severe(msg);
+            throw new CommandException(msg + anve.getMessage(), anve);
+        }
+    }
+    
+    
+    /**
+     * <p>Costruisce l'albero dei suggerimenti del registro di una rilevazione
+     * e lo sostituisce al precedente in un'unica operazione, senza verificare
+     * se quello conservato sia ancora valido; viene invocato anche a ogni
+     * ricaricamento del registro (v. {@link #refreshTypeaheads(List, DBWrapper)}).<br />
+     * Le richieste contemporanee sulla stessa rilevazione condividono
+     * un'unica costruzione.</p>
+     * 
+     * @param user      utente loggato, oppure null se la costruzione non deriva da una richiesta
+     * @param survey    rilevazione
+     * @param db        databound gia' istanziato
+     * @return <code>Typeahead</code> - l'albero dei suggerimenti appena costruito
+     * @throws CommandException se si verifica un problema nel recupero dei trattamenti o di attributi obbligatori
+     */
+    private static Typeahead rebuildTypeahead(final PersonBean user,
+                                              final CodeBean survey,
+                                              final DBWrapper db)
+                                       throws CommandException {
+        try {
+            final int idSurvey = survey.getId();
+            return typeaheadBuilds.execute(String.valueOf(idSurvey), new SingleFlight.Call<Typeahead>() {
+                @Override
+                public Typeahead call() throws CommandException {
+                    // Stessi trattamenti, attivi, mostrati dal registro
+                    ArrayList<ProcessingBean> list = RegisterCommand.retrieve(user, STATE_ACTIVE, survey, db);
+                    try {
+                        Typeahead built = Typeahead.build(idSurvey, stamp(idSurvey), list);
+                        Typeahead.put(built);
+                        return built;
+                    } catch (AttributoNonValorizzatoException anve) {
+                        String msg = FOR_NAME + "Si e\' verificato un problema nel recupero del codice o del nome di un trattamento.\n";
+                        LOG.severe(msg);
+                        throw new CommandException(msg + anve.getMessage(), anve);
+                    }
+                }
+            });
+        } catch (AttributoNonValorizzatoException anve) {
+            String msg = FOR_NAME + "Si e\' verificato un problema nel recupero dell\'identificativo della rilevazione.\n";
+            LOG.severe(msg);
+            throw new CommandException(msg + anve.getMessage(), anve);
+        }
+    }
+    
+    
+    /**
+     * <p>Ricostruisce gli alberi dei suggerimenti (v. {@link Typeahead})
+     * delle rilevazioni che ne hanno uno, sostituendo ciascuno in un'unica
+     * operazione; scarta quelli di rilevazioni non pi&uacute; presenti
+     * nel registro.<br />
+     * Un problema nella ricostruzione viene soltanto registrato nel log:
+     * resta in uso l'albero precedente.</p>
+     * 
+     * @param surveys   rilevazioni del registro appena caricato
+     * @param db        databound gia' istanziato
+     */
+    static void refreshTypeaheads(List<CodeBean> surveys,
+                                  DBWrapper db) {
+        HashMap<Integer, CodeBean> byId = new HashMap<>();
+        try {
+            for (CodeBean survey : surveys) {
+                byId.put(Integer.valueOf(survey.getId()), survey);
+            }
+        } catch (AttributoNonValorizzatoException anve) {
+            LOG.severe(FOR_NAME + "Impossibile ricostruire gli alberi dei suggerimenti.\n" + anve.getMessage());
+            return;
+        }
+        for (Integer id : Typeahead.getIds()) {
+            CodeBean survey = byId.get(id);
+            if (survey == null) {
+                Typeahead.remove(id.intValue());
+                continue;
+            }
+            try {
+                rebuildTypeahead(null, survey, db);
+            } catch (CommandException ce) {
+                LOG.severe(FOR_NAME + "Impossibile ricostruire l\'albero dei suggerimenti della rilevazione " + id + ".\n" + ce.getMessage());
+            }
+        }
+    }
+    
+    
+    /**
+     * <p>Restituisce il grafo delle relazioni del registro di una rilevazione,
+     * costruendolo dal registro e dall'elenco delle banche dati se non
+     * esiste ancora o se non &egrave; pi&ugrave; valido
+     * (v. {@link GraphIndex#get(int, long)}).<br />
+     * Le richieste contemporanee sulla stessa rilevazione condividono
+     * un'unica costruzione.</p>
+     * 
+     * @param user      utente loggato
+     * @param survey    rilevazione
+     * @param db        databound gia' istanziato
+     * @return <code>GraphIndex</code> - il grafo delle relazioni del registro
+     * @throws CommandException se si verifica un problema nel recupero dei trattamenti, delle banche dati o di attributi obbligatori
+     */
+    public static GraphIndex retrieveGraph(final PersonBean user,
+                                           final CodeBean survey,
+                                           final DBWrapper db)
+                                    throws CommandException {
+        try {
+            final int idSurvey = survey.getId();
+            GraphIndex index = GraphIndex.get(idSurvey, stamp(idSurvey));
+            if (index != null) {
+                return index;
+            }
+            return graphBuilds.execute(String.valueOf(idSurvey), new SingleFlight.Call<GraphIndex>() {
+                @Override
+                public GraphIndex call() throws CommandException {
+                    // Stessi trattamenti, attivi, mostrati dal registro
+                    ArrayList<ProcessingBean> list = RegisterCommand.retrieve(user, STATE_ACTIVE, survey, db);
+                    try {
+                        // Le banche dati orfane non compaiono nel registro
+                        GraphIndex built = GraphIndex.build(idSurvey, stamp(idSurvey), list, db.getBancheDati(survey));
+                        GraphIndex.put(built);
+                        return built;
+                    } catch (WebStorageException wse) {
+                        String msg = FOR_NAME + "Si e\' verificato un problema nel recupero delle banche dati della rilevazione.\n";
+                        LOG.severe(msg);
+                        throw new CommandException(msg + wse.getMessage(), wse);
+                    } catch (AttributoNonValorizzatoException anve) {
+                        String msg = FOR_NAME + "Si e\' verificato un problema nel recupero di un attributo obbligatorio di un nodo del grafo.\n";
+                        LOG.severe(msg);
+                        throw new CommandException(msg + anve.getMessage(), anve);
+                    }
+                }
+            });
+        } catch (AttributoNonValorizzatoException anve) {
+            String msg = FOR_NAME + "Si e\' verificato un problema nel recupero dell\'identificativo della rilevazione.\n";
+            LOG.severe(msg);
+            throw new CommandException(msg + anve.getMessage(), anve);
+        }
+    }
+    
+    
+    /**
+     * <p>Restituisce il momento di creazione dell'istantanea del registro
+     * di una rilevazione, che identifica la versione degli indici in memoria.</p>
+     * 
+     * @param idSurvey  identificativo della rilevazione
+     * @return <code>long</code> - momento di creazione dell'istantanea, oppure -1 se la rilevazione non ne ha
+     */
+    private static long stamp(int idSurvey) {
+        SnapshotStore.Snapshot snapshot = SnapshotStore.getInstance().get(idSurvey);
+        return (snapshot == null) ? -1L : snapshot.getCreated();
+    }
 
 }
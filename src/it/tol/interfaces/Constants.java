@@ -184,6 +184,18 @@ public interface Constants extends Serializable {
      * <p>Costante per il parametro identificante la form di ricerca.</p>
      */
     public static final String PART_SEARCH              = "ris";
+    /**
+     * <p>Costante per il parametro identificante la parte di interrogazione per faccette.</p>
+     */
+    public static final String PART_FACETS              = "fct";
+    /**
+     * <p>Costante per il parametro identificante la parte di suggerimenti per il completamento automatico.</p>
+     */
+    public static final String PART_TYPEAHEAD           = "ta";
+    /**
+     * <p>Costante per il parametro identificante la parte di analisi delle relazioni del registro.</p>
+     */
+    public static final String PART_GRAPH               = "grf";
     /**
      * <p>Costante per il parametro identificante la parte di selezione strutture.</p>
      */
@@ -366,6 +378,10 @@ public interface Constants extends Serializable {
      * Costante per il tipo MIME pdf
      */
     public static final String MIME_TYPE_PDF = "application/pdf";
+    /**
+     * Costante per il tipo MIME json
+     */
+    public static final String MIME_TYPE_JSON = "application/json";
     /**
      * Costante per il formato di file "Comma Separated Values"
      */
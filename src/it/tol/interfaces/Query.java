@@ -63,22 +63,6 @@ public interface Query extends Serializable {
             "   ,   informativa         AS \"informativa\"" +
             "  FROM command";
 
-    /**
-     * <p>Estrae l'id massimo da una tabella definita nel chiamante</p>
-     */
-    public static final String SELECT_MAX_ID =
-            "SELECT " +
-            "       MAX(id)             AS \"max\"" +
-            "   FROM ";
-
-    /**
-     * <p>Estrae l'id minimo da una tabella definita nel chiamante</p>
-     */
-    public static final String SELECT_MIN_ID =
-            "SELECT " +
-            "       MIN(id)             AS \"min\"" +
-            "   FROM ";
-    
     /**
      * <p>Estrae l'utente con username e password passati come parametri.</p>
      */
@@ -113,16 +97,6 @@ public interface Query extends Serializable {
             "       INNER JOIN usr U on RA.id = U.id_ruolo" +
             "   WHERE U.login = ?";
 
-    /**
-     * <p>Estrae identificativo tupla ultimo accesso, se esiste
-     * per l'utente il cui username viene passato come parametro.</p>
-     */
-    public static final String GET_ACCESSLOG_BY_LOGIN =
-            "SELECT " +
-            "       A.id                AS  \"id\"" +
-            "   FROM access_log A " +
-            "   WHERE A.login = ? ";
-
     /**
      * <p>Estrae la password criptata e il seme dell'utente,
      * identificato tramite username, passato come parametro.</p>
@@ -174,6 +148,158 @@ public interface Query extends Serializable {
             "       AND T.id_stato = 1" +
             "   ORDER BY codice";
     
+    /**
+     * <p>Seleziona, per l'esportazione tabellare, tutti i trattamenti dati
+     * collegati ad una rilevazione, il cui identificativo viene passato
+     * come parametro, in uno stato determinato oppure in qualunque stato.<br>
+     * Ogni trattamento occupa una sola riga: le collezioni collegate
+     * (attivit&agrave;, interessati, basi giuridiche, banche dati) e le categorie
+     * di dati trattate vengono appiattite in colonne di testo, con i valori
+     * separati da una barra verticale; le etichette delle colonne
+     * costituiscono l'intestazione del file esportato.</p>
+     */
+    public static final String GET_REGISTRO_TABELLARE =
+            "SELECT " +
+            "       T.codice                    AS \"Codice\"" +
+            "   ,   T.nome                      AS \"Trattamento\"" +
+            "   ,   T.descrizione               AS \"Descrizione\"" +
+            "   ,   T.finalita                  AS \"Finalita\"" +
+            "   ,   T.termini_ultimi            AS \"Termini ultimi\"" +
+            "   ,   T.misure_sicurezza          AS \"Misure di sicurezza\"" +
+            "   ,   T.luoghi_custodia           AS \"Luoghi di custodia\"" +
+            "   ,   T.destinatari               AS \"Destinatari\"" +
+            "   ,   (SELECT string_agg(A.nome, ' | ' ORDER BY A.ordinale, A.nome)" +
+            "           FROM attivita A" +
+            "               INNER JOIN attivita_trattamento AT ON AT.cod_attivita = A.codice" +
+            "           WHERE AT.cod_trattamento = T.codice" +
+            "               AND A.id_rilevazione = R.id)" +
+            "                                   AS \"Attivita\"" +
+            "   ,   (SELECT string_agg(I.nome, ' | ' ORDER BY I.nome)" +
+            "           FROM interessati I" +
+            "               INNER JOIN interessati_trattamento IT ON IT.id_interessati = I.id" +
+            "           WHERE IT.cod_trattamento = T.codice" +
+            "               AND IT.id_rilevazione = R.id)" +
+            "                                   AS \"Interessati\"" +
+            "   ,   (SELECT string_agg(BG.nome, ' | ' ORDER BY BG.ordinale, BG.nome)" +
+            "           FROM base_giuridica BG" +
+            "               INNER JOIN base_giuridica_trattamento BGT ON BGT.id_base_giuridica = BG.id" +
+            "           WHERE BGT.cod_trattamento = T.codice" +
+            "               AND BG.id_rilevazione = R.id)" +
+            "                                   AS \"Basi giuridiche\"" +
+            "   ,   concat_ws(' | '" +
+            "           ,   CASE WHEN T.dati_personali THEN 'Dati comuni' END" +
+            "           ,   CASE WHEN T.dati_sanitari THEN 'Dati sanitari' END" +
+            "           ,   CASE WHEN T.dati_orientamentosex THEN 'Dati relativi all''orientamento sessuale' END" +
+            "           ,   CASE WHEN T.dati_etnia_relig_app THEN 'Dati relativi ad etnia, religione o appartenenza associativa' END" +
+            "           ,   CASE WHEN T.dati_minore_eta THEN 'Dati relativi a soggetti minorenni' END" +
+            "           ,   CASE WHEN T.dati_genetici THEN 'Dati relativi ad aspetti genetici' END" +
+            "           ,   CASE WHEN T.dati_biometrici THEN 'Dati biometrici' END" +
+            "           ,   CASE WHEN T.dati_giudiziari THEN 'Dati giudiziari' END" +
+            "           ,   CASE WHEN T.dati_ubicazione THEN 'Dati relativi all''ubicazione dei soggetti' END" +
+            "           ,   CASE WHEN T.dati_pseudonimizzati THEN 'Dati pseudonimizzati' END" +
+            "           ,   CASE WHEN T.dati_anonimizzati THEN 'Dati anonimizzati' END" +
+            "           )                       AS \"Categorie di dati\"" +
+            "   ,   (SELECT string_agg(BD.nome || ' (' || DB.nome || ')', ' | ' ORDER BY BD.ordinale, BD.nome)" +
+            "           FROM banca_dati BD" +
+            "               INNER JOIN database DB ON BD.id_database = DB.id" +
+            "               INNER JOIN banca_dati_trattamento BDT ON BDT.id_banca_dati = BD.id" +
+            "           WHERE BDT.cod_trattamento = T.codice" +
+            "               AND BD.id_rilevazione = R.id)" +
+            "                                   AS \"Banche dati\"" +
+            "   ,   T.data_ultima_modifica      AS \"Data ultima modifica\"" +
+            "   FROM trattamento T" +
+            "       INNER JOIN rilevazione R ON T.id_rilevazione = R.id" +
+            "   WHERE R.id = ?" +
+            "       AND (T.id_stato = ? OR -1 = ?)" +
+            "   ORDER BY T.codice";
+
+    /**
+     * <p>Conta i trattamenti attivi collegati ad una rilevazione, il cui
+     * identificativo viene passato come terzo parametro, sia complessivamente
+     * sia limitatamente a quelli il cui nome o codice corrisponde al pattern
+     * (ILIKE) passato come primo e secondo parametro.</p>
+     */
+    public static final String COUNT_TRATTAMENTI =
+            "SELECT " +
+            "       COUNT(*)                    AS \"totale\"" +
+            "   ,   COUNT(*) FILTER (WHERE COALESCE(T.nome, '') ILIKE ? OR T.codice ILIKE ?)" +
+            "                                   AS \"filtrati\"" +
+            "   FROM trattamento T" +
+            "       INNER JOIN rilevazione R ON T.id_rilevazione = R.id" +
+            "   WHERE R.id = ?" +
+            "       AND T.id_stato = 1";
+
+    /**
+     * <p>Seleziona una pagina dei trattamenti attivi collegati ad una rilevazione,
+     * il cui identificativo viene passato come primo parametro, il cui nome
+     * o codice corrisponde al pattern (ILIKE) passato come secondo e terzo parametro.<br>
+     * Estrae soltanto le colonne mostrate nell'elenco; il chiamante completa
+     * la query accodando, nell'ordine, l'eventuale clausola di posizionamento
+     * (<code>SEEK_TRATTAMENTI_*</code>), l'ordinamento
+     * (<code>ORDER_TRATTAMENTI_*</code>) e la clausola {@link #PAGE_TRATTAMENTI}.</p>
+     */
+    public static final String GET_TRATTAMENTI_PAGINA =
+            "SELECT " +
+            "       T.codice                    AS \"codice\"" +
+            "   ,   T.nome                      AS \"nome\"" +
+            "   ,   T.ordinale                  AS \"ordinale\"" +
+            "   FROM trattamento T" +
+            "       INNER JOIN rilevazione R ON T.id_rilevazione = R.id" +
+            "   WHERE R.id = ?" +
+            "       AND T.id_stato = 1" +
+            "       AND (COALESCE(T.nome, '') ILIKE ? OR T.codice ILIKE ?)";
+
+    /**
+     * <p>Posizionamento (keyset) dopo il codice passato come parametro,
+     * per l'ordinamento crescente per codice.</p>
+     */
+    public static final String SEEK_TRATTAMENTI_CODICE_ASC =
+            "       AND T.codice > ?";
+
+    /**
+     * <p>Posizionamento (keyset) dopo il codice passato come parametro,
+     * per l'ordinamento decrescente per codice.</p>
+     */
+    public static final String SEEK_TRATTAMENTI_CODICE_DESC =
+            "       AND T.codice < ?";
+
+    /**
+     * <p>Posizionamento (keyset) dopo la coppia (nome, codice) passata
+     * come parametri, per l'ordinamento crescente per nome.</p>
+     */
+    public static final String SEEK_TRATTAMENTI_NOME_ASC =
+            "       AND (COALESCE(T.nome, ''), T.codice) > (?, ?)";
+
+    /**
+     * <p>Posizionamento (keyset) dopo la coppia (nome, codice) passata
+     * come parametri, per l'ordinamento decrescente per nome.</p>
+     */
+    public static final String SEEK_TRATTAMENTI_NOME_DESC =
+            "       AND (COALESCE(T.nome, ''), T.codice) < (?, ?)";
+
+    /** <p>Ordinamento crescente per codice della pagina di trattamenti.</p> */
+    public static final String ORDER_TRATTAMENTI_CODICE_ASC =
+            "   ORDER BY T.codice ASC";
+
+    /** <p>Ordinamento decrescente per codice della pagina di trattamenti.</p> */
+    public static final String ORDER_TRATTAMENTI_CODICE_DESC =
+            "   ORDER BY T.codice DESC";
+
+    /** <p>Ordinamento crescente per nome (e codice) della pagina di trattamenti.</p> */
+    public static final String ORDER_TRATTAMENTI_NOME_ASC =
+            "   ORDER BY COALESCE(T.nome, '') ASC, T.codice ASC";
+
+    /** <p>Ordinamento decrescente per nome (e codice) della pagina di trattamenti.</p> */
+    public static final String ORDER_TRATTAMENTI_NOME_DESC =
+            "   ORDER BY COALESCE(T.nome, '') DESC, T.codice DESC";
+
+    /**
+     * <p>Limita la pagina di trattamenti al numero di righe passato come
+     * primo parametro, saltando il numero di righe passato come secondo.</p>
+     */
+    public static final String PAGE_TRATTAMENTI =
+            "   LIMIT ? OFFSET ?";
+
     /**
      * Seleziona i dettagli di uno specifico trattamento dati, 
      * in uno stato determinato oppure in qualunque stato 
@@ -337,13 +463,255 @@ public interface Query extends Serializable {
             "   WHERE T.codice = ?" +
             "       AND R.id = ?" +           
             "       AND (T.id_stato = ? OR -1 = ?)";
-    
+
+    /**
+     * Seleziona i dettagli di tutti i trattamenti dati collegati ad una
+     * rilevazione, il cui identificativo viene passato come parametro,
+     * in uno stato determinato oppure in qualunque stato
+     * (a seconda dei parametri passati sul secondo e sul terzo argomento della clausola).<br>
+     * &Egrave; la versione massiva di {@link #GET_TRATTAMENTO}:
+     * restituisce le stesse colonne per tutti i trattamenti della rilevazione
+     * in un'unica interrogazione.
+     */
+    public static final String GET_TRATTAMENTI_RILEVAZIONE =
+            "SELECT " +
+            "       T.nome                      AS \"nome\"" +
+            "   ,   T.note                      AS \"informativa\"" +
+            "   ,   T.ordinale                  AS \"ordinale\"" +
+            "   ,   T.codice                    AS \"codice\"" +
+            "   ,   T.descrizione               AS \"descrizione\"" +
+            "   ,   T.finalita                  AS \"finalita\"" +
+            "   ,   T.termini_ultimi            AS \"terminiUltimi\"" +
+            "   ,   T.extra_info                AS \"extraInfo\"" +
+            "   ,   T.dati_personali            AS \"datiPersonali\"" +
+            "   ,   T.dati_sanitari             AS \"datiSanitari\"" +
+            "   ,   T.dati_orientamentosex      AS \"datiOrientamentoSex\"" +
+            "   ,   T.dati_etnia_relig_app      AS \"datiEtniaReligApp\"" +
+            "   ,   T.dati_minore_eta           AS \"datiMinoreEta\"" +
+            "   ,   T.dati_genetici             AS \"datiGenetici\"" +
+            "   ,   T.dati_biometrici           AS \"datiBiometrici\"" +
+            "   ,   T.dati_giudiziari           AS \"datiGiudiziari\"" +
+            "   ,   T.dati_ubicazione           AS \"datiUbicazione\"" +
+            "   ,   T.dati_pseudonimizzati      AS \"datiPseudonimizzati\"" +
+            "   ,   T.dati_anonimizzati         AS \"datiAnonimizzati\"" +
+            "   ,   T.data_ultima_modifica      AS \"dataUltimaModifica\"" +
+            "   ,   T.ora_ultima_modifica       AS \"oraUltimaModifica\"" +
+            "   ,   T.id_usr_ultima_modifica    AS \"autoreUltimaModifica\"" +
+            "   ,   T.id_tipo_trattamento       AS \"idTipo\"" +
+            "   ,   T.id_stato                  AS \"idStato\"" +
+            "   FROM trattamento T" +
+            "       INNER JOIN rilevazione R ON T.id_rilevazione = R.id" +
+            "   WHERE R.id = ?" +
+            "       AND (T.id_stato = ? OR -1 = ?)" +
+            "   ORDER BY T.codice";
+
+    /**
+     * Seleziona ulteriori informazioni relative a tutti i trattamenti dati
+     * collegati ad una rilevazione, il cui identificativo viene passato come parametro,
+     * in uno stato determinato oppure in qualunque stato.<br>
+     * Ogni riga riporta il codice del trattamento cui si riferisce.
+     */
+    public static final String GET_EXTRAINFO_TRATTAMENTI =
+            "SELECT " +
+            "       T.codice                    AS \"codice\"" +
+            "   ,   T.misure_sicurezza          AS \"extraInfo1\"" +
+            "   ,   T.luoghi_custodia           AS \"extraInfo2\"" +
+            "   ,   T.destinatari               AS \"extraInfo3\"" +
+            "   FROM trattamento T" +
+            "       INNER JOIN rilevazione R ON T.id_rilevazione = R.id" +
+            "   WHERE R.id = ?" +
+            "       AND (T.id_stato = ? OR -1 = ?)";
+
+    /**
+     * Seleziona le attivit&agrave; di tutti i trattamenti dati collegati
+     * ad una rilevazione avente identificativo passato come parametro,
+     * e che si trovano in uno stato specificato tramite parametro.<br>
+     * Ogni riga riporta il codice del trattamento cui l'attivit&agrave;
+     * &egrave; associata (colonna <code>codTrattamento</code>).
+     */
+    public static final String GET_ATTIVITA_TRATTAMENTI =
+            "SELECT " +
+            "       AT.cod_trattamento          AS \"codTrattamento\"" +
+            "   ,   A.nome                      AS \"nome\"" +
+            "   ,   A.ordinale                  AS \"ordinale\"" +
+            "   ,   A.codice                    AS \"codice\"" +
+            "   ,   A.descrizione               AS \"descrizione\"" +
+            "   ,   A.datainizio                AS \"dataInizio\"" +
+            "   ,   A.datafine                  AS \"dataFine\"" +
+            "   ,   A.data_ultima_modifica      AS \"dataUltimaModifica\"" +
+            "   ,   A.ora_ultima_modifica       AS \"oraUltimaModifica\"" +
+            "   ,   A.id_usr_ultima_modifica    AS \"autoreUltimaModifica\"" +
+            "   FROM attivita A" +
+            "       INNER JOIN attivita_trattamento AT ON AT.cod_attivita = A.codice" +
+            "       INNER JOIN trattamento T ON AT.cod_trattamento = T.codice" +
+            "       INNER JOIN rilevazione R ON A.id_rilevazione = R.id" +
+            "   WHERE R.id = ?" +
+            "       AND (T.id_stato = ? OR -1 = ?)";
+
+    /**
+     * Seleziona gli interessati di tutti i trattamenti dati collegati
+     * ad una rilevazione avente identificativo passato come parametro,
+     * e che si trovano in uno stato specificato tramite parametro.<br>
+     * Ogni riga riporta il codice del trattamento cui la categoria di
+     * interessati &egrave; associata (colonna <code>codTrattamento</code>).
+     */
+    public static final String GET_INTERESSATI_TRATTAMENTI =
+            "SELECT " +
+            "       IT.cod_trattamento          AS \"codTrattamento\"" +
+            "   ,   I.id                        AS \"id\"" +
+            "   ,   I.nome                      AS \"nome\"" +
+            "   ,   I.descrizione               AS \"informativa\"" +
+            "   ,   I.ordinale                  AS \"ordinale\"" +
+            "   FROM interessati I" +
+            "       INNER JOIN interessati_trattamento IT ON IT.id_interessati = I.id" +
+            "       INNER JOIN trattamento T ON IT.cod_trattamento = T.codice" +
+            "       INNER JOIN rilevazione R ON IT.id_rilevazione = R.id" +
+            "   WHERE R.id = ?" +
+            "       AND (T.id_stato = ? OR -1 = ?)" +
+            "   ORDER BY I.nome";
+
+    /**
+     * Seleziona le basi giuridiche di tutti i trattamenti dati collegati
+     * ad una rilevazione avente identificativo passato come parametro,
+     * e che si trovano in uno stato specificato tramite parametro.<br>
+     * Ogni riga riporta il codice del trattamento cui la base giuridica
+     * &egrave; associata (colonna <code>codTrattamento</code>).
+     */
+    public static final String GET_BASI_GIURIDICHE_TRATTAMENTI =
+            "SELECT " +
+            "       BGT.cod_trattamento         AS \"codTrattamento\"" +
+            "   ,   BG.id                       AS \"id\"" +
+            "   ,   BG.nome                     AS \"nome\"" +
+            "   ,   BG.descrizione              AS \"descrizione\"" +
+            "   ,   BG.ordinale                 AS \"ordinale\"" +
+            "   ,   BG.tipo_base                AS \"codice\"" +
+            "   ,   BGT.note                    AS \"informativa\"" +
+            "   FROM base_giuridica BG" +
+            "       INNER JOIN base_giuridica_trattamento BGT ON BGT.id_base_giuridica = BG.id" +
+            "       INNER JOIN trattamento T ON BGT.cod_trattamento = T.codice" +
+            "       INNER JOIN rilevazione R ON BG.id_rilevazione = R.id" +
+            "   WHERE R.id = ?" +
+            "       AND (T.id_stato = ? OR -1 = ?)";
+
+    /**
+     * Seleziona le banche dati di tutti i trattamenti dati collegati
+     * ad una rilevazione avente identificativo passato come parametro,
+     * e che si trovano in uno stato specificato tramite parametro.<br>
+     * Ogni riga riporta il codice del trattamento cui la banca dati
+     * &egrave; associata (colonna <code>codTrattamento</code>).
+     */
+    public static final String GET_BANCHE_DATI_TRATTAMENTI =
+            "SELECT " +
+            "       BDT.cod_trattamento         AS \"codTrattamento\"" +
+            "   ,   BD.id                       AS \"id\"" +
+            "   ,   BD.nome                     AS \"nome\"" +
+            "   ,   BD.descrizione              AS \"descrizione\"" +
+            "   ,   BD.ordinale                 AS \"ordinale\"" +
+            "   ,   DB.nome                     AS \"codice\"" +
+            "   ,   DB.descrizione              AS \"informativa\"" +
+            "   ,   DB.id_tipo_database         AS \"livello\"" +
+            "   ,   TD.nome                     AS \"tipo\"" +
+            "   ,   BD.data_ultima_modifica     AS \"dataUltimaModifica\"" +
+            "   ,   BD.ora_ultima_modifica      AS \"oraUltimaModifica\"" +
+            "   ,   BD.id_usr_ultima_modifica   AS \"autoreUltimaModifica\"" +
+            "   FROM banca_dati BD" +
+            "       INNER JOIN database DB ON BD.id_database = DB.id" +
+            "       INNER JOIN tipo_database TD ON DB.id_tipo_database = TD.id" +
+            "       INNER JOIN banca_dati_trattamento BDT ON BDT.id_banca_dati = BD.id" +
+            "       INNER JOIN trattamento T ON BDT.cod_trattamento = T.codice" +
+            "       INNER JOIN rilevazione R ON BD.id_rilevazione = R.id" +
+            "   WHERE R.id = ?" +
+            "       AND (T.id_stato = ? OR -1 = ?)";
+
+    /**
+     * Seleziona tutte le banche dati di una rilevazione avente identificativo
+     * passato come parametro, con il database e il tipo di database
+     * corrispondenti, comprese quelle non collegate ad alcun trattamento.<br>
+     * La colonna <code>ordinale</code> riporta il numero di trattamenti
+     * cui la banca dati &egrave; collegata.
+     */
+    public static final String GET_BANCHE_DATI_RILEVAZIONE =
+            "SELECT " +
+            "       BD.id                       AS \"id\"" +
+            "   ,   BD.nome                     AS \"nome\"" +
+            "   ,   BD.descrizione              AS \"descrizione\"" +
+            "   ,   COUNT(BDT.cod_trattamento)  AS \"ordinale\"" +
+            "   ,   DB.nome                     AS \"codice\"" +
+            "   ,   DB.descrizione              AS \"informativa\"" +
+            "   ,   DB.id_tipo_database         AS \"livello\"" +
+            "   ,   TD.nome                     AS \"tipo\"" +
+            "   FROM banca_dati BD" +
+            "       INNER JOIN database DB ON BD.id_database = DB.id" +
+            "       INNER JOIN tipo_database TD ON DB.id_tipo_database = TD.id" +
+            "       LEFT JOIN banca_dati_trattamento BDT ON BDT.id_banca_dati = BD.id" +
+            "   WHERE BD.id_rilevazione = ?" +
+            "   GROUP BY BD.id, BD.nome, BD.descrizione, DB.nome, DB.descrizione, DB.id_tipo_database, TD.nome" +
+            "   ORDER BY BD.nome";
+
+    /**
+     * Seleziona il momento dell'ultima modifica apportata ad uno specifico
+     * trattamento dati oppure alle attivit&agrave; o alle banche dati
+     * ad esso collegate (il pi&uacute; recente tra i tre valori);
+     * il codice identificativo del trattamento viene passato come parametro,
+     * il trattamento si trova in uno stato specificato tramite parametro
+     * e risulta collegato ad una rilevazione, il cui identificativo viene
+     * passato come parametro.<br>
+     * Serve a verificare, a basso costo, se una copia del trattamento
+     * gi&agrave; assemblata in memoria sia ancora valida.
+     */
+    public static final String GET_ULTIMA_MODIFICA_TRATTAMENTO =
+            "SELECT " +
+            "       GREATEST(T.data_ultima_modifica + T.ora_ultima_modifica" +
+            "           ,   (SELECT MAX(A.data_ultima_modifica + A.ora_ultima_modifica)" +
+            "               FROM attivita A" +
+            "                   INNER JOIN attivita_trattamento AT ON AT.cod_attivita = A.codice" +
+            "               WHERE AT.cod_trattamento = T.codice" +
+            "                   AND A.id_rilevazione = T.id_rilevazione)" +
+            "           ,   (SELECT MAX(BD.data_ultima_modifica + BD.ora_ultima_modifica)" +
+            "               FROM banca_dati BD" +
+            "                   INNER JOIN banca_dati_trattamento BDT ON BDT.id_banca_dati = BD.id" +
+            "               WHERE BDT.cod_trattamento = T.codice" +
+            "                   AND BD.id_rilevazione = T.id_rilevazione)" +
+            "       )                           AS \"ultimaModifica\"" +
+            "   FROM trattamento T" +
+            "       INNER JOIN rilevazione R ON T.id_rilevazione = R.id" +
+            "   WHERE T.codice = ?" +
+            "       AND R.id = ?" +
+            "       AND (T.id_stato = ? OR -1 = ?)";
+
+    /**
+     * Seleziona il momento dell'ultima modifica apportata ai trattamenti
+     * dati, alle attivit&agrave; o alle banche dati di una rilevazione,
+     * il cui identificativo viene passato come parametro
+     * (il pi&uacute; recente tra i tre valori).<br>
+     * Serve a verificare, a basso costo, se l'istantanea su disco
+     * del registro della rilevazione sia ancora valida.
+     */
+    public static final String GET_ULTIMA_MODIFICA_RILEVAZIONE =
+            "SELECT " +
+            "       GREATEST(" +
+            "               (SELECT MAX(T.data_ultima_modifica + T.ora_ultima_modifica)" +
+            "               FROM trattamento T" +
+            "               WHERE T.id_rilevazione = R.id)" +
+            "           ,   (SELECT MAX(A.data_ultima_modifica + A.ora_ultima_modifica)" +
+            "               FROM attivita A" +
+            "               WHERE A.id_rilevazione = R.id)" +
+            "           ,   (SELECT MAX(BD.data_ultima_modifica + BD.ora_ultima_modifica)" +
+            "               FROM banca_dati BD" +
+            "               WHERE BD.id_rilevazione = R.id)" +
+            "       )                           AS \"ultimaModifica\"" +
+            "   FROM rilevazione R" +
+            "   WHERE R.id = ?";
+
     /* ********************************************************************** *
      *                        3. Query di inserimento                         *
      * ********************************************************************** */
     
     /**
-     * <p>Query per inserimento di ultimo accesso al sistema.</p>
+     * <p>Query per inserimento di ultimo accesso al sistema.<br>
+     * L'identificativo viene estratto dalla sequenza
+     * <code>access_log_id_seq</code>, creata dallo script
+     * <code>sql/001-access_log_id_seq.sql</code>.</p>
      */
     public static final String INSERT_ACCESSLOG_BY_USER =
             "INSERT INTO access_log" +
@@ -351,7 +719,7 @@ public interface Query extends Serializable {
             "   ,   login" +
             "   ,   data_ultimo_accesso" +
             "   ,   ora_ultimo_accesso )" +
-            "   VALUES (? " +          // id
+            "   VALUES (nextval('access_log_id_seq')" +
             "   ,       ? " +          // login
             "   ,       ? " +          // dataultimoaccesso
             "   ,       ?)" ;          // oraultimoaccesso
@@ -361,14 +729,14 @@ public interface Query extends Serializable {
      * ********************************************************************** */
     
     /**
-     * <p>Query per aggiornamento di ultimo accesso al sistema.</p>
+     * <p>Aggiorna data e ora dell'ultimo accesso dell'utente
+     * avente login passata come parametro.</p>
      */
-    public static final String UPDATE_ACCESSLOG_BY_USER =
+    public static final String UPDATE_ACCESSLOG_BY_LOGIN =
             "UPDATE access_log" +
-            "   SET login  = ?" +
-            "   ,   data_ultimo_accesso = ?" +
+            "   SET data_ultimo_accesso = ?" +
             "   ,   ora_ultimo_accesso = ?" +
-            "   WHERE id = ? ";
+            "   WHERE login = ? ";
     
     /* ********************************************************************** *
      *                        5. Query di eliminazione                        *
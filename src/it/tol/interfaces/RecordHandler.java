@@ -0,0 +1,86 @@
+/*
+ *   Trattamenti On Line (tol): Applicazione web per la gestione del 
+ *   registro delle attività di trattamento.
+ *
+ *   TOL:
+ *   web application to manage and publish information about
+ *   databases containing personal data, which are managed by subjects 
+ *   belonging to the university or involving 
+ *   the university as manager.
+ *   Copyright (C) 2023 Giovanroberto Torre
+ *   all right reserved
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA<br>
+ *
+ *   Giovanroberto Torre <gianroberto.torre@gmail.com>
+ *   Universita' degli Studi di Verona
+ *   Via Dell'Artigliere, 8
+ *   37129 Verona (Italy)
+ */
+
+package it.tol.interfaces;
+
+import java.io.IOException;
+import java.sql.Statement;
+
+
+/**
+ * <p>RecordHandler &egrave; l'interfaccia che riceve, una alla volta,
+ * le righe di un'estrazione tabellare man mano che vengono lette
+ * dal database, senza che l'estrazione debba essere prima caricata
+ * interamente in memoria.</p>
+ * <p>Chi esegue l'estrazione invoca {@link #statement(Statement)} prima di
+ * eseguire la query, {@link #header(String[])} una sola volta,
+ * prima di qualunque riga, e poi {@link #record(String[])} per ogni riga;
+ * un'eccezione sollevata dall'implementazione (p.es. perch&eacute; il client
+ * ha chiuso la connessione) interrompe l'estrazione.</p>
+ *
+ * @author <a href="mailto:gianroberto.torre@gmail.com">Giovanroberto Torre</a>
+ */
+public interface RecordHandler {
+
+    /**
+     * <p>Riceve lo statement che sta per eseguire l'estrazione, cos&igrave;
+     * che possa essere annullato da un altro thread (p.es. allo scadere
+     * del tempo massimo della richiesta) anche mentre il database
+     * sta ancora producendo le righe.</p>
+     *
+     * @param statement lo statement dell'estrazione, valido fino al termine dell'estrazione stessa
+     * @throws IOException se l'estrazione &egrave; gi&agrave; stata annullata e non va eseguita
+     */
+    public void statement(Statement statement)
+                   throws IOException;
+
+    /**
+     * <p>Riceve le etichette delle colonne dell'estrazione.</p>
+     *
+     * @param labels etichette delle colonne, nell'ordine di estrazione
+     * @throws IOException se non &egrave; possibile scrivere l'intestazione
+     */
+    public void header(String[] labels)
+                throws IOException;
+
+    /**
+     * <p>Riceve i valori di una riga dell'estrazione.<br>
+     * L'array pu&ograve; essere riutilizzato per la riga successiva:
+     * l'implementazione non deve conservarne un riferimento.</p>
+     *
+     * @param values valori delle colonne (null se non valorizzati), nell'ordine delle etichette
+     * @throws IOException se non &egrave; possibile scrivere la riga
+     */
+    public void record(String[] values)
+                throws IOException;
+
+}
@@ -0,0 +1,77 @@
+/*
+ *   Trattamenti On Line (tol): Applicazione web per la gestione del 
+ *   registro delle attività di trattamento.
+ *
+ *   TOL:
+ *   web application to manage and publish information about
+ *   databases containing personal data, which are managed by subjects 
+ *   belonging to the university or involving 
+ *   the university as manager.
+ *   Copyright (C) 2023 Giovanroberto Torre
+ *   all right reserved
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA<br>
+ *
+ *   Giovanroberto Torre <gianroberto.torre@gmail.com>
+ *   Universita' degli Studi di Verona
+ *   Via Dell'Artigliere, 8
+ *   37129 Verona (Italy)
+ */
+
+package it.tol.interfaces;
+
+import java.util.List;
+
+import it.tol.bean.CodeBean;
+import it.tol.wrapper.DBWrapper;
+
+
+/**
+ * <p>RegistryListener &egrave; l'interfaccia dei componenti che conservano
+ * dati derivati dal registro delle rilevazioni (p.es. istantanee su disco,
+ * alberi dei suggerimenti) o risorse da rilasciare alla chiusura
+ * dell'applicazione (p.es. thread di lavoro).</p>
+ * <p>Ogni componente si registra da s&eacute; presso
+ * {@link it.tol.ConfigManager#addRegistryListener(RegistryListener)},
+ * di solito al momento in cui crea i dati o le risorse in questione:
+ * in questo modo ConfigManager non deve conoscere le classi che
+ * dipendono dal registro.<br>
+ * Un'eccezione non controllata sollevata dall'implementazione
+ * viene soltanto registrata nel log e non interrompe la notifica
+ * agli altri componenti.</p>
+ *
+ * @author <a href="mailto:gianroberto.torre@gmail.com">Giovanroberto Torre</a>
+ */
+public interface RegistryListener {
+
+    /**
+     * <p>Riceve il registro delle rilevazioni appena caricato:
+     * al momento della registrazione, se il registro &egrave; gi&agrave;
+     * disponibile, e poi a ogni ricaricamento.<br>
+     * Un problema va soltanto registrato nel log: il registro
+     * &egrave; comunque gi&agrave; in uso.</p>
+     *
+     * @param surveys   elenco (non modificabile) delle rilevazioni
+     * @param db        databound gia' istanziato
+     */
+    public void registryLoaded(List<CodeBean> surveys,
+                               DBWrapper db);
+
+    /**
+     * <p>Rilascia le risorse del componente alla chiusura dell'applicazione.</p>
+     */
+    public void shutdown();
+
+}
@@ -0,0 +1,261 @@
+/*
+ *   Trattamenti On Line (tol): Applicazione web per la gestione del 
+ *   registro delle attività di trattamento.
+ *
+ *   TOL:
+ *   web application to manage and publish information about
+ *   databases containing personal data, which are managed by subjects 
+ *   belonging to the university or involving 
+ *   the university as manager.
+ *   Copyright (C) 2023 Giovanroberto Torre
+ *   all right reserved
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA<br>
+ *
+ *   Giovanroberto Torre <gianroberto.torre@gmail.com>
+ *   Universita' degli Studi di Verona
+ *   Via Dell'Artigliere, 8
+ *   37129 Verona (Italy)
+ */
+
+package it.tol.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import it.tol.ConfigManager;
+import it.tol.bean.CodeBean;
+import it.tol.bean.PersonBean;
+import it.tol.command.ReportCommand;
+import it.tol.exception.AttributoNonValorizzatoException;
+import it.tol.interfaces.Constants;
+import it.tol.wrapper.SnapshotStore;
+
+
+/**
+ * <p><code>ConditionalRequest</code> gestisce le richieste condizionali
+ * HTTP (<code>If-None-Match</code>) per le pagine e i documenti
+ * del registro delle rilevazioni chiuse, cio&egrave; per le viste
+ * del registro dei trattamenti e dei report
+ * (v. {@link #isValidatable(String)}).</p>
+ * <p>Il registro di una rilevazione chiusa, una volta scritta la sua
+ * istantanea su disco (v. {@link SnapshotStore}), cambia solo se cambia
+ * l'ultima modifica dei suoi trattamenti, che l'istantanea stessa riporta;
+ * le pagine riportano per&ograve; anche menu e rilevazioni, che cambiano
+ * quando il registro delle command e delle rilevazioni viene ricaricato
+ * (v. {@link ConfigManager#getRegistryGeneration()}).
+ * Da questi valori, dall'identificativo della rilevazione, dall'utente con i suoi
+ * ruoli e dalla querystring si ricava un validatore (ETag), senza accedere
+ * al database; se il client ripresenta lo stesso validatore la risposta
+ * &egrave; un <code>304 Not Modified</code> senza eseguire la Command
+ * n&eacute; generare il PDF.</p>
+ * <p><code>If-Modified-Since</code> non viene invece considerato,
+ * e per questo non viene neppure inviato <code>Last-Modified</code>:
+ * la data di ultima modifica &egrave; la stessa per tutti gli utenti
+ * e per tutti i rilasci dell'applicazione, per cui confermerebbe
+ * anche la copia ottenuta da un altro utente (p.es. sullo stesso browser)
+ * o generata da una versione precedente.</p>
+ * <p>Per le rilevazioni aperte (o senza istantanea) non viene prodotto
+ * alcun validatore e le risposte restano non memorizzabili come prima.</p>
+ *
+ * @author <a href="mailto:gianroberto.torre@gmail.com">Giovanroberto Torre</a>
+ */
+public class ConditionalRequest implements Constants {
+
+    /**
+     * <p>Logger della classe per scrivere i messaggi di errore.
+     * All logging goes through this logger.</p>
+     */
+    private static Logger log = Logger.getLogger(ConditionalRequest.class.getName());
+    /**
+     * <p>Nome di questa classe
+     * (viene utilizzato per contestualizzare i messaggi di errore).</p>
+     */
+    static final String FOR_NAME = "\n" + Logger.getLogger(new Throwable().getStackTrace()[0].getClassName()) + ": ";
+    /**
+     * <p>Momento di avvio dell'applicazione: entra nel validatore,
+     * cos&igrave; che dopo un nuovo rilascio (pagine o generazione PDF
+     * diverse) le copie in cache dei client non vengano pi&ugrave; confermate.</p>
+     */
+    private static final long STARTED = System.currentTimeMillis();
+    /**
+     * <p>Cifre esadecimali per la rappresentazione dell'impronta.</p>
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    /**
+     * <p>Validatore (ETag, tra virgolette come da specifica).</p>
+     */
+    private final String etag;
+
+
+    /**
+     * <p>Costruttore privato: i validatori si ottengono
+     * tramite {@link #of(HttpServletRequest)}.</p>
+     *
+     * @param etag          validatore
+     */
+    private ConditionalRequest(String etag) {
+        this.etag = etag;
+    }
+
+
+    /**
+     * <p>Restituisce il validatore di una richiesta GET di una vista
+     * del registro o dei report (v. {@link #isValidatable(String)})
+     * relativa a una rilevazione chiusa (parametro <code>'r'</code>)
+     * di cui esiste l'istantanea, fatta da un utente autenticato.</p>
+     *
+     * @param req la HttpServletRequest contenente la richiesta del client
+     * @return <code>ConditionalRequest</code> - il validatore, oppure null se la risposta non &egrave; validabile
+     */
+    public static ConditionalRequest of(HttpServletRequest req) {
+        if (!"GET".equals(req.getMethod()) || !isValidatable(req.getParameter(ConfigManager.getEntToken()))) {
+            return null;
+        }
+        String codeSurvey = req.getParameter("r");
+        if (codeSurvey == null || codeSurvey.equals(VOID_STRING)) {
+            return null;
+        }
+        HttpSession ses = req.getSession(IF_EXISTS_DONOT_CREATE_NEW);
+        if (ses == null) {
+            return null;
+        }
+        PersonBean user = (PersonBean) ses.getAttribute("usr");
+        CodeBean survey = ConfigManager.getSurvey(codeSurvey);
+        if (user == null || survey == null) {
+            return null;
+        }
+        try {
+            SnapshotStore.Snapshot snapshot = SnapshotStore.getInstance().get(survey.getId());
+            if (snapshot == null) {
+                return null;
+            }
+            StringBuilder key = new StringBuilder(128);
+            key.append(survey.getId()).append('|')
+               .append(snapshot.getLastModified()).append('|')
+               .append(STARTED).append('|')
+               .append(ConfigManager.getRegistryGeneration()).append('|')
+               .append(user.getId()).append('|');
+            if (user.getRuoli() != null) {
+                for (CodeBean role : user.getRuoli()) {
+                    key.append(role.getId()).append(',');
+                }
+            }
+            key.append('|').append(req.getServletPath()).append('?').append(req.getQueryString());
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            byte[] digest = sha.digest(key.toString().getBytes(StandardCharsets.UTF_8));
+            char[] hex = new char[32];
+            for (int i = 0; i < 16; i++) {
+                hex[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+                hex[i * 2 + 1] = HEX[digest[i] & 0xF];
+            }
+            return new ConditionalRequest("\"" + new String(hex) + "\"");
+        } catch (AttributoNonValorizzatoException anve) {
+            log.warning(FOR_NAME + "Validatore non calcolabile per un attributo non valorizzato: " + anve.getMessage());
+            return null;
+        } catch (NoSuchAlgorithmException nsae) {
+            log.warning(FOR_NAME + "Algoritmo di hash non disponibile: " + nsae.getMessage());
+            return null;
+        }
+    }
+
+
+    /**
+     * <p>Restituisce <code>true</code> se la copia in possesso del client
+     * &egrave; ancora valida, cio&egrave; se la richiesta riporta
+     * <code>If-None-Match</code> con il validatore corrente;
+     * una richiesta con il solo <code>If-Modified-Since</code>
+     * riceve sempre la risposta completa.</p>
+     *
+     * @param req la HttpServletRequest contenente la richiesta del client
+     * @return <code>boolean</code> - true se si pu&ograve; rispondere 304
+     */
+    public boolean isNotModified(HttpServletRequest req) {
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(COMMA)) {
+            String candidate = tag.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * <p>Imposta nella risposta i validatori e la politica di cache:
+     * la copia pu&ograve; essere conservata solo dal browser dell'utente
+     * e va riconvalidata a ogni utilizzo.</p>
+     *
+     * @param res la HttpServletResponse in cui impostare le intestazioni
+     */
+    public void apply(HttpServletResponse res) {
+        res.setHeader("ETag", etag);
+        res.setHeader("Cache-Control", "private, no-cache");
+        res.setHeader("Pragma", null);
+        res.setHeader("Expires", null);
+    }
+
+
+    /**
+     * <p>Risponde <code>304 Not Modified</code> con i validatori correnti.</p>
+     *
+     * @param res la HttpServletResponse su cui rispondere
+     */
+    public void notModified(HttpServletResponse res) {
+        apply(res);
+        res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }
+
+
+    /**
+     * @return <code>String</code> - il validatore (ETag)
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+
+    /**
+     * <p>Restituisce <code>true</code> se la Command passata come argomento
+     * produce una vista validabile, cio&egrave; il registro dei trattamenti
+     * ({@link #COMMAND_REGISTER}) o i report ({@link ReportCommand}),
+     * il cui contenuto dipende soltanto dall'istantanea della rilevazione
+     * e dal registro delle command; tutte le altre pagine restano
+     * non memorizzabili.</p>
+     *
+     * @param token il token della Command richiesta (parametro 'q')
+     * @return <code>boolean</code> - true se la vista &egrave; validabile
+     */
+    static boolean isValidatable(String token) {
+        if (token == null) {
+            return false;
+        }
+        return token.equals(COMMAND_REGISTER) || ConfigManager.getCommands().get(token) instanceof ReportCommand;
+    }
+
+}
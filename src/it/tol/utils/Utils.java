@@ -137,6 +137,50 @@ public class Utils implements Constants {
     }
     
     
+    /**
+     * <p>Restituisce la stringa passata come argomento racchiusa tra doppi
+     * apici e con l'escape dei caratteri non ammessi in una stringa JSON
+     * (doppi apici, backslash e caratteri di controllo); i caratteri
+     * <code>&lt;</code>, <code>&gt;</code> e <code>&amp;</code> vengono
+     * codificati come sequenze unicode, in modo che il valore sia sicuro
+     * anche se inserito in una pagina html.<br>
+     * Se la stringa &egrave; null restituisce il letterale <code>null</code>.</p>
+     *
+     * @param s la String da codificare
+     * @return <code>String</code> - il letterale JSON corrispondente alla stringa
+     */
+    public static String toJsonString(String s) {
+        if (s == null) {
+            return "null";
+        }
+        StringBuilder json = new StringBuilder(s.length() + 2);
+        json.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':  json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                case '<':
+                case '>':
+                case '&':
+                    json.append(String.format("\\u%04x", Integer.valueOf(c)));
+                    break;
+                default:
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        json.append(String.format("\\u%04x", Integer.valueOf(c)));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+        return json.toString();
+    }
+    
+    
     /**
      * <p>Data in input una stringa qualsiasi, restituisce la stringa 
      * avente lo stesso contenuto dell'originale ma con la prima lettera
@@ -853,6 +897,39 @@ public class Utils implements Constants {
     }
 
 
+    /**
+     * <p>Combina una data e un orario, memorizzati separatamente
+     * (come nelle coppie di colonne <code>data_ultima_modifica</code> e
+     * <code>ora_ultima_modifica</code>), in un unico istante espresso
+     * in millisecondi dallo UNIX EPOCH.</p>
+     * <p>Se la data non &egrave; valorizzata restituisce zero;
+     * se non &egrave; valorizzato l'orario considera la mezzanotte.</p>
+     *
+     * @param date  la data
+     * @param time  l'orario
+     * @return <code>long</code> - l'istante corrispondente, in millisecondi
+     */
+    public static long getTimestamp(Date date, Time time) {
+        if (date == null) {
+            return 0L;
+        }
+        GregorianCalendar instant = new GregorianCalendar();
+        instant.setTime(date);
+        instant.set(Calendar.HOUR_OF_DAY, 0);
+        instant.set(Calendar.MINUTE, 0);
+        instant.set(Calendar.SECOND, 0);
+        instant.set(Calendar.MILLISECOND, 0);
+        if (time != null) {
+            GregorianCalendar clock = new GregorianCalendar();
+            clock.setTime(time);
+            instant.set(Calendar.HOUR_OF_DAY, clock.get(Calendar.HOUR_OF_DAY));
+            instant.set(Calendar.MINUTE, clock.get(Calendar.MINUTE));
+            instant.set(Calendar.SECOND, clock.get(Calendar.SECOND));
+        }
+        return instant.getTimeInMillis();
+    }
+
+
     /**
      * Restituisce lo UNIX EPOCH sotto forma di GregorianCalendar.
      *
@@ -310,6 +310,7 @@ public class DocumentGenerator implements Constants {
      * @param textIn        text to wrap
      * @param textWidthArea horizontal width of the printable area
      * @return <code>String[]</code> - Array of String containig the wrapped text
+     * @see TextLayoutEngine#wrap(Graphics2D, String, int) per la versione con tabelle di avanzamento, usata nella generazione dei documenti
      * @author Daniel Bigelow
      * @see <a href="https://danielbigelow.com/java-wraptext-in-graphics2d/">cfr</a>
      */
@@ -382,21 +383,16 @@ public class DocumentGenerator implements Constants {
     }
 
     
+    /**
+     * <p>Restituisce il testo semplice corrispondente a un campo
+     * formattato in HTML, eliminando i tag e decodificando le entit&agrave;.</p>
+     * 
+     * @param html testo formattato in HTML
+     * @return <code>String</code> - il testo da stampare nel documento
+     * @see HtmlTextConverter#toText(String)
+     */
     public static String cleanHtml(String html) {
-        String text = html.replaceAll("<p style=\"text-align: justify;\">", VOID_STRING)
-                          .replaceAll("</p>", VOID_STRING)
-                          .replaceAll("<li style=\"text-align: justify;\">", " ●")
-                          .replaceAll("(?s)<[^>]*>(\\s*<[^>]*>)*", VOID_STRING)
-                          .replaceAll("&ndash;", String.valueOf(HYPHEN))
-                          .replaceAll("&rsquo;", String.valueOf(APOSTROPHE))
-                          .replaceAll("&ldquo;", "‟")
-                          .replaceAll("&rdquo;", "”")
-                          .replaceAll("&agrave;", "à")
-                          .replaceAll("&egrave;", "è")
-                          .replaceAll("&igrave;", "ì")
-                          .replaceAll("&ograve;", "ò")
-                          .replaceAll("&ugrave;", "ù");
-        return text;
+        return HtmlTextConverter.toText(html);
     }
     
     
@@ -0,0 +1,360 @@
+/*
+ *   Trattamenti On Line (tol): Applicazione web per la gestione del 
+ *   registro delle attività di trattamento.
+ *
+ *   TOL:
+ *   web application to manage and publish information about
+ *   databases containing personal data, which are managed by subjects 
+ *   belonging to the university or involving 
+ *   the university as manager.
+ *   Copyright (C) 2023 Giovanroberto Torre
+ *   all right reserved
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA<br>
+ *
+ *   Giovanroberto Torre <gianroberto.torre@gmail.com>
+ *   Universita' degli Studi di Verona
+ *   Via Dell'Artigliere, 8
+ *   37129 Verona (Italy)
+ */
+
+package it.tol.utils.generator;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import it.tol.interfaces.Constants;
+
+
+/**
+ * <p><code>HtmlTextConverter</code> converte il testo formattato in HTML
+ * dei campi descrittivi dei trattamenti (descrizione, finalit&agrave;,
+ * misure di sicurezza, ecc.) nel testo semplice da stampare nei PDF.</p>
+ * <p>La conversione avviene in un'unica passata sul testo:
+ * i tag vengono eliminati, gli elementi di elenco diventano punti elenco
+ * e le entit&agrave; HTML, nominali e numeriche, vengono decodificate,
+ * scrivendo il risultato in un buffer riutilizzato dal thread corrente.<br />
+ * Poich&eacute; gli stessi campi vengono convertiti a ogni generazione
+ * del registro, i risultati sono memorizzati per valore del campo
+ * in una cache di dimensione limitata.</p>
+ *
+ * @author <a href="mailto:gianroberto.torre@gmail.com">Giovanroberto Torre</a>
+ */
+public class HtmlTextConverter implements Constants {
+
+    /** Punto elenco con cui vengono sostituiti gli elementi di elenco */
+    private static final String BULLET = " ●";
+    /** Numero massimo di testi convertiti mantenuti in cache */
+    private static final int MEMO_SIZE = 512;
+    /** Lunghezza massima dei testi che vengono memorizzati in cache */
+    private static final int MEMO_MAX_LENGTH = 32 * 1024;
+    /** Capacit&agrave; oltre la quale il buffer del thread non viene riutilizzato */
+    private static final int BUILDER_MAX_CAPACITY = 64 * 1024;
+    /** Lunghezza massima del nome di un'entit&agrave; (es. <code>&amp;thetasym;</code>) */
+    private static final int ENTITY_MAX_LENGTH = 10;
+    /** Tipo di tag: tag qualsiasi, da eliminare */
+    private static final int TAG_OTHER = 0;
+    /** Tipo di tag: paragrafo, eliminato senza unire il testo circostante */
+    private static final int TAG_PARAGRAPH = 1;
+    /** Tipo di tag: apertura di un elemento di elenco */
+    private static final int TAG_LIST_ITEM = 2;
+    /**
+     * <p>Tabella delle entit&agrave; HTML 4 (nome, codice esadecimale).</p>
+     */
+    private static final String[] ENTITY_TABLE = {
+        "quot", "22", "amp", "26", "lt", "3c", "gt", "3e", "nbsp", "a0",
+        "iexcl", "a1", "cent", "a2", "pound", "a3", "curren", "a4", "yen", "a5",
+        "brvbar", "a6", "sect", "a7", "uml", "a8", "copy", "a9", "ordf", "aa",
+        "laquo", "ab", "not", "ac", "shy", "ad", "reg", "ae", "macr", "af",
+        "deg", "b0", "plusmn", "b1", "sup2", "b2", "sup3", "b3", "acute", "b4",
+        "micro", "b5", "para", "b6", "middot", "b7", "cedil", "b8", "sup1", "b9",
+        "ordm", "ba", "raquo", "bb", "frac14", "bc", "frac12", "bd",
+        "frac34", "be", "iquest", "bf", "Agrave", "c0", "Aacute", "c1",
+        "Acirc", "c2", "Atilde", "c3", "Auml", "c4", "Aring", "c5", "AElig", "c6",
+        "Ccedil", "c7", "Egrave", "c8", "Eacute", "c9", "Ecirc", "ca",
+        "Euml", "cb", "Igrave", "cc", "Iacute", "cd", "Icirc", "ce", "Iuml", "cf",
+        "ETH", "d0", "Ntilde", "d1", "Ograve", "d2", "Oacute", "d3", "Ocirc", "d4",
+        "Otilde", "d5", "Ouml", "d6", "times", "d7", "Oslash", "d8",
+        "Ugrave", "d9", "Uacute", "da", "Ucirc", "db", "Uuml", "dc",
+        "Yacute", "dd", "THORN", "de", "szlig", "df", "agrave", "e0",
+        "aacute", "e1", "acirc", "e2", "atilde", "e3", "auml", "e4", "aring", "e5",
+        "aelig", "e6", "ccedil", "e7", "egrave", "e8", "eacute", "e9",
+        "ecirc", "ea", "euml", "eb", "igrave", "ec", "iacute", "ed", "icirc", "ee",
+        "iuml", "ef", "eth", "f0", "ntilde", "f1", "ograve", "f2", "oacute", "f3",
+        "ocirc", "f4", "otilde", "f5", "ouml", "f6", "divide", "f7",
+        "oslash", "f8", "ugrave", "f9", "uacute", "fa", "ucirc", "fb",
+        "uuml", "fc", "yacute", "fd", "thorn", "fe", "yuml", "ff", "OElig", "152",
+        "oelig", "153", "Scaron", "160", "scaron", "161", "Yuml", "178",
+        "fnof", "192", "circ", "2c6", "tilde", "2dc", "Alpha", "391",
+        "Beta", "392", "Gamma", "393", "Delta", "394", "Epsilon", "395",
+        "Zeta", "396", "Eta", "397", "Theta", "398", "Iota", "399", "Kappa", "39a",
+        "Lambda", "39b", "Mu", "39c", "Nu", "39d", "Xi", "39e", "Omicron", "39f",
+        "Pi", "3a0", "Rho", "3a1", "Sigma", "3a3", "Tau", "3a4", "Upsilon", "3a5",
+        "Phi", "3a6", "Chi", "3a7", "Psi", "3a8", "Omega", "3a9", "alpha", "3b1",
+        "beta", "3b2", "gamma", "3b3", "delta", "3b4", "epsilon", "3b5",
+        "zeta", "3b6", "eta", "3b7", "theta", "3b8", "iota", "3b9", "kappa", "3ba",
+        "lambda", "3bb", "mu", "3bc", "nu", "3bd", "xi", "3be", "omicron", "3bf",
+        "pi", "3c0", "rho", "3c1", "sigmaf", "3c2", "sigma", "3c3", "tau", "3c4",
+        "upsilon", "3c5", "phi", "3c6", "chi", "3c7", "psi", "3c8", "omega", "3c9",
+        "thetasym", "3d1", "upsih", "3d2", "piv", "3d6", "ensp", "2002",
+        "emsp", "2003", "thinsp", "2009", "zwnj", "200c", "zwj", "200d",
+        "lrm", "200e", "rlm", "200f", "ndash", "2013", "mdash", "2014",
+        "lsquo", "2018", "rsquo", "2019", "sbquo", "201a", "ldquo", "201c",
+        "rdquo", "201d", "bdquo", "201e", "dagger", "2020", "Dagger", "2021",
+        "bull", "2022", "hellip", "2026", "permil", "2030", "prime", "2032",
+        "Prime", "2033", "lsaquo", "2039", "rsaquo", "203a", "oline", "203e",
+        "frasl", "2044", "euro", "20ac", "image", "2111", "weierp", "2118",
+        "real", "211c", "trade", "2122", "alefsym", "2135", "larr", "2190",
+        "uarr", "2191", "rarr", "2192", "darr", "2193", "harr", "2194",
+        "crarr", "21b5", "lArr", "21d0", "uArr", "21d1", "rArr", "21d2",
+        "dArr", "21d3", "hArr", "21d4", "forall", "2200", "part", "2202",
+        "exist", "2203", "empty", "2205", "nabla", "2207", "isin", "2208",
+        "notin", "2209", "ni", "220b", "prod", "220f", "sum", "2211",
+        "minus", "2212", "lowast", "2217", "radic", "221a", "prop", "221d",
+        "infin", "221e", "ang", "2220", "and", "2227", "or", "2228", "cap", "2229",
+        "cup", "222a", "int", "222b", "there4", "2234", "sim", "223c",
+        "cong", "2245", "asymp", "2248", "ne", "2260", "equiv", "2261",
+        "le", "2264", "ge", "2265", "sub", "2282", "sup", "2283", "nsub", "2284",
+        "sube", "2286", "supe", "2287", "oplus", "2295", "otimes", "2297",
+        "perp", "22a5", "sdot", "22c5", "lceil", "2308", "rceil", "2309",
+        "lfloor", "230a", "rfloor", "230b", "lang", "2329", "rang", "232a",
+        "loz", "25ca", "spades", "2660", "clubs", "2663", "hearts", "2665",
+        "diams", "2666"
+    };
+    /**
+     * <p>Entit&agrave; decodificate, indicizzate per nome.<br />
+     * Trattini e virgolette tipografiche sono resi come nella
+     * versione precedente della conversione, per non cambiare
+     * l'aspetto dei documenti gi&agrave; prodotti; lo spazio
+     * non separabile diventa uno spazio normale, perch&eacute;
+     * la suddivisione in righe separa le parole solo sugli spazi.</p>
+     */
+    private static final Map<String, String> ENTITIES = new HashMap<>(ENTITY_TABLE.length);
+    static {
+        for (int i = 0; i < ENTITY_TABLE.length; i += 2) {
+            ENTITIES.put(ENTITY_TABLE[i], String.valueOf((char) Integer.parseInt(ENTITY_TABLE[i + 1], 16)));
+        }
+        ENTITIES.put("ndash", String.valueOf(HYPHEN));
+        ENTITIES.put("rsquo", String.valueOf(APOSTROPHE));
+        ENTITIES.put("ldquo", "‟");
+        ENTITIES.put("nbsp", String.valueOf(BLANK_SPACE));
+    }
+    /**
+     * <p>Cache dei testi convertiti, in ordine di accesso.</p>
+     */
+    private static final Map<String, String> MEMO = new LinkedHashMap<String, String>(MEMO_SIZE, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MEMO_SIZE;
+        }
+    };
+    /**
+     * <p>Buffer di conversione del thread corrente.</p>
+     */
+    private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(1024);
+        }
+    };
+
+
+    /**
+     * Costruttore privato: la classe espone solo metodi statici.
+     */
+    private HtmlTextConverter() {
+        /*;*/   // It doesn't anything
+    }
+
+
+    /**
+     * <p>Restituisce il testo semplice corrispondente a un testo HTML,
+     * recuperandolo dalla cache se lo stesso testo &egrave; gi&agrave;
+     * stato convertito.</p>
+     * 
+     * @param html testo formattato in HTML; se <code>null</code> si ottiene la stringa vuota
+     * @return <code>String</code> - il testo senza tag e con le entit&agrave; decodificate
+     */
+    public static String toText(String html) {
+        if (html == null) {
+            return VOID_STRING;
+        }
+        // Niente da convertire: si evita sia il lavoro che la cache
+        if (html.indexOf('<') < NOTHING && html.indexOf('&') < NOTHING) {
+            return html;
+        }
+        if (html.length() > MEMO_MAX_LENGTH) {
+            return convert(html);
+        }
+        String text;
+        synchronized (MEMO) {
+            text = MEMO.get(html);
+        }
+        if (text == null) {
+            text = convert(html);
+            synchronized (MEMO) {
+                MEMO.put(html, text);
+            }
+        }
+        return text;
+    }
+
+
+    /**
+     * <p>Converte un testo HTML in testo semplice con un'unica passata.</p>
+     * <p>Un tag &egrave; tutto ci&ograve; che va da '&lt;' al primo '&gt;'
+     * successivo (un '&lt;' non chiuso resta nel testo).
+     * Gli spazi compresi fra due tag vengono eliminati insieme ai tag,
+     * tranne quando il secondo tag apre un elemento di elenco;
+     * i tag di paragrafo vengono eliminati senza interrompere
+     * una sequenza di tag.</p>
+     * 
+     * @param html testo formattato in HTML
+     * @return <code>String</code> - il testo convertito
+     */
+    private static String convert(String html) {
+        StringBuilder out = BUILDER.get();
+        out.setLength(NOTHING);
+        int len = html.length();
+        // Posizione nel buffer degli spazi che seguono un tag, -1 se non ce ne sono
+        int spaceFrom = -1;
+        // Vero se dall'ultimo tag sono stati letti solo spazi
+        boolean afterTag = false;
+        int i = NOTHING;
+        while (i < len) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                int close = html.indexOf('>', i + 1);
+                if (close > NOTHING) {
+                    int kind = kindOf(html, i + 1, close);
+                    if (kind == TAG_LIST_ITEM) {
+                        out.append(BULLET);
+                        afterTag = false;
+                        spaceFrom = -1;
+                    } else if (kind == TAG_OTHER) {
+                        if (afterTag && spaceFrom >= NOTHING) {
+                            out.setLength(spaceFrom);
+                        }
+                        afterTag = true;
+                        spaceFrom = -1;
+                    }
+                    i = close + 1;
+                    continue;
+                }
+            }
+            if (Character.isWhitespace(c)) {
+                if (afterTag && spaceFrom < NOTHING) {
+                    spaceFrom = out.length();
+                }
+                out.append(c);
+                i++;
+                continue;
+            }
+            afterTag = false;
+            spaceFrom = -1;
+            if (c == '&') {
+                int end = decode(html, i, out);
+                if (end > i) {
+                    i = end;
+                    continue;
+                }
+            }
+            out.append(c);
+            i++;
+        }
+        String text = out.toString();
+        if (out.capacity() > BUILDER_MAX_CAPACITY) {
+            BUILDER.remove();
+        }
+        return text;
+    }
+
+
+    /**
+     * <p>Classifica il tag compreso fra le posizioni date (escluse le parentesi
+     * angolari): apertura di un elemento di elenco, paragrafo o altro.</p>
+     * 
+     * @param html  testo HTML
+     * @param from  posizione del primo carattere dopo '&lt;'
+     * @param to    posizione del '&gt;' di chiusura
+     * @return <code>int</code> - il tipo di tag
+     */
+    private static int kindOf(String html, int from, int to) {
+        int start = from;
+        if (start < to && html.charAt(start) == '/') {
+            start++;
+        }
+        int end = start;
+        while (end < to && Character.isLetterOrDigit(html.charAt(end))) {
+            end++;
+        }
+        int nameLength = end - start;
+        if (nameLength == 1 && Character.toLowerCase(html.charAt(start)) == 'p') {
+            return TAG_PARAGRAPH;
+        }
+        if (nameLength == 2 && start == from && html.regionMatches(true, start, "li", NOTHING, 2)) {
+            return TAG_LIST_ITEM;
+        }
+        return TAG_OTHER;
+    }
+
+
+    /**
+     * <p>Decodifica l'entit&agrave; che inizia alla posizione data
+     * (nominale, <code>&amp;#NNN;</code> o <code>&amp;#xHHHH;</code>)
+     * aggiungendola al buffer.</p>
+     * 
+     * @param html  testo HTML
+     * @param amp   posizione del carattere '&amp;'
+     * @param out   buffer di destinazione
+     * @return <code>int</code> - la posizione successiva al ';' se l'entit&agrave; &egrave; stata riconosciuta, altrimenti <code>amp</code>
+     */
+    private static int decode(String html, int amp, StringBuilder out) {
+        int limit = Math.min(html.length(), amp + ENTITY_MAX_LENGTH + 2);
+        int semi = amp + 1;
+        while (semi < limit && html.charAt(semi) != ';') {
+            semi++;
+        }
+        if (semi >= limit || semi == amp + 1) {
+            return amp;
+        }
+        if (html.charAt(amp + 1) == '#') {
+            boolean hex = semi > amp + 2 && (html.charAt(amp + 2) == 'x' || html.charAt(amp + 2) == 'X');
+            int from = hex ? amp + 3 : amp + 2;
+            if (from == semi) {
+                return amp;
+            }
+            try {
+                int code = Integer.parseInt(html.substring(from, semi), hex ? 16 : 10);
+                if (!Character.isValidCodePoint(code)) {
+                    return amp;
+                }
+                out.appendCodePoint(code);
+                return semi + 1;
+            } catch (NumberFormatException nfe) {
+                return amp;
+            }
+        }
+        String value = ENTITIES.get(html.substring(amp + 1, semi));
+        if (value == null) {
+            return amp;
+        }
+        out.append(value);
+        return semi + 1;
+    }
+
+}
@@ -0,0 +1,412 @@
+/*
+ *   Trattamenti On Line (tol): Applicazione web per la gestione del 
+ *   registro delle attività di trattamento.
+ *
+ *   TOL:
+ *   web application to manage and publish information about
+ *   databases containing personal data, which are managed by subjects 
+ *   belonging to the university or involving 
+ *   the university as manager.
+ *   Copyright (C) 2023 Giovanroberto Torre
+ *   all right reserved
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA<br>
+ *
+ *   Giovanroberto Torre <gianroberto.torre@gmail.com>
+ *   Universita' degli Studi di Verona
+ *   Via Dell'Artigliere, 8
+ *   37129 Verona (Italy)
+ */
+
+package it.tol.utils.generator;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextAttribute;
+import java.awt.font.TextLayout;
+import java.awt.print.PageFormat;
+import java.io.IOException;
+import java.text.AttributedString;
+import java.util.ArrayList;
+
+import com.qoppa.pdfWriter.PDFDocument;
+import com.qoppa.pdfWriter.PDFPage;
+
+import it.tol.exception.AttributoNonValorizzatoException;
+import it.tol.utils.generator.TextLayoutEngine.Lines;
+
+
+/**
+ * <p><code>PageFlow</code> impagina un flusso di elementi gi&agrave; misurati
+ * (titoli, righe di testo, righe orizzontali, spaziature, interruzioni
+ * di pagina) riempiendo le pagine fino all'altezza utile.</p>
+ * <p>Le sezioni di un documento accodano i propri elementi una sola volta,
+ * misurando e suddividendo in righe il testo al momento dell'accodamento;
+ * l'impaginazione avviene poi in un'unica passata sugli elementi,
+ * aprendo una nuova pagina (con la relativa intestazione) ogni volta
+ * che l'elemento successivo non trova posto nella pagina corrente.
+ * Nessun elemento viene quindi troncato n&eacute; disegnato due volte,
+ * e il lavoro cresce linearmente con il contenuto.<br />
+ * Un elemento pu&ograve; essere vincolato a restare nella stessa pagina
+ * del successivo (p.es. un titolo con la prima riga del suo paragrafo).</p>
+ *
+ * @author <a href="mailto:gianroberto.torre@gmail.com">Giovanroberto Torre</a>
+ */
+public class PageFlow {
+
+    /**
+     * <p>Intestazione delle pagine: viene invocata a ogni nuova pagina
+     * e restituisce la coordinata verticale da cui far partire il contenuto.</p>
+     */
+    public interface Header {
+        /**
+         * Disegna l'intestazione di una pagina.
+         *
+         * @param g     l'oggetto Graphics2D della pagina
+         * @param index indice della pagina nel flusso (0 per la prima)
+         * @return <code>int</code> - coordinata verticale da cui parte il contenuto
+         * @throws IOException se si verifica un problema nel puntamento a una risorsa (immagine)
+         * @throws AttributoNonValorizzatoException se un attributo obbligatorio non &egrave; valorizzato
+         */
+        int begin(Graphics2D g, int index) throws IOException, AttributoNonValorizzatoException;
+    }
+
+
+    /**
+     * <p>Elemento del flusso: occupa uno spazio verticale noto
+     * a priori e viene disegnato con la linea di base alla coordinata
+     * raggiunta dopo averlo avanzato.</p>
+     */
+    private abstract static class Item {
+        /** Spazio verticale occupato dall'elemento */
+        final int advance;
+        /** Se true l'elemento deve stare nella stessa pagina del successivo */
+        final boolean keepWithNext;
+
+        Item(int advance, boolean keepWithNext) {
+            this.advance = advance;
+            this.keepWithNext = keepWithNext;
+        }
+
+        abstract void draw(Graphics2D g, int y);
+    }
+
+
+    /** Riga di testo non suddivisa */
+    private static final class Text extends Item {
+        private final String text;
+        private final Font font;
+        private final int x;
+
+        Text(String text, Font font, int x, int advance, boolean keepWithNext) {
+            super(advance, keepWithNext);
+            this.text = text;
+            this.font = font;
+            this.x = x;
+        }
+
+        @Override
+        void draw(Graphics2D g, int y) {
+            g.setColor(Color.black);
+            g.setFont(font);
+            g.drawString(text, x, y);
+        }
+    }
+
+
+    /** Riga di un paragrafo suddiviso dal TextLayoutEngine */
+    private static final class Line extends Item {
+        private final Lines lines;
+        private final int index;
+        private final Font font;
+        private final int x;
+        /** Larghezza di giustificazione (0 per testo allineato a sinistra) */
+        private final int justify;
+
+        Line(Lines lines, int index, Font font, int x, int advance, int justify) {
+            super(advance, false);
+            this.lines = lines;
+            this.index = index;
+            this.font = font;
+            this.x = x;
+            this.justify = justify;
+        }
+
+        @Override
+        void draw(Graphics2D g, int y) {
+            g.setColor(Color.black);
+            g.setFont(font);
+            int start = lines.start(index);
+            int end = lines.end(index);
+            // L'ultima riga del paragrafo non viene giustificata
+            if (justify > 0 && index < lines.size() - 1 && end > start) {
+                AttributedString as = new AttributedString(new String(lines.getText(), start, end - start));
+                as.addAttribute(TextAttribute.FONT, font);
+                TextLayout layout = new TextLayout(as.getIterator(), g.getFontRenderContext());
+                layout.getJustifiedLayout(justify).draw(g, x, y);
+            } else {
+                TextLayoutEngine.draw(g, lines, index, x, y);
+            }
+        }
+    }
+
+
+    /** Riga orizzontale */
+    private static final class Rule extends Item {
+        private final Stroke stroke;
+        private final int x1;
+        private final int x2;
+
+        Rule(Stroke stroke, int x1, int x2, int advance) {
+            super(advance, true);
+            this.stroke = stroke;
+            this.x1 = x1;
+            this.x2 = x2;
+        }
+
+        @Override
+        void draw(Graphics2D g, int y) {
+            g.setColor(Color.black);
+            g.setStroke(stroke);
+            g.drawLine(x1, y, x2, y);
+        }
+    }
+
+
+    /** Spaziatura verticale */
+    private static final class Space extends Item {
+        Space(int advance, boolean keepWithNext) {
+            super(advance, keepWithNext);
+        }
+
+        @Override
+        void draw(Graphics2D g, int y) {
+            // Nulla da disegnare
+        }
+    }
+
+
+    /** Interruzione di pagina */
+    private static final class Break extends Item {
+        Break() {
+            super(0, false);
+        }
+
+        @Override
+        void draw(Graphics2D g, int y) {
+            // Gestita dal paginatore
+        }
+    }
+
+    /** Formato delle pagine */
+    private final PageFormat pf;
+    /** Documento cui vengono aggiunte le pagine */
+    private final PDFDocument doc;
+    /** Intestazione delle pagine */
+    private final Header header;
+    /** Coordinata verticale oltre la quale non si scrive */
+    private final int bottom;
+    /** Contesto di rendering delle pagine, usato per misurare il testo */
+    private final FontRenderContext frc;
+    /** Elementi accodati */
+    private final ArrayList<Item> items = new ArrayList<>();
+    /** Pagina corrente */
+    private PDFPage page;
+    /** Graphics2D della pagina corrente */
+    private Graphics2D g;
+    /** Coordinata verticale raggiunta nella pagina corrente */
+    private int y;
+    /** Coordinata verticale di partenza del contenuto nella pagina corrente */
+    private int top;
+    /** Numero di pagine aperte */
+    private int pages = 0;
+
+
+    /**
+     * <p>Crea un flusso e ne apre la prima pagina, dalla quale
+     * ricava il contesto di rendering con cui misurare il testo.</p>
+     *
+     * @param pf        formato delle pagine
+     * @param doc       documento cui aggiungere le pagine
+     * @param header    intestazione delle pagine
+     * @param bottom    coordinata verticale oltre la quale non si scrive
+     * @throws IOException se si verifica un problema nel disegno dell'intestazione
+     * @throws AttributoNonValorizzatoException se un attributo obbligatorio dell'intestazione non &egrave; valorizzato
+     */
+    public PageFlow(PageFormat pf,
+                    PDFDocument doc,
+                    Header header,
+                    int bottom)
+             throws IOException,
+                    AttributoNonValorizzatoException {
+        this.pf = pf;
+        this.doc = doc;
+        this.header = header;
+        this.bottom = bottom;
+        open();
+        this.frc = g.getFontRenderContext();
+    }
+
+
+    /**
+     * <p>Accoda un titolo di una sola riga, che resta nella stessa pagina
+     * dell'elemento successivo.</p>
+     *
+     * @param text      testo del titolo
+     * @param font      font del titolo
+     * @param x         coordinata orizzontale
+     * @param advance   spazio verticale che precede la linea di base
+     */
+    public void heading(String text, Font font, int x, int advance) {
+        items.add(new Text(text, font, x, advance, true));
+    }
+
+
+    /**
+     * <p>Accoda una riga di testo non suddivisa.</p>
+     *
+     * @param text      testo della riga
+     * @param font      font della riga
+     * @param x         coordinata orizzontale
+     * @param advance   spazio verticale che precede la linea di base
+     */
+    public void line(String text, Font font, int x, int advance) {
+        items.add(new Text(text, font, x, advance, false));
+    }
+
+
+    /**
+     * <p>Accoda un paragrafo, suddividendolo in righe una volta per tutte.</p>
+     *
+     * @param text      testo del paragrafo (se null non viene accodato nulla)
+     * @param font      font del paragrafo
+     * @param x         coordinata orizzontale
+     * @param width     larghezza dell'area di testo
+     * @param leading   interlinea
+     * @param justified true per giustificare le righe (tranne l'ultima)
+     */
+    public void paragraph(String text, Font font, int x, int width, int leading, boolean justified) {
+        if (text == null) {
+            return;
+        }
+        Lines lines = TextLayoutEngine.wrap(TextLayoutEngine.getAdvances(font, frc), text.toCharArray(), width);
+        for (int i = 0; i < lines.size(); i++) {
+            items.add(new Line(lines, i, font, x, leading, justified ? width : 0));
+        }
+    }
+
+
+    /**
+     * <p>Accoda una riga orizzontale, che resta nella stessa pagina
+     * dell'elemento successivo.</p>
+     *
+     * @param stroke    tratto della riga
+     * @param x1        coordinata orizzontale di inizio
+     * @param x2        coordinata orizzontale di fine
+     * @param advance   spazio verticale che precede la riga
+     */
+    public void rule(Stroke stroke, int x1, int x2, int advance) {
+        items.add(new Rule(stroke, x1, x2, advance));
+    }
+
+
+    /**
+     * <p>Accoda una spaziatura verticale.</p>
+     *
+     * @param advance   altezza della spaziatura
+     */
+    public void space(int advance) {
+        items.add(new Space(advance, false));
+    }
+
+
+    /**
+     * <p>Accoda un'interruzione di pagina: il contenuto successivo
+     * parte da una nuova pagina, a meno che la pagina corrente sia vuota.</p>
+     */
+    public void pageBreak() {
+        items.add(new Break());
+    }
+
+
+    /**
+     * <p>Impagina tutti gli elementi accodati in un'unica passata
+     * e aggiunge le pagine al documento.</p>
+     *
+     * @return <code>int</code> - numero di pagine prodotte
+     * @throws IOException se si verifica un problema nel disegno di un'intestazione
+     * @throws AttributoNonValorizzatoException se un attributo obbligatorio di un'intestazione non &egrave; valorizzato
+     */
+    public int layout()
+               throws IOException,
+                      AttributoNonValorizzatoException {
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            if (item instanceof Break) {
+                if (y > top) {
+                    close();
+                    open();
+                }
+                continue;
+            }
+            // Spazio richiesto dall'elemento e da quelli vincolati a seguirlo
+            int need = item.advance;
+            for (int k = i; k < items.size() - 1 && items.get(k).keepWithNext; k++) {
+                need += items.get(k + 1).advance;
+            }
+            if (y + need > bottom && y > top) {
+                close();
+                open();
+            }
+            y += item.advance;
+            item.draw(g, y);
+        }
+        close();
+        items.clear();
+        return pages;
+    }
+
+
+    /**
+     * Apre una nuova pagina e ne disegna l'intestazione.
+     *
+     * @throws IOException se si verifica un problema nel disegno dell'intestazione
+     * @throws AttributoNonValorizzatoException se un attributo obbligatorio dell'intestazione non &egrave; valorizzato
+     */
+    private void open()
+               throws IOException,
+                      AttributoNonValorizzatoException {
+        page = doc.createPage(pf);
+        g = page.createGraphics();
+        top = header.begin(g, pages++);
+        y = top;
+    }
+
+
+    /**
+     * Aggiunge la pagina corrente al documento.
+     */
+    private void close() {
+        if (page != null) {
+            doc.addPage(page);
+            page = null;
+            g = null;
+        }
+    }
+
+}
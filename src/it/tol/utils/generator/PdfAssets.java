@@ -0,0 +1,158 @@
+/*
+ *   Trattamenti On Line (tol): Applicazione web per la gestione del 
+ *   registro delle attività di trattamento.
+ *
+ *   TOL:
+ *   web application to manage and publish information about
+ *   databases containing personal data, which are managed by subjects 
+ *   belonging to the university or involving 
+ *   the university as manager.
+ *   Copyright (C) 2023 Giovanroberto Torre
+ *   all right reserved
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA<br>
+ *
+ *   Giovanroberto Torre <gianroberto.torre@gmail.com>
+ *   Universita' degli Studi di Verona
+ *   Via Dell'Artigliere, 8
+ *   37129 Verona (Italy)
+ */
+
+package it.tol.utils.generator;
+
+import java.awt.BasicStroke;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Stroke;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import it.tol.interfaces.Constants;
+
+
+/**
+ * <p><code>PdfAssets</code> &egrave; il registro delle risorse grafiche
+ * condivise dai documenti PDF: immagini (logo e icone), font, tratti
+ * e metriche dei font.</p>
+ * <p>Ogni risorsa viene creata una sola volta e poi riutilizzata
+ * da tutte le pagine di tutti i documenti, invece di decodificare
+ * il logo da disco e di istanziare font e tratti a ogni pagina.<br />
+ * In particolare ogni immagine &egrave; decodificata una volta sola
+ * e tutte le pagine disegnano la stessa istanza: in questo modo,
+ * all'interno di un documento, il writer PDF incorpora l'immagine
+ * come un'unica risorsa condivisa invece di una copia per pagina.</p>
+ * <p>Font, tratti e immagini sono immutabili (le immagini non vengono
+ * mai modificate dopo la lettura), per cui possono essere condivisi
+ * senza sincronizzazione anche dalla generazione parallela dei frammenti.</p>
+ *
+ * @author <a href="mailto:gianroberto.torre@gmail.com">Giovanroberto Torre</a>
+ */
+public final class PdfAssets implements Constants {
+
+    /** Font del titolo del frontespizio */
+    public static final Font FONT_TITLE = new Font("Helvetica", Font.BOLD, 26);
+    /** Font del sottotitolo del frontespizio */
+    public static final Font FONT_SUBTITLE = new Font("Helvetica", Font.ITALIC, 18);
+    /** Font dei titoli delle pagine intermedie */
+    public static final Font FONT_SECTION = new Font("Helvetica", Font.BOLD, 18);
+    /** Font dei titoli di sezione e delle intestazioni dei trattamenti */
+    public static final Font FONT_HEADING = new Font("Helvetica", Font.BOLD, 14);
+    /** Font del testo delle pagine intermedie */
+    public static final Font FONT_SUBHEADING = new Font("Helvetica", Font.PLAIN, 14);
+    /** Font del pi&egrave; di pagina del frontespizio */
+    public static final Font FONT_FOOTER = new Font("Helvetica", Font.PLAIN, 12);
+    /** Font del testo */
+    public static final Font FONT_BODY = new Font("Arial", Font.PLAIN, 11);
+    /** Font del testo in grassetto */
+    public static final Font FONT_BOLD = new Font("Arial", Font.BOLD, 11);
+    /** Font del testo in corsivo */
+    public static final Font FONT_ITALIC = new Font("Arial", Font.ITALIC, 11);
+    /** Font dell'elenco dei tipi di dato trattati */
+    public static final Font FONT_CHECK = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+    /** Tratto del bordo delle intestazioni dei trattamenti */
+    public static final Stroke STROKE_BORDER = new BasicStroke(6);
+    /** Tratto delle righe orizzontali che separano gli elementi degli elenchi */
+    public static final Stroke STROKE_DOTTED = new BasicStroke(1f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 1.0f, new float[] {1f, 1f}, 2.0f);
+    /**
+     * <p>Immagini decodificate, indicizzate per nome del file.</p>
+     */
+    private static final ConcurrentHashMap<String, BufferedImage> IMAGES = new ConcurrentHashMap<>();
+    /**
+     * <p>Metriche dei font, indicizzate per font.</p>
+     */
+    private static final ConcurrentHashMap<Font, FontMetrics> METRICS = new ConcurrentHashMap<>();
+    /**
+     * <p>Immagine di appoggio da cui ottenere le metriche dei font.</p>
+     */
+    private static final BufferedImage SCRATCH = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+
+
+    /**
+     * Costruttore privato: la classe espone solo membri statici.
+     */
+    private PdfAssets() {
+        /*;*/   // It doesn't anything
+    }
+
+
+    /**
+     * <p>Restituisce un'immagine raster a partire dal nome del file,
+     * decodificandola dalla directory delle immagini solo la prima volta
+     * che viene richiesta.</p>
+     * 
+     * @param imageName il nome dell'immagine raster da recuperare
+     * @return <code>BufferedImage</code> - l'istanza condivisa dell'immagine
+     * @throws IOException se si verifica un problema nell'accesso alla risorsa da decodificare
+     */
+    public static BufferedImage getImage(String imageName) 
+                                  throws IOException {
+        BufferedImage image = IMAGES.get(imageName);
+        if (image == null) {
+            BufferedImage decoded = DocumentGenerator.getImage(imageName);
+            if (decoded == null) {
+                throw new IOException("Immagine " + imageName + " non leggibile.\n");
+            }
+            image = IMAGES.putIfAbsent(imageName, decoded);
+            if (image == null) {
+                image = decoded;
+            }
+        }
+        return image;
+    }
+
+
+    /**
+     * <p>Restituisce le metriche di un font, calcolate una sola volta.</p>
+     * 
+     * @param font il font di cui si vogliono le metriche
+     * @return <code>FontMetrics</code> - le metriche del font
+     */
+    public static FontMetrics getMetrics(Font font) {
+        FontMetrics metrics = METRICS.get(font);
+        if (metrics == null) {
+            Graphics2D g = SCRATCH.createGraphics();
+            try {
+                metrics = g.getFontMetrics(font);
+            } finally {
+                g.dispose();
+            }
+            METRICS.putIfAbsent(font, metrics);
+        }
+        return metrics;
+    }
+
+}
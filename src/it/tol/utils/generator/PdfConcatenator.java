@@ -0,0 +1,1013 @@
+/*
+ *   Trattamenti On Line (tol): Applicazione web per la gestione del 
+ *   registro delle attività di trattamento.
+ *
+ *   TOL:
+ *   web application to manage and publish information about
+ *   databases containing personal data, which are managed by subjects 
+ *   belonging to the university or involving 
+ *   the university as manager.
+ *   Copyright (C) 2023 Giovanroberto Torre
+ *   all right reserved
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA<br>
+ *
+ *   Giovanroberto Torre <gianroberto.torre@gmail.com>
+ *   Universita' degli Studi di Verona
+ *   Via Dell'Artigliere, 8
+ *   37129 Verona (Italy)
+ */
+
+package it.tol.utils.generator;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+
+/**
+ * <p><code>PdfConcatenator</code> scrive un documento PDF accodando,
+ * uno dopo l'altro, le pagine di pi&ugrave; documenti PDF (frammenti)
+ * gi&agrave; salvati su disco.</p>
+ * <p>A differenza dell'accodamento offerto dalla libreria di generazione,
+ * che conserva in memoria tutte le pagine fino al salvataggio del documento,
+ * ogni frammento viene letto, copiato sul flusso di uscita e subito
+ * rilasciato: in memoria restano soltanto il frammento in corso di copia,
+ * la posizione di ciascun oggetto gi&agrave; scritto e l'elenco delle pagine,
+ * per cui l'occupazione non cresce con la dimensione del documento.</p>
+ * <p>Di ciascun frammento vengono copiate le pagine, nell'ordine, e tutti
+ * gli oggetti da esse raggiungibili (contenuti, risorse, font, immagini,
+ * annotazioni), rinumerati; gli attributi ereditabili dall'albero delle
+ * pagine (risorse, formato, rotazione) vengono riportati sulle singole
+ * pagine. Tutto il resto (dizionario delle informazioni, identificativo
+ * del file, date) non viene copiato: il documento prodotto dipende quindi
+ * soltanto dal contenuto dei frammenti e dal loro ordine, ed &egrave; identico
+ * byte per byte ogni volta che vengono accodati gli stessi frammenti
+ * nello stesso ordine.</p>
+ * <p>Vengono letti i frammenti con tabella dei riferimenti classica
+ * o compressa (PDF 1.5) e con oggetti compressi, purch&eacute;
+ * non cifrati; gli oggetti compressi vengono riscritti come oggetti
+ * ordinari, mentre i flussi (stream) vengono copiati senza
+ * decodificarli.</p>
+ *
+ * @author <a href="mailto:gianroberto.torre@gmail.com">Giovanroberto Torre</a>
+ */
+public class PdfConcatenator implements Closeable {
+
+    /**
+     * <p>Nome di questa classe
+     * (utilizzato per contestualizzare i messaggi di errore).</p>
+     */
+    static final String FOR_NAME = "\n" + Logger.getLogger(new Throwable().getStackTrace()[0].getClassName()) + ": ";
+    /** Numero dell'oggetto catalogo del documento prodotto */
+    private static final int CATALOG = 1;
+    /** Numero dell'oggetto radice dell'albero delle pagine del documento prodotto */
+    private static final int PAGES = 2;
+    /** Attributi che una pagina eredita dai nodi dell'albero delle pagine */
+    private static final String[] INHERITABLE = { "Resources", "MediaBox", "CropBox", "Rotate" };
+    /** Flusso di uscita, che conta i byte scritti */
+    private final Counter out;
+    /** Posizione di ciascun oggetto scritto (indice = numero dell'oggetto) */
+    private long[] offsets = new long[1024];
+    /** Numero dell'ultimo oggetto assegnato */
+    private int last = PAGES;
+    /** Numeri degli oggetti pagina, nell'ordine del documento */
+    private final ArrayList<Integer> pages = new ArrayList<>();
+
+
+    /**
+     * <p>Crea il documento e ne scrive l'intestazione.</p>
+     *
+     * @param target flusso su cui scrivere il documento (viene chiuso da {@link #close()})
+     * @throws IOException se non &egrave; possibile scrivere sul flusso
+     */
+    public PdfConcatenator(OutputStream target)
+                    throws IOException {
+        out = new Counter(new BufferedOutputStream(target, 64 * 1024));
+        write("%PDF-1.7\n");
+        // Commento binario: segnala ai programmi di trasferimento che il file non e' di testo
+        out.write(new byte[] { '%', (byte) 0xE2, (byte) 0xE3, (byte) 0xCF, (byte) 0xD3, '\n' });
+    }
+
+
+    /**
+     * <p>Accoda al documento tutte le pagine del frammento indicato,
+     * nel loro ordine; al termine il frammento non &egrave; pi&ugrave;
+     * necessario e pu&ograve; essere eliminato.</p>
+     *
+     * @param fragment file PDF di cui accodare le pagine
+     * @throws IOException se il frammento non &egrave; leggibile o non &egrave; un PDF supportato, oppure se non &egrave; possibile scrivere sul flusso
+     */
+    public void append(File fragment)
+                throws IOException {
+        Source src = new Source(Files.readAllBytes(fragment.toPath()), fragment.getName());
+        Object root = src.resolve(src.trailer.get("Root"));
+        if (!(root instanceof Map)) {
+            throw src.error("catalogo mancante");
+        }
+        // Oggetti del frammento gia' rinumerati e oggetti ancora da scrivere
+        HashMap<Integer, Integer> numbers = new HashMap<>();
+        ArrayDeque<Integer> pending = new ArrayDeque<>();
+        ArrayList<Integer> leaves = new ArrayList<>();
+        ArrayList<Map<String, Object>> dicts = new ArrayList<>();
+        // I riferimenti al catalogo e ai nodi dell'albero puntano a quelli del documento prodotto
+        Object rootRef = src.trailer.get("Root");
+        if (rootRef instanceof Ref) {
+            numbers.put(Integer.valueOf(((Ref) rootRef).num), Integer.valueOf(CATALOG));
+        }
+        collectPages(src, asDict(root).get("Pages"), new HashMap<String, Object>(), numbers, leaves, dicts, 0);
+        // Le pagine vengono numerate prima di scriverle, perche' possono riferirsi l'una all'altra
+        int firstPage = pages.size();
+        for (Integer old : leaves) {
+            Integer num = Integer.valueOf(next());
+            if (old != null) {
+                numbers.put(old, num);
+            }
+            pages.add(num);
+        }
+        for (int i = 0; i < leaves.size(); i++) {
+            Map<String, Object> page = dicts.get(i);
+            int num = pages.get(firstPage + i).intValue();
+            page.remove("Parent");
+            page.put("Parent", new Ref(PAGES, true));
+            begin(num);
+            writeObject(page, numbers, pending);
+            write("\nendobj\n");
+        }
+        // Tutto cio' che e' raggiungibile dalle pagine
+        while (!pending.isEmpty()) {
+            int old = pending.poll().intValue();
+            begin(numbers.get(Integer.valueOf(old)).intValue());
+            Object obj = src.object(old);
+            if (obj instanceof Stream) {
+                Stream stream = (Stream) obj;
+                LinkedHashMap<String, Object> dict = new LinkedHashMap<>(stream.dict);
+                dict.put("Length", new Raw(Integer.toString(stream.length)));
+                writeObject(dict, numbers, pending);
+                write("\nstream\n");
+                out.write(stream.data, stream.start, stream.length);
+                write("\nendstream");
+            } else {
+                writeObject(obj, numbers, pending);
+            }
+            write("\nendobj\n");
+        }
+    }
+
+
+    /**
+     * @return <code>int</code> - numero di pagine accodate finora
+     */
+    public int getPageCount() {
+        return pages.size();
+    }
+
+
+    /**
+     * <p>Scrive l'albero delle pagine, il catalogo, la tabella dei
+     * riferimenti e il trailer, e chiude il flusso.</p>
+     *
+     * @throws IOException se non &egrave; possibile scrivere sul flusso
+     */
+    @Override
+    public void close()
+               throws IOException {
+        try {
+            begin(PAGES);
+            write("<</Type /Pages /Count " + pages.size() + " /Kids [");
+            for (int i = 0; i < pages.size(); i++) {
+                write((i > 0 ? " " : "") + pages.get(i) + " 0 R");
+            }
+            write("]>>\nendobj\n");
+            begin(CATALOG);
+            write("<</Type /Catalog /Pages " + PAGES + " 0 R>>\nendobj\n");
+            long xref = out.count;
+            write("xref\n0 " + (last + 1) + "\n0000000000 65535 f\r\n");
+            for (int i = 1; i <= last; i++) {
+                write(String.format("%010d 00000 n\r\n", Long.valueOf(offsets[i])));
+            }
+            write("trailer\n<</Size " + (last + 1) + " /Root " + CATALOG + " 0 R>>\nstartxref\n" + xref + "\n%%EOF\n");
+        } finally {
+            out.close();
+        }
+    }
+
+
+    /**
+     * <p>Raccoglie, nell'ordine, le pagine di un nodo dell'albero delle pagine,
+     * riportando su ciascuna gli attributi ereditati; i nodi intermedi
+     * vengono associati alla radice dell'albero del documento prodotto.</p>
+     *
+     * @param src       frammento
+     * @param node      nodo (o riferimento al nodo) da visitare
+     * @param inherited attributi ereditati dai nodi superiori
+     * @param numbers   rinumerazione degli oggetti del frammento
+     * @param leaves    numeri originali delle pagine (null per pagine dirette)
+     * @param dicts     dizionari delle pagine, con gli attributi ereditati
+     * @param depth     profondit&agrave; del nodo, per difendersi da alberi circolari
+     * @throws IOException se l'albero non &egrave; valido
+     */
+    private static void collectPages(Source src,
+                                     Object node,
+                                     Map<String, Object> inherited,
+                                     HashMap<Integer, Integer> numbers,
+                                     ArrayList<Integer> leaves,
+                                     ArrayList<Map<String, Object>> dicts,
+                                     int depth)
+                              throws IOException {
+        if (depth > 64) {
+            throw src.error("albero delle pagine troppo profondo o circolare");
+        }
+        Map<String, Object> dict = asDict(src.resolve(node));
+        if (dict == null) {
+            throw src.error("nodo dell'albero delle pagine non valido");
+        }
+        Object type = dict.get("Type");
+        boolean leaf = (type instanceof Name) ? "Page".equals(((Name) type).value) : !dict.containsKey("Kids");
+        if (leaf) {
+            LinkedHashMap<String, Object> page = new LinkedHashMap<>(dict);
+            for (Map.Entry<String, Object> e : inherited.entrySet()) {
+                if (!page.containsKey(e.getKey())) {
+                    page.put(e.getKey(), e.getValue());
+                }
+            }
+            leaves.add((node instanceof Ref) ? Integer.valueOf(((Ref) node).num) : null);
+            dicts.add(page);
+            return;
+        }
+        if (node instanceof Ref) {
+            numbers.put(Integer.valueOf(((Ref) node).num), Integer.valueOf(PAGES));
+        }
+        HashMap<String, Object> inner = new HashMap<>(inherited);
+        for (String key : INHERITABLE) {
+            if (dict.containsKey(key)) {
+                inner.put(key, dict.get(key));
+            }
+        }
+        Object kids = src.resolve(dict.get("Kids"));
+        if (!(kids instanceof ArrayList)) {
+            throw src.error("nodo dell'albero delle pagine senza figli");
+        }
+        for (Object kid : (ArrayList<?>) kids) {
+            collectPages(src, kid, inner, numbers, leaves, dicts, depth + 1);
+        }
+    }
+
+
+    /**
+     * <p>Restituisce il numero assegnato nel documento prodotto a un oggetto
+     * del frammento, assegnandogliene uno nuovo (e mettendolo in coda
+     * per la scrittura) la prima volta che viene incontrato.</p>
+     *
+     * @param old       numero dell'oggetto nel frammento
+     * @param numbers   rinumerazione degli oggetti del frammento
+     * @param pending   oggetti ancora da scrivere
+     * @return <code>int</code> - numero dell'oggetto nel documento prodotto
+     */
+    private int number(int old,
+                       HashMap<Integer, Integer> numbers,
+                       ArrayDeque<Integer> pending) {
+        Integer num = numbers.get(Integer.valueOf(old));
+        if (num == null) {
+            num = Integer.valueOf(next());
+            numbers.put(Integer.valueOf(old), num);
+            pending.add(Integer.valueOf(old));
+        }
+        return num.intValue();
+    }
+
+
+    /**
+     * @return <code>int</code> - un nuovo numero di oggetto
+     */
+    private int next() {
+        last++;
+        if (last >= offsets.length) {
+            long[] grown = new long[offsets.length * 2];
+            System.arraycopy(offsets, 0, grown, 0, offsets.length);
+            offsets = grown;
+        }
+        return last;
+    }
+
+
+    /**
+     * <p>Registra la posizione di un oggetto e ne scrive l'intestazione.</p>
+     *
+     * @param num numero dell'oggetto
+     * @throws IOException se non &egrave; possibile scrivere sul flusso
+     */
+    private void begin(int num)
+                throws IOException {
+        offsets[num] = out.count;
+        write(num + " 0 obj\n");
+    }
+
+
+    /**
+     * <p>Scrive un oggetto diretto, sostituendo ogni riferimento
+     * con quello all'oggetto rinumerato.</p>
+     *
+     * @param obj       oggetto da scrivere
+     * @param numbers   rinumerazione degli oggetti del frammento
+     * @param pending   oggetti ancora da scrivere
+     * @throws IOException se non &egrave; possibile scrivere sul flusso
+     */
+    @SuppressWarnings("unchecked")
+    private void writeObject(Object obj,
+                             HashMap<Integer, Integer> numbers,
+                             ArrayDeque<Integer> pending)
+                      throws IOException {
+        if (obj instanceof Raw) {
+            out.write(((Raw) obj).bytes);
+        } else if (obj instanceof Name) {
+            write("/" + ((Name) obj).value);
+        } else if (obj instanceof Ref) {
+            Ref ref = (Ref) obj;
+            write((ref.output ? ref.num : number(ref.num, numbers, pending)) + " 0 R");
+        } else if (obj instanceof ArrayList) {
+            write("[");
+            boolean first = true;
+            for (Object item : (ArrayList<Object>) obj) {
+                if (!first) {
+                    write(" ");
+                }
+                writeObject(item, numbers, pending);
+                first = false;
+            }
+            write("]");
+        } else if (obj instanceof Map) {
+            write("<<");
+            for (Map.Entry<String, Object> e : ((Map<String, Object>) obj).entrySet()) {
+                write("/" + e.getKey() + " ");
+                writeObject(e.getValue(), numbers, pending);
+                write("\n");
+            }
+            write(">>");
+        } else {
+            // Uno stream puo' essere solo un oggetto indiretto
+            throw new IOException("Oggetto non valido all'interno di un oggetto diretto: " + obj);
+        }
+    }
+
+
+    /**
+     * @param s testo ASCII da scrivere
+     * @throws IOException se non &egrave; possibile scrivere sul flusso
+     */
+    private void write(String s)
+                throws IOException {
+        out.write(s.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+
+    /**
+     * @param obj oggetto
+     * @return <code>Map</code> - l'oggetto come dizionario, oppure null se non &egrave; un dizionario
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asDict(Object obj) {
+        return (obj instanceof Map) ? (Map<String, Object>) obj : null;
+    }
+
+
+    /**
+     * <p>Token copiato cos&igrave; com'&egrave; (numero, stringa, parola chiave).</p>
+     */
+    private static final class Raw {
+        final byte[] bytes;
+
+        Raw(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        Raw(String s) {
+            this(s.getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+
+    /**
+     * <p>Nome (senza la barra iniziale, con eventuali sequenze <code>#xx</code> originali).</p>
+     */
+    private static final class Name {
+        final String value;
+
+        Name(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return "/" + value;
+        }
+    }
+
+
+    /**
+     * <p>Riferimento a un oggetto indiretto: del frammento
+     * oppure, se <code>output</code>, del documento prodotto.</p>
+     */
+    private static final class Ref {
+        final int num;
+        final boolean output;
+
+        Ref(int num, boolean output) {
+            this.num = num;
+            this.output = output;
+        }
+
+        @Override
+        public String toString() {
+            return num + " 0 R";
+        }
+    }
+
+
+    /**
+     * <p>Stream: dizionario e posizione dei dati nel frammento.</p>
+     */
+    private static final class Stream {
+        final Map<String, Object> dict;
+        final byte[] data;
+        final int start;
+        final int length;
+
+        Stream(Map<String, Object> dict, byte[] data, int start, int length) {
+            this.dict = dict;
+            this.data = data;
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+
+    /**
+     * <p>Flusso di uscita che conta i byte scritti.</p>
+     */
+    private static final class Counter extends FilterOutputStream {
+        long count;
+
+        Counter(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+
+    /**
+     * <p>Frammento in lettura: contenuto, tabella dei riferimenti e trailer.</p>
+     */
+    private static final class Source {
+        /** Contenuto del frammento */
+        final byte[] data;
+        /** Nome del frammento, per i messaggi di errore */
+        final String name;
+        /** Trailer (o dizionario della tabella compressa) pi&ugrave; recente */
+        final Map<String, Object> trailer;
+        /** Posizione degli oggetti ordinari */
+        final HashMap<Integer, Integer> offsets = new HashMap<>();
+        /** Oggetti compressi: numero dello stream contenitore e indice */
+        final HashMap<Integer, int[]> compressed = new HashMap<>();
+        /** Oggetti contenuti negli stream di oggetti gi&agrave; decodificati */
+        final HashMap<Integer, Object[]> objectStreams = new HashMap<>();
+
+        Source(byte[] data, String name) throws IOException {
+            this.data = data;
+            this.name = name;
+            int start = lastIndexOf("startxref");
+            if (start < 0) {
+                throw error("startxref mancante");
+            }
+            Lexer lexer = new Lexer(data, start + 9);
+            Map<String, Object> newest = null;
+            int xref = lexer.integer();
+            for (int guard = 0; xref >= 0 && guard < 32; guard++) {
+                Map<String, Object> dict = readXref(xref);
+                if (newest == null) {
+                    newest = dict;
+                }
+                if (dict.get("Encrypt") != null) {
+                    throw error("documento cifrato");
+                }
+                Object hybrid = dict.get("XRefStm");
+                if (hybrid instanceof Raw) {
+                    readXref(Integer.parseInt(hybrid.toString()));
+                }
+                Object prev = dict.get("Prev");
+                xref = (prev instanceof Raw) ? Integer.parseInt(prev.toString()) : -1;
+            }
+            this.trailer = newest;
+        }
+
+        /**
+         * Legge una sezione della tabella dei riferimenti, classica o compressa,
+         * senza sovrascrivere le voci gia' lette dalle sezioni piu' recenti.
+         */
+        private Map<String, Object> readXref(int pos) throws IOException {
+            Lexer lexer = new Lexer(data, pos);
+            if (lexer.keyword("xref")) {
+                while (!lexer.keyword("trailer")) {
+                    int first = lexer.integer();
+                    int count = lexer.integer();
+                    for (int i = 0; i < count; i++) {
+                        int offset = lexer.integer();
+                        lexer.integer();
+                        String type = lexer.word();
+                        Integer num = Integer.valueOf(first + i);
+                        if ("n".equals(type) && !offsets.containsKey(num) && !compressed.containsKey(num)) {
+                            offsets.put(num, Integer.valueOf(offset));
+                        }
+                    }
+                }
+                Map<String, Object> dict = asDict(lexer.value());
+                if (dict == null) {
+                    throw error("trailer non valido");
+                }
+                return dict;
+            }
+            // Tabella compressa: uno stream "n g obj"
+            Lexer obj = new Lexer(data, pos);
+            Object parsed = readIndirect(obj);
+            if (!(parsed instanceof Stream)) {
+                throw error("tabella dei riferimenti non valida");
+            }
+            Stream stream = (Stream) parsed;
+            byte[] rows = decode(stream);
+            int[] w = ints(resolve(stream.dict.get("W")));
+            Object indexObj = resolve(stream.dict.get("Index"));
+            int[] index = (indexObj == null) ? new int[] { 0, Integer.parseInt(resolve(stream.dict.get("Size")).toString()) } : ints(indexObj);
+            int width = w[0] + w[1] + w[2];
+            int row = 0;
+            for (int s = 0; s + 1 < index.length; s += 2) {
+                for (int i = 0; i < index[s + 1]; i++, row++) {
+                    int at = row * width;
+                    if (at + width > rows.length) {
+                        throw error("tabella dei riferimenti compressa troppo corta");
+                    }
+                    long type = (w[0] == 0) ? 1 : field(rows, at, w[0]);
+                    long f2 = field(rows, at + w[0], w[1]);
+                    long f3 = field(rows, at + w[0] + w[1], w[2]);
+                    Integer num = Integer.valueOf(index[s] + i);
+                    if (offsets.containsKey(num) || compressed.containsKey(num)) {
+                        continue;
+                    }
+                    if (type == 1) {
+                        offsets.put(num, Integer.valueOf((int) f2));
+                    } else if (type == 2) {
+                        compressed.put(num, new int[] { (int) f2, (int) f3 });
+                    }
+                }
+            }
+            return stream.dict;
+        }
+
+        /** Restituisce un oggetto indiretto del frammento (null se non esiste) */
+        Object object(int num) throws IOException {
+            Integer key = Integer.valueOf(num);
+            Integer offset = offsets.get(key);
+            if (offset != null) {
+                return readIndirect(new Lexer(data, offset.intValue()));
+            }
+            int[] location = compressed.get(key);
+            if (location != null) {
+                Object[] objects = objectStreams.get(Integer.valueOf(location[0]));
+                if (objects == null) {
+                    objects = readObjectStream(location[0]);
+                    objectStreams.put(Integer.valueOf(location[0]), objects);
+                }
+                if (location[1] < objects.length) {
+                    return objects[location[1]];
+                }
+            }
+            return new Raw("null");
+        }
+
+        /** Risolve un eventuale riferimento */
+        Object resolve(Object obj) throws IOException {
+            for (int guard = 0; obj instanceof Ref && guard < 32; guard++) {
+                obj = object(((Ref) obj).num);
+            }
+            return obj;
+        }
+
+        /** Legge "n g obj valore [stream ... endstream] endobj" */
+        private Object readIndirect(Lexer lexer) throws IOException {
+            lexer.integer();
+            lexer.integer();
+            if (!lexer.keyword("obj")) {
+                throw error("oggetto non valido alla posizione " + lexer.pos);
+            }
+            Object value = lexer.value();
+            Map<String, Object> dict = asDict(value);
+            if (dict != null && lexer.keyword("stream")) {
+                // I dati iniziano dopo il fine riga che segue la parola chiave
+                int start = lexer.pos;
+                if (start < data.length && data[start] == '\r') {
+                    start++;
+                }
+                if (start < data.length && data[start] == '\n') {
+                    start++;
+                }
+                Object len = resolve(dict.get("Length"));
+                int length = (len instanceof Raw) ? Integer.parseInt(len.toString().trim()) : -1;
+                if (length < 0 || start + length > data.length || !endstreamAt(start + length)) {
+                    // Lunghezza assente o errata: cerca la fine dei dati
+                    int end = indexOf("endstream", start);
+                    if (end < 0) {
+                        throw error("stream senza fine alla posizione " + start);
+                    }
+                    while (end > start && (data[end - 1] == '\n' || data[end - 1] == '\r')) {
+                        end--;
+                    }
+                    length = end - start;
+                }
+                return new Stream(dict, data, start, length);
+            }
+            return value;
+        }
+
+        /** Legge gli oggetti contenuti in uno stream di oggetti */
+        private Object[] readObjectStream(int num) throws IOException {
+            Integer offset = offsets.get(Integer.valueOf(num));
+            if (offset == null) {
+                throw error("stream di oggetti " + num + " mancante");
+            }
+            Object parsed = readIndirect(new Lexer(data, offset.intValue()));
+            if (!(parsed instanceof Stream)) {
+                throw error("stream di oggetti " + num + " non valido");
+            }
+            Stream stream = (Stream) parsed;
+            byte[] decoded = decode(stream);
+            int n = Integer.parseInt(resolve(stream.dict.get("N")).toString().trim());
+            int first = Integer.parseInt(resolve(stream.dict.get("First")).toString().trim());
+            Lexer header = new Lexer(decoded, 0);
+            int[] positions = new int[n];
+            for (int i = 0; i < n; i++) {
+                header.integer();
+                positions[i] = header.integer();
+            }
+            Object[] objects = new Object[n];
+            for (int i = 0; i < n; i++) {
+                objects[i] = new Lexer(decoded, first + positions[i]).value();
+            }
+            return objects;
+        }
+
+        /** Decodifica uno stream compresso con FlateDecode (con eventuale predittore PNG) */
+        private byte[] decode(Stream stream) throws IOException {
+            Object filter = resolve(stream.dict.get("Filter"));
+            if (filter instanceof ArrayList && ((ArrayList<?>) filter).size() == 1) {
+                filter = resolve(((ArrayList<?>) filter).get(0));
+            }
+            byte[] raw = new byte[stream.length];
+            System.arraycopy(stream.data, stream.start, raw, 0, stream.length);
+            if (filter == null) {
+                return raw;
+            }
+            if (!(filter instanceof Name) || !"FlateDecode".equals(((Name) filter).value)) {
+                throw error("filtro non supportato: " + filter);
+            }
+            Inflater inflater = new Inflater();
+            ByteArrayOutputStream inflated = new ByteArrayOutputStream(raw.length * 4);
+            try {
+                inflater.setInput(raw);
+                byte[] buf = new byte[8192];
+                while (!inflater.finished()) {
+                    int n = inflater.inflate(buf);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    inflated.write(buf, 0, n);
+                }
+            } catch (DataFormatException dfe) {
+                throw new IOException(FOR_NAME + name + ": stream compresso non valido: " + dfe.getMessage(), dfe);
+            } finally {
+                inflater.end();
+            }
+            byte[] bytes = inflated.toByteArray();
+            Map<String, Object> parms = asDict(resolve(stream.dict.get("DecodeParms")));
+            if (parms == null || parms.get("Predictor") == null) {
+                return bytes;
+            }
+            int predictor = Integer.parseInt(resolve(parms.get("Predictor")).toString().trim());
+            if (predictor < 10) {
+                if (predictor == 1) {
+                    return bytes;
+                }
+                throw error("predittore non supportato: " + predictor);
+            }
+            Object cols = resolve(parms.get("Columns"));
+            int columns = (cols == null) ? 1 : Integer.parseInt(cols.toString().trim());
+            return unpredict(bytes, columns);
+        }
+
+        /** Annulla il predittore PNG (un byte per componente) */
+        private static byte[] unpredict(byte[] bytes, int columns) {
+            int rows = bytes.length / (columns + 1);
+            byte[] result = new byte[rows * columns];
+            byte[] prior = new byte[columns];
+            for (int r = 0; r < rows; r++) {
+                int type = bytes[r * (columns + 1)] & 0xFF;
+                int base = r * (columns + 1) + 1;
+                for (int c = 0; c < columns; c++) {
+                    int x = bytes[base + c] & 0xFF;
+                    int a = (c > 0) ? result[r * columns + c - 1] & 0xFF : 0;
+                    int b = prior[c] & 0xFF;
+                    int d = (c > 0) ? prior[c - 1] & 0xFF : 0;
+                    switch (type) {
+                        case 1: x += a; break;
+                        case 2: x += b; break;
+                        case 3: x += (a + b) >>> 1; break;
+                        case 4: {
+                            int p = a + b - d;
+                            int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - d);
+                            x += (pa <= pb && pa <= pc) ? a : (pb <= pc) ? b : d;
+                            break;
+                        }
+                        default: break;
+                    }
+                    result[r * columns + c] = (byte) x;
+                }
+                System.arraycopy(result, r * columns, prior, 0, columns);
+            }
+            return result;
+        }
+
+        private static long field(byte[] rows, int at, int width) {
+            long value = 0;
+            for (int i = 0; i < width; i++) {
+                value = (value << 8) | (rows[at + i] & 0xFF);
+            }
+            return value;
+        }
+
+        private int[] ints(Object array) throws IOException {
+            if (!(array instanceof ArrayList)) {
+                throw error("array di interi atteso");
+            }
+            ArrayList<?> list = (ArrayList<?>) array;
+            int[] result = new int[list.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = Integer.parseInt(resolve(list.get(i)).toString().trim());
+            }
+            return result;
+        }
+
+        private boolean endstreamAt(int pos) {
+            int p = pos;
+            while (p < data.length && (data[p] == '\r' || data[p] == '\n' || data[p] == ' ')) {
+                p++;
+            }
+            return indexOf("endstream", p) == p;
+        }
+
+        private int indexOf(String word, int from) {
+            byte[] w = word.getBytes(StandardCharsets.ISO_8859_1);
+            outer:
+            for (int i = Math.max(0, from); i <= data.length - w.length; i++) {
+                for (int j = 0; j < w.length; j++) {
+                    if (data[i + j] != w[j]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+
+        private int lastIndexOf(String word) {
+            byte[] w = word.getBytes(StandardCharsets.ISO_8859_1);
+            outer:
+            for (int i = data.length - w.length; i >= 0; i--) {
+                for (int j = 0; j < w.length; j++) {
+                    if (data[i + j] != w[j]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+
+        IOException error(String msg) {
+            return new IOException(FOR_NAME + "Frammento PDF " + name + " non leggibile: " + msg);
+        }
+    }
+
+
+    /**
+     * <p>Analizzatore della sintassi degli oggetti PDF.</p>
+     */
+    private static final class Lexer {
+        final byte[] data;
+        int pos;
+
+        Lexer(byte[] data, int pos) {
+            this.data = data;
+            this.pos = pos;
+        }
+
+        static boolean isWhite(int c) {
+            return c == 0 || c == '\t' || c == '\n' || c == '\f' || c == '\r' || c == ' ';
+        }
+
+        static boolean isDelimiter(int c) {
+            return c == '(' || c == ')' || c == '<' || c == '>' || c == '[' || c == ']' || c == '{' || c == '}' || c == '/' || c == '%';
+        }
+
+        void skip() {
+            while (pos < data.length) {
+                int c = data[pos];
+                if (isWhite(c)) {
+                    pos++;
+                } else if (c == '%') {
+                    while (pos < data.length && data[pos] != '\n' && data[pos] != '\r') {
+                        pos++;
+                    }
+                } else {
+                    return;
+                }
+            }
+        }
+
+        /** Legge una parola (sequenza di caratteri regolari) */
+        String word() throws IOException {
+            skip();
+            int start = pos;
+            while (pos < data.length && !isWhite(data[pos]) && !isDelimiter(data[pos])) {
+                pos++;
+            }
+            if (start == pos) {
+                throw new IOException("Sintassi PDF non valida alla posizione " + pos);
+            }
+            return new String(data, start, pos - start, StandardCharsets.ISO_8859_1);
+        }
+
+        int integer() throws IOException {
+            String w = word();
+            try {
+                return Integer.parseInt(w);
+            } catch (NumberFormatException nfe) {
+                throw new IOException("Intero atteso alla posizione " + pos + ": " + w);
+            }
+        }
+
+        /** Consuma la parola chiave indicata, se e' la prossima */
+        boolean keyword(String kw) {
+            skip();
+            int end = pos + kw.length();
+            if (end > data.length) {
+                return false;
+            }
+            for (int i = 0; i < kw.length(); i++) {
+                if (data[pos + i] != kw.charAt(i)) {
+                    return false;
+                }
+            }
+            if (end < data.length && !isWhite(data[end]) && !isDelimiter(data[end])) {
+                return false;
+            }
+            pos = end;
+            return true;
+        }
+
+        /** Legge un oggetto diretto */
+        Object value() throws IOException {
+            skip();
+            if (pos >= data.length) {
+                throw new IOException("Fine inattesa del documento PDF");
+            }
+            int c = data[pos];
+            if (c == '/') {
+                int start = ++pos;
+                while (pos < data.length && !isWhite(data[pos]) && !isDelimiter(data[pos])) {
+                    pos++;
+                }
+                return new Name(new String(data, start, pos - start, StandardCharsets.ISO_8859_1));
+            } else if (c == '<' && pos + 1 < data.length && data[pos + 1] == '<') {
+                pos += 2;
+                LinkedHashMap<String, Object> dict = new LinkedHashMap<>();
+                while (true) {
+                    skip();
+                    if (pos + 1 < data.length && data[pos] == '>' && data[pos + 1] == '>') {
+                        pos += 2;
+                        return dict;
+                    }
+                    Object key = value();
+                    if (!(key instanceof Name)) {
+                        throw new IOException("Chiave di dizionario non valida alla posizione " + pos);
+                    }
+                    dict.put(((Name) key).value, value());
+                }
+            } else if (c == '[') {
+                pos++;
+                ArrayList<Object> array = new ArrayList<>();
+                while (true) {
+                    skip();
+                    if (pos < data.length && data[pos] == ']') {
+                        pos++;
+                        return array;
+                    }
+                    array.add(value());
+                }
+            } else if (c == '(') {
+                int start = pos++;
+                int depth = 1;
+                while (pos < data.length && depth > 0) {
+                    int b = data[pos++];
+                    if (b == '\\') {
+                        pos++;
+                    } else if (b == '(') {
+                        depth++;
+                    } else if (b == ')') {
+                        depth--;
+                    }
+                }
+                return raw(start, pos);
+            } else if (c == '<') {
+                int start = pos;
+                while (pos < data.length && data[pos] != '>') {
+                    pos++;
+                }
+                return raw(start, ++pos);
+            }
+            String w = word();
+            // Un intero puo' essere l'inizio di un riferimento "n g R"
+            if (isInteger(w)) {
+                int mark = pos;
+                try {
+                    String gen = word();
+                    if (isInteger(gen) && keyword("R")) {
+                        return new Ref(Integer.parseInt(w), false);
+                    }
+                } catch (IOException ioe) {
+                    // Non e' un riferimento
+                }
+                pos = mark;
+            }
+            return new Raw(w);
+        }
+
+        private Raw raw(int start, int end) {
+            byte[] bytes = new byte[end - start];
+            System.arraycopy(data, start, bytes, 0, bytes.length);
+            return new Raw(bytes);
+        }
+
+        private static boolean isInteger(String w) {
+            if (w.isEmpty()) {
+                return false;
+            }
+            for (int i = 0; i < w.length(); i++) {
+                if (!Character.isDigit(w.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+}
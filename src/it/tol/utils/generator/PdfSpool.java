@@ -0,0 +1,183 @@
+/*
+ *   Trattamenti On Line (tol): Applicazione web per la gestione del 
+ *   registro delle attività di trattamento.
+ *
+ *   TOL:
+ *   web application to manage and publish information about
+ *   databases containing personal data, which are managed by subjects 
+ *   belonging to the university or involving 
+ *   the university as manager.
+ *   Copyright (C) 2023 Giovanroberto Torre
+ *   all right reserved
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA<br>
+ *
+ *   Giovanroberto Torre <gianroberto.torre@gmail.com>
+ *   Universita' degli Studi di Verona
+ *   Via Dell'Artigliere, 8
+ *   37129 Verona (Italy)
+ */
+
+package it.tol.utils.generator;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+
+/**
+ * <p><code>PdfSpool</code> &egrave; un'area di appoggio temporanea, su disco,
+ * per i frammenti PDF (un documento per ciascun trattamento) che vengono
+ * generati uno alla volta e poi accodati al documento finale.</p>
+ * <p>Scrivere ogni frammento su disco appena &egrave; completo permette
+ * di rilasciare subito le strutture di disegno delle sue pagine;
+ * le pagine vengono poi copiate nel documento finale, un frammento
+ * alla volta, da {@link PdfConcatenator}, e ogni frammento gi&agrave;
+ * copiato pu&ograve; essere eliminato subito con {@link #release(File)}.<br>
+ * I file non ancora rilasciati vengono eliminati alla chiusura
+ * dell'area di appoggio.</p>
+ *
+ * @author <a href="mailto:gianroberto.torre@gmail.com">Giovanroberto Torre</a>
+ */
+public class PdfSpool implements Closeable {
+
+    /**
+     * <p>Logger della classe per scrivere i messaggi di errore.
+     * All logging goes through this logger.</p>
+     */
+    private static Logger LOG = Logger.getLogger(PdfSpool.class.getName());
+    /**
+     * <p>Nome di questa classe
+     * (viene utilizzato per contestualizzare i messaggi di errore).</p>
+     */
+    static final String FOR_NAME = "\n" + Logger.getLogger(new Throwable().getStackTrace()[0].getClassName()) + ": ";
+    /** Prefisso del nome delle directory temporanee delle aree di appoggio */
+    public static final String PREFIX = "tol-pdf-";
+    /** Directory temporanea che contiene i frammenti */
+    private final File dir;
+    /** Frammenti creati, da eliminare alla chiusura */
+    private final ArrayList<File> files = new ArrayList<>();
+    /** Contatore dei frammenti completati, per seguire l'avanzamento */
+    private final AtomicInteger progress;
+    /** Thread che ha creato l'area di appoggio e attende il documento */
+    private final Thread owner = Thread.currentThread();
+
+
+    /**
+     * <p>Crea una nuova area di appoggio in una directory riservata
+     * all'interno della directory passata come argomento
+     * (p.es. quella della cache dei frammenti, cos&igrave; che i frammenti
+     * possano esservi collegati anzich&eacute; copiati).</p>
+     *
+     * @param parent directory in cui creare l'area di appoggio
+     * @throws IOException se non &egrave; possibile creare la directory
+     */
+    public PdfSpool(File parent) throws IOException {
+        this(parent, new AtomicInteger());
+    }
+
+
+    /**
+     * <p>Crea una nuova area di appoggio all'interno della directory
+     * passata come argomento, incrementando il contatore dato
+     * a ogni frammento completato (p.es. per riportare l'avanzamento
+     * di una generazione in background).</p>
+     *
+     * @param parent    directory in cui creare l'area di appoggio
+     * @param progress  contatore dei frammenti completati
+     * @throws IOException se non &egrave; possibile creare la directory
+     */
+    public PdfSpool(File parent, AtomicInteger progress) throws IOException {
+        dir = Files.createTempDirectory(parent.toPath(), PREFIX).toFile();
+        this.progress = progress;
+    }
+
+
+    /**
+     * <p>Restituisce un nuovo file, ancora da scrivere, destinato a contenere
+     * il frammento identificato dall'etichetta passata come argomento.</p>
+     *
+     * @param label etichetta del frammento (p.es. il codice del trattamento)
+     * @return <code>File</code> - il file del frammento
+     */
+    public synchronized File newFile(String label) {
+        String safe = (label == null) ? "frammento" : label.replaceAll("[^A-Za-z0-9_-]", "_");
+        File file = new File(dir, files.size() + "-" + safe + ".pdf");
+        files.add(file);
+        return file;
+    }
+
+
+    /**
+     * <p>Segnala che un frammento &egrave; stato completato.</p>
+     */
+    public void fragmentDone() {
+        progress.incrementAndGet();
+    }
+
+
+    /**
+     * <p>Verifica che la generazione non sia stata annullata, cio&egrave;
+     * che il thread che attende il documento non sia stato interrotto
+     * (p.es. perch&eacute; il client si &egrave; disconnesso o la richiesta
+     * &egrave; scaduta); va invocato prima di generare ogni frammento,
+     * anche dai thread del pool di generazione parallela.</p>
+     *
+     * @throws InterruptedIOException se la generazione &egrave; stata annullata
+     */
+    public void checkCancelled() throws InterruptedIOException {
+        if (owner.isInterrupted()) {
+            throw new InterruptedIOException(FOR_NAME + "Generazione del documento annullata.\n");
+        }
+    }
+
+
+    /**
+     * <p>Elimina un frammento che non serve pi&ugrave;
+     * (p.es. perch&eacute; gi&agrave; copiato nel documento finale).</p>
+     *
+     * @param file il frammento da eliminare
+     */
+    public synchronized void release(File file) {
+        if (files.remove(file) && file.exists() && !file.delete()) {
+            LOG.warning(FOR_NAME + "Impossibile eliminare il frammento " + file.getPath() + ".\n");
+            file.deleteOnExit();
+        }
+    }
+
+
+    /**
+     * <p>Elimina tutti i frammenti e la directory temporanea.</p>
+     */
+    @Override
+    public synchronized void close() {
+        for (File file : files) {
+            if (file.exists() && !file.delete()) {
+                LOG.warning(FOR_NAME + "Impossibile eliminare il frammento " + file.getPath() + ".\n");
+                file.deleteOnExit();
+            }
+        }
+        files.clear();
+        if (!dir.delete()) {
+            dir.deleteOnExit();
+        }
+    }
+
+}
@@ -0,0 +1,421 @@
+/*
+ *   Trattamenti On Line (tol): Applicazione web per la gestione del 
+ *   registro delle attività di trattamento.
+ *
+ *   TOL:
+ *   web application to manage and publish information about
+ *   databases containing personal data, which are managed by subjects 
+ *   belonging to the university or involving 
+ *   the university as manager.
+ *   Copyright (C) 2023 Giovanroberto Torre
+ *   all right reserved
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA<br>
+ *
+ *   Giovanroberto Torre <gianroberto.torre@gmail.com>
+ *   Universita' degli Studi di Verona
+ *   Via Dell'Artigliere, 8
+ *   37129 Verona (Italy)
+ */
+
+package it.tol.utils.generator;
+
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * <p><code>TextLayoutEngine</code> suddivide in righe il testo da stampare
+ * nei documenti PDF misurandolo tramite tabelle di avanzamento dei caratteri,
+ * calcolate una sola volta per ciascuna coppia di font e contesto di
+ * rendering e poi riutilizzate da tutte le pagine e da tutti i documenti.</p>
+ * <p>La suddivisione scorre il testo come array di caratteri senza creare
+ * stringhe intermedie n&eacute; rettangoli di ingombro per ogni parola,
+ * e restituisce gli scostamenti delle righe ({@link Lines})
+ * invece di un array di stringhe; le righe vengono poi disegnate
+ * direttamente dall'array di caratteri.<br />
+ * Il criterio di a capo &egrave; lo stesso di
+ * {@link DocumentGenerator#wrapText(Graphics2D, String, int)}:
+ * le parole sono separate da spazi, ciascuna misurata insieme allo spazio
+ * che la segue, e una parola pi&ugrave; larga dell'area disponibile viene
+ * spezzata carattere per carattere.</p>
+ *
+ * @author <a href="mailto:gianroberto.torre@gmail.com">Giovanroberto Torre</a>
+ */
+public class TextLayoutEngine {
+
+    /** Carattere separatore delle parole */
+    private static final char SPACE = ' ';
+    /** Numero di caratteri di una pagina della tabella di avanzamento */
+    private static final int PAGE_SIZE = 256;
+    /**
+     * <p>Tabelle di avanzamento, indicizzate per font e contesto di rendering.</p>
+     */
+    private static final ConcurrentHashMap<Key, Advances> TABLES = new ConcurrentHashMap<>();
+
+
+    /**
+     * <p>Chiave di una tabella di avanzamento: font e contesto di rendering
+     * (trasformazione, antialiasing e metriche frazionarie incidono
+     * sulla larghezza dei caratteri).</p>
+     */
+    private static final class Key {
+        /** Font */
+        private final Font font;
+        /** Contesto di rendering */
+        private final FontRenderContext frc;
+
+        Key(Font font, FontRenderContext frc) {
+            this.font = font;
+            this.frc = frc;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return font.equals(k.font) && frc.equals(k.frc);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * font.hashCode() + frc.hashCode();
+        }
+    }
+
+
+    /**
+     * <p>Tabella degli avanzamenti dei caratteri di un font, suddivisa
+     * in pagine di {@link #PAGE_SIZE} caratteri calcolate al primo utilizzo;
+     * una pagina pubblicata non viene pi&ugrave; modificata, per cui la tabella
+     * pu&ograve; essere letta da pi&ugrave; thread senza sincronizzazione.</p>
+     */
+    public static final class Advances {
+        /** Font misurato */
+        private final Font font;
+        /** Contesto di rendering */
+        private final FontRenderContext frc;
+        /** Pagine della tabella (null finch&eacute; non servono) */
+        private final AtomicReferenceArray<float[]> pages = new AtomicReferenceArray<>(Character.MAX_VALUE / PAGE_SIZE + 1);
+
+        Advances(Font font, FontRenderContext frc) {
+            this.font = font;
+            this.frc = frc;
+        }
+
+        /**
+         * @param c carattere da misurare
+         * @return <code>float</code> - avanzamento orizzontale del carattere
+         */
+        public float advance(char c) {
+            float[] page = pages.get(c / PAGE_SIZE);
+            if (page == null) {
+                page = fill(c / PAGE_SIZE);
+            }
+            return page[c % PAGE_SIZE];
+        }
+
+        /**
+         * @param text  array di caratteri
+         * @param from  primo carattere (incluso)
+         * @param to    ultimo carattere (escluso)
+         * @return <code>float</code> - avanzamento complessivo dei caratteri
+         */
+        public float advance(char[] text, int from, int to) {
+            float width = 0f;
+            for (int i = from; i < to; i++) {
+                width += advance(text[i]);
+            }
+            return width;
+        }
+
+        /**
+         * Calcola e pubblica una pagina della tabella.
+         *
+         * @param index indice della pagina
+         * @return <code>float[]</code> - la pagina pubblicata
+         */
+        private float[] fill(int index) {
+            float[] page = new float[PAGE_SIZE];
+            char[] glyph = new char[1];
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                glyph[0] = (char) (index * PAGE_SIZE + i);
+                page[i] = (float) font.getStringBounds(glyph, 0, 1, frc).getWidth();
+            }
+            // Se un altro thread l'ha pubblicata nel frattempo vale la sua
+            if (!pages.compareAndSet(index, null, page)) {
+                page = pages.get(index);
+            }
+            return page;
+        }
+    }
+
+
+    /**
+     * <p>Righe in cui &egrave; stato suddiviso un testo: l'array di caratteri
+     * del testo e gli scostamenti di inizio di ciascuna riga; la riga
+     * <code>i</code> va dallo scostamento <code>i</code> (incluso)
+     * allo scostamento <code>i+1</code> (escluso).</p>
+     */
+    public static final class Lines {
+        /** Caratteri del testo */
+        private final char[] text;
+        /** Scostamenti di inizio delle righe, seguiti dalla fine del testo */
+        private final int[] offsets;
+        /** Numero di righe */
+        private final int count;
+
+        Lines(char[] text, int[] offsets, int count) {
+            this.text = text;
+            this.offsets = offsets;
+            this.count = count;
+        }
+
+        /** @return <code>int</code> - numero di righe */
+        public int size() {
+            return count;
+        }
+
+        /** @return <code>char[]</code> - caratteri del testo */
+        public char[] getText() {
+            return text;
+        }
+
+        /**
+         * @param i indice della riga
+         * @return <code>int</code> - scostamento del primo carattere della riga
+         */
+        public int start(int i) {
+            return offsets[i];
+        }
+
+        /**
+         * @param i indice della riga
+         * @return <code>int</code> - scostamento successivo all'ultimo carattere della riga, esclusi gli spazi finali
+         */
+        public int end(int i) {
+            int end = offsets[i + 1];
+            while (end > offsets[i] && text[end - 1] == SPACE) {
+                end--;
+            }
+            return end;
+        }
+
+        /**
+         * @param i indice della riga
+         * @return <code>String</code> - il testo della riga (crea una stringa: da usare solo se serve)
+         */
+        public String get(int i) {
+            return new String(text, offsets[i], offsets[i + 1] - offsets[i]);
+        }
+    }
+
+
+    /**
+     * <p>Restituisce la tabella di avanzamento del font e del contesto
+     * di rendering dati, calcolandola al primo utilizzo.</p>
+     *
+     * @param font  font da misurare
+     * @param frc   contesto di rendering
+     * @return <code>Advances</code> - la tabella di avanzamento
+     */
+    public static Advances getAdvances(Font font,
+                                       FontRenderContext frc) {
+        Key key = new Key(font, frc);
+        Advances table = TABLES.get(key);
+        if (table == null) {
+            Advances fresh = new Advances(font, frc);
+            table = TABLES.putIfAbsent(key, fresh);
+            if (table == null) {
+                table = fresh;
+            }
+        }
+        return table;
+    }
+
+
+    /**
+     * <p>Suddivide in righe un testo, misurandolo con il font corrente
+     * dell'oggetto Graphics2D passato come parametro.</p>
+     *
+     * @param g     l'oggetto Graphics2D di cui usare font e contesto di rendering
+     * @param text  testo da suddividere
+     * @param width larghezza dell'area stampabile, in pixel
+     * @return <code>Lines</code> - le righe del testo
+     */
+    public static Lines wrap(Graphics2D g,
+                             String text,
+                             int width) {
+        return wrap(getAdvances(g.getFont(), g.getFontRenderContext()), text.toCharArray(), width);
+    }
+
+
+    /**
+     * <p>Suddivide in righe un array di caratteri con il criterio
+     * di {@link DocumentGenerator#wrapText(Graphics2D, String, int)},
+     * senza allocazioni per parola.</p>
+     *
+     * @param adv   tabella di avanzamento del font
+     * @param text  caratteri del testo
+     * @param width larghezza dell'area stampabile, in pixel
+     * @return <code>Lines</code> - le righe del testo
+     */
+    public static Lines wrap(Advances adv,
+                             char[] text,
+                             int width) {
+        int[] offsets = new int[8];
+        int count = 1;
+        offsets[0] = 0;
+        // Se l'intero testo sta nell'area disponibile lo restituisce in una riga
+        if (adv.advance(text, 0, text.length) < width) {
+            offsets[1] = text.length;
+            return new Lines(text, offsets, count);
+        }
+        float space = adv.advance(SPACE);
+        float lineWidth = 0f;
+        int i = 0;
+        while (i < text.length) {
+            // Individua la parola corrente
+            int wordStart = i;
+            float wordWidth = 0f;
+            while (i < text.length && text[i] != SPACE) {
+                wordWidth += adv.advance(text[i]);
+                i++;
+            }
+            int wordEnd = i;
+            // Consuma lo spazio che la segue
+            if (i < text.length) {
+                i++;
+            }
+            if (wordWidth + space <= width) {
+                // La parola sta in una riga: va a capo se non sta nella corrente
+                if (lineWidth + wordWidth + space > width && wordStart > offsets[count - 1]) {
+                    offsets = push(offsets, count++, wordStart);
+                    lineWidth = 0f;
+                }
+                lineWidth += wordWidth + space;
+            } else {
+                // Parola piu' lunga della riga: la spezza carattere per carattere
+                for (int k = wordStart; k < wordEnd; k++) {
+                    float c = adv.advance(text[k]);
+                    if (lineWidth + c > width && k > offsets[count - 1]) {
+                        offsets = push(offsets, count++, k);
+                        lineWidth = 0f;
+                    }
+                    lineWidth += c;
+                }
+                // Lo spazio che la segue resta nella riga corrente
+                if (wordEnd < text.length) {
+                    lineWidth += space;
+                }
+            }
+        }
+        offsets = push(offsets, count, text.length);
+        return new Lines(text, offsets, count);
+    }
+
+
+    /**
+     * <p>Stampa una riga, incrementando prima la coordinata verticale,
+     * come {@link DocumentGenerator#println(Graphics2D, String, int, int, int)}.</p>
+     *
+     * @param g         l'oggetto Graphics2D in cui impostare la stampa
+     * @param lines     righe del testo
+     * @param i         indice della riga da stampare
+     * @param x         la coordinata orizzontale
+     * @param y         la coordinata verticale dell'ultimo posizionamento
+     * @param increment l'incremento cui sottoporre la coordinata verticale
+     * @return <code>int</code> - la coordinata verticale in cui &egrave; stata stampata la riga
+     */
+    public static int println(Graphics2D g,
+                              Lines lines,
+                              int i,
+                              int x,
+                              int y,
+                              int increment) {
+        int y2 = y + increment;
+        draw(g, lines, i, x, y2);
+        return y2;
+    }
+
+
+    /**
+     * <p>Stampa tutte le righe di un testo, una sotto l'altra.</p>
+     *
+     * @param g         l'oggetto Graphics2D in cui impostare la stampa
+     * @param lines     righe del testo
+     * @param x         la coordinata orizzontale
+     * @param y         la coordinata verticale dell'ultimo posizionamento
+     * @param increment l'interlinea
+     * @return <code>int</code> - la coordinata verticale dell'ultima riga stampata
+     */
+    public static int println(Graphics2D g,
+                              Lines lines,
+                              int x,
+                              int y,
+                              int increment) {
+        for (int i = 0; i < lines.size(); i++) {
+            y = println(g, lines, i, x, y, increment);
+        }
+        return y;
+    }
+
+
+    /**
+     * <p>Disegna una riga nella posizione data, direttamente
+     * dall'array di caratteri del testo.</p>
+     *
+     * @param g     l'oggetto Graphics2D in cui impostare la stampa
+     * @param lines righe del testo
+     * @param i     indice della riga da stampare
+     * @param x     la coordinata orizzontale
+     * @param y     la coordinata verticale
+     */
+    public static void draw(Graphics2D g,
+                            Lines lines,
+                            int i,
+                            int x,
+                            int y) {
+        int start = lines.start(i);
+        int end = lines.end(i);
+        if (end > start) {
+            g.drawChars(lines.getText(), start, end - start, x, y);
+        }
+    }
+
+
+    /**
+     * Accoda un valore all'array degli scostamenti, ingrandendolo se serve.
+     *
+     * @param offsets   array degli scostamenti
+     * @param index     posizione da valorizzare
+     * @param value     valore da accodare
+     * @return <code>int[]</code> - l'array, eventualmente ingrandito
+     */
+    private static int[] push(int[] offsets, int index, int value) {
+        if (index == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[index] = value;
+        return offsets;
+    }
+
+}
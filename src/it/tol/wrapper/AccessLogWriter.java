@@ -0,0 +1,408 @@
+/*
+ *   Trattamenti On Line (tol): Applicazione web per la gestione del 
+ *   registro delle attività di trattamento.
+ *
+ *   TOL:
+ *   web application to manage and publish information about
+ *   databases containing personal data, which are managed by subjects 
+ *   belonging to the university or involving 
+ *   the university as manager.
+ *   Copyright (C) 2023 Giovanroberto Torre
+ *   all right reserved
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA<br>
+ *
+ *   Giovanroberto Torre <gianroberto.torre@gmail.com>
+ *   Universita' degli Studi di Verona
+ *   Via Dell'Artigliere, 8
+ *   37129 Verona (Italy)
+ */
+
+package it.tol.wrapper;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import it.tol.exception.WebStorageException;
+
+
+/**
+ * <p><code>AccessLogWriter.java</code> registra in modo asincrono
+ * gli accessi degli utenti al sistema.</p>
+ * <p>Invece di scrivere nel database durante la richiesta di login,
+ * ogni accesso viene accodato in una coda limitata in memoria;
+ * un thread di servizio svuota la coda ogni {@link #FLUSH_INTERVAL}
+ * millisecondi, oppure non appena si accumulano {@link #FLUSH_SIZE} eventi,
+ * e scrive gli accessi raccolti con un unico batch transazionale
+ * (vedi {@link DBWrapper#manageAccess(LinkedHashMap)}); gli accessi
+ * ripetuti della stessa login vengono fusi, conservando il pi&uacute; recente.</p>
+ * <p>Se la coda &egrave; piena l'evento viene scartato (e conteggiato)
+ * per non rallentare il login; gli scarti vengono segnalati nel log
+ * in forma aggregata, al pi&uacute; una volta ogni {@link #DROP_WARNING_INTERVAL}
+ * millisecondi, e i contatori dello scrittore (v. {@link #toString()})
+ * vengono scritti nel log ogni {@link #METRICS_INTERVAL} millisecondi.<br>
+ * Alla chiusura dell'applicazione
+ * ({@link #shutdown()}) il thread di servizio viene atteso e la coda svuotata.
+ * Da quel momento lo scrittore resta chiuso: gli accessi successivi
+ * vengono scartati e conteggiati, senza avviare un nuovo scrittore.</p>
+ *
+ * @author <a href="mailto:gianroberto.torre@gmail.com">Giovanroberto Torre</a>
+ */
+public class AccessLogWriter implements Runnable {
+
+    /**
+     * <p>Logger della classe per scrivere i messaggi di errore.
+     * All logging goes through this logger.</p>
+     */
+    private static Logger LOG = Logger.getLogger(AccessLogWriter.class.getName());
+    /**
+     * <p>Nome di questa classe
+     * (viene utilizzato per contestualizzare i messaggi di errore).</p>
+     */
+    static final String FOR_NAME = "\n" + Logger.getLogger(new Throwable().getStackTrace()[0].getClassName()) + ": ";
+    /**
+     * <p>Capacit&agrave; massima della coda degli accessi.</p>
+     */
+    public static final int CAPACITY = 10000;
+    /**
+     * <p>Intervallo massimo, in millisecondi, tra due scritture.</p>
+     */
+    public static final long FLUSH_INTERVAL = 2000L;
+    /**
+     * <p>Numero di eventi accumulati che provoca una scrittura immediata.</p>
+     */
+    public static final int FLUSH_SIZE = 100;
+    /**
+     * <p>Tempo massimo di attesa, in millisecondi, per lo svuotamento
+     * della coda alla chiusura.</p>
+     */
+    private static final long SHUTDOWN_TIMEOUT = 10000L;
+    /**
+     * <p>Intervallo, in millisecondi, tra due scritture dei contatori nel log
+     * (dieci minuti).</p>
+     */
+    public static final long METRICS_INTERVAL = 10L * 60 * 1000;
+    /**
+     * <p>Intervallo minimo, in millisecondi, tra due segnalazioni
+     * degli eventi scartati (un minuto).</p>
+     */
+    public static final long DROP_WARNING_INTERVAL = 60L * 1000;
+    /**
+     * <p>Istanza unica dello scrittore (Singleton).</p>
+     */
+    private static AccessLogWriter instance = null;
+    /** Coda limitata degli accessi da registrare */
+    private final ArrayBlockingQueue<Event> queue = new ArrayBlockingQueue<>(CAPACITY);
+    /** Riferimento al model */
+    private final DBWrapper db;
+    /** Thread di servizio che svuota la coda */
+    private final Thread worker;
+    /** Flag di arresto */
+    private volatile boolean running = true;
+    /** Lock che rende atomici la verifica del flag di arresto e l'accodamento */
+    private final Object gate = new Object();
+    /** Numero di eventi accodati */
+    private final AtomicLong enqueued = new AtomicLong();
+    /** Numero di eventi scartati perch&eacute; la coda era piena o la scrittura &egrave; fallita */
+    private final AtomicLong dropped = new AtomicLong();
+    /** Numero di eventi scritti nel database */
+    private final AtomicLong written = new AtomicLong();
+    /** Numero di scritture eseguite */
+    private final AtomicLong flushes = new AtomicLong();
+    /** Durata, in millisecondi, dell'ultima scrittura */
+    private final AtomicLong lastFlushLatency = new AtomicLong();
+    /** Durata massima, in millisecondi, di una scrittura */
+    private final AtomicLong maxFlushLatency = new AtomicLong();
+    /** Numero di eventi scartati e non ancora segnalati nel log */
+    private final AtomicLong unreported = new AtomicLong();
+    /** Momento dell'ultima segnalazione degli eventi scartati */
+    private final AtomicLong lastDropWarning = new AtomicLong();
+    /** Momento dell'ultima scrittura dei contatori nel log (usato solo dal thread di servizio) */
+    private long lastMetrics = System.currentTimeMillis();
+
+
+    /**
+     * <p>Evento di accesso: login e momento dell'accesso.</p>
+     */
+    private static class Event {
+        final String login;
+        final Date moment;
+
+        Event(String login, Date moment) {
+            this.login = login;
+            this.moment = moment;
+        }
+    }
+
+
+    /**
+     * <p>Costruttore privato: avvia il thread di servizio.</p>
+     *
+     * @param db riferimento al model
+     */
+    private AccessLogWriter(DBWrapper db) {
+        this.db = db;
+        this.worker = new Thread(this, "tol-access-log");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+
+    /**
+     * <p>Restituisce l'istanza unica dello scrittore, avviandola
+     * al primo utilizzo; dopo {@link #shutdown()} restituisce
+     * lo scrittore chiuso, che scarta gli accessi.</p>
+     *
+     * @param db riferimento al model
+     * @return <code>AccessLogWriter</code> - lo scrittore degli accessi
+     */
+    public static synchronized AccessLogWriter getInstance(DBWrapper db) {
+        if (instance == null) {
+            instance = new AccessLogWriter(db);
+        }
+        return instance;
+    }
+
+
+    /**
+     * <p>Accoda l'accesso di un utente, senza mai bloccare il chiamante.</p>
+     *
+     * @param login username dell'utente loggato
+     * @return <code>boolean</code> - true se l'evento &egrave; stato accodato, false se &egrave; stato scartato
+     */
+    public boolean trace(String login) {
+        synchronized (gate) {
+            if (running && queue.offer(new Event(login, new Date()))) {
+                enqueued.incrementAndGet();
+                return true;
+            }
+        }
+        dropped.incrementAndGet();
+        unreported.incrementAndGet();
+        reportDropped();
+        return false;
+    }
+
+
+    /**
+     * <p>Segnala nel log, in un unico messaggio, gli eventi scartati
+     * dall'ultima segnalazione, se da questa &egrave; trascorso almeno
+     * {@link #DROP_WARNING_INTERVAL}; fra pi&uacute; chiamanti contemporanei
+     * segnala soltanto il primo.</p>
+     */
+    private void reportDropped() {
+        long now = System.currentTimeMillis();
+        long last = lastDropWarning.get();
+        if (unreported.get() > 0 && now - last >= DROP_WARNING_INTERVAL && lastDropWarning.compareAndSet(last, now)) {
+            long count = unreported.getAndSet(0L);
+            if (count > 0) {
+                LOG.warning(FOR_NAME + "Coda degli accessi piena o chiusa: " + count + " accessi non registrati dall\'ultima segnalazione.");
+            }
+        }
+    }
+
+
+    /**
+     * <p>Ciclo del thread di servizio: raccoglie gli eventi fino al
+     * raggiungimento della soglia o dell'intervallo massimo, e li scrive.</p>
+     */
+    @Override
+    public void run() {
+        ArrayList<Event> batch = new ArrayList<>(FLUSH_SIZE);
+        while (running) {
+            try {
+                long deadline = System.currentTimeMillis() + FLUSH_INTERVAL;
+                while (batch.size() < FLUSH_SIZE) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        break;
+                    }
+                    Event event = queue.poll(wait, TimeUnit.MILLISECONDS);
+                    if (event == null) {
+                        break;
+                    }
+                    batch.add(event);
+                    queue.drainTo(batch, FLUSH_SIZE - batch.size());
+                }
+                flush(batch);
+                // Segnala gli scarti in sospeso e, periodicamente, i contatori
+                reportDropped();
+                long now = System.currentTimeMillis();
+                if (now - lastMetrics >= METRICS_INTERVAL) {
+                    lastMetrics = now;
+                    LOG.info(toString());
+                }
+            } catch (InterruptedException ie) {
+                // Arresto forzato: il residuo in coda viene scritto da shutdown()
+                break;
+            }
+        }
+        // Scrive gli eventi gia' estratti dalla coda
+        flush(batch);
+    }
+
+
+    /**
+     * <p>Arresta il thread di servizio, ne attende la terminazione
+     * e scrive gli eventi ancora in coda.</p>
+     * <p>Se il thread non termina nemmeno dopo l'interruzione (p.es. perch&eacute;
+     * bloccato sul database) la coda non viene scritta, per non sovrapporre
+     * due scritture, e i suoi eventi vengono conteggiati come scartati.</p>
+     * <p>Da invocare nel metodo <code>destroy()</code> della servlet.</p>
+     */
+    public static synchronized void shutdown() {
+        if (instance == null || !instance.running) {
+            return;
+        }
+        AccessLogWriter writer = instance;
+        // Da qui in poi nessun evento puo' piu' essere accodato
+        synchronized (writer.gate) {
+            writer.running = false;
+        }
+        try {
+            // Lascia terminare la scrittura in corso (al piu' un intervallo di attesa)
+            writer.worker.join(SHUTDOWN_TIMEOUT);
+            if (writer.worker.isAlive()) {
+                writer.worker.interrupt();
+                writer.worker.join(SHUTDOWN_TIMEOUT);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        ArrayList<Event> rest = new ArrayList<>(writer.queue.size());
+        writer.queue.drainTo(rest);
+        if (writer.worker.isAlive()) {
+            writer.dropped.addAndGet(rest.size());
+            LOG.severe(FOR_NAME + "Il thread di scrittura degli accessi non si e\' arrestato: " + rest.size() + " accessi non registrati.");
+        } else {
+            // Il thread e' terminato: svuota la coda
+            writer.flush(rest);
+        }
+        LOG.info("Scrittore degli accessi arrestato: " + writer);
+    }
+
+
+    /**
+     * <p>Scrive nel database gli eventi raccolti, fondendo quelli
+     * relativi alla stessa login, e svuota la lista.</p>
+     *
+     * @param batch eventi da scrivere
+     */
+    private void flush(ArrayList<Event> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        LinkedHashMap<String, Date> accessi = new LinkedHashMap<>();
+        for (Event event : batch) {
+            accessi.put(event.login, event.moment);
+        }
+        long start = System.currentTimeMillis();
+        try {
+            db.manageAccess(accessi);
+            written.addAndGet(batch.size());
+        } catch (WebStorageException wse) {
+            dropped.addAndGet(batch.size());
+            LOG.severe(FOR_NAME + "Accessi non registrati (" + batch.size() + " eventi): " + wse.getMessage());
+        } finally {
+            long latency = System.currentTimeMillis() - start;
+            lastFlushLatency.set(latency);
+            if (latency > maxFlushLatency.get()) {
+                maxFlushLatency.set(latency);
+            }
+            flushes.incrementAndGet();
+            batch.clear();
+        }
+    }
+
+
+    /**
+     * @return <code>int</code> - numero di eventi attualmente in coda
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+
+    /**
+     * @return <code>long</code> - numero di eventi accodati
+     */
+    public long getEnqueued() {
+        return enqueued.get();
+    }
+
+
+    /**
+     * @return <code>long</code> - numero di eventi scartati (coda piena o scrittura fallita)
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+
+    /**
+     * @return <code>long</code> - numero di eventi scritti nel database
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+
+    /**
+     * @return <code>long</code> - numero di scritture eseguite
+     */
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+
+    /**
+     * @return <code>long</code> - durata, in millisecondi, dell'ultima scrittura
+     */
+    public long getLastFlushLatency() {
+        return lastFlushLatency.get();
+    }
+
+
+    /**
+     * @return <code>long</code> - durata massima, in millisecondi, di una scrittura
+     */
+    public long getMaxFlushLatency() {
+        return maxFlushLatency.get();
+    }
+
+
+    /**
+     * <p>Restituisce una descrizione sintetica dello stato dello scrittore,
+     * utile da scrivere nel log.</p>
+     *
+     * @return <code>String</code> - contatori dello scrittore
+     */
+    @Override
+    public String toString() {
+        return "AccessLogWriter [depth=" + queue.size() +
+               ", enqueued=" + enqueued.get() +
+               ", written=" + written.get() +
+               ", dropped=" + dropped.get() +
+               ", flushes=" + flushes.get() +
+               ", lastFlushLatency=" + lastFlushLatency.get() +
+               "ms, maxFlushLatency=" + maxFlushLatency.get() + "ms]";
+    }
+
+}
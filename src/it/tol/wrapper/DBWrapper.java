@@ -32,13 +32,29 @@
 
 package it.tol.wrapper;
 
+import java.io.IOException;
+import java.lang.reflect.Method;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.util.AbstractList;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import javax.naming.Context;
@@ -48,16 +64,18 @@ import javax.sql.DataSource;
 
 import it.tol.ConfigManager;
 import it.tol.bean.ActivityBean;
-import it.tol.bean.BeanUtil;
 import it.tol.bean.CodeBean;
 import it.tol.bean.ItemBean;
 import it.tol.bean.PersonBean;
 import it.tol.bean.ProcessBean;
 import it.tol.bean.ProcessingBean;
+import it.tol.bean.RowMapper;
 import it.tol.exception.AttributoNonValorizzatoException;
 import it.tol.exception.WebStorageException;
 import it.tol.interfaces.Constants;
 import it.tol.interfaces.Query;
+import it.tol.interfaces.RecordHandler;
+import it.tol.interfaces.RegistryListener;
 import it.tol.utils.Utils;
 
 
@@ -111,6 +129,34 @@ public class DBWrapper implements Query, Constants {
      * <p>Recupera da Servlet la stringa opportuna per il puntamento del DataSource.</p>
      */
     private static String contextDbName = ConfigManager.getDbName();
+    /**
+     * <p>Tempo massimo di attesa, in millisecondi, delle query eseguite
+     * in parallelo sulle collezioni di un trattamento.</p>
+     */
+    private static final long PARALLEL_FETCH_TIMEOUT = 30000L;
+    /**
+     * <p>Numero di query eseguite in parallelo sulle collezioni di un trattamento,
+     * ciascuna su una propria connessione.</p>
+     */
+    private static final int PARALLEL_QUERIES = 5;
+    /**
+     * <p>Executor limitato per il recupero parallelo delle collezioni dei trattamenti
+     * (creato al primo utilizzo).</p>
+     */
+    private static ExecutorService parallelExecutor = null;
+    /**
+     * <p>Metodi del DataSource che restituiscono il numero di connessioni
+     * in uso e il numero massimo di connessioni del pool
+     * (individuati al primo utilizzo; v. {@link #poolHasRoom(int)}).</p>
+     */
+    private static Method[] poolGauges = null;
+    /**
+     * <p>Coppie di metodi (connessioni in uso, massimo) con cui i pool
+     * di Tomcat espongono il proprio stato: DBCP, il pool predefinito,
+     * e Tomcat JDBC.</p>
+     */
+    private static final String[][] POOL_GAUGES = { { "getNumActive", "getMaxTotal" },
+                                                    { "getActive", "getMaxActive" } };
 
 
     /**
@@ -161,9 +207,10 @@ public class DBWrapper implements Query, Constants {
             pst = con.prepareStatement(LOOKUP_COMMAND);
             pst.clearParameters();
             rs = pst.executeQuery();
+            RowMapper<ItemBean> mapper = RowMapper.get(ItemBean.class, rs);
             while (rs.next()) {
                 cmd = new ItemBean();
-                BeanUtil.populate(cmd, rs);
+                mapper.populate(cmd, rs);
                 commands.add(cmd);
             }
             return commands;
@@ -183,100 +230,6 @@ public class DBWrapper implements Query, Constants {
     }
 
 
-    /**
-     * <p>Restituisce
-     * <ul>
-     * <li>il massimo valore del contatore identificativo di una
-     * tabella il cui nome viene passato come argomento</li>
-     * <li>oppure zero se nella tabella non sono presenti record.</li>
-     * </ul></p>
-     *
-     * @param table nome della tabella di cui si vuol recuperare il max(id)
-     * @return <code>int</code> - un intero che rappresenta il massimo valore trovato, oppure zero se non sono stati trovati valori
-     * @throws WebStorageException se si verifica un problema nella query o in qualche tipo di puntamento
-     */
-    @SuppressWarnings({ "static-method", "null" })
-    public int getMax(String table)
-               throws WebStorageException {
-        Connection con = null;
-        PreparedStatement pst = null;
-        ResultSet rs = null;
-        try {
-            int count = 0;
-            String query = SELECT_MAX_ID + table;
-            con = tol_manager.getConnection();
-            pst = con.prepareStatement(query);
-            pst.clearParameters();
-            rs = pst.executeQuery();
-            if (rs.next()) {
-                count = rs.getInt(1);
-            }
-            return count;
-        }  catch (SQLException sqle) {
-            String msg = FOR_NAME + "Impossibile recuperare il max(id).\n";
-            LOG.severe(msg);
-            throw new WebStorageException(msg + sqle.getMessage(), sqle);
-        } finally {
-            try {
-                con.close();
-            } catch (NullPointerException npe) {
-                String msg = FOR_NAME + "Ooops... problema nella chiusura della connessione.\n";
-                LOG.severe(msg);
-                throw new WebStorageException(msg + npe.getMessage());
-            } catch (SQLException sqle) {
-                throw new WebStorageException(FOR_NAME + sqle.getMessage());
-            }
-        }
-    }
-
-
-    /**
-     * <p>Restituisce
-     * <ul>
-     * <li>il minimo valore del contatore identificativo di una
-     * tabella il cui nome viene passato come argomento</li>
-     * <li>oppure zero se nella tabella non sono presenti record.</li>
-     * </ul></p>
-     *
-     * @param table nome della tabella di cui si vuol recuperare il min(id)
-     * @return <code>int</code> - un intero che rappresenta il minimo valore trovato, oppure zero se non sono stati trovati valori
-     * @throws WebStorageException se si verifica un problema nella query o in qualche tipo di puntamento
-     */
-    @SuppressWarnings({ "static-method", "null" })
-    public int getMin(String table)
-               throws WebStorageException {
-        Connection con = null;
-        PreparedStatement pst = null;
-        ResultSet rs = null;
-        try {
-            int count = 0;
-            String query = SELECT_MIN_ID + table;
-            con = tol_manager.getConnection();
-            pst = con.prepareStatement(query);
-            pst.clearParameters();
-            rs = pst.executeQuery();
-            if (rs.next()) {
-                count = rs.getInt(1);
-            }
-            return count;
-        }  catch (SQLException sqle) {
-            String msg = FOR_NAME + "Impossibile recuperare il max(id).\n";
-            LOG.severe(msg);
-            throw new WebStorageException(msg + sqle.getMessage(), sqle);
-        } finally {
-            try {
-                con.close();
-            } catch (NullPointerException npe) {
-                String msg = FOR_NAME + "Ooops... problema nella chiusura della connessione.\n";
-                LOG.severe(msg);
-                throw new WebStorageException(msg + npe.getMessage());
-            } catch (SQLException sqle) {
-                throw new WebStorageException(FOR_NAME + sqle.getMessage());
-            }
-        }
-    }
-    
-
     /**
      * <p>Restituisce il primo valore trovato data una query 
      * passata come parametro</p>
@@ -341,9 +294,10 @@ public class DBWrapper implements Query, Constants {
             pst.clearParameters();
             pst.setString(++nextInt, username);
             rs = pst.executeQuery();
+            RowMapper<CodeBean> mapper = RowMapper.get(CodeBean.class, rs);
             if (rs.next()) {
                 password = new CodeBean();
-                BeanUtil.populate(password, rs);
+                mapper.populate(password, rs);
             }
             return password;
         } catch (SQLException sqle) {
@@ -391,18 +345,20 @@ public class DBWrapper implements Query, Constants {
             pst.setString(++nextInt, password);
             pst.setString(++nextInt, password);
             rs = pst.executeQuery();
+            RowMapper<PersonBean> mapper = RowMapper.get(PersonBean.class, rs);
             if (rs.next()) {
                 usr = new PersonBean();
-                BeanUtil.populate(usr, rs);
+                mapper.populate(usr, rs);
                 // Se ha trovato l'utente, ne cerca il ruolo
                 pst = null;
                 pst = con.prepareStatement(GET_RUOLOUTENTE);
                 pst.clearParameters();
                 pst.setString(1, username);
                 rs1 = pst.executeQuery();
+                RowMapper<CodeBean> mapper1 = RowMapper.get(CodeBean.class, rs1);
                 while(rs1.next()) {
                     CodeBean ruolo = new CodeBean();
-                    BeanUtil.populate(ruolo, rs1);
+                    mapper1.populate(ruolo, rs1);
                     vRuoli.add(ruolo);
                 }
                 usr.setRuoli(vRuoli);
@@ -434,84 +390,81 @@ public class DBWrapper implements Query, Constants {
 
 
     /**
-     * <p>Verifica se per l'utente loggato esiste una tupla che indica
-     * un precedente login.
-     * <ul>
-     * <li>Se non esiste una tupla per l'utente loggato, la inserisce.</li>
-     * <li>Se esiste una tupla per l'utente loggato, la aggiorna.</li>
-     * </ul>
-     * In questo modo, il metodo gestisce nella tabella degli accessi
-     * sempre l'ultimo accesso e non quelli precedenti.</p>
+     * <p>Registra in un'unica transazione un insieme di accessi,
+     * passati come argomento sotto forma di dizionario che associa
+     * a ciascuna login il momento del suo ultimo accesso.</p>
+     * <p>Aggiorna in un solo batch le tuple degli utenti che si erano
+     * gi&agrave; loggati e inserisce, in un secondo batch, quelle degli utenti
+     * al primo accesso, con identificativi assegnati dalla sequenza della tabella;
+     * in questo modo ogni utente ha sempre una sola tupla,
+     * che riporta l'ultimo accesso.</p>
+     * <p>&Egrave; pensato per essere invocato dallo scrittore asincrono
+     * degli accessi ({@link AccessLogWriter}), che &egrave; l'unico a scrivere
+     * nella tabella degli accessi.</p>
      *
-     * @param username      login dell'utente (username usato per accedere)
+     * @param accessi   dizionario login &rarr; momento dell'ultimo accesso
+     * @return <code>int</code> - numero di tuple inserite o aggiornate
      * @throws WebStorageException se si verifica un problema SQL o in qualche tipo di puntamento
      */
-    @SuppressWarnings({ "null" })
-    public void manageAccess(String username)
-                      throws WebStorageException {
+    public int manageAccess(LinkedHashMap<String, java.util.Date> accessi)
+                     throws WebStorageException {
+        if (accessi.isEmpty()) {
+            return NOTHING;
+        }
         Connection con = null;
         PreparedStatement pst = null;
-        ResultSet rs = null;
-        CodeBean accessRow = null;
-        int nextParam = NOTHING;
+        int count = NOTHING;
         try {
             // Ottiene la connessione
             con = tol_manager.getConnection();
-            // Verifica se la login abbia già fatto un accesso
-            pst = con.prepareStatement(GET_ACCESSLOG_BY_LOGIN);
-            pst.clearParameters();
-            pst.setString(++nextParam, username);
-            rs = pst.executeQuery();
-            if (rs.next()) {    // Esiste già un accesso: lo aggiorna
-                accessRow = new CodeBean();
-                BeanUtil.populate(accessRow, rs);
-                pst = null;
-                con.setAutoCommit(false);
-                pst = con.prepareStatement(UPDATE_ACCESSLOG_BY_USER);
+            // BEGIN;
+            con.setAutoCommit(false);
+            // Aggiorna in batch gli accessi degli utenti gia' presenti
+            ArrayList<String> logins = new ArrayList<>(accessi.keySet());
+            pst = con.prepareStatement(UPDATE_ACCESSLOG_BY_LOGIN);
+            for (String login : logins) {
+                int nextParam = NOTHING;
+                java.util.Date moment = accessi.get(login);
                 pst.clearParameters();
-                pst.setString(nextParam, username);
-                // Campi automatici: ora ultimo accesso, data ultimo accesso
-                pst.setDate(++nextParam, Utils.convert(Utils.convert(Utils.getCurrentDate()))); // non accetta un GregorianCalendar né una data java.util.Date, ma java.sql.Date
-                pst.setTime(++nextParam, Utils.getCurrentTime());   // non accetta una Stringa, ma un oggetto java.sql.Time
-                pst.setInt(++nextParam, accessRow.getId());
-                pst.executeUpdate();
-                con.commit();
-            } else {            // Non esiste un accesso: ne crea uno nuovo
-                // Chiude e annulla il PreparedStatement rimasto inutilizzato
-                pst.close();
-                pst = null;
-                // BEGIN;
-                con.setAutoCommit(false);
-                pst = con.prepareStatement(INSERT_ACCESSLOG_BY_USER);
+                pst.setDate(++nextParam, new java.sql.Date(moment.getTime()));
+                pst.setTime(++nextParam, new java.sql.Time(moment.getTime()));
+                pst.setString(++nextParam, login);
+                pst.addBatch();
+            }
+            int[] updated = pst.executeBatch();
+            pst.close();
+            // Inserisce in batch gli accessi degli utenti al primo accesso
+            pst = con.prepareStatement(INSERT_ACCESSLOG_BY_USER);
+            for (int i = 0; i < logins.size(); i++) {
+                // Aggiornata (anche SUCCESS_NO_INFO): l'utente aveva gia' una tupla
+                if (updated[i] != NOTHING) {
+                    count++;
+                    continue;
+                }
+                int nextParam = NOTHING;
+                java.util.Date moment = accessi.get(logins.get(i));
                 pst.clearParameters();
-                int nextVal = getMax("access_log") + 1;
-                pst.setInt(nextParam, nextVal);
-                pst.setString(++nextParam, username);
-                pst.setDate(++nextParam, Utils.convert(Utils.convert(Utils.getCurrentDate())));
-                pst.setTime(++nextParam, Utils.getCurrentTime());
-                pst.executeUpdate();
-                // END;
-                con.commit();
+                pst.setString(++nextParam, logins.get(i));
+                pst.setDate(++nextParam, new java.sql.Date(moment.getTime()));
+                pst.setTime(++nextParam, new java.sql.Time(moment.getTime()));
+                pst.addBatch();
+                count++;
             }
-            String msg = "Si e\' loggato l\'utente: " + username +
-                         " in data:" + Utils.format(Utils.getCurrentDate()) +
-                         " alle ore:" + Utils.getCurrentTime() +
-                         ".\n";
-            LOG.info(msg);
-        } catch (AttributoNonValorizzatoException anve) {
-            String msg = FOR_NAME + "Probabile problema nel recupero dell'id dell\'ultimo accesso\n";
-            LOG.severe(msg);
-            throw new WebStorageException(msg + anve.getMessage(), anve);
+            pst.executeBatch();
+            // END;
+            con.commit();
+            return count;
         } catch (SQLException sqle) {
-            String msg = FOR_NAME + "Tupla non aggiornata correttamente; problema nella query che inserisce o in quella che aggiorna ultimo accesso al sistema.\n";
+            try {
+                con.rollback();
+            } catch (SQLException | NullPointerException e) {
+                LOG.severe(FOR_NAME + "Impossibile annullare la transazione degli accessi: " + e.getMessage());
+            }
+            String msg = FOR_NAME + "Tuple non aggiornate correttamente; problema nel batch che inserisce o aggiorna gli ultimi accessi al sistema.\n";
             LOG.severe(msg);
             throw new WebStorageException(msg + sqle.getMessage(), sqle);
-        } catch (NumberFormatException nfe) {
-            String msg = FOR_NAME + "Tupla non aggiornata correttamente; problema nella query che inserisce o in quella che aggiorna ultimo accesso al sistema.\n";
-            LOG.severe(msg);
-            throw new WebStorageException(msg + nfe.getMessage(), nfe);
         } catch (NullPointerException npe) {
-            String msg = FOR_NAME + "Tupla non aggiornata correttamente; problema nella query che inserisce o in quella che aggiorna ultimo accesso al sistema.\n";
+            String msg = FOR_NAME + "Tuple non aggiornate correttamente; problema nel batch che inserisce o aggiorna gli ultimi accessi al sistema.\n";
             LOG.severe(msg);
             throw new WebStorageException(msg + npe.getMessage(), npe);
         } finally {
@@ -563,9 +516,10 @@ public class DBWrapper implements Query, Constants {
             pst.setInt(1, idSurvey);
             pst.setInt(2, getAll);
             rs = pst.executeQuery();
+            RowMapper<CodeBean> mapper = RowMapper.get(CodeBean.class, rs);
             if (rs.next()) {
                 survey = new CodeBean();
-                BeanUtil.populate(survey, rs);
+                mapper.populate(survey, rs);
             }
             // Tries (just tries) to engage the Garbage Collector
             pst = null;
@@ -626,9 +580,10 @@ public class DBWrapper implements Query, Constants {
             pst.setInt(1, idSurvey);
             pst.setInt(2, getAll);
             rs = pst.executeQuery();
+            RowMapper<CodeBean> mapper = RowMapper.get(CodeBean.class, rs);
             while (rs.next()) {
                 survey = new CodeBean();
-                BeanUtil.populate(survey, rs);
+                mapper.populate(survey, rs);
                 surveys.add(survey);
             }
             // Tries (just tries) to engage the Garbage Collector
@@ -683,9 +638,10 @@ public class DBWrapper implements Query, Constants {
                 pst.clearParameters();                
                 pst.setInt(++nextParam, survey.getId());
                 rs = pst.executeQuery();
+                RowMapper<ItemBean> mapper = RowMapper.get(ItemBean.class, rs);
                 while (rs.next()) {
                     trattamento = new ItemBean();
-                    BeanUtil.populate(trattamento, rs);
+                    mapper.populate(trattamento, rs);
                     trattamenti.add(trattamento);
                 }
                 // Just tries to engage the Garbage Collector
@@ -719,6 +675,281 @@ public class DBWrapper implements Query, Constants {
     }
     
     
+    /**
+     * <p>Estrae tutti i trattamenti di una rilevazione, in uno stato determinato
+     * oppure in tutti gli stati, in forma tabellare (una riga per trattamento,
+     * con le collezioni collegate appiattite in colonne di testo) e passa le
+     * righe, man mano che vengono lette, all'oggetto passato come argomento.</p>
+     * <p>La query viene eseguita su un cursore <em>forward-only</em>
+     * con dimensione di fetch configurabile (vedi {@link ConfigManager#getCsvFetchSize()}),
+     * in una transazione di sola lettura: il driver trasferisce le righe
+     * a blocchi, per cui l'occupazione di memoria resta costante al crescere
+     * del registro e la prima riga pu&ograve; essere scritta prima che il database
+     * abbia terminato di produrre le successive.</p>
+     *
+     * @param user      oggetto rappresentante la persona loggata, di cui si vogliono verificare i diritti
+     * @param survey    oggetto contenente i dati della rilevazione
+     * @param stato     oggetto contenente l'identificativo dello stato cercato, oppure -1 su entrambi i valori per neutralizzare la clausola
+     * @param handler   oggetto che riceve l'intestazione e le righe
+     * @return <code>int</code> - numero di righe estratte
+     * @throws WebStorageException se si verifica un problema nell'esecuzione della query, nella scrittura delle righe o in qualche altro tipo di puntamento
+     */
+    @SuppressWarnings("static-method")
+    public int exportTrattamenti(PersonBean user,
+                                 CodeBean survey,
+                                 ItemBean stato,
+                                 RecordHandler handler)
+                          throws WebStorageException {
+        try (Connection con = tol_manager.getConnection()) {
+            int nextParam = NOTHING;
+            int count = NOTHING;
+            // Il driver usa un cursore lato server soltanto fuori dall'autocommit
+            con.setAutoCommit(false);
+            con.setReadOnly(true);
+            try (PreparedStatement pst = con.prepareStatement(GET_REGISTRO_TABELLARE, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                pst.setFetchSize(ConfigManager.getCsvFetchSize());
+                pst.clearParameters();
+                pst.setInt(++nextParam, survey.getId());
+                pst.setInt(++nextParam, stato.getCod1());
+                pst.setInt(++nextParam, stato.getCod2());
+                // Chi riceve le righe deve poter annullare la query da un altro thread
+                handler.statement(pst);
+                try (ResultSet rs = pst.executeQuery()) {
+                    ResultSetMetaData meta = rs.getMetaData();
+                    int cols = meta.getColumnCount();
+                    String[] labels = new String[cols];
+                    for (int i = 1; i <= cols; i++) {
+                        labels[i - 1] = meta.getColumnLabel(i);
+                    }
+                    handler.header(labels);
+                    String[] values = new String[cols];
+                    while (rs.next()) {
+                        for (int i = 1; i <= cols; i++) {
+                            values[i - 1] = rs.getString(i);
+                        }
+                        handler.record(values);
+                        count++;
+                    }
+                }
+                con.commit();
+                // Get Out
+                return count;
+            } catch (AttributoNonValorizzatoException anve) {
+                String msg = FOR_NAME + "Si e\' verificato un problema nell\'accesso ad un attributo obbligatorio del bean; verificare identificativo della rilevazione.\n";
+                LOG.severe(msg);
+                throw new WebStorageException(msg + anve.getMessage(), anve);
+            } catch (IOException ioe) {
+                String msg = FOR_NAME + "Estrazione del registro interrotta dopo " + count + " righe: problema nella scrittura.\n";
+                LOG.severe(msg);
+                throw new WebStorageException(msg + ioe.getMessage(), ioe);
+            } catch (SQLException sqle) {
+                String msg = FOR_NAME + "Oggetto non valorizzato; problema nella query.\n";
+                LOG.severe(msg);
+                throw new WebStorageException(msg + sqle.getMessage(), sqle);
+            } finally {
+                try {
+                    con.rollback();
+                    con.setReadOnly(false);
+                    con.setAutoCommit(true);
+                    con.close();
+                } catch (NullPointerException npe) {
+                    String msg = FOR_NAME + "Ooops... problema nella chiusura della connessione.\n";
+                    LOG.severe(msg);
+                    throw new WebStorageException(msg + npe.getMessage());
+                } catch (SQLException sqle) {
+                    throw new WebStorageException(FOR_NAME + sqle.getMessage());
+                }
+            }
+        } catch (SQLException sqle) {
+            String msg = FOR_NAME + "Problema con la creazione della connessione.\n";
+            LOG.severe(msg);
+            throw new WebStorageException(msg + sqle.getMessage(), sqle);
+        }
+    }
+
+
+    /**
+     * <p>Restituisce il numero dei trattamenti attivi collegati ad una
+     * rilevazione: complessivamente (primo elemento) e limitatamente a quelli
+     * il cui nome o codice contiene il testo passato come filtro
+     * (secondo elemento).</p>
+     *
+     * @param survey    oggetto contenente i dati della rilevazione
+     * @param filter    testo da cercare nel nome o nel codice (stringa vuota per nessun filtro)
+     * @return <code>int[]</code> - numero totale e numero filtrato dei trattamenti
+     * @throws WebStorageException se si verifica un problema nell'esecuzione della query, nel recupero di attributi obbligatori non valorizzati o in qualche altro tipo di puntamento
+     */
+    @SuppressWarnings("static-method")
+    public int[] countTrattamenti(CodeBean survey,
+                                  String filter)
+                           throws WebStorageException {
+        try (Connection con = tol_manager.getConnection()) {
+            PreparedStatement pst = null;
+            ResultSet rs = null;
+            int nextParam = NOTHING;
+            String pattern = likePattern(filter);
+            try {
+                pst = con.prepareStatement(COUNT_TRATTAMENTI);
+                pst.clearParameters();
+                pst.setString(++nextParam, pattern);
+                pst.setString(++nextParam, pattern);
+                pst.setInt(++nextParam, survey.getId());
+                rs = pst.executeQuery();
+                int[] counts = new int[] { NOTHING, NOTHING };
+                if (rs.next()) {
+                    counts[0] = rs.getInt("totale");
+                    counts[1] = rs.getInt("filtrati");
+                }
+                return counts;
+            } catch (AttributoNonValorizzatoException anve) {
+                String msg = FOR_NAME + "Si e\' verificato un problema nell\'accesso ad un attributo obbligatorio del bean; verificare identificativo della rilevazione.\n";
+                LOG.severe(msg);
+                throw new WebStorageException(msg + anve.getMessage(), anve);
+            } catch (SQLException sqle) {
+                String msg = FOR_NAME + "Oggetto non valorizzato; problema nella query.\n";
+                LOG.severe(msg);
+                throw new WebStorageException(msg + sqle.getMessage(), sqle);
+            } finally {
+                try {
+                    con.close();
+                } catch (NullPointerException npe) {
+                    String msg = FOR_NAME + "Ooops... problema nella chiusura della connessione.\n";
+                    LOG.severe(msg);
+                    throw new WebStorageException(msg + npe.getMessage());
+                } catch (SQLException sqle) {
+                    throw new WebStorageException(FOR_NAME + sqle.getMessage());
+                }
+            }
+        } catch (SQLException sqle) {
+            String msg = FOR_NAME + "Problema con la creazione della connessione.\n";
+            LOG.severe(msg);
+            throw new WebStorageException(msg + sqle.getMessage(), sqle);
+        }
+    }
+
+
+    /**
+     * <p>Restituisce una pagina dell'elenco dei trattamenti attivi collegati
+     * ad una rilevazione, filtrata e ordinata direttamente dal database.</p>
+     * <p>Se viene passato il codice dell'ultimo trattamento della pagina
+     * precedente (e, per l'ordinamento per nome, il suo nome) la pagina viene
+     * individuata per posizionamento sulla chiave (<em>keyset pagination</em>),
+     * che non richiede al database di scorrere le righe delle pagine precedenti;
+     * altrimenti viene individuata per scostamento (<code>OFFSET</code>),
+     * come accade p.es. saltando direttamente a una pagina qualsiasi.</p>
+     *
+     * @param user          oggetto rappresentante la persona loggata, di cui si vogliono verificare i diritti
+     * @param survey        oggetto contenente i dati della rilevazione
+     * @param filter        testo da cercare nel nome o nel codice (stringa vuota per nessun filtro)
+     * @param byName        true per ordinare per nome, false per ordinare per codice
+     * @param descending    true per l'ordinamento decrescente
+     * @param afterCodice   codice dell'ultimo trattamento della pagina precedente, oppure null
+     * @param afterNome     nome dell'ultimo trattamento della pagina precedente (significativo solo nell'ordinamento per nome)
+     * @param offset        numero di righe da saltare, se non si usa il posizionamento sulla chiave
+     * @param length        numero massimo di trattamenti da restituire
+     * @return <code>ArrayList&lt;ItemBean&gt;</code> - la pagina di trattamenti (codice, nome, ordinale)
+     * @throws WebStorageException se si verifica un problema nell'esecuzione della query, nel recupero di attributi obbligatori non valorizzati o in qualche altro tipo di puntamento
+     */
+    @SuppressWarnings("static-method")
+    public ArrayList<ItemBean> getTrattamenti(PersonBean user,
+                                              CodeBean survey,
+                                              String filter,
+                                              boolean byName,
+                                              boolean descending,
+                                              String afterCodice,
+                                              String afterNome,
+                                              int offset,
+                                              int length)
+                                       throws WebStorageException {
+        try (Connection con = tol_manager.getConnection()) {
+            PreparedStatement pst = null;
+            ResultSet rs = null;
+            int nextParam = NOTHING;
+            String pattern = likePattern(filter);
+            boolean seek = afterCodice != null && (!byName || afterNome != null);
+            ArrayList<ItemBean> trattamenti = new ArrayList<>();
+            // Compone la query: colonne e filtro, posizionamento, ordinamento, pagina
+            StringBuilder query = new StringBuilder(GET_TRATTAMENTI_PAGINA);
+            if (seek) {
+                if (byName) {
+                    query.append(descending ? SEEK_TRATTAMENTI_NOME_DESC : SEEK_TRATTAMENTI_NOME_ASC);
+                } else {
+                    query.append(descending ? SEEK_TRATTAMENTI_CODICE_DESC : SEEK_TRATTAMENTI_CODICE_ASC);
+                }
+            }
+            if (byName) {
+                query.append(descending ? ORDER_TRATTAMENTI_NOME_DESC : ORDER_TRATTAMENTI_NOME_ASC);
+            } else {
+                query.append(descending ? ORDER_TRATTAMENTI_CODICE_DESC : ORDER_TRATTAMENTI_CODICE_ASC);
+            }
+            query.append(PAGE_TRATTAMENTI);
+            try {
+                pst = con.prepareStatement(query.toString());
+                pst.clearParameters();
+                pst.setInt(++nextParam, survey.getId());
+                pst.setString(++nextParam, pattern);
+                pst.setString(++nextParam, pattern);
+                if (seek) {
+                    if (byName) {
+                        pst.setString(++nextParam, afterNome);
+                    }
+                    pst.setString(++nextParam, afterCodice);
+                }
+                pst.setInt(++nextParam, length);
+                pst.setInt(++nextParam, seek ? NOTHING : offset);
+                rs = pst.executeQuery();
+                RowMapper<ItemBean> mapper = RowMapper.get(ItemBean.class, rs);
+                while (rs.next()) {
+                    ItemBean trattamento = new ItemBean();
+                    mapper.populate(trattamento, rs);
+                    trattamenti.add(trattamento);
+                }
+                // Get Out
+                return trattamenti;
+            } catch (AttributoNonValorizzatoException anve) {
+                String msg = FOR_NAME + "Si e\' verificato un problema nell\'accesso ad un attributo obbligatorio del bean; verificare identificativo della rilevazione.\n";
+                LOG.severe(msg);
+                throw new WebStorageException(msg + anve.getMessage(), anve);
+            } catch (SQLException sqle) {
+                String msg = FOR_NAME + "Oggetto non valorizzato; problema nella query.\n";
+                LOG.severe(msg);
+                throw new WebStorageException(msg + sqle.getMessage(), sqle);
+            } finally {
+                try {
+                    con.close();
+                } catch (NullPointerException npe) {
+                    String msg = FOR_NAME + "Ooops... problema nella chiusura della connessione.\n";
+                    LOG.severe(msg);
+                    throw new WebStorageException(msg + npe.getMessage());
+                } catch (SQLException sqle) {
+                    throw new WebStorageException(FOR_NAME + sqle.getMessage());
+                }
+            }
+        } catch (SQLException sqle) {
+            String msg = FOR_NAME + "Problema con la creazione della connessione.\n";
+            LOG.severe(msg);
+            throw new WebStorageException(msg + sqle.getMessage(), sqle);
+        }
+    }
+
+
+    /**
+     * <p>Trasforma un testo da cercare in un pattern per l'operatore ILIKE,
+     * neutralizzando i caratteri speciali (<code>%</code>, <code>_</code>
+     * e il carattere di escape) eventualmente presenti nel testo stesso.</p>
+     *
+     * @param filter testo da cercare, eventualmente null o vuoto
+     * @return <code>String</code> - pattern che individua le stringhe contenenti il testo
+     */
+    private static String likePattern(String filter) {
+        if (filter == null || filter.trim().isEmpty()) {
+            return "%";
+        }
+        String escaped = filter.trim().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+        return "%" + escaped + "%";
+    }
+    
+    
     /**
      * <p>Restituisce uno specifico trattamento di dati personali
      * il cui identificativo viene passato come parametro,
@@ -726,6 +957,9 @@ public class DBWrapper implements Query, Constants {
      * passato come parametro e che si trova in uno stato determinato
      * oppure in tutti gli stati, a seconda dei valori passati in un oggetto
      * che il metodo accetta come argomento.</p>
+     * <p>Se la rilevazione dispone di un'istantanea su disco
+     * (vedi {@link SnapshotStore}) il trattamento viene letto da questa,
+     * altrimenti dal database.</p>
      * // TODO: COMMENTO
      * @param user      oggetto rappresentante la persona loggata, di cui si vogliono verificare i diritti
      * @param idTrattamento 
@@ -734,21 +968,26 @@ public class DBWrapper implements Query, Constants {
      * @return <code>ArrayList&lt;ItemBean&gt;</code> - lista di trattamenti
      * @throws WebStorageException se si verifica un problema nell'esecuzione della query, nel recupero di attributi obbligatori non valorizzati o in qualche altro tipo di puntamento
      */
-    @SuppressWarnings("static-method")
     public ProcessingBean getTrattamento(PersonBean user,
                                          String idTrattamento,
                                          ItemBean stato,
                                          CodeBean survey)
                                   throws WebStorageException {
+        // Se la rilevazione ha un'istantanea su disco, il trattamento si legge da li'
+        SnapshotStore.Snapshot snapshot = getSnapshot(user, survey);
+        if (snapshot != null) {
+            try {
+                return snapshot.getTrattamento(idTrattamento, stato.getCod1());
+            } catch (IOException | RuntimeException e) {
+                // Istantanea illeggibile: viene scartata e il trattamento si legge dal database
+                SnapshotStore.getInstance().discard(snapshot.getIdSurvey(), snapshot, e);
+            }
+        }
         try (Connection con = tol_manager.getConnection()) {
             PreparedStatement pst = null;
-            ResultSet rs, rs1, rs2, rs3, rs4, rs5 = null;
+            ResultSet rs = null;
             int nextParam = NOTHING;
             ProcessingBean trattamento = null;
-            AbstractList<ActivityBean> vAttivita = new ArrayList<>();
-            AbstractList<ActivityBean> vBasi = new ArrayList<>();
-            AbstractList<CodeBean> vInteressati = new ArrayList<>();
-            AbstractList<ProcessBean> vBancheDati = new ArrayList<>();
             // TODO: Controllare se user è superuser
             try {
                 pst = con.prepareStatement(GET_TRATTAMENTO);
@@ -758,93 +997,817 @@ public class DBWrapper implements Query, Constants {
                 pst.setInt(++nextParam, stato.getCod1());
                 pst.setInt(++nextParam, stato.getCod2());
                 rs = pst.executeQuery();
+                RowMapper<ProcessingBean> mapper = RowMapper.get(ProcessingBean.class, rs);
                 if (rs.next()) {
                     trattamento = new ProcessingBean();
-                    BeanUtil.populate(trattamento, rs);
-                    // Recupera ulteriori informazioni relative al trattamento
-                    nextParam = NOTHING;
-                    pst = null;
-                    pst = con.prepareStatement(GET_EXTRAINFO_TRATTAMENTO);
-                    pst.clearParameters();
-                    pst.setString(++nextParam, idTrattamento);
-                    pst.setInt(++nextParam, survey.getId());
-                    pst.setInt(++nextParam, stato.getCod1());
-                    pst.setInt(++nextParam, stato.getCod2());
-                    rs1 = pst.executeQuery();
-                    if (rs1.next()) {
-                        ItemBean extraInfo = new ItemBean();
-                        BeanUtil.populate(extraInfo, rs1);
-                        trattamento.setExtraInfos(extraInfo);
+                    mapper.populate(trattamento, rs);
+                    // Ha trovato il trattamento: ne cerca le informazioni collegate
+                    // (in parallelo solo se il pool ha connessioni libere per tutte le query)
+                    boolean parallel = ConfigManager.isParallelFetch() && poolHasRoom(PARALLEL_QUERIES);
+                    if (!parallel || !fetchChildrenInParallel(trattamento, idTrattamento, stato, survey)) {
+                        // Modalita' sequenziale, sulla stessa connessione
+                        trattamento.setExtraInfos(selectExtraInfo(con, idTrattamento, stato, survey));
+                        trattamento.setAttivita(selectAttivita(con, idTrattamento, stato, survey));
+                        trattamento.setInteressati(selectInteressati(con, idTrattamento, stato, survey));
+                        trattamento.setBasiGiuridiche(selectBasiGiuridiche(con, idTrattamento, stato, survey));
+                        trattamento.setBancheDati(selectBancheDati(con, idTrattamento, stato, survey));
                     }
-                    // Ha trovato il trattamento: ne cerca le attività
-                    nextParam = NOTHING;
-                    pst = null;
-                    pst = con.prepareStatement(GET_ATTIVITA_TRATTAMENTO);
+                }
+                // Just tries to engage the Garbage Collector
+                pst = null;
+                // Get Out
+                return trattamento;
+            } catch (AttributoNonValorizzatoException anve) {
+                String msg = FOR_NAME + "Si e\' verificato un problema nell\'accesso ad un attributo obbligatorio di un bean.\n";
+                LOG.severe(msg);
+                throw new WebStorageException(msg + anve.getMessage(), anve);
+            } catch (SQLException sqle) {
+                String msg = FOR_NAME + "Oggetto non valorizzato; problema nella query.\n";
+                LOG.severe(msg);
+                throw new WebStorageException(msg + sqle.getMessage(), sqle);
+            } finally {
+                try {
+                    con.close();
+                } catch (NullPointerException npe) {
+                    String msg = FOR_NAME + "Ooops... problema nella chiusura della connessione.\n";
+                    LOG.severe(msg);
+                    throw new WebStorageException(msg + npe.getMessage());
+                } catch (SQLException sqle) {
+                    throw new WebStorageException(FOR_NAME + sqle.getMessage());
+                }
+            }
+        } catch (SQLException sqle) {
+            String msg = FOR_NAME + "Problema con la creazione della connessione.\n";
+            LOG.severe(msg);
+            throw new WebStorageException(msg + sqle.getMessage(), sqle);
+        }
+    }
+    
+    
+    /**
+     * <p>Recupera in parallelo le cinque collezioni collegate a un trattamento
+     * (ulteriori informazioni, attivit&agrave;, interessati, basi giuridiche,
+     * banche dati), eseguendo ciascuna query su una propria connessione
+     * del pool e ricongiungendo i risultati nel trattamento.</p>
+     * <p>Il chiamante deve aver gi&agrave; verificato che il pool abbia
+     * una connessione libera per ciascuna query (v. {@link #poolHasRoom(int)}).
+     * Se l'executor &egrave; saturo restituisce <code>false</code>
+     * e il chiamante ripiega sulla modalit&agrave; sequenziale.</p>
+     *
+     * @param trattamento   trattamento da completare
+     * @param idTrattamento codice identificativo del trattamento
+     * @param stato         oggetto contenente l'identificativo dello stato cercato
+     * @param survey        oggetto contenente i dati della rilevazione
+     * @return <code>boolean</code> - true se le collezioni sono state recuperate, false se l'executor &egrave; saturo
+     * @throws WebStorageException se una delle query non va a buon fine o non termina entro il tempo massimo consentito
+     */
+    private static boolean fetchChildrenInParallel(ProcessingBean trattamento,
+                                                   final String idTrattamento,
+                                                   final ItemBean stato,
+                                                   final CodeBean survey)
+                                            throws WebStorageException {
+        ArrayList<Future<?>> futures = new ArrayList<>(PARALLEL_QUERIES);
+        ChildQuery<ItemBean> extraInfoQuery = new ChildQuery<ItemBean>() {
+            @Override
+            ItemBean select(Connection con) throws SQLException, AttributoNonValorizzatoException {
+                return selectExtraInfo(con, idTrattamento, stato, survey);
+            }
+        };
+        ChildQuery<ArrayList<ActivityBean>> attivitaQuery = new ChildQuery<ArrayList<ActivityBean>>() {
+            @Override
+            ArrayList<ActivityBean> select(Connection con) throws SQLException, AttributoNonValorizzatoException {
+                return selectAttivita(con, idTrattamento, stato, survey);
+            }
+        };
+        ChildQuery<ArrayList<CodeBean>> interessatiQuery = new ChildQuery<ArrayList<CodeBean>>() {
+            @Override
+            ArrayList<CodeBean> select(Connection con) throws SQLException, AttributoNonValorizzatoException {
+                return selectInteressati(con, idTrattamento, stato, survey);
+            }
+        };
+        ChildQuery<ArrayList<ActivityBean>> basiQuery = new ChildQuery<ArrayList<ActivityBean>>() {
+            @Override
+            ArrayList<ActivityBean> select(Connection con) throws SQLException, AttributoNonValorizzatoException {
+                return selectBasiGiuridiche(con, idTrattamento, stato, survey);
+            }
+        };
+        ChildQuery<ArrayList<ProcessBean>> bancheDatiQuery = new ChildQuery<ArrayList<ProcessBean>>() {
+            @Override
+            ArrayList<ProcessBean> select(Connection con) throws SQLException, AttributoNonValorizzatoException {
+                return selectBancheDati(con, idTrattamento, stato, survey);
+            }
+        };
+        try {
+            ExecutorService executor = getParallelExecutor();
+            Future<ItemBean> extraInfo = executor.submit(extraInfoQuery);
+            futures.add(extraInfo);
+            Future<ArrayList<ActivityBean>> attivita = executor.submit(attivitaQuery);
+            futures.add(attivita);
+            Future<ArrayList<CodeBean>> interessati = executor.submit(interessatiQuery);
+            futures.add(interessati);
+            Future<ArrayList<ActivityBean>> basi = executor.submit(basiQuery);
+            futures.add(basi);
+            Future<ArrayList<ProcessBean>> bancheDati = executor.submit(bancheDatiQuery);
+            futures.add(bancheDati);
+            long timeout = PARALLEL_FETCH_TIMEOUT;
+            trattamento.setExtraInfos(extraInfo.get(timeout, TimeUnit.MILLISECONDS));
+            trattamento.setAttivita(attivita.get(timeout, TimeUnit.MILLISECONDS));
+            trattamento.setInteressati(interessati.get(timeout, TimeUnit.MILLISECONDS));
+            trattamento.setBasiGiuridiche(basi.get(timeout, TimeUnit.MILLISECONDS));
+            trattamento.setBancheDati(bancheDati.get(timeout, TimeUnit.MILLISECONDS));
+            return true;
+        } catch (RejectedExecutionException ree) {
+            // Coda dell'executor piena: equivale a un pool saturo
+            cancel(futures);
+            LOG.fine("Executor saturo: recupero sequenziale delle collezioni del trattamento " + idTrattamento);
+            return false;
+        } catch (ExecutionException ee) {
+            cancel(futures);
+            String msg = FOR_NAME + "Oggetto non valorizzato; problema in una delle query sulle collezioni del trattamento.\n";
+            LOG.severe(msg);
+            throw new WebStorageException(msg + ee.getCause().getMessage(), ee.getCause());
+        } catch (TimeoutException te) {
+            cancel(futures);
+            String msg = FOR_NAME + "Le query sulle collezioni del trattamento non sono terminate entro il tempo massimo.\n";
+            LOG.severe(msg);
+            throw new WebStorageException(msg + te.getMessage(), te);
+        } catch (InterruptedException ie) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            String msg = FOR_NAME + "Recupero parallelo delle collezioni del trattamento interrotto.\n";
+            LOG.severe(msg);
+            throw new WebStorageException(msg + ie.getMessage(), ie);
+        }
+    }
+    
+    
+    /**
+     * <p>Annulla le query parallele ancora in corso o in attesa di partire.</p>
+     *
+     * @param futures   query sottoposte all'executor
+     */
+    private static void cancel(ArrayList<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+    
+    
+    /**
+     * <p>Query su una collezione collegata a un trattamento, eseguita
+     * dall'executor su una connessione propria, ottenuta dal pool
+     * e restituita al termine.</p>
+     *
+     * @param <T> tipo del risultato
+     */
+    private static abstract class ChildQuery<T> implements Callable<T> {
+        
+        abstract T select(Connection con) throws SQLException, AttributoNonValorizzatoException;
+        
+        @Override
+        public T call() throws Exception {
+            try (Connection con = tol_manager.getConnection()) {
+                return select(con);
+            }
+        }
+    }
+    
+    
+    /**
+     * <p>Restituisce l'executor limitato usato per il recupero parallelo
+     * delle collezioni dei trattamenti, creandolo al primo utilizzo.</p>
+     *
+     * @return <code>ExecutorService</code> - executor con numero di thread e coda limitati
+     */
+    private static synchronized ExecutorService getParallelExecutor() {
+        if (parallelExecutor == null) {
+            int threads = ConfigManager.getParallelFetchConnections();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                                                                 60L, TimeUnit.SECONDS,
+                                                                 new ArrayBlockingQueue<Runnable>(threads * 4),
+                                                                 new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "tol-fetch-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            parallelExecutor = executor;
+            // L'executor va arrestato alla chiusura dell'applicazione
+            ConfigManager.addRegistryListener(new RegistryListener() {
+                @Override
+                public void registryLoaded(List<CodeBean> surveys, DBWrapper db) {
+                    /*;*/   // Non dipende dal registro
+                }
+                @Override
+                public void shutdown() {
+                    shutdownParallelExecutor();
+                }
+            });
+        }
+        return parallelExecutor;
+    }
+    
+    
+    /**
+     * <p>Verifica che il pool del DataSource abbia ancora libere, oltre a
+     * quelle gi&agrave; in uso, le connessioni richieste, leggendo
+     * il numero di connessioni in uso e il massimo dal pool stesso
+     * (v. {@link #POOL_GAUGES}).<br>
+     * Se il pool non espone questi valori il recupero parallelo
+     * non pu&ograve; essere protetto dalla saturazione e la verifica
+     * ha sempre esito negativo (il problema viene segnalato nel log
+     * una sola volta).<br>
+     * La verifica non riserva le connessioni: due richieste contemporanee
+     * possono entrambe trovare posto; il numero di query parallele
+     * resta comunque limitato dai thread dell'executor
+     * (v. {@link ConfigManager#getParallelFetchConnections()}).</p>
+     *
+     * @param needed    numero di connessioni che si intende impegnare
+     * @return <code>boolean</code> - true se il pool ha almeno <code>needed</code> connessioni libere
+     */
+    private static boolean poolHasRoom(int needed) {
+        Method[] gauges = getPoolGauges();
+        if (gauges.length == 0) {
+            return false;
+        }
+        try {
+            int active = ((Number) gauges[0].invoke(tol_manager)).intValue();
+            int max = ((Number) gauges[1].invoke(tol_manager)).intValue();
+            // Un massimo negativo indica un pool senza limite
+            return max < 0 || active + needed <= max;
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            LOG.fine(FOR_NAME + "Impossibile leggere lo stato del pool: " + e.getMessage());
+            return false;
+        }
+    }
+
+
+    /**
+     * <p>Individua, al primo utilizzo, i metodi con cui il DataSource
+     * espone il numero di connessioni in uso e il massimo.</p>
+     *
+     * @return <code>Method[]</code> - i due metodi, oppure un array vuoto se il DataSource non li espone
+     */
+    private static synchronized Method[] getPoolGauges() {
+        if (poolGauges == null) {
+            poolGauges = new Method[0];
+            for (String[] names : POOL_GAUGES) {
+                try {
+                    poolGauges = new Method[] { tol_manager.getClass().getMethod(names[0]),
+                                                tol_manager.getClass().getMethod(names[1]) };
+                    break;
+                } catch (NoSuchMethodException nsme) {
+                    // Prova la coppia successiva
+                }
+            }
+            if (poolGauges.length == 0) {
+                LOG.warning(FOR_NAME + "Il DataSource " + tol_manager.getClass().getName() + " non espone lo stato del pool: il recupero parallelo resta disattivato.");
+            }
+        }
+        return poolGauges;
+    }
+
+
+    /**
+     * <p>Arresta l'executor del recupero parallelo, se &egrave; stato avviato;
+     * viene invocato alla chiusura dell'applicazione.</p>
+     */
+    static synchronized void shutdownParallelExecutor() {
+        if (parallelExecutor != null) {
+            parallelExecutor.shutdownNow();
+            parallelExecutor = null;
+        }
+    }
+    
+    
+    /**
+     * <p>Seleziona le ulteriori informazioni relative a un trattamento.</p>
+     *
+     * @param con           connessione da usare
+     * @param idTrattamento codice identificativo del trattamento
+     * @param stato         oggetto contenente l'identificativo dello stato cercato
+     * @param survey        oggetto contenente i dati della rilevazione
+     * @return <code>ItemBean</code> - ulteriori informazioni, oppure null se non trovate
+     * @throws SQLException se si verifica un problema nell'esecuzione della query
+     * @throws AttributoNonValorizzatoException se l'identificativo della rilevazione non &egrave; valorizzato
+     */
+    private static ItemBean selectExtraInfo(Connection con,
+                                            String idTrattamento,
+                                            ItemBean stato,
+                                            CodeBean survey)
+                                     throws SQLException, AttributoNonValorizzatoException {
+        try (PreparedStatement pst = prepareChildQuery(con, GET_EXTRAINFO_TRATTAMENTO, idTrattamento, stato, survey);
+             ResultSet rs = pst.executeQuery()) {
+            RowMapper<ItemBean> mapper = RowMapper.get(ItemBean.class, rs);
+            ItemBean extraInfo = null;
+            if (rs.next()) {
+                extraInfo = new ItemBean();
+                mapper.populate(extraInfo, rs);
+            }
+            return extraInfo;
+        }
+    }
+    
+    
+    /**
+     * <p>Seleziona le attivit&agrave; di un trattamento.</p>
+     *
+     * @param con           connessione da usare
+     * @param idTrattamento codice identificativo del trattamento
+     * @param stato         oggetto contenente l'identificativo dello stato cercato
+     * @param survey        oggetto contenente i dati della rilevazione
+     * @return <code>ArrayList&lt;ActivityBean&gt;</code> - attivit&agrave; del trattamento
+     * @throws SQLException se si verifica un problema nell'esecuzione della query
+     * @throws AttributoNonValorizzatoException se l'identificativo della rilevazione non &egrave; valorizzato
+     */
+    private static ArrayList<ActivityBean> selectAttivita(Connection con,
+                                                          String idTrattamento,
+                                                          ItemBean stato,
+                                                          CodeBean survey)
+                                                   throws SQLException, AttributoNonValorizzatoException {
+        try (PreparedStatement pst = prepareChildQuery(con, GET_ATTIVITA_TRATTAMENTO, idTrattamento, stato, survey);
+             ResultSet rs = pst.executeQuery()) {
+            RowMapper<ActivityBean> mapper = RowMapper.get(ActivityBean.class, rs);
+            ArrayList<ActivityBean> vAttivita = new ArrayList<>();
+            while (rs.next()) {
+                ActivityBean attivita = new ActivityBean();
+                mapper.populate(attivita, rs);
+                vAttivita.add(attivita);
+            }
+            return vAttivita;
+        }
+    }
+    
+    
+    /**
+     * <p>Seleziona le categorie di interessati di un trattamento.</p>
+     *
+     * @param con           connessione da usare
+     * @param idTrattamento codice identificativo del trattamento
+     * @param stato         oggetto contenente l'identificativo dello stato cercato
+     * @param survey        oggetto contenente i dati della rilevazione
+     * @return <code>ArrayList&lt;CodeBean&gt;</code> - categorie di interessati del trattamento
+     * @throws SQLException se si verifica un problema nell'esecuzione della query
+     * @throws AttributoNonValorizzatoException se l'identificativo della rilevazione non &egrave; valorizzato
+     */
+    private static ArrayList<CodeBean> selectInteressati(Connection con,
+                                                         String idTrattamento,
+                                                         ItemBean stato,
+                                                         CodeBean survey)
+                                                  throws SQLException, AttributoNonValorizzatoException {
+        try (PreparedStatement pst = prepareChildQuery(con, GET_INTERESSATI_TRATTAMENTO, idTrattamento, stato, survey);
+             ResultSet rs = pst.executeQuery()) {
+            RowMapper<CodeBean> mapper = RowMapper.get(CodeBean.class, rs);
+            ArrayList<CodeBean> vInteressati = new ArrayList<>();
+            while (rs.next()) {
+                CodeBean categoriaInteressati = new CodeBean();
+                mapper.populate(categoriaInteressati, rs);
+                vInteressati.add(categoriaInteressati);
+            }
+            return vInteressati;
+        }
+    }
+    
+    
+    /**
+     * <p>Seleziona le basi giuridiche di un trattamento.</p>
+     *
+     * @param con           connessione da usare
+     * @param idTrattamento codice identificativo del trattamento
+     * @param stato         oggetto contenente l'identificativo dello stato cercato
+     * @param survey        oggetto contenente i dati della rilevazione
+     * @return <code>ArrayList&lt;ActivityBean&gt;</code> - basi giuridiche del trattamento
+     * @throws SQLException se si verifica un problema nell'esecuzione della query
+     * @throws AttributoNonValorizzatoException se l'identificativo della rilevazione non &egrave; valorizzato
+     */
+    private static ArrayList<ActivityBean> selectBasiGiuridiche(Connection con,
+                                                                String idTrattamento,
+                                                                ItemBean stato,
+                                                                CodeBean survey)
+                                                         throws SQLException, AttributoNonValorizzatoException {
+        try (PreparedStatement pst = prepareChildQuery(con, GET_BASI_GIURIDICHE_TRATTAMENTO, idTrattamento, stato, survey);
+             ResultSet rs = pst.executeQuery()) {
+            RowMapper<ActivityBean> mapper = RowMapper.get(ActivityBean.class, rs);
+            ArrayList<ActivityBean> vBasi = new ArrayList<>();
+            while (rs.next()) {
+                ActivityBean baseGiuridica = new ActivityBean();
+                mapper.populate(baseGiuridica, rs);
+                vBasi.add(baseGiuridica);
+            }
+            return vBasi;
+        }
+    }
+    
+    
+    /**
+     * <p>Seleziona le banche dati di un trattamento.</p>
+     *
+     * @param con           connessione da usare
+     * @param idTrattamento codice identificativo del trattamento
+     * @param stato         oggetto contenente l'identificativo dello stato cercato
+     * @param survey        oggetto contenente i dati della rilevazione
+     * @return <code>ArrayList&lt;ProcessBean&gt;</code> - banche dati del trattamento
+     * @throws SQLException se si verifica un problema nell'esecuzione della query
+     * @throws AttributoNonValorizzatoException se l'identificativo della rilevazione non &egrave; valorizzato
+     */
+    private static ArrayList<ProcessBean> selectBancheDati(Connection con,
+                                                           String idTrattamento,
+                                                           ItemBean stato,
+                                                           CodeBean survey)
+                                                    throws SQLException, AttributoNonValorizzatoException {
+        try (PreparedStatement pst = prepareChildQuery(con, GET_BANCHE_DATI_TRATTAMENTO, idTrattamento, stato, survey);
+             ResultSet rs = pst.executeQuery()) {
+            RowMapper<ProcessBean> mapper = RowMapper.get(ProcessBean.class, rs);
+            ArrayList<ProcessBean> vBancheDati = new ArrayList<>();
+            while (rs.next()) {
+                ProcessBean bancadati = new ProcessBean();
+                mapper.populate(bancadati, rs);
+                vBancheDati.add(bancadati);
+            }
+            return vBancheDati;
+        }
+    }
+    
+    
+    /**
+     * <p>Prepara una delle query sulle collezioni collegate a un trattamento,
+     * che accettano tutte gli stessi parametri (codice del trattamento,
+     * identificativo della rilevazione, stato due volte).</p>
+     *
+     * @param con           connessione da usare
+     * @param query         testo della query
+     * @param idTrattamento codice identificativo del trattamento
+     * @param stato         oggetto contenente l'identificativo dello stato cercato
+     * @param survey        oggetto contenente i dati della rilevazione
+     * @return <code>PreparedStatement</code> - query pronta per l'esecuzione
+     * @throws SQLException se si verifica un problema nella preparazione della query
+     * @throws AttributoNonValorizzatoException se l'identificativo della rilevazione non &egrave; valorizzato
+     */
+    private static PreparedStatement prepareChildQuery(Connection con,
+                                                       String query,
+                                                       String idTrattamento,
+                                                       ItemBean stato,
+                                                       CodeBean survey)
+                                                throws SQLException, AttributoNonValorizzatoException {
+        int nextParam = NOTHING;
+        PreparedStatement pst = con.prepareStatement(query);
+        pst.clearParameters();
+        pst.setString(++nextParam, idTrattamento);
+        pst.setInt(++nextParam, survey.getId());
+        pst.setInt(++nextParam, stato.getCod1());
+        pst.setInt(++nextParam, stato.getCod2());
+        return pst;
+    }
+    
+    
+    /**
+     * <p>Restituisce il momento dell'ultima modifica di uno specifico
+     * trattamento di dati personali, il cui identificativo viene passato
+     * come parametro, oppure delle attivit&agrave; e delle banche dati
+     * ad esso collegate, considerando il valore pi&uacute; recente.</p>
+     * <p>Si tratta di una interrogazione molto leggera, che permette
+     * di stabilire se un trattamento gi&agrave; assemblato e conservato
+     * in memoria sia ancora allineato al database.</p>
+     *
+     * @param idTrattamento codice identificativo del trattamento
+     * @param stato         oggetto contenente l'identificativo dello stato cercato, oppure -1 su entrambi i valori per neutralizzare la clausola
+     * @param survey        oggetto contenente i dati della rilevazione
+     * @return <code>Timestamp</code> - momento dell'ultima modifica; null se il trattamento non viene trovato o non riporta alcuna data di modifica
+     * @throws WebStorageException se si verifica un problema nell'esecuzione della query, nel recupero di attributi obbligatori non valorizzati o in qualche altro tipo di puntamento
+     */
+    @SuppressWarnings("static-method")
+    public Timestamp getUltimaModifica(String idTrattamento,
+                                       ItemBean stato,
+                                       CodeBean survey)
+                                throws WebStorageException {
+        try (Connection con = tol_manager.getConnection()) {
+            PreparedStatement pst = null;
+            ResultSet rs = null;
+            int nextParam = NOTHING;
+            Timestamp lastModified = null;
+            try {
+                pst = con.prepareStatement(GET_ULTIMA_MODIFICA_TRATTAMENTO);
+                pst.clearParameters();
+                pst.setString(++nextParam, idTrattamento);
+                pst.setInt(++nextParam, survey.getId());
+                pst.setInt(++nextParam, stato.getCod1());
+                pst.setInt(++nextParam, stato.getCod2());
+                rs = pst.executeQuery();
+                if (rs.next()) {
+                    lastModified = rs.getTimestamp("ultimaModifica");
+                }
+                // Just tries to engage the Garbage Collector
+                pst = null;
+                // Get Out
+                return lastModified;
+            } catch (AttributoNonValorizzatoException anve) {
+                String msg = FOR_NAME + "Si e\' verificato un problema nell\'accesso ad un attributo obbligatorio di un bean.\n";
+                LOG.severe(msg);
+                throw new WebStorageException(msg + anve.getMessage(), anve);
+            } catch (SQLException sqle) {
+                String msg = FOR_NAME + "Data ultima modifica non recuperata; problema nella query.\n";
+                LOG.severe(msg);
+                throw new WebStorageException(msg + sqle.getMessage(), sqle);
+            } finally {
+                try {
+                    con.close();
+                } catch (NullPointerException npe) {
+                    String msg = FOR_NAME + "Ooops... problema nella chiusura della connessione.\n";
+                    LOG.severe(msg);
+                    throw new WebStorageException(msg + npe.getMessage());
+                } catch (SQLException sqle) {
+                    throw new WebStorageException(FOR_NAME + sqle.getMessage());
+                }
+            }
+        } catch (SQLException sqle) {
+            String msg = FOR_NAME + "Problema con la creazione della connessione.\n";
+            LOG.severe(msg);
+            throw new WebStorageException(msg + sqle.getMessage(), sqle);
+        }
+    }    
+    
+    
+    /**
+     * <p>Restituisce il momento dell'ultima modifica apportata ai trattamenti,
+     * alle attivit&agrave; o alle banche dati di una rilevazione,
+     * considerando il valore pi&uacute; recente.</p>
+     * <p>Permette di stabilire se l'istantanea su disco del registro
+     * della rilevazione sia ancora allineata al database.</p>
+     *
+     * @param survey        oggetto contenente i dati della rilevazione
+     * @return <code>Timestamp</code> - momento dell'ultima modifica; null se la rilevazione non riporta alcuna data di modifica
+     * @throws WebStorageException se si verifica un problema nell'esecuzione della query, nel recupero di attributi obbligatori non valorizzati o in qualche altro tipo di puntamento
+     */
+    @SuppressWarnings("static-method")
+    public Timestamp getUltimaModifica(CodeBean survey)
+                                throws WebStorageException {
+        try (Connection con = tol_manager.getConnection()) {
+            PreparedStatement pst = null;
+            ResultSet rs = null;
+            int nextParam = NOTHING;
+            Timestamp lastModified = null;
+            try {
+                pst = con.prepareStatement(GET_ULTIMA_MODIFICA_RILEVAZIONE);
+                pst.clearParameters();
+                pst.setInt(++nextParam, survey.getId());
+                rs = pst.executeQuery();
+                if (rs.next()) {
+                    lastModified = rs.getTimestamp("ultimaModifica");
+                }
+                // Just tries to engage the Garbage Collector
+                pst = null;
+                // Get Out
+                return lastModified;
+            } catch (AttributoNonValorizzatoException anve) {
+                String msg = FOR_NAME + "Si e\' verificato un problema nell\'accesso ad un attributo obbligatorio di un bean.\n";
+                LOG.severe(msg);
+                throw new WebStorageException(msg + anve.getMessage(), anve);
+            } catch (SQLException sqle) {
+                String msg = FOR_NAME + "Data ultima modifica della rilevazione non recuperata; problema nella query.\n";
+                LOG.severe(msg);
+                throw new WebStorageException(msg + sqle.getMessage(), sqle);
+            } finally {
+                try {
+                    con.close();
+                } catch (NullPointerException npe) {
+                    String msg = FOR_NAME + "Ooops... problema nella chiusura della connessione.\n";
+                    LOG.severe(msg);
+                    throw new WebStorageException(msg + npe.getMessage());
+                } catch (SQLException sqle) {
+                    throw new WebStorageException(FOR_NAME + sqle.getMessage());
+                }
+            }
+        } catch (SQLException sqle) {
+            String msg = FOR_NAME + "Problema con la creazione della connessione.\n";
+            LOG.severe(msg);
+            throw new WebStorageException(msg + sqle.getMessage(), sqle);
+        }
+    }
+    
+    /**
+     * <p>Restituisce tutti i trattamenti di dati personali
+     * collegati ad una rilevazione il cui identificativo viene 
+     * passato come parametro e che si trovano in uno stato determinato
+     * oppure in tutti gli stati, a seconda dei valori passati in un oggetto
+     * che il metodo accetta come argomento.</p>
+     * <p>Le rilevazioni servite dall'applicazione sono chiuse e non cambiano
+     * pi&uacute;: il registro viene quindi letto dall'istantanea su disco
+     * della rilevazione (vedi {@link SnapshotStore}), costruendola al primo
+     * accesso; solo se l'istantanea non &egrave; disponibile il metodo
+     * interroga il database.</p>
+     *
+     * @param user      oggetto rappresentante la persona loggata, di cui si vogliono verificare i diritti
+     * @param survey    oggetto contenente i dati della rilevazione
+     * @param stato     oggetto contenente l'identificativo dello stato cercato, oppure -1 su entrambi i valori per neutralizzare la clausola
+     * @return <code>ArrayList&lt;ProcessingBean&gt;</code> - lista di trattamenti completi di tutte le informazioni collegate, ordinata per codice
+     * @throws WebStorageException se si verifica un problema nell'esecuzione della query, nella lettura dell'istantanea, nel recupero di attributi obbligatori non valorizzati o in qualche altro tipo di puntamento
+     */
+    public ArrayList<ProcessingBean> getTrattamenti(PersonBean user,
+                                                    CodeBean survey,
+                                                    ItemBean stato)
+                                             throws WebStorageException {
+        SnapshotStore.Snapshot snapshot = getSnapshot(user, survey);
+        if (snapshot != null) {
+            try {
+                return snapshot.getTrattamenti(stato.getCod1());
+            } catch (IOException | RuntimeException e) {
+                // Istantanea illeggibile: viene scartata e il registro si legge dal database
+                SnapshotStore.getInstance().discard(snapshot.getIdSurvey(), snapshot, e);
+            }
+        }
+        return selectTrattamenti(user, survey, stato);
+    }
+    
+    
+    /**
+     * <p>Restituisce l'istantanea su disco del registro della rilevazione
+     * passata come argomento; se non esiste ancora, la costruisce
+     * caricando dal database l'intero registro (trattamenti in qualunque stato)
+     * sotto il lock della rilevazione.</p>
+     *
+     * @param user      oggetto rappresentante la persona loggata
+     * @param survey    oggetto contenente i dati della rilevazione (chiusa)
+     * @return <code>SnapshotStore.Snapshot</code> - l'istantanea, oppure null se non &egrave; disponibile n&eacute; costruibile
+     * @throws WebStorageException se si verifica un problema nel caricamento del registro dal database
+     */
+    private SnapshotStore.Snapshot getSnapshot(final PersonBean user,
+                                               final CodeBean survey)
+                                        throws WebStorageException {
+        try {
+            SnapshotStore store = SnapshotStore.getInstance();
+            SnapshotStore.Snapshot snapshot = store.get(survey.getId());
+            if (snapshot == null && store.canBuild(survey.getId())) {
+                snapshot = store.build(survey.getId(), new SnapshotStore.Source() {
+                    @Override
+                    public long getLastModified() throws WebStorageException {
+                        Timestamp lastModified = getUltimaModifica(survey);
+                        return (lastModified == null) ? 0L : lastModified.getTime();
+                    }
+                    @Override
+                    public ArrayList<ProcessingBean> getTrattamenti() throws WebStorageException {
+                        ItemBean anyState = new ItemBean(GET_ALL_BY_CLAUSE, GET_ALL_BY_CLAUSE);
+                        return selectTrattamenti(user, survey, anyState);
+                    }
+                });
+            }
+            return snapshot;
+        } catch (AttributoNonValorizzatoException anve) {
+            String msg = FOR_NAME + "Si e\' verificato un problema nell\'accesso all\'identificativo della rilevazione.\n";
+            LOG.severe(msg);
+            throw new WebStorageException(msg + anve.getMessage(), anve);
+        }
+    }
+    
+    
+    /**
+     * <p>Estrae dal database tutti i trattamenti di dati personali
+     * collegati ad una rilevazione il cui identificativo viene 
+     * passato come parametro e che si trovano in uno stato determinato
+     * oppure in tutti gli stati, a seconda dei valori passati in un oggetto
+     * che il metodo accetta come argomento.</p>
+     * <p>A differenza di {@link #getTrattamento(PersonBean, String, ItemBean, CodeBean)},
+     * invocato per ciascun trattamento, il metodo esegue una sola query
+     * per ciascuna relazione (trattamento, ulteriori informazioni, attivit&agrave;,
+     * interessati, basi giuridiche, banche dati) sull'intera rilevazione
+     * e ricompone i grafi di oggetti in memoria, indicizzando i trattamenti
+     * per codice; il numero di accessi al database resta quindi costante
+     * al crescere del numero di trattamenti nel registro.</p>
+     *
+     * @param user      oggetto rappresentante la persona loggata, di cui si vogliono verificare i diritti
+     * @param survey    oggetto contenente i dati della rilevazione
+     * @param stato     oggetto contenente l'identificativo dello stato cercato, oppure -1 su entrambi i valori per neutralizzare la clausola
+     * @return <code>ArrayList&lt;ProcessingBean&gt;</code> - lista di trattamenti completi di tutte le informazioni collegate, ordinata per codice
+     * @throws WebStorageException se si verifica un problema nell'esecuzione della query, nel recupero di attributi obbligatori non valorizzati o in qualche altro tipo di puntamento
+     */
+    @SuppressWarnings("static-method")
+    private ArrayList<ProcessingBean> selectTrattamenti(PersonBean user,
+                                                        CodeBean survey,
+                                                        ItemBean stato)
+                                                 throws WebStorageException {
+        try (Connection con = tol_manager.getConnection()) {
+            PreparedStatement pst = null;
+            ResultSet rs, rs1, rs2, rs3, rs4, rs5 = null;
+            int nextParam = NOTHING;
+            // Indicizza i trattamenti per codice mantenendo l'ordine della query
+            LinkedHashMap<String, ProcessingBean> trattamenti = new LinkedHashMap<>();
+            try {
+                pst = con.prepareStatement(GET_TRATTAMENTI_RILEVAZIONE);
+                pst.clearParameters();
+                pst.setInt(++nextParam, survey.getId());
+                pst.setInt(++nextParam, stato.getCod1());
+                pst.setInt(++nextParam, stato.getCod2());
+                rs = pst.executeQuery();
+                RowMapper<ProcessingBean> mapper = RowMapper.get(ProcessingBean.class, rs);
+                while (rs.next()) {
+                    ProcessingBean trattamento = new ProcessingBean();
+                    mapper.populate(trattamento, rs);
+                    trattamento.setAttivita(new ArrayList<ActivityBean>());
+                    trattamento.setInteressati(new ArrayList<CodeBean>());
+                    trattamento.setBasiGiuridiche(new ArrayList<ActivityBean>());
+                    trattamento.setBancheDati(new ArrayList<ProcessBean>());
+                    trattamenti.put(trattamento.getCodice(), trattamento);
+                }
+                // Se non ci sono trattamenti è inutile cercarne le informazioni collegate
+                if (!trattamenti.isEmpty()) {
+                    // Recupera ulteriori informazioni relative ai trattamenti
+                    nextParam = NOTHING;
+                    pst = null;
+                    pst = con.prepareStatement(GET_EXTRAINFO_TRATTAMENTI);
+                    pst.clearParameters();
+                    pst.setInt(++nextParam, survey.getId());
+                    pst.setInt(++nextParam, stato.getCod1());
+                    pst.setInt(++nextParam, stato.getCod2());
+                    rs1 = pst.executeQuery();
+                    RowMapper<ItemBean> mapper1 = RowMapper.get(ItemBean.class, rs1);
+                    while (rs1.next()) {
+                        ProcessingBean trattamento = trattamenti.get(rs1.getString("codice"));
+                        if (trattamento != null) {
+                            ItemBean extraInfo = new ItemBean();
+                            mapper1.populate(extraInfo, rs1);
+                            trattamento.setExtraInfos(extraInfo);
+                        }
+                    }
+                    // Cerca le attività di tutti i trattamenti
+                    nextParam = NOTHING;
+                    pst = null;
+                    pst = con.prepareStatement(GET_ATTIVITA_TRATTAMENTI);
                     pst.clearParameters();
-                    pst.setString(++nextParam, idTrattamento);
                     pst.setInt(++nextParam, survey.getId());
                     pst.setInt(++nextParam, stato.getCod1());
                     pst.setInt(++nextParam, stato.getCod2());
                     rs2 = pst.executeQuery();
+                    RowMapper<ActivityBean> mapper2 = RowMapper.get(ActivityBean.class, rs2);
                     while (rs2.next()) {
-                        ActivityBean attivita = new ActivityBean();
-                        BeanUtil.populate(attivita, rs2);
-                        vAttivita.add(attivita);
+                        ProcessingBean trattamento = trattamenti.get(rs2.getString("codTrattamento"));
+                        if (trattamento != null) {
+                            ActivityBean attivita = new ActivityBean();
+                            mapper2.populate(attivita, rs2);
+                            trattamento.getAttivita().add(attivita);
+                        }
                     }
-                    trattamento.setAttivita((ArrayList<ActivityBean>) vAttivita);
-                    // Ha trovato il trattamento: ne cerca gli interessati
+                    // Cerca gli interessati di tutti i trattamenti
                     nextParam = NOTHING;
                     pst = null;
-                    pst = con.prepareStatement(GET_INTERESSATI_TRATTAMENTO);
+                    pst = con.prepareStatement(GET_INTERESSATI_TRATTAMENTI);
                     pst.clearParameters();
-                    pst.setString(++nextParam, idTrattamento);
                     pst.setInt(++nextParam, survey.getId());
                     pst.setInt(++nextParam, stato.getCod1());
                     pst.setInt(++nextParam, stato.getCod2());
                     rs3 = pst.executeQuery();
+                    RowMapper<CodeBean> mapper3 = RowMapper.get(CodeBean.class, rs3);
                     while (rs3.next()) {
-                        CodeBean categoriaInteressati = new CodeBean();
-                        BeanUtil.populate(categoriaInteressati, rs3);
-                        vInteressati.add(categoriaInteressati);
+                        ProcessingBean trattamento = trattamenti.get(rs3.getString("codTrattamento"));
+                        if (trattamento != null) {
+                            CodeBean categoriaInteressati = new CodeBean();
+                            mapper3.populate(categoriaInteressati, rs3);
+                            trattamento.getInteressati().add(categoriaInteressati);
+                        }
                     }
-                    trattamento.setInteressati((ArrayList<CodeBean>) vInteressati);
-                    // Ha trovato il trattamento: ne cerca le basi giuridiche
+                    // Cerca le basi giuridiche di tutti i trattamenti
                     nextParam = NOTHING;
                     pst = null;
-                    pst = con.prepareStatement(GET_BASI_GIURIDICHE_TRATTAMENTO);
+                    pst = con.prepareStatement(GET_BASI_GIURIDICHE_TRATTAMENTI);
                     pst.clearParameters();
-                    pst.setString(++nextParam, idTrattamento);
                     pst.setInt(++nextParam, survey.getId());
                     pst.setInt(++nextParam, stato.getCod1());
                     pst.setInt(++nextParam, stato.getCod2());
                     rs4 = pst.executeQuery();
+                    RowMapper<ActivityBean> mapper4 = RowMapper.get(ActivityBean.class, rs4);
                     while (rs4.next()) {
-                        ActivityBean baseGiuridica = new ActivityBean();
-                        BeanUtil.populate(baseGiuridica, rs4);
-                        vBasi.add(baseGiuridica);
+                        ProcessingBean trattamento = trattamenti.get(rs4.getString("codTrattamento"));
+                        if (trattamento != null) {
+                            ActivityBean baseGiuridica = new ActivityBean();
+                            mapper4.populate(baseGiuridica, rs4);
+                            trattamento.getBasiGiuridiche().add(baseGiuridica);
+                        }
                     }
-                    trattamento.setBasiGiuridiche((ArrayList<ActivityBean>) vBasi);
-                    // Ha trovato il trattamento: ne cerca le banche dati
+                    // Cerca le banche dati di tutti i trattamenti
                     nextParam = NOTHING;
                     pst = null;
-                    pst = con.prepareStatement(GET_BANCHE_DATI_TRATTAMENTO);
+                    pst = con.prepareStatement(GET_BANCHE_DATI_TRATTAMENTI);
                     pst.clearParameters();
-                    pst.setString(++nextParam, idTrattamento);
                     pst.setInt(++nextParam, survey.getId());
                     pst.setInt(++nextParam, stato.getCod1());
                     pst.setInt(++nextParam, stato.getCod2());
                     rs5 = pst.executeQuery();
+                    RowMapper<ProcessBean> mapper5 = RowMapper.get(ProcessBean.class, rs5);
                     while (rs5.next()) {
-                        ProcessBean bancadati = new ProcessBean();
-                        BeanUtil.populate(bancadati, rs5);
-                        vBancheDati.add(bancadati);
+                        ProcessingBean trattamento = trattamenti.get(rs5.getString("codTrattamento"));
+                        if (trattamento != null) {
+                            ProcessBean bancadati = new ProcessBean();
+                            mapper5.populate(bancadati, rs5);
+                            trattamento.getBancheDati().add(bancadati);
+                        }
                     }
-                    trattamento.setBancheDati((ArrayList<ProcessBean>) vBancheDati);
                 }
                 // Just tries to engage the Garbage Collector
                 pst = null;
                 // Get Out
-                return trattamento;
+                return new ArrayList<>(trattamenti.values());
             } catch (AttributoNonValorizzatoException anve) {
                 String msg = FOR_NAME + "Si e\' verificato un problema nell\'accesso ad un attributo obbligatorio di un bean.\n";
                 LOG.severe(msg);
@@ -871,6 +1834,71 @@ public class DBWrapper implements Query, Constants {
         }
     }
     
+    
+    /**
+     * <p>Restituisce tutte le banche dati di una rilevazione, con il database
+     * e il tipo di database cui corrispondono, comprese quelle che non
+     * risultano collegate ad alcun trattamento; l'ordinale di ciascuna
+     * banca dati riporta il numero di trattamenti collegati.</p>
+     * <p>Serve a completare il grafo delle relazioni del registro
+     * (v. {@link GraphIndex}), che dai soli trattamenti non vedrebbe
+     * le banche dati orfane.</p>
+     *
+     * @param survey    oggetto contenente i dati della rilevazione
+     * @return <code>ArrayList&lt;ProcessBean&gt;</code> - lista di banche dati, ordinata per nome
+     * @throws WebStorageException se si verifica un problema nell'esecuzione della query, nel recupero di attributi obbligatori non valorizzati o in qualche altro tipo di puntamento
+     */
+    @SuppressWarnings("static-method")
+    public ArrayList<ProcessBean> getBancheDati(CodeBean survey)
+                                         throws WebStorageException {
+        try (Connection con = tol_manager.getConnection()) {
+            PreparedStatement pst = null;
+            ResultSet rs = null;
+            int nextParam = NOTHING;
+            ArrayList<ProcessBean> bancheDati = new ArrayList<>();
+            try {
+                pst = con.prepareStatement(GET_BANCHE_DATI_RILEVAZIONE);
+                pst.clearParameters();
+                pst.setInt(++nextParam, survey.getId());
+                rs = pst.executeQuery();
+                RowMapper<ProcessBean> mapper = RowMapper.get(ProcessBean.class, rs);
+                while (rs.next()) {
+                    ProcessBean bancaDati = new ProcessBean();
+                    mapper.populate(bancaDati, rs);
+                    bancheDati.add(bancaDati);
+                }
+                rs.close();
+                pst.close();
+                // Just tries to engage the Garbage Collector
+                pst = null;
+                // Get Out
+                return bancheDati;
+            } catch (AttributoNonValorizzatoException anve) {
+                String msg = FOR_NAME + "Si e\' verificato un problema nell\'accesso all\'identificativo della rilevazione.\n";
+                LOG.severe(msg);
+                throw new WebStorageException(msg + anve.getMessage(), anve);
+            } catch (SQLException sqle) {
+                String msg = FOR_NAME + "Problema nella query delle banche dati della rilevazione.\n";
+                LOG.severe(msg);
+                throw new WebStorageException(msg + sqle.getMessage(), sqle);
+            } finally {
+                try {
+                    con.close();
+                } catch (NullPointerException npe) {
+                    String msg = FOR_NAME + "Ooops... problema nella chiusura della connessione.\n";
+                    LOG.severe(msg);
+                    throw new WebStorageException(msg + npe.getMessage());
+                } catch (SQLException sqle) {
+                    throw new WebStorageException(FOR_NAME + sqle.getMessage());
+                }
+            }
+        } catch (SQLException sqle) {
+            String msg = FOR_NAME + "Problema con la creazione della connessione.\n";
+            LOG.severe(msg);
+            throw new WebStorageException(msg + sqle.getMessage(), sqle);
+        }
+    }
+    
 
     /* ************************************************************************ *
      *                           Metodi di INSERIMENTO                          *
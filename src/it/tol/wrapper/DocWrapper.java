@@ -32,11 +32,8 @@
 
 package it.tol.wrapper;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Font;
-import java.awt.FontMetrics;
-import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.Stroke;
@@ -47,17 +44,27 @@ import java.awt.geom.Ellipse2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.awt.print.PageFormat;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.AttributedString;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.logging.Logger;
 
-import javax.swing.JLabel;
-import javax.swing.JTextArea;
 
 import com.qoppa.pdfWriter.PDFDocument;
 import com.qoppa.pdfWriter.PDFPage;
 
+import it.tol.ConfigManager;
 import it.tol.Data;
 import it.tol.bean.ActivityBean;
 import it.tol.bean.CodeBean;
@@ -66,7 +73,14 @@ import it.tol.bean.ProcessBean;
 import it.tol.bean.ProcessingBean;
 import it.tol.exception.AttributoNonValorizzatoException;
 import it.tol.exception.CommandException;
+import it.tol.interfaces.RegistryListener;
 import it.tol.utils.generator.DocumentGenerator;
+import it.tol.utils.generator.PageFlow;
+import it.tol.utils.generator.PdfAssets;
+import it.tol.utils.generator.PdfConcatenator;
+import it.tol.utils.generator.PdfSpool;
+import it.tol.utils.generator.TextLayoutEngine;
+import it.tol.utils.generator.TextLayoutEngine.Lines;
 
 
 /**
@@ -95,20 +109,38 @@ public class DocWrapper extends DocumentGenerator {
      */
     private static final String LOGO = "logo1.png";
     /**
-     * Costante per la lunghezza del paragrafo
+     * Coordinata verticale da cui parte il contenuto delle pagine di un trattamento
      */
-    private static final int TEXT_LIMIT = 600;
+    private static final int CONTENT_TOP = 140;
+    /**
+     * Coordinata verticale oltre la quale non si scrive nelle pagine di un trattamento
+     */
+    private static final int PAGE_BOTTOM = 720;
+    /**
+     * Margine destro del contenuto (fine delle righe orizzontali)
+     */
+    private static final int RIGHT_MARGIN = 550;
+    /**
+     * Larghezza dell'area di testo
+     */
+    private static final int TEXT_WIDTH = RIGHT_MARGIN - x;
+    /**
+     * Pool fork-join per la generazione parallela dei frammenti
+     */
+    private static ForkJoinPool renderPool;
     
     
     /**
-     * Restituisce il logo codificato sotto forma di BufferedImage.
+     * Restituisce il logo codificato sotto forma di BufferedImage;
+     * l'immagine viene decodificata una sola volta e l'istanza 
+     * &egrave; condivisa da tutte le pagine (v. {@link PdfAssets}).
      * 
      * @return <code>BufferedImage</code> - Oggetto che descrive un'immagine con un buffer accessibile di dati relativi all'immagine raster
      * @throws IOException se si verifica un problema nell'accesso alla risorsa da codificare
      */
     public static BufferedImage getLogo() 
                                  throws IOException {
-        return getImage(LOGO);
+        return PdfAssets.getImage(LOGO);
     }
     
     
@@ -142,13 +174,12 @@ public class DocWrapper extends DocumentGenerator {
         PDFPage front = doc.createPage(pf);
         // Create Graphics2D
         Graphics2D g2d = front.createGraphics(); 
-        BufferedImage image = getLogo();
-        g2d.drawImage(image, 10, 10, 209, 75, null);
-        g2d.setFont(new Font ("Helvetica", Font.BOLD, 26));
+        printLogo(g2d);
+        g2d.setFont(PdfAssets.FONT_TITLE);
         g2d.drawString("Registro delle attività di trattamento", x, 400);
-        g2d.setFont(new Font ("Helvetica", Font.ITALIC, 18));
+        g2d.setFont(PdfAssets.FONT_SUBTITLE);
         g2d.drawString("(Regolamento UE 2016/679, art. 30)", 150, 430);
-        g2d.setFont(new Font ("Helvetica", Font.PLAIN, 12));
+        g2d.setFont(PdfAssets.FONT_FOOTER);
         g2d.drawString("Registro delle attività di trattamento – Vers. 3.0 – 30.06.2023", x, 700);
         doc.addPage(front);
     }
@@ -174,15 +205,15 @@ public class DocWrapper extends DocumentGenerator {
         Graphics2D g2d = page.createGraphics();
         // Content
         printLogo(g2d);
-        g2d.setFont(new Font("Helvetica", Font.BOLD, 14));
+        g2d.setFont(PdfAssets.FONT_HEADING);
         g2d.drawString("1. Ambito di applicazione", x, y);
-        g2d.setFont(new Font("Arial", Font.PLAIN, 11));
+        g2d.setFont(PdfAssets.FONT_BODY);
         y = println(g2d, "L’art. 30 del Regolamento UE n. 2016/679 (a seguire: GDPR) prevede che le imprese od", x, y, i);
         y = println(g2d, "organizzazioni con un numero uguale o superiore a 250 dipendenti devono adottare e tenere", x, y, i);
         y = println(g2d, "aggiornato un", x, y, i);
-        g2d.setFont(new Font("Arial", Font.BOLD, 11));
+        g2d.setFont(PdfAssets.FONT_BOLD);
         println(g2d, "Registro delle Attività di Trattamento.", 150, y, NOTHING);
-        g2d.setFont(new Font("Arial", Font.PLAIN, 11));
+        g2d.setFont(PdfAssets.FONT_BODY);
         y = println(g2d, "Tale obbligo non si applica alle pubbliche amministrazioni, salvo che i trattamenti che esse", x, y, i);
         y = println(g2d, "effettuano possano presentare un rischio per i diritti e le libertà dell’interessato, non siano", x, y, i);
         y = println(g2d, "occasionali o includano categorie particolari di dati (GDPR, art. 9, par. 1: dati che rivelino", x, y, i);
@@ -192,7 +223,7 @@ public class DocWrapper extends DocumentGenerator {
         y = println(g2d, "persona) o dati personali relativi a condanne penali.", x, y, i);
         y = println(g2d, "Preso atto che l'Università di Verona:", x, y, i*2);
         // <ul>
-        BufferedImage bullet = getImage("ico-check.png");
+        BufferedImage bullet = PdfAssets.getImage("ico-check.png");
         // li
         g2d.drawImage(bullet, x, 390, w, h, null);
         int x1 = getCoordinate(x, i);
@@ -210,7 +241,7 @@ public class DocWrapper extends DocumentGenerator {
         y = println(g2d, "l'Università è tenuta ad adottare un Registro delle Attività di Trattamento per fornire ai terzi", x, y, i*2);
         y = println(g2d, "evidenza dell’analisi dei Trattamenti effettuati, motivando le misure intraprese sulla scorta dei rischi", x, y, i);
         y = println(g2d, "gravanti su di essi, secondo il principio di Responsabilizzazione o ", x, y, i);
-        g2d.setFont(new Font ("Arial", Font.ITALIC, 11));
+        g2d.setFont(PdfAssets.FONT_ITALIC);
         g2d.drawString("Accountability.", getCoordinate(x, 320), y);
         doc.addPage(page);
     }
@@ -236,19 +267,19 @@ public class DocWrapper extends DocumentGenerator {
         // Content
         printLogo(g2d);
         // Title
-        g2d.setFont(new Font ("Helvetica", Font.BOLD, 14));
+        g2d.setFont(PdfAssets.FONT_HEADING);
         g2d.drawString("2. Dati di Contatto", x, y);
         // Text
-        g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
+        g2d.setFont(PdfAssets.FONT_BODY);
         y = println(g2d, "In merito al trattamento dei dati effettuato come Titolare e/o come Responsabile, è necessario", x, y, i);
         y = println(g2d, "specificare i dati di contatto:", x, y, i);
-        g2d.setFont(new Font ("Arial", Font.BOLD, 11));
+        g2d.setFont(PdfAssets.FONT_BOLD);
         y = println(g2d, "GDPR, art. 30 1a) il nome e i dati di contatto del titolare del trattamento e, ove applicabile,", x, y, i);
         y = println(g2d, "del contitolare del trattamento, del rappresentante del titolare del trattamento e del", x, y, i);
         y = println(g2d, "responsabile della protezione dei dati;", x, y, i); 
-        g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
+        g2d.setFont(PdfAssets.FONT_BODY);
         y = println(g2d, "Qualora il titolare svolga trattamenti anche in qualità di Responsabile si applica:", x, y, i*2);
-        g2d.setFont(new Font ("Arial", Font.BOLD, 11));
+        g2d.setFont(PdfAssets.FONT_BOLD);
         y = println(g2d, "GDPR, art. 30 2a) il nome e i dati di contatto del responsabile o dei responsabili del", x, y, i);
         y = println(g2d, "trattamento, di ogni titolare del trattamento per conto del quale agisce il responsabile del", x, y, i);
         y = println(g2d, "trattamento, del rappresentante del titolare del trattamento o del responsabile del", x, y, i);
@@ -266,28 +297,28 @@ public class DocWrapper extends DocumentGenerator {
         g2d.setColor(Color.black);
         g2d.drawString("DATI DI CONTATTO", 324, 415);
         y = println(g2d, "Titolare del Trattamento", getCoordinate(x, i), y, i*4);
-        g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
+        g2d.setFont(PdfAssets.FONT_BODY);
         y = println(g2d, "Università degli Studi di Verona", getCoordinate(x, i*11), y, NOTHING);
         y = println(g2d, "Via dell’Artigliere n. 8", getCoordinate(x, i*11), y, i);
-        g2d.setFont(new Font ("Arial", Font.ITALIC, 11));
+        g2d.setFont(PdfAssets.FONT_ITALIC);
         y = println(g2d, "Nota: contatti validi anche qualora", getCoordinate(x, i), y, i);
-        g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
+        g2d.setFont(PdfAssets.FONT_BODY);
         y = println(g2d, "CAP 37129   - Verona", getCoordinate(x, i*11), y, NOTHING);
         y = println(g2d, "C.F: 93009870234 – P.I. 0154104023", getCoordinate(x, i*11), y, i);
-        g2d.setFont(new Font ("Arial", Font.ITALIC, 11));
+        g2d.setFont(PdfAssets.FONT_ITALIC);
         g2d.drawString("il titolare agisca come Responsabile", getCoordinate(x, i), y);
-        g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
+        g2d.setFont(PdfAssets.FONT_BODY);
         y = println(g2d, "Tel. 0458028777", getCoordinate(x, i*11), y, i);
         y = println(g2d, "E-mail: privacy@ateneo.univr.it", getCoordinate(x, i*11), y, i);
         y += i/2;
         g2d.drawRoundRect(x, y, 450, 155, 2, 2);
-        g2d.setFont(new Font ("Arial", Font.BOLD, 11));
+        g2d.setFont(PdfAssets.FONT_BOLD);
         y = println(g2d, "Responsabile della Protezione", getCoordinate(x, i), y, i);
-        g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
+        g2d.setFont(PdfAssets.FONT_BODY);
         g2d.drawString("GL CONSULTING S.R.L.", getCoordinate(x, i*11), y);
-        g2d.setFont(new Font ("Arial", Font.BOLD, 11));
+        g2d.setFont(PdfAssets.FONT_BOLD);
         y = println(g2d, "dei Dati (DPO)", getCoordinate(x, i), y, i);
-        g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
+        g2d.setFont(PdfAssets.FONT_BODY);
         g2d.drawString("Soggetto individuato quale referente", getCoordinate(x, i*11), y);
         y = println(g2d, " per il titolare:", getCoordinate(x, i*11), y, i);
         y = println(g2d, "Gianluca Lombardi", getCoordinate(x, i*11), y, i);
@@ -317,11 +348,11 @@ public class DocWrapper extends DocumentGenerator {
         // Create Graphics2D
         Graphics2D g2d = page.createGraphics(); 
         printLogo(g2d);
-        g2d.setFont(new Font ("Helvetica", Font.BOLD, 18));
+        g2d.setFont(PdfAssets.FONT_SECTION);
         g2d.drawString(sectionTitle, x, 300);
-        g2d.setFont(new Font ("Helvetica", Font.PLAIN, 14));
+        g2d.setFont(PdfAssets.FONT_SUBHEADING);
         g2d.drawString("L’organizzazione effettua i seguenti trattamenti di dati in qualità di:", x, 330);
-        g2d.setFont(new Font ("Helvetica", Font.BOLD, 14));
+        g2d.setFont(PdfAssets.FONT_HEADING);
         g2d.drawString(sectionName, x + 190, 360);
         doc.addPage(page);
     }
@@ -348,16 +379,14 @@ public class DocWrapper extends DocumentGenerator {
         g.setColor(Color.BLUE);
         g.fillRect(60, y, 500, 70);
         // Draw a round border to the rectangle
-        g.setStroke(new BasicStroke(6));
+        g.setStroke(PdfAssets.STROKE_BORDER);
         // Draw a string
-        g.setFont(new Font ("Helvetica", Font.BOLD, 14));
+        g.setFont(PdfAssets.FONT_HEADING);
         g.setColor(Color.white);
         y = println(g, "Codice" + BLANK_SPACE + COLON + BLANK_SPACE + t.getCodice(), x, y, s*3);
         y += s;
-        String[] titleAsArray = wrapText(g, t.getNome(), width);
-        for (int i = 0; i < titleAsArray.length; i++) {
-            y = println(g, titleAsArray[i], x, y, s*2);
-        }
+        Lines titleAsArray = TextLayoutEngine.wrap(g, t.getNome(), width);
+        y = TextLayoutEngine.println(g, titleAsArray, x, y, s*2);
     }
     
     
@@ -383,332 +412,73 @@ public class DocWrapper extends DocumentGenerator {
         g.setColor(Color.BLUE);
         g.drawRoundRect(60, y, 500, 70, 2, 2);
         // Draw a round border to the rectangle
-        g.setStroke(new BasicStroke(6));
+        g.setStroke(PdfAssets.STROKE_BORDER);
         // Draw a string
         y = println(g, "Codice" + BLANK_SPACE + COLON + BLANK_SPACE + t.getCodice(), x, y, s*3);
         y += s;
-        String[] titleAsArray = wrapText(g, t.getNome(), width);
-        for (int i = 0; i < titleAsArray.length; i++) {
-            y = println(g, titleAsArray[i], x, y, s*2);
-        }
+        Lines titleAsArray = TextLayoutEngine.wrap(g, t.getNome(), width);
+        y = TextLayoutEngine.println(g, titleAsArray, x, y, s*2);
         return y;
     }
     
     
     /**
-     * Genera la prima pagina di un trattamento passato come parametro.
+     * Accoda al flusso la descrizione sintetica e le attivit&agrave;
+     * di un trattamento (prima pagina del trattamento).
      * 
-     * @param pf    formato della pagina
-     * @param doc   istanza di documento PDF
+     * @param flow  flusso delle pagine del trattamento
      * @param t     oggetto contenente i dati del trattamento
-     * @return <code>int</code> - l'indice corrente delle attivit&agrave; di trattamento stampate nella prima pagina, o il numero totale di esse se la stampa non ha ecceduto l'altezza di pagina
-     * @throws CommandException se si verifica un problema nel recupero di una risorsa, di valori o in qualche altro tipo di puntamento
+     * @throws AttributoNonValorizzatoException se si verifica un problema nel recupero di un attributo obbligatorio del bean
      */
-    private static int makeProcessingPage(PageFormat pf, 
-                                          PDFDocument doc,
-                                          ProcessingBean t)
-                                   throws CommandException {
-        int y = 140;
+    private static void addProcessing(PageFlow flow,
+                                      ProcessingBean t)
+                               throws AttributoNonValorizzatoException {
         int s = 8;
-        int pageHeight = 720;
-        try {
-            // Create a page in the document
-            PDFPage page = doc.createPage(pf);
-            // Create Graphics2D
-            Graphics2D g2d = page.createGraphics();
-            // Make the heder of the first processing page
-            makeHeaderProcessingPage(g2d, t);
-            g2d.setColor(Color.black);
-            // Descrizione sintetica del trattamento
-            if (!t.getDescrizione().equals(VOID_STRING) && t.getDescrizione().length() < TEXT_LIMIT) {
-                y = 180;
-                g2d.drawString("Descrizione sintetica del trattamento", x, y);
-                // Draw to the page
-                String text = cleanHtml(t.getDescrizione());
-                String[] textAsArray = wrapText(g2d, text, 700);
-                g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
-                for (int i = 0; i < textAsArray.length; i++) {
-                    y = println(g2d, textAsArray[i], x, y, s*2);
-                }
-            }
-            // Attività di trattamento
-            g2d.setFont(new Font ("Helvetica", Font.BOLD, 14));
-            y += s*5;
-            g2d.drawString("Attività di trattamento" + BLANK_SPACE + "(" + t.getAttivita().size() + ")", x, y);
-            // Horizontal rule
-            float[] dashingPattern1 = {1f, 1f};
-            Stroke stroke1 = new BasicStroke(1f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 1.0f, dashingPattern1, 2.0f);
-            g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
-            int count = NOTHING;
-            ArrayList<ActivityBean> vA = t.getAttivita();
-            for (int i = 0; i < vA.size(); i++) {
-                ActivityBean a = vA.get(i);
-                String text = a.getNome();
-                String[] textAsArray = wrapText(g2d, text, 540);
-                y += s;
-                g2d.setStroke(stroke1);
-                g2d.drawLine(x, y, 550, y);
-                for (int j = 0; j < textAsArray.length; j++) {
-                    y += s*2;
-                    if (y < pageHeight) {
-                        g2d.drawString(textAsArray[j], x, y);
-                    } else {
-                        count = i;
-                        break;
-                    }
-                }
-                if (y > pageHeight) {
-                    doc.addPage(page);
-                    return count;
-                }
-            }
-            // Add the page to the document
-            doc.addPage(page);
-            return count;
-        } catch (AttributoNonValorizzatoException anve) {
-            String msg = FOR_NAME + "Problema nel recupero di un attributo obbligatorio del bean.\n" + anve.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, anve);
-        } catch (IOException ioe) {
-            String msg = FOR_NAME + "Probabile problema nel puntamento a una risorsa esterna.\n" + ioe.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, ioe);
-        } catch (Exception e) {
-            String msg = FOR_NAME + "Problema in un metodo per la generazione di pagina pdf.\n" + e.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, e);
+        // Descrizione sintetica del trattamento, di qualunque lunghezza
+        if (!t.getDescrizione().equals(VOID_STRING)) {
+            flow.heading("Descrizione sintetica del trattamento", PdfAssets.FONT_HEADING, x, s*5);
+            flow.paragraph(cleanHtml(t.getDescrizione()), PdfAssets.FONT_BODY, x, TEXT_WIDTH, s*2, true);
         }
-    }
-    
-    
-    /**
-     * Genera la descrizione di un trattamento, passato come parametro, in una pagina separata.
-     * 
-     * @param pf        formato della pagina
-     * @param doc       istanza di documento PDF
-     * @param t         oggetto contenente i dati del trattamento
-     * @param content   testo da includere in pagine di descrizione del trattamento successive alla prima
-     * @return <code>String</code> - il testo rimanente, se la descrizione del trattamento non sta in una sola pagina
-     * @throws CommandException se si verifica un problema nel recupero di una risorsa, di valori o in qualche altro tipo di puntamento
-     */
-    private static String makeProcessingPage(PageFormat pf, 
-                                             PDFDocument doc,
-                                             ProcessingBean t,
-                                             String content)
-                                      throws CommandException {
-        int y = 180;
-        int s = 8;
-        String leftOver = null; 
-        int boundary = 2000;
-        try {
-            // Create a page in the document
-            PDFPage page = doc.createPage(pf);
-            // Create Graphics2D
-            Graphics2D g2d = page.createGraphics();
-            // If this method is called, this isn't the first processing page
-            makeHeaderInternalPage(g2d, t);
-            g2d.setColor(Color.black);
-            if (content == null) {
-                // Descrizione sintetica del trattamento
-                g2d.setFont(new Font ("Helvetica", Font.BOLD, 14));
-                g2d.drawString("Descrizione sintetica del trattamento", x, y);
-                // Draw to the page
-                String text = cleanHtml(t.getDescrizione());
-                g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
-                leftOver = print(g2d, text, x, y, s*2, 460, boundary);
-            } else {
-                // Altrimenti, se invece riceve testo, deve stampare solo quello
-                g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
-                print(g2d, content, x, y, s*2, 460);
-            }
-            // Add the page to the document
-            doc.addPage(page);
-            return leftOver;
-        } catch (AttributoNonValorizzatoException anve) {
-            String msg = FOR_NAME + "Problema nel recupero di un attributo obbligatorio del bean.\n" + anve.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, anve);
-        } catch (IOException ioe) {
-            String msg = FOR_NAME + "Probabile problema nel puntamento a una risorsa esterna.\n" + ioe.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, ioe);
-        } catch (Exception e) {
-            String msg = FOR_NAME + "Problema in un metodo per la generazione di pagina pdf.\n" + e.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, e);
+        // Attività di trattamento
+        flow.heading("Attività di trattamento" + BLANK_SPACE + "(" + t.getAttivita().size() + ")", PdfAssets.FONT_HEADING, x, s*5);
+        for (ActivityBean a : t.getAttivita()) {
+            flow.rule(PdfAssets.STROKE_DOTTED, x, RIGHT_MARGIN, s);
+            flow.paragraph(a.getNome(), PdfAssets.FONT_BODY, x, TEXT_WIDTH, s*2, false);
         }
     }
     
     
     /**
-     * Assunto che si verifichi il caso in cui la lista delle attivit&agrave; 
-     * fosse co&iacute; lunga da non stare in una pagina, aggiunge un'ulteriore pagina 
-     * generata dal ciclo sulla lista delle attivit&agrave; del trattamento corrente, 
-     * passato come parametro.
-     * Sa da quale attivt&agrave; di trattamento partire perch&eacute; si basa sul
-     * numero d'indice dell'attivit&agrave; stessa, passato come parametro. 
+     * Accoda al flusso le finalit&agrave; e le basi giuridiche di un trattamento.
      * 
-     * @param pf    formato della pagina
-     * @param doc   istanza di documento PDF
+     * @param flow  flusso delle pagine del trattamento
      * @param t     oggetto contenente i dati del trattamento
-     * @param count numero d'indice dell'attivita' da cui partire per scorrere le attivita'
-     * @return <code>int</code> - l'indice corrente delle attivit&agrave; di trattamento stampate nella prima pagina, o il numero totale di esse se la stampa non ha ecceduto l'altezza di pagina
-     * @throws CommandException se si verifica un problema nel recupero di una risorsa, di valori o in qualche altro tipo di puntamento
-     */
-    private static int makeActivitiesPage(PageFormat pf, 
-                                          PDFDocument doc,
-                                          ProcessingBean t,
-                                          int count)
-                                   throws CommandException {
-        int y = 85;
-        int s = 8;
-        int pageHeight = 700;
-        try {
-            // Create a page in the document
-            PDFPage page = doc.createPage(pf);
-            // Create Graphics2D
-            Graphics2D g2d = page.createGraphics(); 
-            // Make the heder of the internal page
-            y = makeHeaderInternalPage(g2d, t);
-            // Draw to the page
-            g2d.setColor(Color.black);
-            y += s*4;
-            // Riga orizzontale
-            float[] dashingPattern1 = {1f, 1f};
-            Stroke stroke1 = new BasicStroke(1f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 1.0f, dashingPattern1, 2.0f);
-            int count2 = NOTHING;
-            ArrayList<ActivityBean> vA = t.getAttivita();
-            for (int i = count; i < vA.size(); i++) {
-                ActivityBean a = vA.get(i);
-                String text = a.getNome();
-                String[] textAsArray = wrapText(g2d, text, 540);
-                g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
-                y += s;
-                g2d.setStroke(stroke1);
-                g2d.drawLine(x, y, 550, y);
-                for (int j = 0; j < textAsArray.length; j++) {
-                    y += s*2;
-                    if (y < pageHeight) {
-                        g2d.drawString(textAsArray[j], x, y);
-                    } else {
-                        count2 = i;
-                        break;
-                    }
-                }
-                if (y > pageHeight) {
-                    doc.addPage(page);
-                    return count2;
-                }
-            }
-            // Add the page to the document
-            doc.addPage(page);
-            return count2;
-        } catch (AttributoNonValorizzatoException anve) {
-            String msg = FOR_NAME + "Problema nel recupero di un attributo obbligatorio del bean.\n" + anve.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, anve);
-        } catch (IOException ioe) {
-            String msg = FOR_NAME + "Probabile problema nel puntamento a una risorsa esterna.\n" + ioe.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, ioe);
-        } catch (Exception e) {
-            String msg = FOR_NAME + "Problema in un metodo per la generazione di pagina pdf.\n" + e.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, e);
-        }
-    }
-        
-    
-    /**
-     * Genera la pagina delle basi giuridiche di un trattamento passato come parametro.
-     * 
-     * @param pf    formato della pagina
-     * @param doc   istanza di documento PDF
-     * @param t     oggetto contenente i dati del trattamento
-     * @return <code>int</code> - l'indice corrente delle basi giuridiche di trattamento stampate nella pagina, o il numero totale di esse se la stampa non ha ecceduto l'altezza di pagina
-     * @throws CommandException se si verifica un problema nel recupero di una risorsa, di valori o in qualche altro tipo di puntamento
+     * @throws AttributoNonValorizzatoException se si verifica un problema nel recupero di un attributo obbligatorio del bean
      */
-    private static int makeLegalBasisPage(PageFormat pf, 
-                                          PDFDocument doc,
-                                          ProcessingBean t)
-                                   throws CommandException {
-        int y = 180;
+    private static void addLegalBasis(PageFlow flow,
+                                      ProcessingBean t)
+                               throws AttributoNonValorizzatoException {
         int s = 8;
-        int pageHeight = 720;
-        int count = NOTHING;
-        try {
-            // Create a page in the document
-            PDFPage page = doc.createPage(pf);
-            // Create Graphics2D
-            Graphics2D g2d = page.createGraphics(); 
-            // Make the heder of the page
-            makeHeaderInternalPage(g2d, t);
-            // Draw a string
-            g2d.setColor(Color.black);
-            g2d.setFont(new Font ("Helvetica", Font.BOLD, 14));
-            g2d.drawString("Descrizione delle finalità perseguite", x, y);
-            // Draw to the page
-            String text = cleanHtml(t.getFinalita());
-            String[] textAsArray = wrapText(g2d, text, 700);
-            g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
-            for (int i = 0; i < textAsArray.length; i++) {
-                y = println(g2d, textAsArray[i], x, y, s*2);
+        flow.heading("Descrizione delle finalità perseguite", PdfAssets.FONT_HEADING, x, s*5);
+        flow.paragraph(cleanHtml(t.getFinalita()), PdfAssets.FONT_BODY, x, TEXT_WIDTH, s*2, false);
+        flow.heading("Basi giuridiche" + BLANK_SPACE + "(" + t.getBasiGiuridiche().size() + ")", PdfAssets.FONT_HEADING, x, s*5);
+        for (ActivityBean base : t.getBasiGiuridiche()) {
+            flow.rule(PdfAssets.STROKE_DOTTED, x, RIGHT_MARGIN, s);
+            flow.paragraph(base.getNome(), PdfAssets.FONT_BODY, x, TEXT_WIDTH, s*2, false);
+            if (base.getCodice().equals("C")) {
+                flow.line("(DATI COMUNI)", PdfAssets.FONT_BODY, x, s*2);
+            } else if (base.getCodice().equals("P")) {
+                flow.line("(DATI PARTICOLARI)", PdfAssets.FONT_BODY, x, s*2);
+            } else {
+                flow.space(s*2);
             }
-            g2d.setFont(new Font ("Helvetica", Font.BOLD, 14));
-            y = println(g2d, "Basi giuridiche" + BLANK_SPACE + "(" + t.getBasiGiuridiche().size() + ")", x, y, s*5);
-            // Draw to the page
-            float[] dashingPattern1 = {1f, 1f};
-            Stroke stroke1 = new BasicStroke(1f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 1.0f, dashingPattern1, 2.0f);
-            ArrayList<ActivityBean> vB = t.getBasiGiuridiche();
-            for (int i = 0; i < vB.size(); i++) {
-                ActivityBean base = vB.get(i);
-                textAsArray = wrapText(g2d, base.getNome(), 540);
-                g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
-                y += s;
-                g2d.setStroke(stroke1);
-                g2d.drawLine(x, y, 550, y);
-                for (int j = 0; j < textAsArray.length; j++) {
-                    y += s*2;
-                    if (y < pageHeight) {
-                        g2d.drawString(textAsArray[j], x, y);
-                    } else {
-                        count = i;
-                        break;
-                    }
-                }
-                y += s*2;
-                if (base.getCodice().equals("C")) {
-                    g2d.drawString("(DATI COMUNI)", x, y);
-                } else if (base.getCodice().equals("P")) {
-                    g2d.drawString("(DATI PARTICOLARI)", x, y);
-                }
-                g2d.setFont(new Font ("Arial", Font.ITALIC, 11));
-                y = println(g2d, base.getDescrizione(), x, y, s*2);
-                if (base.getInformativa() != null && !base.getInformativa().equals(VOID_STRING)) {
-                    String[] informativa = wrapText(g2d, base.getInformativa(), 450);
-                    for (int j = 0; j < informativa.length; j++) {
-                        y = println(g2d, informativa[j], x, y, s*2);
-                    }
-                }
+            flow.paragraph(base.getDescrizione(), PdfAssets.FONT_ITALIC, x, TEXT_WIDTH, s*2, false);
+            if (base.getInformativa() != null && !base.getInformativa().equals(VOID_STRING)) {
+                flow.paragraph(base.getInformativa(), PdfAssets.FONT_ITALIC, x, 450, s*2, false);
             }
-            // Add the page to the document
-            doc.addPage(page);
-            return count;
-        } catch (AttributoNonValorizzatoException anve) {
-            String msg = FOR_NAME + "Problema nel recupero di un attributo obbligatorio del bean.\n" + anve.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, anve);
-        } catch (IOException ioe) {
-            String msg = FOR_NAME + "Probabile problema nel puntamento a una risorsa esterna.\n" + ioe.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, ioe);
-        } catch (Exception e) {
-            String msg = FOR_NAME + "Problema in un metodo per la generazione di pagina pdf.\n" + e.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, e);
         }
     }
- 
+    
     
     /**
      * Stampa un tipo di dato trattato e il relativo check.
@@ -759,496 +529,119 @@ public class DocWrapper extends DocumentGenerator {
         return check;
     }
     
-    
-    /**
-     * Genera la pagina di descrizione delle categorie di interessati e delle
-     * categorie di dati personali di un trattamento passato come parametro.
+        /**
+     * Accoda al flusso le categorie di interessati e le categorie
+     * di dati personali di un trattamento.
      * 
-     * @param pf    formato della pagina
-     * @param doc   istanza di documento PDF
+     * @param flow  flusso delle pagine del trattamento
      * @param t     oggetto contenente i dati del trattamento
-     * @return <code>int</code> - l'indice corrente delle attivit&agrave; di trattamento stampate nella prima pagina, o il numero totale di esse se la stampa non ha ecceduto l'altezza di pagina
-     * @throws CommandException se si verifica un problema nel recupero di una risorsa, di valori o in qualche altro tipo di puntamento
+     * @throws AttributoNonValorizzatoException se si verifica un problema nel recupero di un attributo obbligatorio del bean
      */
-    private static int makeKindOfDataPage(PageFormat pf, 
-                                          PDFDocument doc,
-                                          ProcessingBean t)
-                                   throws CommandException {
-        int y = 180;
+    private static void addKindOfData(PageFlow flow,
+                                      ProcessingBean t)
+                               throws AttributoNonValorizzatoException {
         int s = 8;
-        int count = NOTHING;
-        try {
-            // Create a page in the document
-            PDFPage page = doc.createPage(pf);
-            // Create Graphics2D
-            Graphics2D g2d = page.createGraphics(); 
-            // Make the heder of the page
-            makeHeaderInternalPage(g2d, t);
-            // Draw a string            
-            g2d.setColor(Color.black);
-            g2d.setFont(new Font ("Helvetica", Font.BOLD, 14));
-            g2d.drawString("Descrizione delle categorie di interessati" + BLANK_SPACE + "(" + t.getInteressati().size() + ")", x, y);
-            // Draw to the page
-            float[] dashingPattern1 = {1f, 1f};
-            Stroke stroke1 = new BasicStroke(1f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 1.0f, dashingPattern1, 2.0f);
-            ArrayList<CodeBean> vSubj = t.getInteressati();
-            for (int i = 0; i < vSubj.size(); i++) {
-                CodeBean subj = vSubj.get(i);
-                g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
-                y += s;
-                g2d.setStroke(stroke1);
-                g2d.drawLine(x, y, 550, y);
-                y = println(g2d, subj.getNome() + " (" + subj.getInformativa() + ")", x, y, s*2);
-                //g2d.setFont(new Font ("Arial", Font.ITALIC, 11));
-                //y = println("(" + subj.getInformativa() + ")", x, y, s*2, g2d);
-            }
-            // Draw a string
-            g2d.setFont(new Font ("Helvetica", Font.BOLD, 14));
-            y = println(g2d, "Descrizione delle categorie di dati personali (" + countKindOfData(t) + ")", x, y, s*5);
-            // Draw to the page
-            g2d.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
-            y = printKindOfData(g2d, t.isDatiPersonali(), stroke1, "Dati comuni", y + s);
-            y = printKindOfData(g2d, t.isDatiSanitari(), stroke1, "Dati sanitari", y + s);
-            y = printKindOfData(g2d, t.isDatiOrientamentoSex(), stroke1, "Dati relativi all\'orientamento sessuale", y + s);
-            y = printKindOfData(g2d, t.isDatiEtniaReligApp(), stroke1, "Dati relativi ad etnia, religione o appartenenza associativa", y + s);
-            y = printKindOfData(g2d, t.isDatiMinoreEta(), stroke1, "Dati relativi a soggetti minorenni", y + s);
-            y = printKindOfData(g2d, t.isDatiGenetici(), stroke1, "Dati relativi ad aspetti genetici", y + s);            
-            y = printKindOfData(g2d, t.isDatiBiometrici(), stroke1, "Dati biometrici", y + s);
-            y = printKindOfData(g2d, t.isDatiGiudiziari(), stroke1, "Dati giudiziari", y + s);
-            y = printKindOfData(g2d, t.isDatiUbicazione(), stroke1, "Dati relativi all\'ubicazione dei soggetti", y + s);
-            y = printKindOfData(g2d, t.isDatiPseudonimizzati(), stroke1, "Dati pseudonimizzati", y + s);
-            y = printKindOfData(g2d, t.isDatiAnonimizzati(), stroke1, "Dati anonimizzati", y + s);
-            // Add the page to the document
-            doc.addPage(page);
-            return count;
-        } catch (AttributoNonValorizzatoException anve) {
-            String msg = FOR_NAME + "Problema nel recupero di un attributo obbligatorio del bean.\n" + anve.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, anve);
-        } catch (IOException ioe) {
-            String msg = FOR_NAME + "Probabile problema nel puntamento a una risorsa esterna.\n" + ioe.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, ioe);
-        } catch (Exception e) {
-            String msg = FOR_NAME + "Problema in un metodo per la generazione di pagina pdf.\n" + e.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, e);
+        flow.heading("Descrizione delle categorie di interessati" + BLANK_SPACE + "(" + t.getInteressati().size() + ")", PdfAssets.FONT_HEADING, x, s*5);
+        for (CodeBean subj : t.getInteressati()) {
+            flow.rule(PdfAssets.STROKE_DOTTED, x, RIGHT_MARGIN, s);
+            flow.paragraph(subj.getNome() + " (" + subj.getInformativa() + ")", PdfAssets.FONT_BODY, x, TEXT_WIDTH, s*2, false);
         }
+        flow.heading("Descrizione delle categorie di dati personali (" + countKindOfData(t) + ")", PdfAssets.FONT_HEADING, x, s*5);
+        addKindOfData(flow, t.isDatiPersonali(), "Dati comuni");
+        addKindOfData(flow, t.isDatiSanitari(), "Dati sanitari");
+        addKindOfData(flow, t.isDatiOrientamentoSex(), "Dati relativi all\'orientamento sessuale");
+        addKindOfData(flow, t.isDatiEtniaReligApp(), "Dati relativi ad etnia, religione o appartenenza associativa");
+        addKindOfData(flow, t.isDatiMinoreEta(), "Dati relativi a soggetti minorenni");
+        addKindOfData(flow, t.isDatiGenetici(), "Dati relativi ad aspetti genetici");
+        addKindOfData(flow, t.isDatiBiometrici(), "Dati biometrici");
+        addKindOfData(flow, t.isDatiGiudiziari(), "Dati giudiziari");
+        addKindOfData(flow, t.isDatiUbicazione(), "Dati relativi all\'ubicazione dei soggetti");
+        addKindOfData(flow, t.isDatiPseudonimizzati(), "Dati pseudonimizzati");
+        addKindOfData(flow, t.isDatiAnonimizzati(), "Dati anonimizzati");
     }
- 
+    
     
     /**
-     * Genera la pagina di descrizione delle categorie di destinatari 
-     * e dei termini ultimi per la cancellazione.
+     * Accoda al flusso un tipo di dato trattato e il relativo check,
+     * come {@link #printKindOfData(Graphics2D, boolean, Stroke, String, int)}.
      * 
-     * @param pf    formato della pagina
-     * @param doc   istanza di documento PDF
-     * @param t     oggetto contenente i dati del trattamento
-     * @return <code>int</code> - il valore raggiunto nella coordinata verticale (y)
-     * @throws CommandException se si verifica un problema nel recupero di una risorsa, di valori o in qualche altro tipo di puntamento
+     * @param flow  flusso delle pagine del trattamento
+     * @param flag  valore boolean specificante se il tipo di dato viene trattato
+     * @param label etichetta specificante il tipo di dato trattato
      */
-    private static boolean makeExpireTimePage(PageFormat pf, 
-                                              PDFDocument doc,
-                                              ProcessingBean t)
-                                       throws CommandException {
-        int y = 180;
+    private static void addKindOfData(PageFlow flow,
+                                      boolean flag,
+                                      String label) {
         int s = 8;
-        boolean alreadyPrinted = false;
-        try {
-            // Create a page in the document
-            PDFPage page = doc.createPage(pf);
-            // Create Graphics2D
-            Graphics2D g2d = page.createGraphics(); 
-            // Make the heder of the page
-            makeHeaderInternalPage(g2d, t);
-            // Draw a string            
-            g2d.setColor(Color.black);
-            g2d.setFont(new Font ("Helvetica", Font.BOLD, 14));
-            g2d.drawString("Categorie di destinatari a cui i dati vengono comunicati:", x, y);
-            String text = cleanHtml(t.getExtraInfos().getExtraInfo3());
-            String[] destAsArray = text.split(String.valueOf(HYPHEN));
-            g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
-            float[] dashingPattern1 = {1f, 1f};
-            Stroke stroke1 = new BasicStroke(1f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 1.0f, dashingPattern1, 2.0f);
-            for (int i = 0; i < destAsArray.length; i++) {
-                if (!destAsArray[i].equals(VOID_STRING)) {
-                    y += s;
-                    g2d.setStroke(stroke1);
-                    g2d.drawLine(x, y, 550, y);
-                    if (destAsArray[i].length() > 70) {
-                        String[] splittedRow = wrapText(g2d, destAsArray[i], 450);
-                        y = println(g2d, "►" + splittedRow[0], x, y, s*2);
-                        for (int j = 1; j < splittedRow.length; j++) {
-                            y = println(g2d, splittedRow[j], x, y, s*2);
-                        }
-                    } else {
-                        y = println(g2d, "►" + destAsArray[i], x, y, s*2);
-                    }
-                }
-            }
-            // Draw a string
-            if (y < TEXT_LIMIT) {
-                alreadyPrinted = true;
-                g2d.setFont(new Font ("Helvetica", Font.BOLD, 14));
-                y = println(g2d, "Termini ultimi previsti per la cancellazione:", x, y, s*5);
-                String[] textAsArray = wrapText(g2d, cleanHtml(t.getTerminiUltimi()), 710);
-                g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
-                for (int i = 0; i < textAsArray.length; i++) {
-                    y = println(g2d, textAsArray[i], x, y, s*2);
-                }
-            }
-            // Add the page to the document
-            doc.addPage(page);
-            return alreadyPrinted;
-        } catch (AttributoNonValorizzatoException anve) {
-            String msg = FOR_NAME + "Problema nel recupero di un attributo obbligatorio del bean.\n" + anve.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, anve);
-        } catch (IOException ioe) {
-            String msg = FOR_NAME + "Probabile problema nel puntamento a una risorsa esterna.\n" + ioe.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, ioe);
-        } catch (Exception e) {
-            String msg = FOR_NAME + "Problema in un metodo per la generazione di pagina pdf.\n" + e.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, e);
-        }
+        flow.rule(PdfAssets.STROKE_DOTTED, x, RIGHT_MARGIN, s*2);
+        flow.line(label, PdfAssets.FONT_CHECK, x, s*2);
+        flow.line(flag ? "[X]" : "[ ]", PdfAssets.FONT_CHECK, 524, NOTHING);
     }
     
     
     /**
-     * Genera la pagina di descrizione delle categorie di destinatari 
-     * e dei termini ultimi per la cancellazione.
+     * Accoda al flusso le categorie di destinatari e i termini ultimi
+     * per la cancellazione di un trattamento.
      * 
-     * @param pf    formato della pagina
-     * @param doc   istanza di documento PDF
+     * @param flow  flusso delle pagine del trattamento
      * @param t     oggetto contenente i dati del trattamento
-     * @return <code>int</code> - il valore raggiunto nella coordinata verticale (y)
-     * @throws CommandException se si verifica un problema nel recupero di una risorsa, di valori o in qualche altro tipo di puntamento
      */
-    private static int makeExpireTimeAsPage(PageFormat pf, 
-                                            PDFDocument doc,
-                                            ProcessingBean t)
-                                     throws CommandException {
-        int y = 180;
+    private static void addExpireTime(PageFlow flow,
+                                      ProcessingBean t) {
         int s = 8;
-        try {
-            // Create a page in the document
-            PDFPage page = doc.createPage(pf);
-            // Create Graphics2D
-            Graphics2D g2d = page.createGraphics(); 
-            // Make the heder of the page
-            makeHeaderInternalPage(g2d, t);
-            // Draw a string            
-            g2d.setColor(Color.black);
-            g2d.setFont(new Font ("Helvetica", Font.BOLD, 14));
-            y = println(g2d, "Termini ultimi previsti per la cancellazione:", x, y, s);
-            String[] textAsArray = wrapText(g2d, cleanHtml(t.getTerminiUltimi()), 710);
-            g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
-            for (int i = 0; i < textAsArray.length; i++) {
-                y = println(g2d, textAsArray[i], x, y, s*2);
+        flow.heading("Categorie di destinatari a cui i dati vengono comunicati:", PdfAssets.FONT_HEADING, x, s*5);
+        String[] destAsArray = cleanHtml(t.getExtraInfos().getExtraInfo3()).split(String.valueOf(HYPHEN));
+        for (String dest : destAsArray) {
+            if (!dest.equals(VOID_STRING)) {
+                flow.rule(PdfAssets.STROKE_DOTTED, x, RIGHT_MARGIN, s);
+                flow.paragraph("►" + dest, PdfAssets.FONT_BODY, x, 450, s*2, false);
             }
-            // Add the page to the document
-            doc.addPage(page);
-            return y;
-        } catch (AttributoNonValorizzatoException anve) {
-            String msg = FOR_NAME + "Problema nel recupero di un attributo obbligatorio del bean.\n" + anve.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, anve);
-        } catch (IOException ioe) {
-            String msg = FOR_NAME + "Probabile problema nel puntamento a una risorsa esterna.\n" + ioe.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, ioe);
-        } catch (Exception e) {
-            String msg = FOR_NAME + "Problema in un metodo per la generazione di pagina pdf.\n" + e.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, e);
         }
+        flow.heading("Termini ultimi previsti per la cancellazione:", PdfAssets.FONT_HEADING, x, s*5);
+        flow.paragraph(cleanHtml(t.getTerminiUltimi()), PdfAssets.FONT_BODY, x, TEXT_WIDTH, s*2, false);
     }
-
     
-    /**
-     * Genera la pagina di descrizione delle misure di sicurezza tecniche ed organizzative.
-     * 
-     * @param pf        formato della pagina
-     * @param doc       istanza di documento PDF
-     * @param t         oggetto contenente i dati del trattamento
-     * @param content   testo da mandare in stampa nella pagina [facoltativo]
-     * @return <code>String</code> - testo avanzato, se la pagina non e' stata sufficiente a contenerlo
-     * @throws CommandException se si verifica un problema nel recupero di una risorsa, di valori o in qualche altro tipo di puntamento
-     */
-    private static String makeSecMeasurePage(PageFormat pf, 
-                                             PDFDocument doc,
-                                             ProcessingBean t, 
-                                             String content)
-                                      throws CommandException {
-        int y = 180;
-        int s = 8;
-        int boundary = 2000;
-        String leftOver = null;
-        try {
-            // Create a page in the document
-            PDFPage page = doc.createPage(pf);
-            // Create Graphics2D
-            Graphics2D g2d = page.createGraphics(); 
-            // Make the heder of the page
-            makeHeaderInternalPage(g2d, t);
-            // Set colour
-            g2d.setColor(Color.black);
-            // Se non riceve testo, deve stampare anche il titolo
-            if (content == null) {
-                g2d.setFont(new Font ("Helvetica", Font.BOLD, 14));
-                g2d.drawString("Descrizione generale delle misure di sicurezza tecniche ed organizzative:", x, y);
-                String text = cleanHtml(t.getExtraInfos().getExtraInfo1());
-                g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
-                leftOver = print(g2d, text, x, y, s*2, 460, boundary);
-                //JLabel label = new JLabel();
-                //JTextArea htmlTextArea = new JTextArea(10, 20);
-                //htmlTextArea.setText("<html><u>some text</u></html>");
-                //label.setText(htmlTextArea.getText());
-                //g2d.translate(x, y);
-                //label.setText("<html><u>some text</u></html>");
-                    //the fontMetrics stringWidth and height can be replaced by
-                    //getLabel().getPreferredSize() if needed
-                    //label.paint(g2d);
-                    //Graphics g = label.getGraphics();
-                    //g.drawString("<html><u>some text</u></html>", x, y);
-                    //g2d.translate(-x, -y);
-            } else {
-            // Altrimenti, se invece riceve testo, deve stampare solo quello
-                g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
-                print(g2d, content, x, y, s*2, 460, boundary);
-            }
-            // Add the page to the document
-            doc.addPage(page);
-            return leftOver;
-        } catch (AttributoNonValorizzatoException anve) {
-            String msg = FOR_NAME + "Problema nel recupero di un attributo obbligatorio del bean.\n" + anve.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, anve);
-        } catch (IOException ioe) {
-            String msg = FOR_NAME + "Probabile problema nel puntamento a una risorsa esterna.\n" + ioe.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, ioe);
-        } catch (Exception e) {
-            String msg = FOR_NAME + "Problema in un metodo per la generazione di pagina pdf.\n" + e.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, e);
-        }
-    }
-    
-    
-    /*
-     * Genera la pagina di descrizione del trattamento (p.es. i dettagli
-     * dell'accordo di contitolarit&agrave;).
-     * 
-     * @param pf    formato della pagina
-     * @param doc   istanza di documento PDF
-     * @param t     oggetto contenente i dati del trattamento
-     * @throws CommandException se si verifica un problema nel recupero di una risorsa, di valori o in qualche altro tipo di puntamento
-     *
-    private static String makeProcessingDescription(PageFormat pf, 
-                                                    PDFDocument doc,
-                                                    ProcessingBean t, 
-                                                    String content)
-                                                            throws CommandException {
-        int y = 180;
-        int s = 8;
-        int boundary = 2000;
-        String leftOver = null;
-        try {
-            // Create a page in the document
-            PDFPage page = doc.createPage(pf);
-            // Create Graphics2D
-            Graphics2D g2d = page.createGraphics(); 
-            // Make the heder of the page
-            makeHeaderInternalPage(g2d, t);
-            // Set colour
-            g2d.setColor(Color.black);
-            // Se non riceve testo, deve stampare anche il titolo
-            if (content == null) {
-                g2d.setFont(new Font ("Helvetica", Font.BOLD, 14));
-                g2d.drawString("Descrizione generale delle misure di sicurezza tecniche ed organizzative:", x, y);
-                String text = cleanHtml(t.getExtraInfos().getExtraInfo1());
-                g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
-                leftOver = print(g2d, text, x, y, s*2, 460, boundary);
-                //JLabel label = new JLabel();
-                //JTextArea htmlTextArea = new JTextArea(10, 20);
-                //htmlTextArea.setText("<html><u>some text</u></html>");
-                //label.setText(htmlTextArea.getText());
-                //g2d.translate(x, y);
-                //label.setText("<html><u>some text</u></html>");
-                    //the fontMetrics stringWidth and height can be replaced by
-                    //getLabel().getPreferredSize() if needed
-                    //label.paint(g2d);
-                    //Graphics g = label.getGraphics();
-                    //g.drawString("<html><u>some text</u></html>", x, y);
-                    //g2d.translate(-x, -y);
-            } else {
-            // Altrimenti, se invece riceve testo, deve stampare solo quello
-                g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
-                print(g2d, content, x, y, s*2, 460, boundary);
-            }
-            // Add the page to the document
-            doc.addPage(page);
-            return leftOver;
-        } catch (AttributoNonValorizzatoException anve) {
-            String msg = FOR_NAME + "Problema nel recupero di un attributo obbligatorio del bean.\n" + anve.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, anve);
-        } catch (IOException ioe) {
-            String msg = FOR_NAME + "Probabile problema nel puntamento a una risorsa esterna.\n" + ioe.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, ioe);
-        } catch (Exception e) {
-            String msg = FOR_NAME + "Problema in un metodo per la generazione di pagina pdf.\n" + e.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, e);
-        }
-    }*/
-
     
     /**
-     * Genera la pagina dei luoghi di custodia e dei supporti di memorizzazione.
+     * Accoda al flusso la descrizione delle misure di sicurezza
+     * tecniche ed organizzative di un trattamento.
      * 
-     * @param pf    formato della pagina
-     * @param doc   istanza di documento PDF
+     * @param flow  flusso delle pagine del trattamento
      * @param t     oggetto contenente i dati del trattamento
-     * @param count numero di database di trattamento stampati nella pagina, oppure zero se la stampa non ha ecceduto l'altezza di pagina
-     * @return <code>int[]</code> - array contenente sia l'indice corrente dei database di trattamento stampate nella pagina, sia la coordinata verticale
-     * @throws CommandException se si verifica un problema nel recupero di una risorsa, di valori o in qualche altro tipo di puntamento
      */
-    private static int[] makeDBLocationPage(PageFormat pf, 
-                                            PDFDocument doc,
-                                            ProcessingBean t,
-                                            int count)
-                                     throws CommandException {
-        int y = 180;
+    private static void addSecMeasure(PageFlow flow,
+                                      ProcessingBean t) {
         int s = 8;
-        int pageHeight = 720;
-        int dbIndex = NOTHING;
-        try {
-            // Create a page in the document
-            PDFPage page = doc.createPage(pf);
-            // Create Graphics2D
-            Graphics2D g2d = page.createGraphics(); 
-            // Make the heder of the page
-            makeHeaderInternalPage(g2d, t);
-            // Draw a string
-            g2d.setColor(Color.black);
-            if (count == NOTHING) {
-                g2d.setFont(new Font ("Helvetica", Font.BOLD, 14));
-                g2d.drawString("Luoghi di custodia dei supporti di memorizzazione:", x, y);
-                // Draw to the page
-                String text = cleanHtml(t.getExtraInfos().getExtraInfo2());
-                String[] textAsArray = wrapText(g2d, text, 700);
-                //String[] textAsArray = wrapText(g2d, t.getExtraInfos().getExtraInfo2(), 740);
-                g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
-                for (int i = 0; i < textAsArray.length; i++) {
-                    y = println(g2d, textAsArray[i], x, y, s*2);
-                }
-                g2d.setFont(new Font ("Helvetica", Font.BOLD, 14));
-                y = println(g2d, "Database" + BLANK_SPACE + "(" + t.getBancheDati().size() + ")", x, y, s*5);
-            }
-            // Draw to the page
-            float[] dashingPattern1 = {1f, 1f};
-            Stroke stroke1 = new BasicStroke(1f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 1.0f, dashingPattern1, 2.0f);
-            ArrayList<ProcessBean> vDB = t.getBancheDati();
-            for (int i = count; i < vDB.size(); i++) {
-                ProcessBean db = vDB.get(i);
-                g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
-                y += s;
-                g2d.setStroke(stroke1);
-                g2d.drawLine(x, y, 550, y);
-                y += s*2;
-                if (y < pageHeight) {
-                    g2d.drawString(db.getNome() + " (" + db.getTipo() + ")", x, y);
-                } else {
-                    dbIndex = i;
-                    break;
-                }
-            }
-            // Prepara info di ritorno
-            int[] data = {dbIndex, y};
-            // Extra info
-            if (y < 600) {
-                g2d.setFont(new Font ("Helvetica", Font.BOLD, 14));
-                y = println(g2d, "Ulteriori informazioni:", x, y, s*5);
-                String text = cleanHtml(t.getExtraInfo());
-                String[] textAsArray = wrapText(g2d, text, 600);
-                g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
-                for (int i = 0; i < textAsArray.length; i++) {
-                    y = println(g2d, textAsArray[i], x, y, s*2);
-                }
-            }
-            // Add the page to the document
-            doc.addPage(page);
-            return data;
-        } catch (AttributoNonValorizzatoException anve) {
-            String msg = FOR_NAME + "Problema nel recupero di un attributo obbligatorio del bean.\n" + anve.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, anve);
-        } catch (IOException ioe) {
-            String msg = FOR_NAME + "Probabile problema nel puntamento a una risorsa esterna.\n" + ioe.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, ioe);
-        } catch (Exception e) {
-            String msg = FOR_NAME + "Problema in un metodo per la generazione di pagina pdf.\n" + e.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, e);
-        }
+        flow.heading("Descrizione generale delle misure di sicurezza tecniche ed organizzative:", PdfAssets.FONT_HEADING, x, s*5);
+        flow.paragraph(cleanHtml(t.getExtraInfos().getExtraInfo1()), PdfAssets.FONT_BODY, x, 460, s*2, true);
     }
- 
+    
     
     /**
-     * Genera la pagina di descrizione di uleriori informazioni.
+     * Accoda al flusso i luoghi di custodia dei supporti di memorizzazione,
+     * le banche dati e le ulteriori informazioni di un trattamento.
      * 
-     * @param pf    formato della pagina
-     * @param doc   istanza di documento PDF
+     * @param flow  flusso delle pagine del trattamento
      * @param t     oggetto contenente i dati del trattamento
-     * @throws CommandException se si verifica un problema nel recupero di una risorsa, di valori o in qualche altro tipo di puntamento
+     * @throws AttributoNonValorizzatoException se si verifica un problema nel recupero di un attributo obbligatorio del bean
      */
-    private static void makeExtraInfosPage(PageFormat pf, 
-                                           PDFDocument doc,
-                                           ProcessingBean t)
-                                    throws CommandException {
-        int y = 180;
+    private static void addDBLocation(PageFlow flow,
+                                      ProcessingBean t)
+                               throws AttributoNonValorizzatoException {
         int s = 8;
-        try {
-            // Create a page in the document
-            PDFPage page = doc.createPage(pf);
-            // Create Graphics2D
-            Graphics2D g2d = page.createGraphics(); 
-            // Make the heder of the page
-            makeHeaderInternalPage(g2d, t);
-            // Draw a string            
-            g2d.setColor(Color.black);
-            g2d.setFont(new Font ("Helvetica", Font.BOLD, 14));
-            g2d.drawString("Ulteriori informazioni:", x, y);
-            String text = cleanHtml(t.getExtraInfo());
-            String[] textAsArray = wrapText(g2d, text, 600);
-            g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
-            for (int i = 0; i < textAsArray.length; i++) {
-                y = println(g2d, textAsArray[i], x, y, s*2);
-            }
-            // Add the page to the document
-            doc.addPage(page);
-        } catch (AttributoNonValorizzatoException anve) {
-            String msg = FOR_NAME + "Problema nel recupero di un attributo obbligatorio del bean.\n" + anve.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, anve);
-        } catch (IOException ioe) {
-            String msg = FOR_NAME + "Probabile problema nel puntamento a una risorsa esterna.\n" + ioe.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, ioe);
-        } catch (Exception e) {
-            String msg = FOR_NAME + "Problema in un metodo per la generazione di pagina pdf.\n" + e.getMessage();
-            log.severe(msg);
-            throw new CommandException(msg, e);
+        flow.heading("Luoghi di custodia dei supporti di memorizzazione:", PdfAssets.FONT_HEADING, x, s*5);
+        flow.paragraph(cleanHtml(t.getExtraInfos().getExtraInfo2()), PdfAssets.FONT_BODY, x, TEXT_WIDTH, s*2, false);
+        flow.heading("Database" + BLANK_SPACE + "(" + t.getBancheDati().size() + ")", PdfAssets.FONT_HEADING, x, s*5);
+        for (ProcessBean db : t.getBancheDati()) {
+            flow.rule(PdfAssets.STROKE_DOTTED, x, RIGHT_MARGIN, s);
+            flow.paragraph(db.getNome() + " (" + db.getTipo() + ")", PdfAssets.FONT_BODY, x, TEXT_WIDTH, s*2, false);
         }
+        flow.heading("Ulteriori informazioni:", PdfAssets.FONT_HEADING, x, s*5);
+        flow.paragraph(cleanHtml(t.getExtraInfo()), PdfAssets.FONT_BODY, x, TEXT_WIDTH, s*2, false);
     }
     
     
+
     /**
      * Produce l'ultima pagina del documento pdf passato come parametro, 
      * formattata sulla base del PageFormat passato come parametro,
@@ -1271,9 +664,9 @@ public class DocWrapper extends DocumentGenerator {
         printLogo(g2d);
         // Make a rectangle 
         g2d.drawRoundRect(x, y, 450, 155, 2, 2);
-        g2d.setFont(new Font ("Arial", Font.BOLD, 11));
+        g2d.setFont(PdfAssets.FONT_BOLD);
         y = println(g2d, "Il Rettore", getCoordinate(x, i*10), y, i);
-        g2d.setFont(new Font ("Arial", Font.PLAIN, 11));
+        g2d.setFont(PdfAssets.FONT_BODY);
         g2d.drawString("___________________________________________", getCoordinate(x, i*5), getCoordinate(y, i*3));
         y = println(g2d, "Prof. Pier Francesco Nocini", getCoordinate(x, i*8), y, i*5);
         doc.addPage(page);
@@ -1345,55 +738,509 @@ public class DocWrapper extends DocumentGenerator {
     
     
     /**
-     * Gestisce un sottoinsieme del flusso principale
+     * Genera il registro completo dei trattamenti passati come parametro
+     * e lo scrive nel file indicato.
+     * Le pagine di ciascun trattamento vengono generate in un documento
+     * a s&eacute; stante (frammento), salvato nell'area di appoggio non appena
+     * &egrave; completo, cos&igrave; che le strutture di disegno del trattamento
+     * vengano rilasciate subito; lo stesso vale per il frontespizio e per
+     * le pagine introduttive e conclusive. Il registro viene poi scritto
+     * da un {@link PdfConcatenator}, che copia nel file le pagine di un
+     * frammento alla volta, dopodich&eacute; il frammento viene eliminato:
+     * n&eacute; le pagine gi&agrave; scritte n&eacute; i frammenti gi&agrave;
+     * copiati restano in memoria o su disco, per cui l'occupazione
+     * non cresce con il numero dei trattamenti.
+     * I frammenti sono indipendenti tra loro e vengono generati in parallelo
+     * (fino a {@link ConfigManager#getPdfParallelism()} contemporaneamente)
+     * su un pool fork-join, ma sono comunque accodati nell'ordine originale,
+     * con le pagine intermedie al loro posto. Il registro scritto dipende
+     * soltanto dal contenuto dei frammenti e dal loro ordine (v.
+     * {@link PdfConcatenator}), mai dall'ordine di completamento dei thread:
+     * la generazione parallela produce quindi lo stesso file, byte per byte,
+     * di quella sequenziale. Se &egrave; attiva la verifica
+     * ({@link ConfigManager#isPdfVerifyParallel()}) il registro viene generato
+     * una seconda volta in sequenza, senza cache, e confrontato con il primo;
+     * in caso di differenze l'anomalia viene segnalata nel log e viene
+     * restituito il registro generato in sequenza.
+     * I frammenti gi&agrave; presenti nella {@link PdfFragmentCache} vengono
+     * recuperati senza essere rigenerati: vengono quindi disegnati soltanto
+     * i trattamenti nuovi o modificati dall'ultima stampa.
      * 
-     * @param pf    formato della pagina
-     * @param doc   istanza di documento PDF
-     * @param t     trattamento da stampare
+     * @param pf        formato della pagina
+     * @param list      lista di tutti i trattamenti da stampare
+     * @param spool     area di appoggio dei frammenti
+     * @param idSurvey  identificativo della rilevazione cui appartengono i trattamenti
+     * @param addresses indirizzi dei frammenti dei trattamenti gi&agrave; calcolati dal chiamante (v. {@link PdfFragmentCache#addresses(int, java.util.List)}), oppure null per calcolarli qui
+     * @param target    file in cui scrivere il registro
+     * @throws AttributoNonValorizzatoException se un attributo obbligatorio di un trattamento non viene trovato dotato di valore significativo
      * @throws CommandException se si verifica un problema nel recupero di una risorsa, di valori o in qualche altro tipo di puntamento
      */
-    private static void printPages(PageFormat pf,
-                                   PDFDocument doc,
-                                   ProcessingBean t) 
-                            throws CommandException {
-        int count = makeProcessingPage(pf, doc, t);
-        if (count > NOTHING) {
-            count = makeActivitiesPage(pf, doc, t, count);
-            if (count > NOTHING) {
-                makeActivitiesPage(pf, doc, t, count);
+    public static void makeRegister(PageFormat pf,
+                                    ArrayList<ProcessingBean> list,
+                                    PdfSpool spool,
+                                    int idSurvey,
+                                    Map<ProcessingBean, String> addresses,
+                                    File target) 
+                             throws AttributoNonValorizzatoException, 
+                                    CommandException {
+        try {
+            // Un solo trattamento: frontespizio e trattamento, senza frammenti
+            if (list.size() <= ELEMENT_LEV_1) {
+                PDFDocument doc = getPDFDocument();
+                makeFrontPage(pf, doc);
+                makePages(pf, doc, list);
+                doc.saveDocument(target.getPath());
+                return;
+            }
+            assemble(pf, list, spool, idSurvey, addresses, target, false);
+            if (ConfigManager.isPdfVerifyParallel() && ConfigManager.getPdfParallelism() > ELEMENT_LEV_1) {
+                verify(pf, list, spool, idSurvey, target);
             }
+        } catch (AttributoNonValorizzatoException anve) {
+            String msg = FOR_NAME + "Problema nel recupero del codice del trattamento nel metodo per la generazione della pagina pdf.\n" + anve.getMessage();
+            log.severe(msg);
+            throw anve;
+        } catch (CommandException ce) {
+            String msg = FOR_NAME + "Problema nella generazione delle pagine pdf.\n" + ce.getMessage();
+            log.severe(msg);
+            throw ce;
+        } catch (IOException ioe) {
+            String msg = FOR_NAME + "Probabile problema nel puntamento a una risorsa esterna o nella scrittura di un frammento.\n" + ioe.getMessage();
+            log.severe(msg);
+            throw new CommandException(msg, ioe);
+        } catch (Exception e) {
+            String msg = FOR_NAME + "Problema nel metodo per la generazione della pagina pdf.\n" + e.getMessage();
+            log.severe(msg);
+            throw new CommandException(msg, e);
         }
-        makeLegalBasisPage(pf, doc, t);
-        makeKindOfDataPage(pf, doc, t);
-        boolean printed = makeExpireTimePage(pf, doc, t);
-        if (!printed) {
-            makeExpireTimeAsPage(pf, doc, t);
+    }
+    
+    
+    /**
+     * Genera i frammenti del registro e li accoda, nell'ordine di stampa,
+     * nel file indicato, eliminando ciascun frammento appena copiato.
+     * 
+     * @param pf        formato della pagina
+     * @param list      lista di tutti i trattamenti da stampare
+     * @param spool     area di appoggio dei frammenti
+     * @param idSurvey  identificativo della rilevazione
+     * @param addresses indirizzi dei frammenti gi&agrave; calcolati, oppure null
+     * @param target    file in cui scrivere il registro
+     * @param control   true per una generazione di controllo: in sequenza, senza cache e senza contare nell'avanzamento
+     * @throws AttributoNonValorizzatoException se il codice di un trattamento non &egrave; valorizzato
+     * @throws CommandException se si verifica un problema nella generazione delle pagine
+     * @throws IOException se si verifica un problema nella scrittura di un frammento o del registro
+     */
+    private static void assemble(PageFormat pf,
+                                 ArrayList<ProcessingBean> list,
+                                 PdfSpool spool,
+                                 int idSurvey,
+                                 Map<ProcessingBean, String> addresses,
+                                 File target,
+                                 boolean control)
+                          throws AttributoNonValorizzatoException,
+                                 CommandException,
+                                 IOException {
+        ArrayList<ProcessingBean> vT = split(list, TITOLARE);
+        ArrayList<ProcessingBean> vR = split(list, RESPONSABILE);
+        // Trattamenti nell'ordine di stampa (prima da titolare, poi da responsabile)
+        ArrayList<ProcessingBean> ordered = new ArrayList<>(vT.size() + vR.size());
+        ordered.addAll(vT);
+        ordered.addAll(vR);
+        // 0. Frontespizio, 1. Ambito di applicazione, 2. Dati di Contatto e pagina introduttiva dei trattamenti da titolare
+        PDFDocument head = getPDFDocument();
+        makeFrontPage(pf, head);
+        makeFirstPage(pf, head);
+        makeSecondPage(pf, head);
+        makeIntermediatePage(pf, head, "3. Elenco dei trattamenti come Titolare", "Titolare");
+        File headFile = save(head, spool, "intestazione");
+        // Pagina introduttiva dei trattamenti da responsabile
+        PDFDocument middle = getPDFDocument();
+        makeIntermediatePage(pf, middle, "4. Elenco dei trattamenti come Responsabile", "Responsabile");
+        File middleFile = save(middle, spool, "responsabile");
+        // Firmato
+        PDFDocument tail = getPDFDocument();
+        makeLastPage(pf, tail);
+        File tailFile = save(tail, spool, "firma");
+        // Genera i frammenti dei trattamenti (in parallelo, se consentito)
+        File[] fragments = makeFragments(pf, ordered, spool, idSurvey, addresses, control);
+        // Scrive il registro, un frammento alla volta
+        try (PdfConcatenator register = new PdfConcatenator(new FileOutputStream(target))) {
+            append(register, spool, headFile);
+            for (int i = 0; i < vT.size(); i++) {
+                append(register, spool, fragments[i]);
+            }
+            append(register, spool, middleFile);
+            for (int i = vT.size(); i < fragments.length; i++) {
+                append(register, spool, fragments[i]);
+            }
+            append(register, spool, tailFile);
         }
-        String left = makeSecMeasurePage(pf, doc, t, null);
-        if (left != null) {
-            makeSecMeasurePage(pf, doc, t, left);
+    }
+    
+    
+    /**
+     * Genera di nuovo il registro in sequenza, senza cache, e lo confronta
+     * byte per byte con quello gi&agrave; scritto nel file indicato;
+     * se i due differiscono segnala l'anomalia e sostituisce il contenuto
+     * del file con il registro generato in sequenza.
+     * 
+     * @param pf        formato della pagina
+     * @param list      lista di tutti i trattamenti da stampare
+     * @param spool     area di appoggio dei frammenti
+     * @param idSurvey  identificativo della rilevazione
+     * @param target    file che contiene il registro generato in parallelo
+     * @throws AttributoNonValorizzatoException se il codice di un trattamento non &egrave; valorizzato
+     * @throws CommandException se si verifica un problema nella generazione delle pagine
+     * @throws IOException se si verifica un problema nella scrittura o nella lettura dei registri
+     */
+    private static void verify(PageFormat pf,
+                               ArrayList<ProcessingBean> list,
+                               PdfSpool spool,
+                               int idSurvey,
+                               File target)
+                        throws AttributoNonValorizzatoException,
+                               CommandException,
+                               IOException {
+        File sequential = spool.newFile("verifica");
+        try {
+            assemble(pf, list, spool, idSurvey, null, sequential, true);
+            if (sameContent(target, sequential)) {
+                log.info(FOR_NAME + "Registro della rilevazione " + idSurvey + ": la generazione parallela coincide con quella sequenziale (" + target.length() + " byte).\n");
+                return;
+            }
+            log.severe(FOR_NAME + "Registro della rilevazione " + idSurvey + ": la generazione parallela (" + target.length() + " byte) differisce da quella sequenziale (" + sequential.length() + " byte); viene restituito il registro generato in sequenza.\n");
+            Files.copy(sequential.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            spool.release(sequential);
         }
-        int countArray[] = makeDBLocationPage(pf, doc, t, NOTHING);
-        count = countArray[NOTHING];
-        if (count > NOTHING) {
-            countArray = makeDBLocationPage(pf, doc, t, count);
-            count = countArray[NOTHING];
-            if (count > NOTHING) {
-                makeDBLocationPage(pf, doc, t, count);
+    }
+    
+    
+    /**
+     * Confronta byte per byte il contenuto di due file.
+     * 
+     * @param a primo file
+     * @param b secondo file
+     * @return <code>boolean</code> - true se i due file hanno lo stesso contenuto
+     * @throws IOException se non &egrave; possibile leggere uno dei file
+     */
+    private static boolean sameContent(File a,
+                                       File b)
+                                throws IOException {
+        if (a.length() != b.length()) {
+            return false;
+        }
+        try (InputStream inA = new BufferedInputStream(new FileInputStream(a));
+             InputStream inB = new BufferedInputStream(new FileInputStream(b))) {
+            int c;
+            do {
+                c = inA.read();
+                if (c != inB.read()) {
+                    return false;
+                }
+            } while (c != -1);
+        }
+        return true;
+    }
+    
+    
+    /**
+     * Salva un documento come nuovo frammento dell'area di appoggio.
+     * 
+     * @param doc   documento da salvare
+     * @param spool area di appoggio dei frammenti
+     * @param label etichetta del frammento
+     * @return <code>File</code> - il frammento salvato
+     * @throws IOException se si verifica un problema nella scrittura del frammento
+     */
+    private static File save(PDFDocument doc,
+                             PdfSpool spool,
+                             String label)
+                      throws IOException {
+        File fragment = spool.newFile(label);
+        doc.saveDocument(fragment.getPath());
+        return fragment;
+    }
+    
+    
+    /**
+     * Accoda al registro le pagine di un frammento e lo elimina.
+     * 
+     * @param register  registro in scrittura
+     * @param spool     area di appoggio dei frammenti
+     * @param fragment  frammento da accodare
+     * @throws IOException se si verifica un problema nella lettura del frammento o nella scrittura del registro
+     */
+    private static void append(PdfConcatenator register,
+                               PdfSpool spool,
+                               File fragment)
+                        throws IOException {
+        // Non scrive altro se chi attende il documento ha rinunciato
+        spool.checkCancelled();
+        register.append(fragment);
+        spool.release(fragment);
+    }
+    
+    
+    /**
+     * Genera i frammenti dei trattamenti passati come parametro,
+     * uno per trattamento e nello stesso ordine, e ne restituisce i file.
+     * Se il parallelismo configurato &egrave; maggiore di uno i frammenti
+     * vengono generati contemporaneamente sul pool fork-join di questa classe,
+     * altrimenti (o in una generazione di controllo) uno dopo l'altro
+     * sul thread chiamante.
+     * 
+     * @param pf        formato della pagina
+     * @param ordered   trattamenti da stampare, nell'ordine di stampa
+     * @param spool     area di appoggio dei frammenti
+     * @param idSurvey  identificativo della rilevazione
+     * @param addresses indirizzi dei frammenti gi&agrave; calcolati, oppure null
+     * @param control   true per una generazione di controllo: in sequenza, senza cache e senza contare nell'avanzamento
+     * @return <code>File[]</code> - i frammenti, nello stesso ordine dei trattamenti
+     * @throws AttributoNonValorizzatoException se il codice di un trattamento non &egrave; valorizzato
+     * @throws CommandException se si verifica un problema nella generazione delle pagine
+     * @throws IOException se si verifica un problema nella scrittura di un frammento
+     */
+    private static File[] makeFragments(PageFormat pf,
+                                        ArrayList<ProcessingBean> ordered,
+                                        PdfSpool spool,
+                                        int idSurvey,
+                                        Map<ProcessingBean, String> addresses,
+                                        boolean control)
+                                 throws AttributoNonValorizzatoException,
+                                        CommandException,
+                                        IOException {
+        File[] fragments = new File[ordered.size()];
+        if (control || ConfigManager.getPdfParallelism() <= ELEMENT_LEV_1 || ordered.size() <= ELEMENT_LEV_1) {
+            for (int i = 0; i < ordered.size(); i++) {
+                fragments[i] = makeFragment(pf, ordered.get(i), spool, idSurvey, addresses, control);
+            }
+            return fragments;
+        }
+        try {
+            getRenderPool().invoke(new FragmentTask(pf, ordered, spool, idSurvey, addresses, fragments, NOTHING, ordered.size()));
+        } catch (FragmentException fe) {
+            Throwable cause = fe.getCause();
+            if (cause instanceof AttributoNonValorizzatoException) {
+                throw (AttributoNonValorizzatoException) cause;
+            } else if (cause instanceof CommandException) {
+                throw (CommandException) cause;
             }
+            throw (IOException) cause;
         }
-        if (countArray[ELEMENT_LEV_1] >= 600) {
-            makeExtraInfosPage(pf, doc, t);
+        return fragments;
+    }
+    
+    
+    /**
+     * Genera le pagine di un trattamento in un documento a s&eacute; stante
+     * e lo salva nell'area di appoggio; se il frammento &egrave; gi&agrave;
+     * presente nella cache lo recupera da questa, altrimenti lo genera
+     * e ve lo conserva; in una generazione di controllo lo genera comunque,
+     * senza toccare la cache.
+     * 
+     * @param pf        formato della pagina
+     * @param t         trattamento da stampare
+     * @param spool     area di appoggio dei frammenti
+     * @param idSurvey  identificativo della rilevazione
+     * @param addresses indirizzi dei frammenti gi&agrave; calcolati, oppure null
+     * @param control   true per una generazione di controllo: senza cache e senza contare nell'avanzamento
+     * @return <code>File</code> - il frammento salvato
+     * @throws AttributoNonValorizzatoException se il codice del trattamento non &egrave; valorizzato
+     * @throws CommandException se si verifica un problema nella generazione delle pagine
+     * @throws IOException se si verifica un problema nella scrittura del frammento
+     */
+    /* default */ static File makeFragment(PageFormat pf,
+                                           ProcessingBean t,
+                                           PdfSpool spool,
+                                           int idSurvey,
+                                           Map<ProcessingBean, String> addresses,
+                                           boolean control)
+                                    throws AttributoNonValorizzatoException,
+                                           CommandException,
+                                           IOException {
+        // Non genera altro se chi attende il documento ha rinunciato
+        spool.checkCancelled();
+        File fragment = spool.newFile(t.getCodice());
+        if (control) {
+            PDFDocument part = getPDFDocument();
+            printPages(pf, part, t);
+            part.saveDocument(fragment.getPath());
+            return fragment;
+        }
+        PdfFragmentCache cache = PdfFragmentCache.getInstance();
+        String address = (addresses != null) ? addresses.get(t) : null;
+        if (address == null) {
+            address = PdfFragmentCache.address(PdfFragmentCache.FRAGMENT, idSurvey, t);
+        }
+        if (!cache.copyTo(address, fragment)) {
+            PDFDocument part = getPDFDocument();
+            printPages(pf, part, t);
+            part.saveDocument(fragment.getPath());
+            cache.put(address, fragment);
+        }
+        spool.fragmentDone();
+        return fragment;
+    }
+    
+    
+    /**
+     * Restituisce il pool fork-join su cui vengono generati i frammenti,
+     * creandolo al primo utilizzo con il parallelismo configurato.
+     * 
+     * @return <code>ForkJoinPool</code> - il pool di generazione dei frammenti
+     */
+    private static synchronized ForkJoinPool getRenderPool() {
+        if (renderPool == null) {
+            renderPool = new ForkJoinPool(ConfigManager.getPdfParallelism());
+            // Il pool va arrestato alla chiusura dell'applicazione
+            ConfigManager.addRegistryListener(new RegistryListener() {
+                @Override
+                public void registryLoaded(List<CodeBean> surveys, DBWrapper db) {
+                    /*;*/   // Non dipende dal registro
+                }
+                @Override
+                public void shutdown() {
+                    DocWrapper.shutdown();
+                }
+            });
+        }
+        return renderPool;
+    }
+    
+    
+    /**
+     * Arresta il pool di generazione dei frammenti, se &egrave; stato creato.
+     */
+    static synchronized void shutdown() {
+        if (renderPool != null) {
+            renderPool.shutdownNow();
+            renderPool = null;
+        }
+    }
+    
+    
+    /**
+     * Azione fork-join che genera i frammenti di un intervallo di trattamenti,
+     * suddividendolo a met&agrave; finch&eacute; non resta un solo trattamento.
+     * Ogni frammento viene scritto nella propria posizione dell'array dei
+     * risultati, per cui l'ordine non dipende dall'ordine di completamento.
+     */
+    private static class FragmentTask extends RecursiveAction {
+        /** La serializzazione necessita dell'identificativo della versione seriale */
+        private static final long serialVersionUID = 5023785406124458313L;
+        /** Formato della pagina */
+        private final transient PageFormat pf;
+        /** Trattamenti da stampare */
+        private final transient ArrayList<ProcessingBean> ordered;
+        /** Area di appoggio dei frammenti */
+        private final transient PdfSpool spool;
+        /** Identificativo della rilevazione */
+        private final int idSurvey;
+        /** Indirizzi dei frammenti gi&agrave; calcolati, oppure null */
+        private final transient Map<ProcessingBean, String> addresses;
+        /** Frammenti generati, nello stesso ordine dei trattamenti */
+        private final File[] fragments;
+        /** Primo indice dell'intervallo (incluso) */
+        private final int from;
+        /** Ultimo indice dell'intervallo (escluso) */
+        private final int to;
+
+        FragmentTask(PageFormat pf, ArrayList<ProcessingBean> ordered, PdfSpool spool, int idSurvey, Map<ProcessingBean, String> addresses, File[] fragments, int from, int to) {
+            this.pf = pf;
+            this.ordered = ordered;
+            this.spool = spool;
+            this.idSurvey = idSurvey;
+            this.addresses = addresses;
+            this.fragments = fragments;
+            this.from = from;
+            this.to = to;
         }
-        if (t.getDescrizione().length() >= 600) {
-            String cleanText = cleanHtml(t.getDescrizione());
-            String furtherInfo = makeProcessingPage(pf, doc, t, null);
-            if (furtherInfo != null) {
-                makeProcessingPage(pf, doc, t, cleanText.substring(1995, 4000));
-                if (cleanText.length() > 4000) {
-                    makeProcessingPage(pf, doc, t, cleanText.substring(4000, cleanText.length()));
+
+        @Override
+        protected void compute() {
+            if (to - from == ELEMENT_LEV_1) {
+                try {
+                    fragments[from] = makeFragment(pf, ordered.get(from), spool, idSurvey, addresses, false);
+                } catch (AttributoNonValorizzatoException | CommandException | IOException e) {
+                    throw new FragmentException(e);
                 }
+                return;
             }
+            int middle = (from + to) >>> 1;
+            invokeAll(new FragmentTask(pf, ordered, spool, idSurvey, addresses, fragments, from, middle),
+                      new FragmentTask(pf, ordered, spool, idSurvey, addresses, fragments, middle, to));
+        }
+    }
+    
+    
+    /**
+     * Eccezione non controllata che trasporta, fuori dal pool fork-join,
+     * l'eccezione controllata sollevata nella generazione di un frammento.
+     */
+    private static class FragmentException extends RuntimeException {
+        /** La serializzazione necessita dell'identificativo della versione seriale */
+        private static final long serialVersionUID = -2176452098113650447L;
+
+        FragmentException(Exception cause) {
+            super(cause);
+        }
+    }
+    
+    
+    /**
+     * Gestisce un sottoinsieme del flusso principale
+     * 
+     * @param pf    formato della pagina
+     * @param doc   istanza di documento PDF
+     * @param t     trattamento da stampare
+     * @throws CommandException se si verifica un problema nel recupero di una risorsa, di valori o in qualche altro tipo di puntamento
+     */
+    private static void printPages(PageFormat pf,
+                                   PDFDocument doc,
+                                   ProcessingBean t) 
+                            throws CommandException {
+        try {
+            // Intestazione: estesa nella prima pagina, ridotta nelle successive
+            PageFlow flow = new PageFlow(pf, doc, new PageFlow.Header() {
+                @Override
+                public int begin(Graphics2D g, int index) 
+                          throws IOException, 
+                                 AttributoNonValorizzatoException {
+                    if (index == NOTHING) {
+                        makeHeaderProcessingPage(g, t);
+                        return CONTENT_TOP;
+                    }
+                    return Math.max(CONTENT_TOP, makeHeaderInternalPage(g, t));
+                }
+            }, PAGE_BOTTOM);
+            // Ogni sezione parte da una nuova pagina e scorre sulle successive se serve
+            addProcessing(flow, t);
+            flow.pageBreak();
+            addLegalBasis(flow, t);
+            flow.pageBreak();
+            addKindOfData(flow, t);
+            flow.pageBreak();
+            addExpireTime(flow, t);
+            flow.pageBreak();
+            addSecMeasure(flow, t);
+            flow.pageBreak();
+            addDBLocation(flow, t);
+            // Impagina tutto in un'unica passata
+            flow.layout();
+        } catch (AttributoNonValorizzatoException anve) {
+            String msg = FOR_NAME + "Problema nel recupero di un attributo obbligatorio del bean.\n" + anve.getMessage();
+            log.severe(msg);
+            throw new CommandException(msg, anve);
+        } catch (IOException ioe) {
+            String msg = FOR_NAME + "Probabile problema nel puntamento a una risorsa esterna.\n" + ioe.getMessage();
+            log.severe(msg);
+            throw new CommandException(msg, ioe);
+        } catch (Exception e) {
+            String msg = FOR_NAME + "Problema in un metodo per la generazione di pagina pdf.\n" + e.getMessage();
+            log.severe(msg);
+            throw new CommandException(msg, e);
         }
     }
     
@@ -1417,34 +1264,11 @@ public class DocWrapper extends DocumentGenerator {
     
     public static void drawString(Graphics2D g, String s, int x, int y, int width)
     {
-        // FontMetrics gives us information about the width,
-        // height, etc. of the current Graphics object's Font.
-        FontMetrics fm = g.getFontMetrics();
-
-        int lineHeight = fm.getHeight();
-
-        int curX = x;
-        int curY = y;
-
-        String[] words = s.split(" ");
-
-        for (String word : words)
-        {
-            // Find out thw width of the word.
-            int wordWidth = fm.stringWidth(word + " ");
-
-            // If text exceeds the width, then move to next line.
-            if (curX + wordWidth >= x + width)
-            {
-                curY += lineHeight;
-                curX = x;
-            }
-
-            g.drawString(word, curX, curY);
-
-            // Move over to the right for next word.
-            curX += wordWidth;
-        }
+        // Suddivide il testo con le tabelle di avanzamento del font corrente
+        Lines lines = TextLayoutEngine.wrap(g, s, width);
+        int lineHeight = PdfAssets.getMetrics(g.getFont()).getHeight();
+        // La prima riga sta sulla coordinata data, le altre sotto
+        TextLayoutEngine.println(g, lines, x, y - lineHeight, lineHeight);
     }
     
     
@@ -0,0 +1,654 @@
+/*
+ *   Trattamenti On Line (tol): Applicazione web per la gestione del 
+ *   registro delle attività di trattamento.
+ *
+ *   TOL:
+ *   web application to manage and publish information about
+ *   databases containing personal data, which are managed by subjects 
+ *   belonging to the university or involving 
+ *   the university as manager.
+ *   Copyright (C) 2023 Giovanroberto Torre
+ *   all right reserved
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA<br>
+ *
+ *   Giovanroberto Torre <gianroberto.torre@gmail.com>
+ *   Universita' degli Studi di Verona
+ *   Via Dell'Artigliere, 8
+ *   37129 Verona (Italy)
+ */
+
+package it.tol.wrapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import it.tol.bean.ProcessingBean;
+import it.tol.exception.AttributoNonValorizzatoException;
+import it.tol.exception.CommandException;
+import it.tol.interfaces.Constants;
+
+
+/**
+ * <p><code>FacetIndex.java</code> &egrave; l'indice a faccette
+ * dei trattamenti di una rilevazione.</p>
+ * <p>Per ogni faccetta (ciascuna delle categorie di dati trattati,
+ * ciascun tipo di trattamento, ciascuno stato e il ruolo di titolare
+ * o di responsabile, desunto dal suffisso del codice) l'indice conserva
+ * un insieme di bit, uno per trattamento nell'ordine del registro,
+ * impaccati 64 per parola.
+ * Un'interrogazione come "dati sanitari di minori" si risolve quindi
+ * con poche operazioni logiche su array di <code>long</code>,
+ * senza scorrere n&eacute; deserializzare i trattamenti.</p>
+ * <p>Gli insiemi di bit non sono compressi (p.es. con codifica a lunghezza
+ * di sequenza o roaring) di proposito: un registro conta al pi&ugrave;
+ * qualche migliaio di trattamenti, per cui un insieme occupa poche decine
+ * di parole (2.000 trattamenti: 32 parole, 256 byte) e l'intero indice,
+ * con qualche decina di faccette, pochi kilobyte. A queste dimensioni
+ * la compressione non risparmierebbe memoria in modo apprezzabile
+ * (un contenitore roaring non occupa meno di un array di interi
+ * dei trattamenti selezionati) e renderebbe pi&ugrave; lente le operazioni,
+ * che su array piatti sono cicli di poche decine di iterazioni.
+ * L'occupazione effettiva viene riportata nel log a ogni costruzione
+ * (v. {@link #toString()}); se dovesse crescere di ordini di grandezza
+ * la scelta andrebbe rivista.</p>
+ * <p>Le interrogazioni sono espressioni sui nomi delle faccette con gli
+ * operatori <code>AND</code> (anche <code>&amp;</code> o semplice
+ * accostamento), <code>OR</code> (anche <code>|</code>),
+ * <code>NOT</code> (anche <code>!</code>) e le parentesi, p.es.:<pre>
+ * sanitari AND minoreEta
+ * (genetici OR biometrici) AND NOT responsabile
+ * tipo:2 giudiziari</pre>
+ * I nomi delle faccette e gli operatori non distinguono maiuscole e minuscole;
+ * l'espressione vuota seleziona l'intero registro.</p>
+ * <p>L'indice &egrave; immutabile. Gli indici costruiti vengono conservati
+ * per rilevazione insieme al momento di creazione dell'istantanea da cui
+ * derivano: per le rilevazioni chiuse l'indice resta valido finch&eacute;
+ * l'istantanea non viene ricostruita, per le altre viene ricostruito
+ * dopo {@link #MAX_AGE} millisecondi.</p>
+ *
+ * @author <a href="mailto:gianroberto.torre@gmail.com">Giovanroberto Torre</a>
+ */
+public final class FacetIndex implements Constants {
+
+    /**
+     * <p>Logger della classe per scrivere i messaggi di errore.
+     * All logging goes through this logger.</p>
+     */
+    private static Logger LOG = Logger.getLogger(FacetIndex.class.getName());
+    /**
+     * <p>Nome di questa classe
+     * (viene utilizzato per contestualizzare i messaggi di errore).</p>
+     */
+    static final String FOR_NAME = "\n" + Logger.getLogger(new Throwable().getStackTrace()[0].getClassName()) + ": ";
+    /**
+     * <p>Validit&agrave; massima, in millisecondi, dell'indice
+     * di una rilevazione priva di istantanea.</p>
+     */
+    public static final long MAX_AGE = 60 * 1000L;
+    /**
+     * <p>Lunghezza massima, in caratteri, di un'espressione sulle faccette.</p>
+     */
+    public static final int MAX_EXPRESSION_LENGTH = 1024;
+    /**
+     * <p>Livello massimo di annidamento (parentesi e negazioni)
+     * di un'espressione sulle faccette.</p>
+     */
+    public static final int MAX_EXPRESSION_DEPTH = 32;
+    /**
+     * <p>Prefisso delle faccette relative al tipo di trattamento.</p>
+     */
+    public static final String FACET_TYPE = "tipo:";
+    /**
+     * <p>Prefisso delle faccette relative allo stato del trattamento.</p>
+     */
+    public static final String FACET_STATE = "stato:";
+    /**
+     * <p>Faccetta dei trattamenti di cui l'ateneo &egrave; titolare.</p>
+     */
+    public static final String FACET_TITOLARE = "titolare";
+    /**
+     * <p>Faccetta dei trattamenti di cui l'ateneo &egrave; responsabile.</p>
+     */
+    public static final String FACET_RESPONSABILE = "responsabile";
+    /**
+     * <p>Nomi delle faccette relative alle categorie di dati,
+     * nell'ordine di {@link #flag(ProcessingBean, int)}.</p>
+     */
+    private static final String[] FLAGS = {
+        "personali",
+        "sanitari",
+        "orientamentoSex",
+        "etniaReligApp",
+        "minoreEta",
+        "genetici",
+        "biometrici",
+        "giudiziari",
+        "ubicazione",
+        "pseudonimizzati",
+        "anonimizzati"
+    };
+    /**
+     * <p>Indici costruiti, per identificativo della rilevazione.</p>
+     */
+    private static final ConcurrentHashMap<Integer, FacetIndex> indexes = new ConcurrentHashMap<>();
+    /**
+     * <p>Identificativo della rilevazione.</p>
+     */
+    private final int idSurvey;
+    /**
+     * <p>Momento di creazione dell'istantanea da cui deriva l'indice;
+     * negativo se la rilevazione non ha istantanea.</p>
+     */
+    private final long stamp;
+    /**
+     * <p>Momento di costruzione dell'indice.</p>
+     */
+    private final long built;
+    /**
+     * <p>Codici dei trattamenti, nell'ordine dei bit.</p>
+     */
+    private final String[] codes;
+    /**
+     * <p>Insieme di tutti i trattamenti.</p>
+     */
+    private final long[] all;
+    /**
+     * <p>Insiemi di bit delle faccette, nell'ordine di presentazione.</p>
+     */
+    private final LinkedHashMap<String, long[]> facets;
+    /**
+     * <p>Insiemi di bit delle faccette, cercati senza distinguere maiuscole e minuscole.</p>
+     */
+    private final TreeMap<String, long[]> lookup;
+
+
+    /**
+     * <p>Costruttore privato: l'indice si ottiene tramite
+     * {@link #build(int, long, List)}.</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     * @param stamp     momento di creazione dell'istantanea, negativo se assente
+     * @param codes     codici dei trattamenti
+     * @param facets    insiemi di bit delle faccette
+     */
+    private FacetIndex(int idSurvey,
+                       long stamp,
+                       String[] codes,
+                       LinkedHashMap<String, long[]> facets) {
+        this.idSurvey = idSurvey;
+        this.stamp = stamp;
+        this.built = System.currentTimeMillis();
+        this.codes = codes;
+        this.facets = facets;
+        this.lookup = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        this.lookup.putAll(facets);
+        this.all = new long[words(codes.length)];
+        for (int i = 0; i < codes.length; i++) {
+            set(all, i);
+        }
+    }
+
+
+    /**
+     * <p>Costruisce l'indice a faccette di un registro di trattamenti.</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     * @param stamp     momento di creazione dell'istantanea del registro, negativo se assente
+     * @param list      trattamenti della rilevazione, nell'ordine del registro
+     * @return <code>FacetIndex</code> - l'indice costruito
+     * @throws AttributoNonValorizzatoException se un trattamento non ha il codice
+     */
+    public static FacetIndex build(int idSurvey,
+                                   long stamp,
+                                   List<ProcessingBean> list)
+                            throws AttributoNonValorizzatoException {
+        int size = list.size();
+        String[] codes = new String[size];
+        LinkedHashMap<String, long[]> facets = new LinkedHashMap<>();
+        for (String name : FLAGS) {
+            facets.put(name, new long[words(size)]);
+        }
+        facets.put(FACET_TITOLARE, new long[words(size)]);
+        facets.put(FACET_RESPONSABILE, new long[words(size)]);
+        // Tipi e stati compaiono in ordine di valore
+        TreeMap<Integer, long[]> types = new TreeMap<>();
+        TreeMap<Integer, long[]> states = new TreeMap<>();
+        for (int i = 0; i < size; i++) {
+            ProcessingBean t = list.get(i);
+            codes[i] = t.getCodice();
+            for (int f = 0; f < FLAGS.length; f++) {
+                if (flag(t, f)) {
+                    set(facets.get(FLAGS[f]), i);
+                }
+            }
+            if (codes[i].endsWith(TITOLARE)) {
+                set(facets.get(FACET_TITOLARE), i);
+            } else if (codes[i].endsWith(RESPONSABILE)) {
+                set(facets.get(FACET_RESPONSABILE), i);
+            }
+            set(bits(types, t.getIdTipo(), size), i);
+            set(bits(states, t.getIdStato(), size), i);
+        }
+        for (Map.Entry<Integer, long[]> e : types.entrySet()) {
+            facets.put(FACET_TYPE + e.getKey(), e.getValue());
+        }
+        for (Map.Entry<Integer, long[]> e : states.entrySet()) {
+            facets.put(FACET_STATE + e.getKey(), e.getValue());
+        }
+        return new FacetIndex(idSurvey, stamp, codes, facets);
+    }
+
+
+    /**
+     * <p>Restituisce l'indice conservato per la rilevazione, se &egrave;
+     * ancora valido rispetto all'istantanea corrente.</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     * @param stamp     momento di creazione dell'istantanea corrente, negativo se assente
+     * @return <code>FacetIndex</code> - l'indice, oppure null se assente o scaduto
+     */
+    public static FacetIndex get(int idSurvey,
+                                 long stamp) {
+        FacetIndex index = indexes.get(idSurvey);
+        if (index == null) {
+            return null;
+        }
+        if (stamp >= NOTHING) {
+            return (index.stamp == stamp) ? index : null;
+        }
+        return (index.stamp < NOTHING && System.currentTimeMillis() - index.built < MAX_AGE) ? index : null;
+    }
+
+
+    /**
+     * <p>Conserva un indice appena costruito, al posto di quello
+     * eventualmente presente per la stessa rilevazione.</p>
+     *
+     * @param index indice da conservare
+     */
+    public static void put(FacetIndex index) {
+        indexes.put(index.idSurvey, index);
+        LOG.info(FOR_NAME + "Costruito " + index);
+    }
+
+
+    /**
+     * <p>Scarta l'indice della rilevazione indicata.</p>
+     *
+     * @param idSurvey identificativo della rilevazione
+     */
+    public static void remove(int idSurvey) {
+        indexes.remove(idSurvey);
+    }
+
+
+    /**
+     * <p>Valuta un'espressione sulle faccette e restituisce l'insieme
+     * dei trattamenti che la soddisfano.<br />
+     * Le espressioni pi&ugrave; lunghe di {@link #MAX_EXPRESSION_LENGTH}
+     * caratteri o annidate oltre {@link #MAX_EXPRESSION_DEPTH} livelli
+     * vengono rifiutate, cos&igrave; che un parametro costruito ad arte
+     * non possa esaurire lo stack o il tempo di chi le valuta.</p>
+     *
+     * @param expression espressione sulle faccette; vuota o null per l'intero registro
+     * @return <code>long[]</code> - insieme di bit dei trattamenti selezionati (di propriet&agrave; del chiamante)
+     * @throws CommandException se l'espressione non &egrave; ben formata, &egrave; troppo lunga o annidata o nomina una faccetta inesistente
+     */
+    public long[] query(String expression)
+                 throws CommandException {
+        if (expression == null || expression.trim().isEmpty()) {
+            return all.clone();
+        }
+        if (expression.length() > MAX_EXPRESSION_LENGTH) {
+            String msg = FOR_NAME + "Espressione sulle faccette troppo lunga: " + expression.length() + " caratteri.\n";
+            LOG.warning(msg);
+            throw new CommandException(msg);
+        }
+        Parser parser = new Parser(expression);
+        long[] result = parser.or();
+        if (parser.peek() != null) {
+            throw parser.error("operatore o parentesi non attesi");
+        }
+        return result;
+    }
+
+
+    /**
+     * <p>Conta i trattamenti di una selezione.</p>
+     *
+     * @param selection insieme di bit restituito da {@link #query(String)}
+     * @return <code>int</code> - numero di trattamenti selezionati
+     */
+    public static int count(long[] selection) {
+        int n = NOTHING;
+        for (long word : selection) {
+            n += Long.bitCount(word);
+        }
+        return n;
+    }
+
+
+    /**
+     * <p>Conta, per ciascuna faccetta, i trattamenti della selezione
+     * che vi appartengono.</p>
+     *
+     * @param selection insieme di bit restituito da {@link #query(String)}
+     * @return <code>LinkedHashMap&lt;String, Integer&gt;</code> - numero di trattamenti per faccetta, nell'ordine dell'indice
+     */
+    public LinkedHashMap<String, Integer> counts(long[] selection) {
+        LinkedHashMap<String, Integer> counts = new LinkedHashMap<>();
+        for (Map.Entry<String, long[]> e : facets.entrySet()) {
+            long[] bits = e.getValue();
+            int n = NOTHING;
+            for (int w = 0; w < bits.length; w++) {
+                n += Long.bitCount(bits[w] & selection[w]);
+            }
+            counts.put(e.getKey(), Integer.valueOf(n));
+        }
+        return counts;
+    }
+
+
+    /**
+     * <p>Restituisce i codici dei trattamenti di una selezione,
+     * nell'ordine del registro.</p>
+     *
+     * @param selection insieme di bit restituito da {@link #query(String)}
+     * @return <code>ArrayList&lt;String&gt;</code> - codici dei trattamenti selezionati
+     */
+    public ArrayList<String> codes(long[] selection) {
+        ArrayList<String> list = new ArrayList<>(count(selection));
+        for (int w = 0; w < selection.length; w++) {
+            long word = selection[w];
+            while (word != 0L) {
+                list.add(codes[(w << 6) + Long.numberOfTrailingZeros(word)]);
+                word &= word - 1;
+            }
+        }
+        return list;
+    }
+
+
+    /**
+     * @return <code>Set&lt;String&gt;</code> - nomi delle faccette, nell'ordine dell'indice
+     */
+    public Set<String> getFacets() {
+        return Collections.unmodifiableSet(facets.keySet());
+    }
+
+
+    /**
+     * @return <code>int</code> - identificativo della rilevazione
+     */
+    public int getIdSurvey() {
+        return idSurvey;
+    }
+
+
+    /**
+     * @return <code>long</code> - momento di creazione dell'istantanea da cui deriva l'indice, negativo se assente
+     */
+    public long getStamp() {
+        return stamp;
+    }
+
+
+    /**
+     * @return <code>int</code> - numero di trattamenti indicizzati
+     */
+    public int size() {
+        return codes.length;
+    }
+
+
+    /**
+     * <p>Restituisce una descrizione sintetica dell'indice,
+     * utile da scrivere nel log.</p>
+     *
+     * @return <code>String</code> - rilevazione, trattamenti, faccette e occupazione degli insiemi di bit dell'indice
+     */
+    @Override
+    public String toString() {
+        return "FacetIndex [survey=" + idSurvey +
+               ", stamp=" + stamp +
+               ", size=" + codes.length +
+               ", facets=" + facets.size() +
+               ", bytes=" + ((long) (facets.size() + 1) * all.length * 8) + "]";
+    }
+
+
+    /**
+     * <p>Restituisce il valore della categoria di dati di indice dato,
+     * nell'ordine di {@link #FLAGS}.</p>
+     *
+     * @param t     trattamento
+     * @param f     indice della categoria di dati
+     * @return <code>boolean</code> - true se il trattamento riguarda la categoria di dati
+     */
+    private static boolean flag(ProcessingBean t,
+                                int f) {
+        switch (f) {
+            case 0:  return t.isDatiPersonali();
+            case 1:  return t.isDatiSanitari();
+            case 2:  return t.isDatiOrientamentoSex();
+            case 3:  return t.isDatiEtniaReligApp();
+            case 4:  return t.isDatiMinoreEta();
+            case 5:  return t.isDatiGenetici();
+            case 6:  return t.isDatiBiometrici();
+            case 7:  return t.isDatiGiudiziari();
+            case 8:  return t.isDatiUbicazione();
+            case 9:  return t.isDatiPseudonimizzati();
+            case 10: return t.isDatiAnonimizzati();
+            default: return false;
+        }
+    }
+
+
+    /**
+     * <p>Restituisce l'insieme di bit associato a un valore,
+     * creandolo se non esiste ancora.</p>
+     *
+     * @param map   insiemi di bit per valore
+     * @param value valore
+     * @param size  numero di trattamenti
+     * @return <code>long[]</code> - insieme di bit del valore
+     */
+    private static long[] bits(TreeMap<Integer, long[]> map,
+                               int value,
+                               int size) {
+        long[] bits = map.get(value);
+        if (bits == null) {
+            bits = new long[words(size)];
+            map.put(value, bits);
+        }
+        return bits;
+    }
+
+
+    /**
+     * @param size  numero di bit
+     * @return <code>int</code> - numero di parole necessarie a contenerli
+     */
+    private static int words(int size) {
+        return (size + 63) >>> 6;
+    }
+
+
+    /**
+     * @param bits  insieme di bit
+     * @param i     posizione del bit da accendere
+     */
+    private static void set(long[] bits,
+                            int i) {
+        bits[i >>> 6] |= 1L << i;
+    }
+
+
+    /**
+     * <p>Analizzatore a discesa ricorsiva delle espressioni sulle faccette;
+     * valuta l'espressione man mano che la legge.<br />
+     * <code>or  := and ( OR and )*</code><br />
+     * <code>and := not ( [AND] not )*</code><br />
+     * <code>not := NOT not | ( or ) | faccetta</code><br />
+     * Ogni negazione e ogni parentesi aumentano di un livello l'annidamento,
+     * che non pu&ograve; superare {@link FacetIndex#MAX_EXPRESSION_DEPTH}.</p>
+     */
+    private final class Parser {
+        /** Espressione da valutare */
+        private final String text;
+        /** Posizione corrente nell'espressione */
+        private int pos = NOTHING;
+        /** Livello di annidamento corrente */
+        private int depth = NOTHING;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        long[] or() throws CommandException {
+            long[] left = and();
+            while (accept("OR") || accept("|")) {
+                long[] right = and();
+                for (int w = 0; w < left.length; w++) {
+                    left[w] |= right[w];
+                }
+            }
+            return left;
+        }
+
+        long[] and() throws CommandException {
+            long[] left = not();
+            while (true) {
+                String next = peek();
+                if (next == null || next.equals(")") || next.equals("|") || next.equalsIgnoreCase("OR")) {
+                    return left;
+                }
+                if (!accept("AND")) {
+                    accept("&");
+                }
+                long[] right = not();
+                for (int w = 0; w < left.length; w++) {
+                    left[w] &= right[w];
+                }
+            }
+        }
+
+        long[] not() throws CommandException {
+            if (accept("NOT") || accept("!")) {
+                enter();
+                long[] operand = not();
+                depth--;
+                for (int w = 0; w < operand.length; w++) {
+                    operand[w] = all[w] & ~operand[w];
+                }
+                return operand;
+            }
+            if (accept("(")) {
+                enter();
+                long[] inner = or();
+                if (!accept(")")) {
+                    throw error("parentesi non chiusa");
+                }
+                depth--;
+                return inner;
+            }
+            String name = next();
+            if (name == null) {
+                throw error("espressione incompleta");
+            }
+            long[] bits = lookup.get(name);
+            if (bits == null) {
+                throw error("faccetta sconosciuta '" + name + "'");
+            }
+            return bits.clone();
+        }
+
+        /**
+         * Scende di un livello di annidamento.
+         *
+         * @throws CommandException se l'annidamento supera il massimo consentito
+         */
+        void enter() throws CommandException {
+            if (++depth > MAX_EXPRESSION_DEPTH) {
+                throw error("annidamento oltre " + MAX_EXPRESSION_DEPTH + " livelli");
+            }
+        }
+
+        /**
+         * @return il prossimo simbolo senza consumarlo, null a fine espressione
+         */
+        String peek() {
+            int mark = pos;
+            String token = next();
+            pos = mark;
+            return token;
+        }
+
+        /**
+         * @param token simbolo atteso
+         * @return true se il prossimo simbolo coincide con quello atteso, che viene consumato
+         */
+        boolean accept(String token) {
+            int mark = pos;
+            String next = next();
+            if (next != null && next.equalsIgnoreCase(token)) {
+                return true;
+            }
+            pos = mark;
+            return false;
+        }
+
+        /**
+         * @return il prossimo simbolo, consumandolo; null a fine espressione
+         */
+        String next() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+            if (pos == text.length()) {
+                return null;
+            }
+            char c = text.charAt(pos);
+            if (c == '(' || c == ')' || c == '&' || c == '|' || c == '!') {
+                pos++;
+                return String.valueOf(c);
+            }
+            int start = pos;
+            while (pos < text.length()) {
+                c = text.charAt(pos);
+                if (Character.isWhitespace(c) || c == '(' || c == ')' || c == '&' || c == '|' || c == '!') {
+                    break;
+                }
+                pos++;
+            }
+            return text.substring(start, pos);
+        }
+
+        CommandException error(String reason) {
+            String msg = FOR_NAME + "Espressione sulle faccette non valida (" + reason + ", posizione " + pos + "): " + text + "\n";
+            LOG.warning(msg);
+            return new CommandException(msg);
+        }
+    }
+
+}
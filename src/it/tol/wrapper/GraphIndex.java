@@ -0,0 +1,596 @@
+/*
+ *   Trattamenti On Line (tol): Applicazione web per la gestione del 
+ *   registro delle attività di trattamento.
+ *
+ *   TOL:
+ *   web application to manage and publish information about
+ *   databases containing personal data, which are managed by subjects 
+ *   belonging to the university or involving 
+ *   the university as manager.
+ *   Copyright (C) 2023 Giovanroberto Torre
+ *   all right reserved
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA<br>
+ *
+ *   Giovanroberto Torre <gianroberto.torre@gmail.com>
+ *   Universita' degli Studi di Verona
+ *   Via Dell'Artigliere, 8
+ *   37129 Verona (Italy)
+ */
+
+package it.tol.wrapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import it.tol.bean.ActivityBean;
+import it.tol.bean.CodeBean;
+import it.tol.bean.ProcessBean;
+import it.tol.bean.ProcessingBean;
+import it.tol.exception.AttributoNonValorizzatoException;
+import it.tol.interfaces.Constants;
+
+
+/**
+ * <p><code>GraphIndex.java</code> &egrave; il grafo delle relazioni
+ * del registro dei trattamenti di una rilevazione, costruito in memoria
+ * per rispondere alle domande di analisi d'impatto senza comporre
+ * a mano catene di join.</p>
+ * <p>I nodi sono i trattamenti, le attivit&agrave;, le categorie di
+ * interessati, le basi giuridiche, le banche dati, i database e i tipi
+ * di database; gli archi riproducono le tabelle di collegamento
+ * (<code>attivita_trattamento</code>, <code>interessati_trattamento</code>,
+ * <code>base_giuridica_trattamento</code>, <code>banca_dati_trattamento</code>)
+ * e le relazioni banca dati &rarr; database &rarr; tipo di database.
+ * Il grafo si costruisce dal registro, gi&agrave; caricato con una query
+ * per relazione (o letto dall'istantanea), e dall'elenco di tutte le
+ * banche dati della rilevazione, che comprende quelle orfane.<br />
+ * Ogni nodo ha una chiave composta dal tipo e dall'identificativo,
+ * p.es. <code>trattamento:TR-001-T</code>, <code>base:3</code>,
+ * <code>database:Esse3</code>; le adiacenze sono array di interi
+ * ordinati.</p>
+ * <p>Come gli altri indici del registro, il grafo &egrave; immutabile
+ * e viene sostituito quando l'istantanea della rilevazione cambia
+ * o, in mancanza di istantanea, dopo {@link #MAX_AGE} millisecondi.</p>
+ *
+ * @author <a href="mailto:gianroberto.torre@gmail.com">Giovanroberto Torre</a>
+ */
+public final class GraphIndex implements Constants {
+
+    /**
+     * <p>Logger della classe per scrivere i messaggi di errore.
+     * All logging goes through this logger.</p>
+     */
+    private static Logger LOG = Logger.getLogger(GraphIndex.class.getName());
+    /**
+     * <p>Nome di questa classe
+     * (viene utilizzato per contestualizzare i messaggi di errore).</p>
+     */
+    static final String FOR_NAME = "\n" + Logger.getLogger(new Throwable().getStackTrace()[0].getClassName()) + ": ";
+    /**
+     * <p>Validit&agrave; massima, in millisecondi, del grafo
+     * di una rilevazione priva di istantanea.</p>
+     */
+    public static final long MAX_AGE = 60 * 1000L;
+    /** Tipo di nodo: trattamento */
+    public static final String NODE_TREATMENT = "trattamento";
+    /** Tipo di nodo: attivit&agrave; */
+    public static final String NODE_ACTIVITY = "attivita";
+    /** Tipo di nodo: categoria di interessati */
+    public static final String NODE_SUBJECT = "interessati";
+    /** Tipo di nodo: base giuridica */
+    public static final String NODE_LEGAL_BASIS = "base";
+    /** Tipo di nodo: banca dati */
+    public static final String NODE_DATABANK = "banca";
+    /** Tipo di nodo: database */
+    public static final String NODE_DATABASE = "database";
+    /** Tipo di nodo: tipo di database */
+    public static final String NODE_DATABASE_TYPE = "tipo";
+    /** Separatore tra tipo e identificativo nella chiave di un nodo */
+    private static final char KEY_SEPARATOR = ':';
+    /**
+     * <p>Grafi costruiti, per identificativo della rilevazione.</p>
+     */
+    private static final ConcurrentHashMap<Integer, GraphIndex> indexes = new ConcurrentHashMap<>();
+    /**
+     * <p>Identificativo della rilevazione.</p>
+     */
+    private final int idSurvey;
+    /**
+     * <p>Momento di creazione dell'istantanea da cui deriva il grafo;
+     * negativo se la rilevazione non ha istantanea.</p>
+     */
+    private final long stamp;
+    /**
+     * <p>Momento di costruzione del grafo.</p>
+     */
+    private final long built;
+    /**
+     * <p>Nodi, per posizione.</p>
+     */
+    private final Node[] nodes;
+    /**
+     * <p>Posizioni dei nodi adiacenti a ciascun nodo, ordinate.</p>
+     */
+    private final int[][] adjacency;
+    /**
+     * <p>Posizione di ciascun nodo, per chiave.</p>
+     */
+    private final HashMap<String, Integer> byKey;
+
+
+    /**
+     * <p>Nodo del grafo.</p>
+     */
+    public static final class Node {
+        /** Posizione del nodo */
+        final int index;
+        /** Chiave del nodo: tipo e identificativo */
+        private final String key;
+        /** Tipo del nodo */
+        private final String tipo;
+        /** Nome del nodo */
+        private final String nome;
+        /** Numero di nodi adiacenti */
+        int grado;
+
+        Node(int index, String key, String tipo, String nome) {
+            this.index = index;
+            this.key = key;
+            this.tipo = tipo;
+            this.nome = nome;
+        }
+
+        /** @return <code>String</code> - chiave del nodo, p.es. <code>database:Esse3</code> */
+        public String getKey() {
+            return key;
+        }
+
+        /** @return <code>String</code> - tipo del nodo */
+        public String getTipo() {
+            return tipo;
+        }
+
+        /** @return <code>String</code> - identificativo del nodo (la chiave senza il tipo) */
+        public String getCodice() {
+            return key.substring(tipo.length() + 1);
+        }
+
+        /** @return <code>String</code> - nome del nodo */
+        public String getNome() {
+            return nome;
+        }
+
+        /** @return <code>int</code> - numero di nodi adiacenti */
+        public int getGrado() {
+            return grado;
+        }
+    }
+
+
+    /**
+     * <p>Risultato di un'analisi d'impatto: le banche dati coinvolte,
+     * i trattamenti che le usano e le categorie di interessati
+     * esposte, ciascuna con il numero di trattamenti coinvolti
+     * che la riguardano.</p>
+     */
+    public static final class Impact {
+        /** Nodo da cui parte l'analisi */
+        private final Node origine;
+        /** Banche dati coinvolte */
+        private final ArrayList<Node> banche;
+        /** Trattamenti coinvolti */
+        private final ArrayList<Node> trattamenti;
+        /** Categorie di interessati esposte, con il numero di trattamenti coinvolti */
+        private final LinkedHashMap<Node, Integer> interessati;
+
+        Impact(Node origine, ArrayList<Node> banche, ArrayList<Node> trattamenti, LinkedHashMap<Node, Integer> interessati) {
+            this.origine = origine;
+            this.banche = banche;
+            this.trattamenti = trattamenti;
+            this.interessati = interessati;
+        }
+
+        /** @return <code>Node</code> - nodo da cui parte l'analisi */
+        public Node getOrigine() {
+            return origine;
+        }
+
+        /** @return <code>ArrayList&lt;Node&gt;</code> - banche dati coinvolte */
+        public ArrayList<Node> getBanche() {
+            return banche;
+        }
+
+        /** @return <code>ArrayList&lt;Node&gt;</code> - trattamenti coinvolti */
+        public ArrayList<Node> getTrattamenti() {
+            return trattamenti;
+        }
+
+        /** @return <code>LinkedHashMap&lt;Node, Integer&gt;</code> - categorie di interessati esposte, dalla pi&ugrave; coinvolta */
+        public LinkedHashMap<Node, Integer> getInteressati() {
+            return interessati;
+        }
+    }
+
+
+    /**
+     * <p>Raccoglie nodi e archi durante la costruzione del grafo.</p>
+     */
+    private static final class Builder {
+        /** Nodi, per posizione */
+        final ArrayList<Node> nodes = new ArrayList<>();
+        /** Nodi adiacenti, per posizione; senza duplicati */
+        final ArrayList<LinkedHashSet<Integer>> edges = new ArrayList<>();
+        /** Posizione di ciascun nodo, per chiave */
+        final HashMap<String, Integer> byKey = new HashMap<>();
+
+        /**
+         * @return la posizione del nodo, creandolo se non esiste ancora
+         */
+        int node(String tipo, Object id, String nome) {
+            String key = tipo + KEY_SEPARATOR + id;
+            Integer index = byKey.get(key);
+            if (index == null) {
+                index = Integer.valueOf(nodes.size());
+                nodes.add(new Node(index.intValue(), key, tipo, nome));
+                edges.add(new LinkedHashSet<Integer>());
+                byKey.put(key, index);
+            }
+            return index.intValue();
+        }
+
+        void edge(int a, int b) {
+            edges.get(a).add(Integer.valueOf(b));
+            edges.get(b).add(Integer.valueOf(a));
+        }
+
+        /**
+         * @return la posizione della banca dati, collegata al suo database e al tipo di questo
+         */
+        int databank(ProcessBean b) throws AttributoNonValorizzatoException {
+            int bank = node(NODE_DATABANK, Integer.valueOf(b.getId()), b.getNome());
+            int database = node(NODE_DATABASE, b.getCodice(), b.getCodice());
+            int type = node(NODE_DATABASE_TYPE, Integer.valueOf(b.getLivello()), b.getTipo());
+            edge(bank, database);
+            edge(database, type);
+            return bank;
+        }
+    }
+
+
+    /**
+     * <p>Costruttore privato: il grafo si ottiene tramite
+     * {@link #build(int, long, List, List)}.</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     * @param stamp     momento di creazione dell'istantanea, negativo se assente
+     * @param builder   nodi e archi raccolti
+     */
+    private GraphIndex(int idSurvey,
+                       long stamp,
+                       Builder builder) {
+        this.idSurvey = idSurvey;
+        this.stamp = stamp;
+        this.built = System.currentTimeMillis();
+        this.nodes = builder.nodes.toArray(new Node[builder.nodes.size()]);
+        this.adjacency = new int[nodes.length][];
+        for (int i = 0; i < nodes.length; i++) {
+            LinkedHashSet<Integer> edges = builder.edges.get(i);
+            int[] adjacent = new int[edges.size()];
+            int n = NOTHING;
+            for (Integer j : edges) {
+                adjacent[n++] = j.intValue();
+            }
+            Arrays.sort(adjacent);
+            adjacency[i] = adjacent;
+            nodes[i].grado = adjacent.length;
+        }
+        this.byKey = builder.byKey;
+    }
+
+
+    /**
+     * <p>Costruisce il grafo delle relazioni di un registro di trattamenti.</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     * @param stamp     momento di creazione dell'istantanea del registro, negativo se assente
+     * @param list      trattamenti della rilevazione, con tutte le entit&agrave; collegate
+     * @param banks     tutte le banche dati della rilevazione, anche quelle non collegate a trattamenti
+     * @return <code>GraphIndex</code> - il grafo costruito
+     * @throws AttributoNonValorizzatoException se un nodo non ha identificativo o nome
+     */
+    public static GraphIndex build(int idSurvey,
+                                   long stamp,
+                                   List<ProcessingBean> list,
+                                   List<ProcessBean> banks)
+                            throws AttributoNonValorizzatoException {
+        Builder builder = new Builder();
+        for (ProcessingBean t : list) {
+            int treatment = builder.node(NODE_TREATMENT, t.getCodice(), t.getNome());
+            if (t.getAttivita() != null) {
+                for (ActivityBean a : t.getAttivita()) {
+                    builder.edge(treatment, builder.node(NODE_ACTIVITY, a.getCodice(), a.getNome()));
+                }
+            }
+            if (t.getInteressati() != null) {
+                for (CodeBean i : t.getInteressati()) {
+                    builder.edge(treatment, builder.node(NODE_SUBJECT, Integer.valueOf(i.getId()), i.getNome()));
+                }
+            }
+            if (t.getBasiGiuridiche() != null) {
+                for (ActivityBean b : t.getBasiGiuridiche()) {
+                    builder.edge(treatment, builder.node(NODE_LEGAL_BASIS, Integer.valueOf(b.getId()), b.getNome()));
+                }
+            }
+            if (t.getBancheDati() != null) {
+                for (ProcessBean b : t.getBancheDati()) {
+                    builder.edge(treatment, builder.databank(b));
+                }
+            }
+        }
+        for (ProcessBean b : banks) {
+            builder.databank(b);
+        }
+        return new GraphIndex(idSurvey, stamp, builder);
+    }
+
+
+    /**
+     * <p>Restituisce il grafo conservato per la rilevazione, se &egrave;
+     * ancora valido rispetto all'istantanea corrente.</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     * @param stamp     momento di creazione dell'istantanea corrente, negativo se assente
+     * @return <code>GraphIndex</code> - il grafo, oppure null se assente o scaduto
+     */
+    public static GraphIndex get(int idSurvey,
+                                 long stamp) {
+        GraphIndex index = indexes.get(idSurvey);
+        if (index == null) {
+            return null;
+        }
+        if (stamp >= NOTHING) {
+            return (index.stamp == stamp) ? index : null;
+        }
+        return (index.stamp < NOTHING && System.currentTimeMillis() - index.built < MAX_AGE) ? index : null;
+    }
+
+
+    /**
+     * <p>Conserva un grafo appena costruito, al posto di quello
+     * eventualmente presente per la stessa rilevazione.</p>
+     *
+     * @param index grafo da conservare
+     */
+    public static void put(GraphIndex index) {
+        indexes.put(index.idSurvey, index);
+        LOG.info(FOR_NAME + "Costruito " + index);
+    }
+
+
+    /**
+     * @param key   chiave del nodo, p.es. <code>base:3</code>
+     * @return <code>Node</code> - il nodo, oppure null se non esiste
+     */
+    public Node getNode(String key) {
+        Integer index = (key == null) ? null : byKey.get(key);
+        return (index == null) ? null : nodes[index.intValue()];
+    }
+
+
+    /**
+     * @param tipo  tipo di nodo
+     * @return <code>ArrayList&lt;Node&gt;</code> - i nodi del tipo dato, ordinati per nome
+     */
+    public ArrayList<Node> getNodes(String tipo) {
+        ArrayList<Node> list = new ArrayList<>();
+        for (Node n : nodes) {
+            if (n.tipo.equals(tipo)) {
+                list.add(n);
+            }
+        }
+        sort(list);
+        return list;
+    }
+
+
+    /**
+     * <p>Restituisce i nodi di un certo tipo adiacenti al nodo dato,
+     * p.es. tutti i trattamenti che condividono una base giuridica
+     * o una categoria di interessati.</p>
+     *
+     * @param node  nodo di partenza
+     * @param tipo  tipo dei nodi adiacenti cercati
+     * @return <code>ArrayList&lt;Node&gt;</code> - nodi adiacenti del tipo dato, ordinati per nome
+     */
+    public ArrayList<Node> neighbours(Node node,
+                                      String tipo) {
+        ArrayList<Node> list = new ArrayList<>();
+        for (int j : adjacency[node.index]) {
+            if (nodes[j].tipo.equals(tipo)) {
+                list.add(nodes[j]);
+            }
+        }
+        sort(list);
+        return list;
+    }
+
+
+    /**
+     * <p>Calcola il raggio d'impatto della violazione di un nodo
+     * di archiviazione: scende da tipo di database a database e da
+     * database a banca dati, raccoglie i trattamenti che usano le banche
+     * dati raggiunte e, per questi, le categorie di interessati esposte.<br />
+     * Il nodo di partenza pu&ograve; anche essere un trattamento:
+     * in tal caso l'analisi ne riporta banche dati e interessati.</p>
+     *
+     * @param origin    nodo di partenza (tipo di database, database, banca dati o trattamento)
+     * @return <code>Impact</code> - banche dati, trattamenti e interessati coinvolti
+     */
+    public Impact impact(Node origin) {
+        LinkedHashSet<Integer> banks = new LinkedHashSet<>();
+        LinkedHashSet<Integer> treatments = new LinkedHashSet<>();
+        if (origin.tipo.equals(NODE_TREATMENT)) {
+            treatments.add(Integer.valueOf(origin.index));
+            collect(origin.index, NODE_DATABANK, banks);
+        } else {
+            LinkedHashSet<Integer> databases = new LinkedHashSet<>();
+            if (origin.tipo.equals(NODE_DATABASE_TYPE)) {
+                collect(origin.index, NODE_DATABASE, databases);
+            } else if (origin.tipo.equals(NODE_DATABASE)) {
+                databases.add(Integer.valueOf(origin.index));
+            } else if (origin.tipo.equals(NODE_DATABANK)) {
+                banks.add(Integer.valueOf(origin.index));
+            }
+            for (Integer db : databases) {
+                collect(db.intValue(), NODE_DATABANK, banks);
+            }
+            for (Integer bank : banks) {
+                collect(bank.intValue(), NODE_TREATMENT, treatments);
+            }
+        }
+        // Conta, per categoria di interessati, i trattamenti coinvolti che la riguardano
+        final HashMap<Node, Integer> exposed = new HashMap<>();
+        for (Integer t : treatments) {
+            for (int j : adjacency[t.intValue()]) {
+                if (nodes[j].tipo.equals(NODE_SUBJECT)) {
+                    Integer count = exposed.get(nodes[j]);
+                    exposed.put(nodes[j], Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+                }
+            }
+        }
+        ArrayList<Node> subjects = new ArrayList<>(exposed.keySet());
+        sort(subjects);
+        Collections.sort(subjects, new Comparator<Node>() {
+            @Override
+            public int compare(Node a, Node b) {
+                return exposed.get(b).intValue() - exposed.get(a).intValue();
+            }
+        });
+        LinkedHashMap<Node, Integer> interessati = new LinkedHashMap<>();
+        for (Node s : subjects) {
+            interessati.put(s, exposed.get(s));
+        }
+        return new Impact(origin, toNodes(banks), toNodes(treatments), interessati);
+    }
+
+
+    /**
+     * <p>Restituisce le banche dati della rilevazione non collegate
+     * ad alcun trattamento.</p>
+     *
+     * @return <code>ArrayList&lt;Node&gt;</code> - banche dati orfane, ordinate per nome
+     */
+    public ArrayList<Node> orphans() {
+        ArrayList<Node> list = new ArrayList<>();
+        for (Node n : nodes) {
+            if (n.tipo.equals(NODE_DATABANK) && neighbours(n, NODE_TREATMENT).isEmpty()) {
+                list.add(n);
+            }
+        }
+        sort(list);
+        return list;
+    }
+
+
+    /**
+     * @return <code>int</code> - identificativo della rilevazione
+     */
+    public int getIdSurvey() {
+        return idSurvey;
+    }
+
+
+    /**
+     * @return <code>int</code> - numero di nodi del grafo
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+
+    /**
+     * <p>Restituisce una descrizione sintetica del grafo,
+     * utile da scrivere nel log.</p>
+     *
+     * @return <code>String</code> - rilevazione, nodi e archi del grafo
+     */
+    @Override
+    public String toString() {
+        int arcs = NOTHING;
+        for (int[] adjacent : adjacency) {
+            arcs += adjacent.length;
+        }
+        return "GraphIndex [survey=" + idSurvey +
+               ", stamp=" + stamp +
+               ", nodes=" + nodes.length +
+               ", edges=" + (arcs / 2) + "]";
+    }
+
+
+    /**
+     * @param from      posizione del nodo
+     * @param tipo      tipo dei nodi adiacenti da raccogliere
+     * @param into      insieme da valorizzare per riferimento
+     */
+    private void collect(int from,
+                         String tipo,
+                         LinkedHashSet<Integer> into) {
+        for (int j : adjacency[from]) {
+            if (nodes[j].tipo.equals(tipo)) {
+                into.add(Integer.valueOf(j));
+            }
+        }
+    }
+
+
+    /**
+     * @param positions posizioni dei nodi
+     * @return <code>ArrayList&lt;Node&gt;</code> - i nodi, ordinati per nome
+     */
+    private ArrayList<Node> toNodes(LinkedHashSet<Integer> positions) {
+        ArrayList<Node> list = new ArrayList<>(positions.size());
+        for (Integer i : positions) {
+            list.add(nodes[i.intValue()]);
+        }
+        sort(list);
+        return list;
+    }
+
+
+    /**
+     * @param list  nodi da ordinare per nome (e, a parit&agrave;, per chiave)
+     */
+    private static void sort(List<Node> list) {
+        Collections.sort(list, new Comparator<Node>() {
+            @Override
+            public int compare(Node a, Node b) {
+                String x = (a.nome == null) ? VOID_STRING : a.nome;
+                String y = (b.nome == null) ? VOID_STRING : b.nome;
+                int c = x.compareToIgnoreCase(y);
+                return (c != NOTHING) ? c : a.key.compareTo(b.key);
+            }
+        });
+    }
+
+}
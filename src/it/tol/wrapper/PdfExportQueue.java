@@ -0,0 +1,418 @@
+/*
+ *   Trattamenti On Line (tol): Applicazione web per la gestione del 
+ *   registro delle attività di trattamento.
+ *
+ *   TOL:
+ *   web application to manage and publish information about
+ *   databases containing personal data, which are managed by subjects 
+ *   belonging to the university or involving 
+ *   the university as manager.
+ *   Copyright (C) 2023 Giovanroberto Torre
+ *   all right reserved
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA<br>
+ *
+ *   Giovanroberto Torre <gianroberto.torre@gmail.com>
+ *   Universita' degli Studi di Verona
+ *   Via Dell'Artigliere, 8
+ *   37129 Verona (Italy)
+ */
+
+package it.tol.wrapper;
+
+import java.awt.print.PageFormat;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+
+import it.tol.ConfigManager;
+import it.tol.bean.CodeBean;
+import it.tol.bean.PersonBean;
+import it.tol.bean.ProcessingBean;
+import it.tol.command.RegisterCommand;
+import it.tol.exception.CommandException;
+import it.tol.interfaces.Constants;
+import it.tol.interfaces.RegistryListener;
+import it.tol.utils.generator.DocumentGenerator;
+import it.tol.utils.generator.PdfSpool;
+
+
+/**
+ * <p><code>PdfExportQueue.java</code> gestisce la generazione in background
+ * del registro completo dei trattamenti in formato PDF.</p>
+ * <p>La richiesta di un registro restituisce subito un lavoro, identificato
+ * da una stringa casuale, che viene eseguito da un pool di thread di
+ * dimensione limitata (parametro di contesto 'pdfExportWorkers') con una coda
+ * d'attesa anch'essa limitata; il client interroga periodicamente lo stato
+ * del lavoro (trattamenti generati sul totale) e, al termine,
+ * scarica il file prodotto.<br />
+ * Una richiesta per una rilevazione il cui registro &egrave; gi&agrave;
+ * in coda o in generazione per gli stessi ruoli non avvia un nuovo lavoro
+ * ma si aggancia a quello esistente.<br />
+ * Il contenuto del registro dipende dai ruoli dell'utente, per cui ogni
+ * lavoro conserva i ruoli per cui &egrave; stato generato e gli utenti
+ * che lo hanno richiesto: stato e file sono visibili soltanto a questi,
+ * e soltanto finch&eacute; hanno gli stessi ruoli.</p>
+ * <p>I file dei lavori conclusi vengono eliminati dopo
+ * {@link #JOB_TTL} millisecondi dalla conclusione.</p>
+ *
+ * @author <a href="mailto:gianroberto.torre@gmail.com">Giovanroberto Torre</a>
+ */
+public class PdfExportQueue implements Constants {
+
+    /**
+     * <p>Logger della classe per scrivere i messaggi di errore.
+     * All logging goes through this logger.</p>
+     */
+    private static Logger LOG = Logger.getLogger(PdfExportQueue.class.getName());
+    /**
+     * <p>Nome di questa classe
+     * (viene utilizzato per contestualizzare i messaggi di errore).</p>
+     */
+    static final String FOR_NAME = "\n" + Logger.getLogger(new Throwable().getStackTrace()[0].getClassName()) + ": ";
+    /** Stato di un lavoro in attesa di un thread libero */
+    public static final String QUEUED = "queued";
+    /** Stato di un lavoro in corso di generazione */
+    public static final String RUNNING = "running";
+    /** Stato di un lavoro concluso, il cui file pu&ograve; essere scaricato */
+    public static final String DONE = "done";
+    /** Stato di un lavoro fallito */
+    public static final String FAILED = "failed";
+    /** Numero massimo di lavori in attesa */
+    private static final int MAX_QUEUED = 32;
+    /** Tempo di conservazione, in millisecondi, dei lavori conclusi (30 minuti) */
+    public static final long JOB_TTL = 30L * 60 * 1000;
+    /** Messaggio restituito all'utente per un lavoro fallito */
+    private static final String JOB_FAILED = "Riprova tra qualche minuto; se il problema persiste contatta l'assistenza.";
+    /**
+     * <p>Istanza unica della coda (Singleton).</p>
+     */
+    private static PdfExportQueue instance = null;
+    /**
+     * <p>Pool dei thread di generazione.</p>
+     */
+    private final ThreadPoolExecutor workers;
+    /**
+     * <p>Tutti i lavori non ancora scaduti, indicizzati per identificativo.</p>
+     */
+    private final ConcurrentHashMap<String, Job> jobs = new ConcurrentHashMap<>();
+    /**
+     * <p>Lavori in coda o in generazione, indicizzati per rilevazione e ruoli.</p>
+     */
+    private final HashMap<String, Job> inFlight = new HashMap<>();
+
+
+    /**
+     * <p>Lavoro di generazione del registro di una rilevazione.</p>
+     */
+    public static final class Job {
+        /** Identificativo del lavoro */
+        private final String id;
+        /** Identificativo della rilevazione */
+        private final String survey;
+        /** Rilevazione e ruoli per cui il registro viene generato */
+        private final String key;
+        /** Identificativi degli utenti che hanno richiesto il registro */
+        private final Set<Integer> owners = ConcurrentHashMap.newKeySet();
+        /** Stato del lavoro */
+        private volatile String state = QUEUED;
+        /** Numero di trattamenti da generare (noto dopo il recupero dei trattamenti) */
+        private volatile int total = 0;
+        /** Numero di trattamenti gi&agrave; generati */
+        private final AtomicInteger done = new AtomicInteger();
+        /** File prodotto */
+        private volatile File file = null;
+        /** Messaggio d'errore per l'utente, se il lavoro &egrave; fallito (il dettaglio resta nel log) */
+        private volatile String error = null;
+        /** Momento della conclusione */
+        private volatile long finished = 0L;
+
+        Job(String id, String survey, String key, int owner) {
+            this.id = id;
+            this.survey = survey;
+            this.key = key;
+            owners.add(Integer.valueOf(owner));
+        }
+
+        /** @return <code>String</code> - identificativo del lavoro */
+        public String getId() {
+            return id;
+        }
+
+        /** @return <code>String</code> - identificativo della rilevazione */
+        public String getSurvey() {
+            return survey;
+        }
+
+        /** @return <code>String</code> - stato del lavoro */
+        public String getState() {
+            return state;
+        }
+
+        /** @return <code>int</code> - numero di trattamenti da generare */
+        public int getTotal() {
+            return total;
+        }
+
+        /** @return <code>int</code> - numero di trattamenti gi&agrave; generati */
+        public int getDone() {
+            return done.get();
+        }
+
+        /** @return <code>File</code> - file prodotto, oppure null se il lavoro non &egrave; concluso */
+        public File getFile() {
+            return file;
+        }
+
+        /** @return <code>String</code> - messaggio d'errore, oppure null */
+        public String getError() {
+            return error;
+        }
+    }
+
+
+    /**
+     * <p>Costruttore privato: l'istanza si ottiene tramite {@link #getInstance()}.</p>
+     *
+     * @param size  numero di thread di generazione
+     */
+    private PdfExportQueue(int size) {
+        final AtomicInteger count = new AtomicInteger();
+        workers = new ThreadPoolExecutor(size, size, 60L, TimeUnit.SECONDS,
+                                         new ArrayBlockingQueue<Runnable>(MAX_QUEUED),
+                                         new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "tol-pdf-export-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+
+    /**
+     * <p>Restituisce l'istanza unica della coda, creandola al primo utilizzo
+     * con il numero di thread configurato nel descrittore di deploy.</p>
+     *
+     * @return <code>PdfExportQueue</code> - la coda dei lavori di generazione
+     */
+    public static synchronized PdfExportQueue getInstance() {
+        if (instance == null) {
+            instance = new PdfExportQueue(ConfigManager.getPdfExportWorkers());
+            // I thread e i file dei lavori vanno rilasciati alla chiusura dell'applicazione
+            ConfigManager.addRegistryListener(new RegistryListener() {
+                @Override
+                public void registryLoaded(List<CodeBean> surveys, DBWrapper db) {
+                    /*;*/   // Non dipende dal registro
+                }
+                @Override
+                public void shutdown() {
+                    PdfExportQueue.shutdown();
+                }
+            });
+        }
+        return instance;
+    }
+
+
+    /**
+     * <p>Arresta i thread di generazione ed elimina i file dei lavori,
+     * se la coda &egrave; stata creata.</p>
+     */
+    static synchronized void shutdown() {
+        if (instance != null) {
+            instance.workers.shutdownNow();
+            for (Job job : instance.jobs.values()) {
+                delete(job.file);
+            }
+            instance.jobs.clear();
+            instance = null;
+        }
+    }
+
+
+    /**
+     * <p>Richiede la generazione del registro completo di una rilevazione:
+     * se un lavoro per la stessa rilevazione
+     * &egrave; gi&agrave; in coda o in generazione vi aggiunge l'utente
+     * tra i richiedenti e lo restituisce, altrimenti ne accoda uno nuovo.</p>
+     *
+     * @param user      utente che richiede il registro
+     * @param survey    rilevazione di cui generare il registro
+     * @return <code>Job</code> - il lavoro, nuovo o esistente
+     * @throws CommandException se il codice della rilevazione non &egrave; valorizzato o se la coda &egrave; piena
+     */
+    public Job submit(final PersonBean user,
+                      final CodeBean survey)
+               throws CommandException {
+        purge();
+        String idSurvey = null;
+        try {
+            idSurvey = String.valueOf(survey.getId());
+        } catch (Exception e) {
+            String msg = FOR_NAME + "Rilevazione non valorizzata.\n";
+            LOG.severe(msg);
+            throw new CommandException(msg + e.getMessage(), e);
+        }
+        // Il registro dipende soltanto da rilevazione e stato (v. RegisterCommand.flightKey)
+        String key = RegisterCommand.flightKey(survey, null, STATE_ACTIVE);
+        synchronized (inFlight) {
+            Job current = inFlight.get(key);
+            if (current != null) {
+                current.owners.add(Integer.valueOf(user.getUsrId()));
+                return current;
+            }
+            final Job job = new Job(UUID.randomUUID().toString(), idSurvey, key, user.getUsrId());
+            try {
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        execute(job, user, survey);
+                    }
+                });
+            } catch (RejectedExecutionException ree) {
+                String msg = FOR_NAME + "Troppe richieste di generazione del registro in attesa.\n";
+                LOG.warning(msg);
+                throw new CommandException(msg + ree.getMessage(), ree);
+            }
+            jobs.put(job.id, job);
+            inFlight.put(key, job);
+            return job;
+        }
+    }
+
+
+    /**
+     * <p>Restituisce il lavoro con l'identificativo dato, oppure null
+     * se non esiste, &egrave; scaduto o non appartiene all'utente passato
+     * come argomento: l'utente deve essere tra quelli che hanno richiesto
+     * il registro, e il lavoro deve riguardare la rilevazione indicata.
+     * Un lavoro altrui viene trattato come inesistente, cos&igrave;
+     * da non rivelarne neppure l'esistenza.</p>
+     *
+     * @param id    identificativo del lavoro
+     * @param user  utente che interroga il lavoro
+     * @param survey rilevazione del lavoro
+     * @return <code>Job</code> - il lavoro, oppure null
+     * @throws CommandException se un attributo obbligatorio della rilevazione non &egrave; valorizzato
+     */
+    public Job getJob(String id,
+                      PersonBean user,
+                      CodeBean survey)
+               throws CommandException {
+        purge();
+        Job job = (id == null) ? null : jobs.get(id);
+        if (job == null || user == null || survey == null) {
+            return null;
+        }
+        if (!job.owners.contains(Integer.valueOf(user.getUsrId())) ||
+            !job.key.equals(RegisterCommand.flightKey(survey, null, STATE_ACTIVE))) {
+            LOG.warning(FOR_NAME + "Richiesta del lavoro " + id + " da parte di un utente non autorizzato.\n");
+            return null;
+        }
+        return job;
+    }
+
+
+    /**
+     * <p>Esegue un lavoro: recupera i trattamenti della rilevazione,
+     * genera il registro completo in un file temporaneo e ne aggiorna
+     * man mano l'avanzamento.</p>
+     *
+     * @param job       lavoro da eseguire
+     * @param user      utente che ha richiesto il registro
+     * @param survey    rilevazione di cui generare il registro
+     */
+    private void execute(Job job,
+                         PersonBean user,
+                         CodeBean survey) {
+        job.state = RUNNING;
+        File file = null;
+        try {
+            ArrayList<ProcessingBean> list = RegisterCommand.retrieve(user, STATE_ACTIVE, survey, new DBWrapper());
+            job.total = list.size();
+            PdfFragmentCache cache = PdfFragmentCache.getInstance();
+            file = Files.createTempFile("tol-register-", DOT + PDF).toFile();
+            try (PdfSpool spool = new PdfSpool(cache.getDir(), job.done)) {
+                PageFormat pf = DocumentGenerator.getPageFormat();
+                // Frontespizio e dettagli trattamenti, recuperati dalla cache o generati
+                DocWrapper.makeRegister(pf, list, spool, survey.getId(), null, file);
+            }
+            job.file = file;
+            job.state = DONE;
+        } catch (Exception e) {
+            String msg = FOR_NAME + "Problema nella generazione del registro della rilevazione " + job.survey + ".\n" + e.getMessage();
+            LOG.severe(msg);
+            delete(file);
+            // Il dettaglio dell'errore resta nel log: all'utente arriva un messaggio fisso
+            job.error = JOB_FAILED;
+            job.state = FAILED;
+        } finally {
+            job.finished = System.currentTimeMillis();
+            synchronized (inFlight) {
+                inFlight.remove(job.key, job);
+            }
+        }
+    }
+
+
+    /**
+     * <p>Elimina i lavori conclusi da pi&ugrave; di {@link #JOB_TTL}
+     * millisecondi e i relativi file.</p>
+     */
+    private void purge() {
+        long limit = System.currentTimeMillis() - JOB_TTL;
+        Iterator<Map.Entry<String, Job>> it = jobs.entrySet().iterator();
+        while (it.hasNext()) {
+            Job job = it.next().getValue();
+            if (job.finished > 0L && job.finished < limit) {
+                it.remove();
+                delete(job.file);
+            }
+        }
+    }
+
+
+    /**
+     * <p>Elimina un file, se esiste.</p>
+     *
+     * @param file  file da eliminare (pu&ograve; essere null)
+     */
+    private static void delete(File file) {
+        if (file != null && file.exists() && !file.delete()) {
+            LOG.warning(FOR_NAME + "Impossibile eliminare il file " + file.getPath() + ".\n");
+            file.deleteOnExit();
+        }
+    }
+
+}
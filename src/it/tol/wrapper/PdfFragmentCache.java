@@ -0,0 +1,638 @@
+/*
+ *   Trattamenti On Line (tol): Applicazione web per la gestione del 
+ *   registro delle attività di trattamento.
+ *
+ *   TOL:
+ *   web application to manage and publish information about
+ *   databases containing personal data, which are managed by subjects 
+ *   belonging to the university or involving 
+ *   the university as manager.
+ *   Copyright (C) 2023 Giovanroberto Torre
+ *   all right reserved
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA<br>
+ *
+ *   Giovanroberto Torre <gianroberto.torre@gmail.com>
+ *   Universita' degli Studi di Verona
+ *   Via Dell'Artigliere, 8
+ *   37129 Verona (Italy)
+ */
+
+package it.tol.wrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import it.tol.ConfigManager;
+import it.tol.bean.ProcessBean;
+import it.tol.bean.ProcessingBean;
+import it.tol.exception.AttributoNonValorizzatoException;
+import it.tol.utils.Utils;
+import it.tol.utils.generator.PdfSpool;
+
+
+/**
+ * <p><code>PdfFragmentCache.java</code> &egrave; la cache su disco
+ * dei frammenti PDF gi&agrave; generati: un file per trattamento
+ * (le pagine di un trattamento nel registro completo), per documento
+ * (la stampa di un singolo trattamento) oppure per registro completo.</p>
+ * <p>I file sono indirizzati per contenuto: il nome di ciascun file
+ * &egrave; l'impronta SHA-256 della rilevazione, del codice del trattamento,
+ * del momento della sua ultima modifica e del trattamento assemblato stesso
+ * (con tutte le collezioni collegate), per cui un trattamento modificato
+ * produce un indirizzo nuovo e la voce precedente, non pi&ugrave; richiesta,
+ * esce dalla cache per anzianit&agrave; senza bisogno di invalidazioni.<br />
+ * Quando cambia il modo in cui le pagine vengono disegnate bisogna
+ * incrementare {@link #RENDER_VERSION}, che entra anch'esso nell'impronta.</p>
+ * <p>La cache &egrave; limitata in base all'occupazione complessiva dei file
+ * e, superato il limite, elimina quelli usati meno di recente.
+ * All'avvio vengono recuperati i file gi&agrave; presenti nella directory,
+ * ordinati per data di ultimo utilizzo, mentre vengono eliminate
+ * le aree di appoggio rimaste da un'esecuzione precedente.</p>
+ * <p>I contatori di accessi riusciti, mancati e di file eliminati
+ * servono a dimensionare la cache: la cache li scrive nel log
+ * (v. {@link #toString()}) al pi&uacute; una volta ogni
+ * {@link #REPORT_INTERVAL} millisecondi, in occasione di una lettura.</p>
+ *
+ * @author <a href="mailto:gianroberto.torre@gmail.com">Giovanroberto Torre</a>
+ */
+public class PdfFragmentCache {
+
+    /**
+     * <p>Logger della classe per scrivere i messaggi di errore.
+     * All logging goes through this logger.</p>
+     */
+    private static Logger LOG = Logger.getLogger(PdfFragmentCache.class.getName());
+    /**
+     * <p>Nome di questa classe
+     * (viene utilizzato per contestualizzare i messaggi di errore).</p>
+     */
+    static final String FOR_NAME = "\n" + Logger.getLogger(new Throwable().getStackTrace()[0].getClassName()) + ": ";
+    /**
+     * <p>Versione del disegno delle pagine: va incrementata a ogni modifica
+     * della generazione dei PDF, cos&igrave; da non servire frammenti obsoleti.</p>
+     */
+    public static final int RENDER_VERSION = 2;
+    /** Tipo di voce: pagine di un trattamento da accodare al registro */
+    public static final String FRAGMENT = "fragment";
+    /** Tipo di voce: documento completo di un singolo trattamento */
+    public static final String DOCUMENT = "document";
+    /** Tipo di voce: registro completo di una rilevazione */
+    public static final String REGISTER = "register";
+    /** Estensione dei file conservati */
+    private static final String EXTENSION = ".pdf";
+    /**
+     * <p>Istanza unica della cache (Singleton).</p>
+     */
+    private static PdfFragmentCache instance = null;
+    /**
+     * <p>Directory che contiene i file della cache.</p>
+     */
+    private final File dir;
+    /**
+     * <p>Voci della cache (indirizzo e dimensione del file),
+     * in ordine di accesso (dalla meno recente).</p>
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(256, 0.75f, true);
+    /**
+     * <p>Occupazione massima, in byte, dei file conservati.</p>
+     */
+    private final long maxBytes;
+    /**
+     * <p>Occupazione corrente, in byte, dei file conservati.</p>
+     */
+    private long bytes = 0L;
+    /** Numero di richieste soddisfatte dalla cache */
+    private final AtomicLong hits = new AtomicLong();
+    /** Numero di richieste non soddisfatte dalla cache */
+    private final AtomicLong misses = new AtomicLong();
+    /** Numero di file eliminati per far posto ad altri */
+    private final AtomicLong evictions = new AtomicLong();
+    /** Intervallo minimo, in millisecondi, tra due scritture dei contatori nel log */
+    static final long REPORT_INTERVAL = 60L * 60 * 1000;
+    /** Momento dell'ultima scrittura dei contatori nel log */
+    private final AtomicLong lastReport = new AtomicLong(System.currentTimeMillis());
+
+
+    /**
+     * <p>Costruttore privato: l'istanza si ottiene tramite {@link #getInstance()}.
+     * Crea la directory, se non esiste, e vi recupera i file gi&agrave; presenti,
+     * dal meno recentemente utilizzato; elimina invece le aree di appoggio
+     * ({@link PdfSpool}) rimaste da un arresto non regolare, che in questo
+     * momento non possono essere in uso perch&eacute; vengono create
+     * soltanto dopo aver ottenuto l'istanza.</p>
+     *
+     * @param dir       directory della cache
+     * @param maxBytes  occupazione massima in byte
+     */
+    private PdfFragmentCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            LOG.warning(FOR_NAME + "Impossibile creare la directory della cache " + dir.getPath() + ".\n");
+            return;
+        }
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isFile() && name.endsWith(EXTENSION)) {
+                entries.put(name.substring(0, name.length() - EXTENSION.length()), Long.valueOf(file.length()));
+                bytes += file.length();
+            } else if (file.isFile()) {
+                // Residui di scritture interrotte
+                delete(file);
+            } else if (file.isDirectory() && name.startsWith(PdfSpool.PREFIX)) {
+                // Aree di appoggio di generazioni interrotte da un arresto
+                File[] stale = file.listFiles();
+                if (stale != null) {
+                    for (File fragment : stale) {
+                        delete(fragment);
+                    }
+                }
+                delete(file);
+            }
+        }
+        evict();
+    }
+
+
+    /**
+     * <p>Restituisce l'istanza unica della cache, creandola al primo utilizzo
+     * nella directory e con il limite di occupazione configurati nel
+     * descrittore di deploy (in mancanza della directory dei documenti
+     * usa una directory nell'area temporanea di sistema).</p>
+     *
+     * @return <code>PdfFragmentCache</code> - la cache dei frammenti PDF
+     */
+    public static synchronized PdfFragmentCache getInstance() {
+        if (instance == null) {
+            String path = ConfigManager.getDirPdfCache();
+            File dir = (path != null) ? new File(path) : new File(System.getProperty("java.io.tmpdir"), "tol-pdfcache");
+            instance = new PdfFragmentCache(dir, ConfigManager.getPdfCacheSize());
+        }
+        return instance;
+    }
+
+
+    /**
+     * <p>Calcola l'indirizzo, nella cache, delle pagine di un trattamento:
+     * l'impronta SHA-256, in esadecimale, del tipo di voce, della versione
+     * del disegno, della rilevazione, del codice e dell'ultima modifica
+     * del trattamento e della forma serializzata del trattamento assemblato.</p>
+     *
+     * @param kind      tipo di voce ({@link #FRAGMENT} o {@link #DOCUMENT})
+     * @param idSurvey  identificativo della rilevazione
+     * @param t         trattamento assemblato
+     * @return <code>String</code> - indirizzo della voce
+     * @throws AttributoNonValorizzatoException se il codice del trattamento non &egrave; valorizzato
+     * @throws IOException se non &egrave; possibile serializzare il trattamento
+     */
+    public static String address(String kind,
+                                 int idSurvey,
+                                 ProcessingBean t)
+                          throws AttributoNonValorizzatoException,
+                                 IOException {
+        final MessageDigest sha = sha();
+        String head = kind + "|" + RENDER_VERSION + "|" + idSurvey + "|" + t.getCodice() + "|" + getUltimaModifica(t) + "|";
+        sha.update(head.getBytes(StandardCharsets.UTF_8));
+        OutputStream digester = new OutputStream() {
+            @Override
+            public void write(int b) {
+                sha.update((byte) b);
+            }
+            @Override
+            public void write(byte[] b, int off, int len) {
+                sha.update(b, off, len);
+            }
+        };
+        try (ObjectOutputStream oos = new ObjectOutputStream(digester)) {
+            oos.writeObject(t);
+        }
+        return hex(sha.digest());
+    }
+
+
+    /**
+     * <p>Calcola gli indirizzi dei frammenti dei trattamenti passati
+     * come argomento, serializzando ciascun trattamento una volta sola;
+     * gli indirizzi restituiti vanno passati sia a
+     * {@link #address(int, List, Map)} sia alla generazione delle pagine
+     * (vedi {@link DocWrapper}), cos&igrave; che non vengano ricalcolati.</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     * @param list      trattamenti del registro
+     * @return <code>Map&lt;ProcessingBean, String&gt;</code> - indirizzo del frammento di ciascun trattamento (per identit&agrave;)
+     * @throws AttributoNonValorizzatoException se il codice di un trattamento non &egrave; valorizzato
+     * @throws IOException se non &egrave; possibile serializzare un trattamento
+     */
+    public static Map<ProcessingBean, String> addresses(int idSurvey,
+                                                        List<ProcessingBean> list)
+                                                 throws AttributoNonValorizzatoException,
+                                                        IOException {
+        IdentityHashMap<ProcessingBean, String> addresses = new IdentityHashMap<>(list.size());
+        for (ProcessingBean t : list) {
+            if (!addresses.containsKey(t)) {
+                addresses.put(t, address(FRAGMENT, idSurvey, t));
+            }
+        }
+        return addresses;
+    }
+
+
+    /**
+     * <p>Calcola l'indirizzo del registro completo composto dai trattamenti
+     * passati come argomento: l'impronta degli indirizzi dei frammenti
+     * dei singoli trattamenti, nell'ordine dato, per cui cambia
+     * se cambia anche uno solo dei trattamenti.</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     * @param list      trattamenti del registro
+     * @return <code>String</code> - indirizzo della voce
+     * @throws AttributoNonValorizzatoException se il codice di un trattamento non &egrave; valorizzato
+     * @throws IOException se non &egrave; possibile serializzare un trattamento
+     */
+    public static String address(int idSurvey,
+                                 List<ProcessingBean> list)
+                          throws AttributoNonValorizzatoException,
+                                 IOException {
+        return address(idSurvey, list, addresses(idSurvey, list));
+    }
+
+
+    /**
+     * <p>Calcola l'indirizzo del registro completo a partire dagli indirizzi,
+     * gi&agrave; calcolati tramite {@link #addresses(int, List)},
+     * dei frammenti dei trattamenti che lo compongono.</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     * @param list      trattamenti del registro
+     * @param fragments indirizzi dei frammenti dei trattamenti
+     * @return <code>String</code> - indirizzo della voce
+     * @throws AttributoNonValorizzatoException se il codice di un trattamento non &egrave; valorizzato
+     * @throws IOException se non &egrave; possibile serializzare un trattamento privo di indirizzo
+     */
+    public static String address(int idSurvey,
+                                 List<ProcessingBean> list,
+                                 Map<ProcessingBean, String> fragments)
+                          throws AttributoNonValorizzatoException,
+                                 IOException {
+        MessageDigest sha = sha();
+        String head = REGISTER + "|" + RENDER_VERSION + "|" + idSurvey + "|" + list.size() + "|";
+        sha.update(head.getBytes(StandardCharsets.UTF_8));
+        for (ProcessingBean t : list) {
+            String fragment = fragments.get(t);
+            if (fragment == null) {
+                fragment = address(FRAGMENT, idSurvey, t);
+            }
+            sha.update(fragment.getBytes(StandardCharsets.US_ASCII));
+        }
+        return hex(sha.digest());
+    }
+
+
+    /**
+     * <p>Restituisce la directory della cache; le aree di appoggio
+     * create al suo interno stanno sullo stesso file system,
+     * per cui i frammenti possono esservi collegati anzich&eacute; copiati.</p>
+     *
+     * @return <code>File</code> - la directory della cache
+     */
+    public File getDir() {
+        return dir;
+    }
+
+
+    /**
+     * <p>Se la voce richiesta &egrave; in cache, la rende disponibile
+     * nel file di destinazione (tramite un collegamento fisico
+     * o, se non &egrave; possibile, una copia) e restituisce true;
+     * altrimenti restituisce false.</p>
+     *
+     * @param address   indirizzo della voce
+     * @param target    file di destinazione, che non deve esistere
+     * @return <code>boolean</code> - true se la voce era in cache
+     * @throws IOException se non &egrave; possibile creare il file di destinazione
+     */
+    public synchronized boolean copyTo(String address,
+                                       File target)
+                                throws IOException {
+        File file = lookup(address);
+        if (file == null) {
+            return false;
+        }
+        link(file, target);
+        return true;
+    }
+
+
+    /**
+     * <p>Se la voce richiesta &egrave; in cache, la apre in lettura
+     * e ne restituisce il canale; altrimenti restituisce null.
+     * Il file viene aperto mentre la cache &egrave; bloccata,
+     * per cui un'eliminazione successiva non ne impedisce la lettura.</p>
+     *
+     * @param address   indirizzo della voce
+     * @return <code>FileChannel</code> - canale in lettura sul file, da chiudere a cura del chiamante, oppure null
+     * @throws IOException se non &egrave; possibile aprire il file
+     */
+    public synchronized FileChannel open(String address)
+                                  throws IOException {
+        File file = lookup(address);
+        if (file == null) {
+            return null;
+        }
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+
+    /**
+     * <p>Inserisce in cache un file appena generato, che resta
+     * a disposizione del chiamante, eliminando i file usati meno
+     * di recente finch&eacute; l'occupazione complessiva
+     * non rientra nel limite.</p>
+     *
+     * @param address   indirizzo della voce
+     * @param rendered  file generato
+     */
+    public void put(String address,
+                    File rendered) {
+        long size = rendered.length();
+        // Un file piu' grande dell'intera cache non viene conservato
+        if (size > maxBytes || !dir.isDirectory()) {
+            return;
+        }
+        File file = new File(dir, address + EXTENSION);
+        try {
+            link(rendered, file);
+        } catch (FileAlreadyExistsException faee) {
+            // Lo stesso contenuto e' stato generato contemporaneamente da un'altra richiesta
+        } catch (IOException ioe) {
+            LOG.warning(FOR_NAME + "Impossibile conservare il frammento " + address + ": " + ioe.getMessage());
+            return;
+        }
+        synchronized (this) {
+            Long previous = entries.put(address, Long.valueOf(size));
+            if (previous != null) {
+                bytes -= previous.longValue();
+            }
+            bytes += size;
+            evict();
+        }
+    }
+
+
+    /**
+     * <p>Svuota la cache, eliminando tutti i file.</p>
+     */
+    public synchronized void clear() {
+        for (String address : entries.keySet()) {
+            delete(new File(dir, address + EXTENSION));
+        }
+        entries.clear();
+        bytes = 0L;
+    }
+
+
+    /**
+     * @return <code>long</code> - numero di richieste soddisfatte dalla cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+
+    /**
+     * @return <code>long</code> - numero di richieste non soddisfatte dalla cache
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+
+    /**
+     * @return <code>long</code> - numero di file eliminati per superamento del limite di occupazione
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+
+    /**
+     * @return <code>int</code> - numero di file attualmente in cache
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+
+    /**
+     * @return <code>long</code> - occupazione corrente, in byte
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+
+    /**
+     * <p>Restituisce una descrizione sintetica dello stato della cache,
+     * utile da scrivere nel log per dimensionarla.</p>
+     *
+     * @return <code>String</code> - contatori e occupazione della cache
+     */
+    @Override
+    public synchronized String toString() {
+        return "PdfFragmentCache [hits=" + hits.get() +
+               ", misses=" + misses.get() +
+               ", evictions=" + evictions.get() +
+               ", size=" + entries.size() +
+               ", bytes=" + bytes + "/" + maxBytes + "]";
+    }
+
+
+    /**
+     * <p>Cerca una voce e ne aggiorna il momento di utilizzo, anche sul file,
+     * cos&igrave; che l'ordine sopravviva a un riavvio;
+     * va invocato tenendo il blocco sulla cache.</p>
+     *
+     * @param address   indirizzo della voce
+     * @return <code>File</code> - il file della voce, oppure null
+     */
+    private File lookup(String address) {
+        report();
+        Long size = entries.get(address);
+        if (size != null) {
+            File file = new File(dir, address + EXTENSION);
+            if (file.isFile()) {
+                file.setLastModified(System.currentTimeMillis());
+                hits.incrementAndGet();
+                return file;
+            }
+            // Il file e' stato rimosso dall'esterno
+            entries.remove(address);
+            bytes -= size.longValue();
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+
+    /**
+     * <p>Scrive nel log i contatori della cache, se dall'ultima volta
+     * &egrave; trascorso almeno {@link #REPORT_INTERVAL}.</p>
+     */
+    private void report() {
+        long now = System.currentTimeMillis();
+        long last = lastReport.get();
+        if (now - last >= REPORT_INTERVAL && lastReport.compareAndSet(last, now)) {
+            LOG.info(toString());
+        }
+    }
+
+
+    /**
+     * <p>Elimina i file usati meno di recente finch&eacute;
+     * l'occupazione complessiva non rientra nel limite;
+     * va invocato tenendo il blocco sulla cache.</p>
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            bytes -= eldest.getValue().longValue();
+            delete(new File(dir, eldest.getKey() + EXTENSION));
+            evictions.incrementAndGet();
+        }
+    }
+
+
+    /**
+     * <p>Rende disponibile il contenuto di un file con un altro nome,
+     * tramite un collegamento fisico oppure, se il file system
+     * non lo consente, una copia su un file temporaneo
+     * rinominato atomicamente.</p>
+     *
+     * @param source    file esistente
+     * @param target    file da creare
+     * @throws FileAlreadyExistsException se il file da creare esiste gi&agrave;
+     * @throws IOException se non &egrave; possibile n&eacute; collegare n&eacute; copiare il file
+     */
+    private static void link(File source,
+                             File target)
+                      throws IOException {
+        try {
+            Files.createLink(target.toPath(), source.toPath());
+        } catch (FileAlreadyExistsException faee) {
+            throw faee;
+        } catch (IOException | UnsupportedOperationException e) {
+            File tmp = new File(target.getParentFile(), target.getName() + ".tmp" + Thread.currentThread().getId());
+            Files.copy(source.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+
+    /**
+     * <p>Restituisce un nuovo calcolatore dell'impronta SHA-256.</p>
+     *
+     * @return <code>MessageDigest</code> - calcolatore dell'impronta
+     * @throws IOException se l'algoritmo non &egrave; disponibile
+     */
+    private static MessageDigest sha()
+                              throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IOException(FOR_NAME + "Algoritmo di hash non disponibile.\n" + nsae.getMessage(), nsae);
+        }
+    }
+
+
+    /**
+     * <p>Restituisce la rappresentazione esadecimale di un'impronta.</p>
+     *
+     * @param digest    impronta
+     * @return <code>String</code> - impronta in esadecimale
+     */
+    private static String hex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+
+    /**
+     * <p>Calcola il momento dell'ultima modifica di un trattamento,
+     * come il pi&ugrave; recente tra quello del trattamento e quelli
+     * delle banche dati collegate.</p>
+     *
+     * @param t trattamento assemblato
+     * @return <code>long</code> - momento dell'ultima modifica, in millisecondi
+     */
+    private static long getUltimaModifica(ProcessingBean t) {
+        long last = Utils.getTimestamp(t.getDataUltimaModifica(), t.getOraUltimaModifica());
+        if (t.getBancheDati() != null) {
+            for (ProcessBean db : t.getBancheDati()) {
+                last = Math.max(last, Utils.getTimestamp(db.getDataUltimaModifica(), db.getOraUltimaModifica()));
+            }
+        }
+        return last;
+    }
+
+
+    /**
+     * <p>Elimina un file, rimandandone l'eliminazione all'arresto
+     * se al momento non &egrave; possibile.</p>
+     *
+     * @param file  file da eliminare
+     */
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            LOG.warning(FOR_NAME + "Impossibile eliminare il file " + file.getPath() + ".\n");
+            file.deleteOnExit();
+        }
+    }
+
+}
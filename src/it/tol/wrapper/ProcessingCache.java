@@ -0,0 +1,438 @@
+/*
+ *   Trattamenti On Line (tol): Applicazione web per la gestione del 
+ *   registro delle attività di trattamento.
+ *
+ *   TOL:
+ *   web application to manage and publish information about
+ *   databases containing personal data, which are managed by subjects 
+ *   belonging to the university or involving 
+ *   the university as manager.
+ *   Copyright (C) 2023 Giovanroberto Torre
+ *   all right reserved
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA<br>
+ *
+ *   Giovanroberto Torre <gianroberto.torre@gmail.com>
+ *   Universita' degli Studi di Verona
+ *   Via Dell'Artigliere, 8
+ *   37129 Verona (Italy)
+ */
+
+package it.tol.wrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.sql.Timestamp;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import it.tol.ConfigManager;
+import it.tol.bean.ProcessingBean;
+
+
+/**
+ * <p><code>ProcessingCache.java</code> &egrave; la cache dei trattamenti
+ * gi&agrave; assemblati (trattamento con tutte le collezioni collegate:
+ * attivit&agrave;, interessati, basi giuridiche, banche dati),
+ * indicizzati per rilevazione, codice del trattamento e stato.</p>
+ * <p>Ogni voce conserva il trattamento in forma serializzata e
+ * {@link #get(int, String, int, Timestamp)} ne restituisce ogni volta
+ * una copia nuova: il chiamante pu&ograve; quindi modificarla liberamente
+ * senza alterare la voce in cache n&eacute; le copie date ad altre richieste.<br />
+ * La cache &egrave; limitata in base all'occupazione delle voci
+ * (dimensione serializzata del trattamento) e, superato il limite,
+ * scarta le voci usate meno di recente.<br />
+ * Ogni voce conserva il momento dell'ultima modifica letto dal database
+ * all'atto del caricamento: il chiamante lo confronta con quello restituito
+ * da {@link DBWrapper#getUltimaModifica(String, it.tol.bean.ItemBean, it.tol.bean.CodeBean)}
+ * e, se i due valori non coincidono, la voce viene scartata e ricaricata.
+ * L'unico punto di lettura &egrave; il caricamento di un trattamento in
+ * {@link it.tol.command.RegisterCommand}; eventuali metodi di aggiornamento
+ * dovranno invocare {@link #invalidate(int, String)} sul trattamento modificato.</p>
+ * <p>I contatori di accessi riusciti, mancati e di voci scartate
+ * servono a dimensionare la cache: la cache li scrive nel log
+ * (v. {@link #toString()}) al pi&uacute; una volta ogni
+ * {@link #REPORT_INTERVAL} millisecondi, in occasione di una lettura.</p>
+ *
+ * @author <a href="mailto:gianroberto.torre@gmail.com">Giovanroberto Torre</a>
+ */
+public class ProcessingCache {
+
+    /**
+     * <p>Logger della classe per scrivere i messaggi di errore.
+     * All logging goes through this logger.</p>
+     */
+    private static Logger LOG = Logger.getLogger(ProcessingCache.class.getName());
+    /**
+     * <p>Nome di questa classe
+     * (viene utilizzato per contestualizzare i messaggi di errore).</p>
+     */
+    static final String FOR_NAME = "\n" + Logger.getLogger(new Throwable().getStackTrace()[0].getClassName()) + ": ";
+    /**
+     * <p>Istanza unica della cache (Singleton).</p>
+     */
+    private static ProcessingCache instance = null;
+    /**
+     * <p>Voci della cache, in ordine di accesso (dalla meno recente).</p>
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    /**
+     * <p>Occupazione massima, in byte, delle voci conservate.</p>
+     */
+    private final long maxWeight;
+    /**
+     * <p>Occupazione corrente, in byte, delle voci conservate.</p>
+     */
+    private long weight = 0L;
+    /** Numero di richieste soddisfatte dalla cache */
+    private final AtomicLong hits = new AtomicLong();
+    /** Numero di richieste non soddisfatte dalla cache (voce assente o non pi&uacute; valida) */
+    private final AtomicLong misses = new AtomicLong();
+    /** Numero di voci scartate per far posto ad altre */
+    private final AtomicLong evictions = new AtomicLong();
+    /**
+     * <p>Intervallo minimo, in millisecondi, fra due scritture
+     * dei contatori nel log (un'ora).</p>
+     */
+    static final long REPORT_INTERVAL = 60L * 60 * 1000;
+    /** Momento dell'ultima scrittura dei contatori nel log */
+    private final AtomicLong lastReport = new AtomicLong(System.currentTimeMillis());
+
+
+    /**
+     * <p>Voce della cache: il trattamento serializzato e il momento
+     * della sua ultima modifica.</p>
+     */
+    private static class Entry {
+        /** Trattamento assemblato, in forma serializzata */
+        final byte[] data;
+        /** Ultima modifica del trattamento al momento del caricamento */
+        final Timestamp lastModified;
+        /** Occupazione in byte */
+        final long weight;
+
+        Entry(byte[] data, Timestamp lastModified) {
+            this.data = data;
+            this.lastModified = lastModified;
+            this.weight = data.length;
+        }
+    }
+
+
+    /**
+     * <p>Costruttore privato: l'istanza si ottiene tramite {@link #getInstance()}.</p>
+     *
+     * @param maxWeight occupazione massima in byte
+     */
+    private ProcessingCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+
+    /**
+     * <p>Restituisce l'istanza unica della cache, creandola al primo utilizzo
+     * con il limite di occupazione configurato nel descrittore di deploy.</p>
+     *
+     * @return <code>ProcessingCache</code> - la cache dei trattamenti
+     */
+    public static synchronized ProcessingCache getInstance() {
+        if (instance == null) {
+            instance = new ProcessingCache(ConfigManager.getProcessingCacheSize());
+        }
+        return instance;
+    }
+
+
+    /**
+     * <p>Restituisce una copia del trattamento conservato in cache, se esiste
+     * e se il momento della sua ultima modifica coincide con quello
+     * passato come argomento; altrimenti scarta l'eventuale voce
+     * non pi&uacute; valida e restituisce null.</p>
+     *
+     * @param idSurvey      identificativo della rilevazione
+     * @param codice        codice del trattamento
+     * @param idStato       identificativo dello stato (-1 per qualunque stato)
+     * @param lastModified  momento dell'ultima modifica letto dal database
+     * @return <code>ProcessingBean</code> - una copia del trattamento, oppure null
+     */
+    public ProcessingBean get(int idSurvey,
+                              String codice,
+                              int idStato,
+                              Timestamp lastModified) {
+        String key = makeKey(idSurvey, codice, idStato);
+        Entry entry = null;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && !(entry.lastModified == null ? lastModified == null : entry.lastModified.equals(lastModified))) {
+                // Il trattamento e' stato modificato: la voce non e' piu' valida
+                discard(key, entry);
+                entry = null;
+            }
+        }
+        if (entry != null) {
+            // La copia viene ricostruita fuori dal lock
+            ProcessingBean processing = thaw(entry.data);
+            if (processing != null) {
+                hits.incrementAndGet();
+                report();
+                return processing;
+            }
+            synchronized (this) {
+                discard(key, entry);
+            }
+        }
+        misses.incrementAndGet();
+        report();
+        return null;
+    }
+
+
+    /**
+     * <p>Scrive nel log i contatori della cache se dall'ultima scrittura
+     * &egrave; trascorso almeno {@link #REPORT_INTERVAL}; fra pi&uacute;
+     * letture concorrenti scrive soltanto la prima.</p>
+     */
+    private void report() {
+        long now = System.currentTimeMillis();
+        long last = lastReport.get();
+        if (now - last >= REPORT_INTERVAL && lastReport.compareAndSet(last, now)) {
+            LOG.info(toString());
+        }
+    }
+
+
+    /**
+     * <p>Inserisce in cache un trattamento appena assemblato,
+     * scartando le voci usate meno di recente finch&eacute;
+     * l'occupazione complessiva non rientra nel limite.<br />
+     * Viene conservata la forma serializzata del trattamento, per cui
+     * le modifiche successive all'oggetto passato non si riflettono in cache.</p>
+     *
+     * @param idSurvey      identificativo della rilevazione
+     * @param codice        codice del trattamento
+     * @param idStato       identificativo dello stato (-1 per qualunque stato)
+     * @param lastModified  momento dell'ultima modifica letto dal database prima del caricamento
+     * @param processing    trattamento da conservare
+     */
+    public void put(int idSurvey,
+                    String codice,
+                    int idStato,
+                    Timestamp lastModified,
+                    ProcessingBean processing) {
+        if (processing == null) {
+            return;
+        }
+        byte[] data = freeze(processing);
+        // Un trattamento non serializzabile o piu' grande dell'intera cache non viene conservato
+        if (data == null || data.length > maxWeight) {
+            return;
+        }
+        synchronized (this) {
+            store(makeKey(idSurvey, codice, idStato), new Entry(data, lastModified));
+        }
+    }
+
+
+    /**
+     * <p>Inserisce una voce e scarta quelle usate meno di recente
+     * finch&eacute; l'occupazione rientra nel limite.
+     * Va invocato tenendo il lock della cache.</p>
+     *
+     * @param key   chiave della voce
+     * @param entry voce da inserire
+     */
+    private void store(String key,
+                       Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+        weight += entry.weight;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (weight > maxWeight && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            weight -= eldest.weight;
+            evictions.incrementAndGet();
+        }
+    }
+
+
+    /**
+     * <p>Scarta una voce, se &egrave; ancora quella indicata.
+     * Va invocato tenendo il lock della cache.</p>
+     *
+     * @param key   chiave della voce
+     * @param entry voce da scartare
+     */
+    private void discard(String key,
+                         Entry entry) {
+        if (entries.get(key) == entry) {
+            entries.remove(key);
+            weight -= entry.weight;
+        }
+    }
+
+
+    /**
+     * <p>Scarta tutte le voci relative al trattamento indicato,
+     * in qualunque stato; va invocato dai metodi che modificano
+     * il trattamento o le entit&agrave; ad esso collegate.</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     * @param codice    codice del trattamento
+     */
+    public synchronized void invalidate(int idSurvey,
+                                        String codice) {
+        String prefix = idSurvey + "|" + codice + "|";
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> e = it.next();
+            if (e.getKey().startsWith(prefix)) {
+                weight -= e.getValue().weight;
+                it.remove();
+            }
+        }
+    }
+
+
+    /**
+     * <p>Svuota la cache.</p>
+     */
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0L;
+    }
+
+
+    /**
+     * @return <code>long</code> - numero di richieste soddisfatte dalla cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+
+    /**
+     * @return <code>long</code> - numero di richieste non soddisfatte dalla cache
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+
+    /**
+     * @return <code>long</code> - numero di voci scartate per superamento del limite di occupazione
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+
+    /**
+     * @return <code>int</code> - numero di voci attualmente in cache
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+
+    /**
+     * @return <code>long</code> - occupazione stimata corrente, in byte
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+
+    /**
+     * @return <code>long</code> - occupazione massima consentita, in byte
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+
+    /**
+     * <p>Restituisce una descrizione sintetica dello stato della cache,
+     * utile da scrivere nel log per dimensionarla.</p>
+     *
+     * @return <code>String</code> - contatori e occupazione della cache
+     */
+    @Override
+    public synchronized String toString() {
+        return "ProcessingCache [hits=" + hits.get() +
+               ", misses=" + misses.get() +
+               ", evictions=" + evictions.get() +
+               ", size=" + entries.size() +
+               ", weight=" + weight + "/" + maxWeight + "]";
+    }
+
+
+    /**
+     * <p>Compone la chiave di una voce della cache.</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     * @param codice    codice del trattamento
+     * @param idStato   identificativo dello stato
+     * @return <code>String</code> - chiave della voce
+     */
+    private static String makeKey(int idSurvey,
+                                  String codice,
+                                  int idStato) {
+        return idSurvey + "|" + codice + "|" + idStato;
+    }
+
+
+    /**
+     * <p>Serializza un trattamento (con le collezioni collegate).</p>
+     *
+     * @param processing    trattamento da serializzare
+     * @return <code>byte[]</code> - forma serializzata, oppure null se la serializzazione non riesce
+     */
+    private static byte[] freeze(ProcessingBean processing) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(processing);
+        } catch (IOException ioe) {
+            LOG.warning(FOR_NAME + "Impossibile serializzare il trattamento: " + ioe.getMessage());
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+
+    /**
+     * <p>Ricostruisce un trattamento dalla sua forma serializzata.</p>
+     *
+     * @param data  forma serializzata
+     * @return <code>ProcessingBean</code> - nuova istanza del trattamento, oppure null se la lettura non riesce
+     */
+    private static ProcessingBean thaw(byte[] data) {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return (ProcessingBean) ois.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            LOG.warning(FOR_NAME + "Impossibile ricostruire il trattamento dalla cache: " + e.getMessage());
+            return null;
+        }
+    }
+
+}
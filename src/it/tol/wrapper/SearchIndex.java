@@ -0,0 +1,769 @@
+/*
+ *   Trattamenti On Line (tol): Applicazione web per la gestione del 
+ *   registro delle attività di trattamento.
+ *
+ *   TOL:
+ *   web application to manage and publish information about
+ *   databases containing personal data, which are managed by subjects 
+ *   belonging to the university or involving 
+ *   the university as manager.
+ *   Copyright (C) 2023 Giovanroberto Torre
+ *   all right reserved
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA<br>
+ *
+ *   Giovanroberto Torre <gianroberto.torre@gmail.com>
+ *   Universita' degli Studi di Verona
+ *   Via Dell'Artigliere, 8
+ *   37129 Verona (Italy)
+ */
+
+package it.tol.wrapper;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import it.tol.bean.CodeBean;
+import it.tol.bean.ProcessingBean;
+import it.tol.exception.AttributoNonValorizzatoException;
+import it.tol.interfaces.Constants;
+import it.tol.utils.generator.HtmlTextConverter;
+
+
+/**
+ * <p><code>SearchIndex.java</code> &egrave; l'indice per la ricerca
+ * a testo libero nel registro dei trattamenti di una rilevazione.</p>
+ * <p>L'indice &egrave; un indice invertito, costruito in memoria per
+ * rilevazione, che copre nome, descrizione, finalit&agrave;, misure di
+ * sicurezza, attivit&agrave;, basi giuridiche e banche dati di ciascun
+ * trattamento; i campi in HTML vengono ridotti a testo semplice prima
+ * dell'analisi.<br />
+ * L'analisi del testo tiene conto dell'italiano: le lettere accentate
+ * vengono ricondotte alla lettera base, gli articoli apostrofati si
+ * separano dalla parola, le parole vuote (articoli, preposizioni,
+ * congiunzioni) vengono scartate e le parole restanti vengono ridotte
+ * a una radice comune a singolare e plurale, maschile e femminile
+ * (<em>dati</em>, <em>dato</em> &rarr; <em>dat</em>;
+ * <em>banca</em>, <em>banche</em> &rarr; <em>banc</em>).</p>
+ * <p>I risultati sono ordinati secondo il modello BM25; le occorrenze
+ * nel nome del trattamento pesano {@link #WEIGHT_NAME} volte quelle
+ * negli altri campi. Per ogni risultato viene restituito un estratto
+ * del campo pi&ugrave; pertinente con le parole cercate evidenziate.</p>
+ * <p>L'indice si aggiorna in modo incrementale: a ogni aggiornamento
+ * ({@link #refresh(long, List)}) vengono rianalizzati solo i trattamenti
+ * il cui contenuto &egrave; cambiato e rimossi quelli scomparsi dal registro.
+ * L'applicazione non salva n&eacute; cancella trattamenti, per cui non
+ * ci sono salvataggi da cui
+ * aggiornare l'indice trattamento per trattamento: le modifiche vengono
+ * rilevate dall'impronta del contenuto al primo aggiornamento successivo.
+ * Le ricerche non accedono mai al database.</p>
+ *
+ * @author <a href="mailto:gianroberto.torre@gmail.com">Giovanroberto Torre</a>
+ */
+public final class SearchIndex implements Constants {
+
+    /**
+     * <p>Logger della classe per scrivere i messaggi di errore.
+     * All logging goes through this logger.</p>
+     */
+    private static Logger LOG = Logger.getLogger(SearchIndex.class.getName());
+    /**
+     * <p>Nome di questa classe
+     * (viene utilizzato per contestualizzare i messaggi di errore).</p>
+     */
+    static final String FOR_NAME = "\n" + Logger.getLogger(new Throwable().getStackTrace()[0].getClassName()) + ": ";
+    /**
+     * <p>Validit&agrave; massima, in millisecondi, dell'indice
+     * di una rilevazione priva di istantanea.</p>
+     */
+    public static final long MAX_AGE = 60 * 1000L;
+    /**
+     * <p>Peso delle occorrenze nel nome del trattamento.</p>
+     */
+    public static final int WEIGHT_NAME = 3;
+    /** Parametro di saturazione della frequenza di BM25 */
+    private static final double K1 = 1.2;
+    /** Parametro di normalizzazione sulla lunghezza di BM25 */
+    private static final double B = 0.75;
+    /** Numero di parole di un estratto */
+    private static final int SNIPPET_WORDS = 24;
+    /** Numero di parole che precedono la prima occorrenza in un estratto */
+    private static final int SNIPPET_LEAD = 4;
+    /** Segni diacritici, eliminati dopo la scomposizione delle lettere accentate */
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    /**
+     * <p>Parole vuote dell'italiano, gi&agrave; prive di accenti.</p>
+     */
+    static final HashSet<String> STOPWORDS = new HashSet<>(Arrays.asList(
+        "a", "ad", "agli", "ai", "al", "alla", "alle", "allo", "anche", "che",
+        "ci", "col", "coi", "come", "con", "cui", "d", "da", "dagli", "dai",
+        "dal", "dalla", "dalle", "dallo", "degli", "dei", "del", "della", "delle", "dello",
+        "di", "e", "ed", "fra", "gli", "ha", "hanno", "i", "il", "in",
+        "l", "la", "le", "lo", "ma", "ne", "negli", "nei", "nel", "nella",
+        "nelle", "nello", "non", "o", "od", "per", "piu", "quale", "quali", "quella",
+        "quelle", "quelli", "quello", "questa", "queste", "questi", "questo", "se", "si", "sia",
+        "sono", "su", "sugli", "sui", "sul", "sulla", "sulle", "sullo", "tra", "un",
+        "una", "uno"
+    ));
+    /**
+     * <p>Indici costruiti, per identificativo della rilevazione.</p>
+     */
+    private static final ConcurrentHashMap<Integer, SearchIndex> indexes = new ConcurrentHashMap<>();
+    /**
+     * <p>Identificativo della rilevazione.</p>
+     */
+    private final int idSurvey;
+    /**
+     * <p>Trattamenti indicizzati, per codice, nell'ordine del registro.</p>
+     */
+    private final LinkedHashMap<String, Doc> docs = new LinkedHashMap<>();
+    /**
+     * <p>Liste delle occorrenze: per ogni radice, la frequenza pesata
+     * in ciascun trattamento che la contiene.</p>
+     */
+    private final HashMap<String, HashMap<String, Integer>> postings = new HashMap<>();
+    /**
+     * <p>Regola l'accesso concorrente: molte ricerche, un aggiornamento alla volta.</p>
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * <p>Somma delle lunghezze pesate dei trattamenti.</p>
+     */
+    private long totalLength = 0L;
+    /**
+     * <p>Momento di creazione dell'istantanea da cui deriva l'indice;
+     * negativo se la rilevazione non ha istantanea.</p>
+     */
+    private volatile long stamp = Long.MIN_VALUE;
+    /**
+     * <p>Momento dell'ultimo aggiornamento dell'indice.</p>
+     */
+    private volatile long refreshed = 0L;
+
+
+    /**
+     * <p>Trattamento indicizzato: i testi dei campi, gi&agrave; ridotti
+     * a testo semplice, e la frequenza pesata di ciascuna radice.</p>
+     */
+    private static final class Doc {
+        /** Codice del trattamento */
+        final String codice;
+        /** Impronta del contenuto indicizzato */
+        final long fingerprint;
+        /** Nome del trattamento */
+        final String nome;
+        /** Testi dei campi diversi dal nome, nell'ordine di {@link SearchIndex#fields(ProcessingBean)} */
+        final String[] texts;
+        /** Frequenza pesata di ciascuna radice */
+        final HashMap<String, Integer> tf;
+        /** Lunghezza pesata del trattamento */
+        final int length;
+
+        Doc(String codice, long fingerprint, String nome, String[] texts, HashMap<String, Integer> tf, int length) {
+            this.codice = codice;
+            this.fingerprint = fingerprint;
+            this.nome = nome;
+            this.texts = texts;
+            this.tf = tf;
+            this.length = length;
+        }
+    }
+
+
+    /**
+     * <p>Risultato di una ricerca.</p>
+     */
+    public static final class Hit {
+        /** Codice del trattamento */
+        private final String codice;
+        /** Nome del trattamento */
+        private final String nome;
+        /** Punteggio BM25 */
+        private final double score;
+        /** Estratto in HTML con le parole cercate evidenziate */
+        private final String snippet;
+
+        Hit(String codice, String nome, double score, String snippet) {
+            this.codice = codice;
+            this.nome = nome;
+            this.score = score;
+            this.snippet = snippet;
+        }
+
+        /** @return <code>String</code> - codice del trattamento */
+        public String getCodice() {
+            return codice;
+        }
+
+        /** @return <code>String</code> - nome del trattamento */
+        public String getNome() {
+            return nome;
+        }
+
+        /** @return <code>double</code> - punteggio BM25 */
+        public double getScore() {
+            return score;
+        }
+
+        /** @return <code>String</code> - estratto in HTML, con le parole cercate racchiuse in <code>&lt;mark&gt;</code> */
+        public String getSnippet() {
+            return snippet;
+        }
+    }
+
+
+    /**
+     * <p>Costruttore privato: l'indice si ottiene tramite {@link #getInstance(int)}.</p>
+     *
+     * @param idSurvey identificativo della rilevazione
+     */
+    private SearchIndex(int idSurvey) {
+        this.idSurvey = idSurvey;
+    }
+
+
+    /**
+     * <p>Restituisce l'indice della rilevazione indicata,
+     * creandolo vuoto se non esiste ancora.</p>
+     *
+     * @param idSurvey identificativo della rilevazione
+     * @return <code>SearchIndex</code> - l'indice della rilevazione
+     */
+    public static SearchIndex getInstance(int idSurvey) {
+        SearchIndex index = indexes.get(idSurvey);
+        if (index == null) {
+            SearchIndex created = new SearchIndex(idSurvey);
+            index = indexes.putIfAbsent(idSurvey, created);
+            if (index == null) {
+                index = created;
+            }
+        }
+        return index;
+    }
+
+
+    /**
+     * <p>Restituisce <code>true</code> se l'indice &egrave; allineato
+     * all'istantanea corrente del registro o, in mancanza di questa,
+     * se &egrave; stato aggiornato da meno di {@link #MAX_AGE} millisecondi.</p>
+     *
+     * @param current momento di creazione dell'istantanea corrente, negativo se assente
+     * @return <code>boolean</code> - true se l'indice non ha bisogno di essere aggiornato
+     */
+    public boolean isFresh(long current) {
+        if (current >= NOTHING) {
+            return stamp == current;
+        }
+        return stamp < NOTHING && stamp != Long.MIN_VALUE && System.currentTimeMillis() - refreshed < MAX_AGE;
+    }
+
+
+    /**
+     * <p>Allinea l'indice al registro passato come argomento:
+     * rianalizza i trattamenti nuovi o il cui contenuto &egrave; cambiato
+     * e rimuove quelli non pi&ugrave; presenti.</p>
+     *
+     * @param current   momento di creazione dell'istantanea del registro, negativo se assente
+     * @param list      trattamenti della rilevazione, nell'ordine del registro
+     * @return <code>int</code> - numero di trattamenti rianalizzati
+     * @throws AttributoNonValorizzatoException se un trattamento non ha il codice
+     */
+    public int refresh(long current,
+                       List<ProcessingBean> list)
+                throws AttributoNonValorizzatoException {
+        int changed = NOTHING;
+        lock.writeLock().lock();
+        try {
+            HashSet<String> seen = new HashSet<>();
+            LinkedHashMap<String, Doc> ordered = new LinkedHashMap<>();
+            for (ProcessingBean t : list) {
+                String codice = t.getCodice();
+                seen.add(codice);
+                Doc doc = docs.get(codice);
+                long fingerprint = fingerprint(t);
+                if (doc == null || doc.fingerprint != fingerprint) {
+                    unindex(codice);
+                    doc = document(codice, fingerprint, t);
+                    index(doc);
+                    changed++;
+                }
+                ordered.put(codice, doc);
+            }
+            Iterator<String> it = docs.keySet().iterator();
+            while (it.hasNext()) {
+                String codice = it.next();
+                if (!seen.contains(codice)) {
+                    unindex(codice);
+                    changed++;
+                }
+            }
+            // Mantiene l'ordine del registro, usato a parita' di punteggio
+            docs.clear();
+            docs.putAll(ordered);
+            stamp = current;
+            refreshed = System.currentTimeMillis();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (changed > NOTHING) {
+            LOG.info(FOR_NAME + "Aggiornato " + this + ": " + changed + " trattamenti rianalizzati");
+        }
+        return changed;
+    }
+
+
+    /**
+     * <p>Cerca i trattamenti che contengono almeno una delle parole
+     * del testo cercato e li restituisce in ordine di pertinenza.</p>
+     *
+     * @param text  testo cercato
+     * @param max   numero massimo di risultati
+     * @return <code>ArrayList&lt;Hit&gt;</code> - risultati, dal pi&ugrave; pertinente; vuota se nessuna parola significativa
+     */
+    public ArrayList<Hit> search(String text,
+                                 int max) {
+        ArrayList<String> terms = new ArrayList<>();
+        analyze(text, terms, null);
+        // Ogni radice conta una sola volta
+        ArrayList<String> query = new ArrayList<>(new HashSet<>(terms));
+        ArrayList<Hit> hits = new ArrayList<>();
+        if (query.isEmpty() || max <= NOTHING) {
+            return hits;
+        }
+        lock.readLock().lock();
+        try {
+            int n = docs.size();
+            if (n == NOTHING) {
+                return hits;
+            }
+            double avgLength = (double) totalLength / n;
+            final HashMap<String, Double> scores = new HashMap<>();
+            for (String term : query) {
+                HashMap<String, Integer> posting = postings.get(term);
+                if (posting == null) {
+                    continue;
+                }
+                double idf = Math.log(1.0 + (n - posting.size() + 0.5) / (posting.size() + 0.5));
+                for (Map.Entry<String, Integer> e : posting.entrySet()) {
+                    double tf = e.getValue().intValue();
+                    double norm = K1 * (1.0 - B + B * docs.get(e.getKey()).length / avgLength);
+                    Double previous = scores.get(e.getKey());
+                    double score = idf * tf * (K1 + 1.0) / (tf + norm);
+                    scores.put(e.getKey(), Double.valueOf(previous == null ? score : previous.doubleValue() + score));
+                }
+            }
+            // Ordina per punteggio e, a parita', nell'ordine del registro
+            ArrayList<String> ranked = new ArrayList<>();
+            for (String codice : docs.keySet()) {
+                if (scores.containsKey(codice)) {
+                    ranked.add(codice);
+                }
+            }
+            Collections.sort(ranked, new Comparator<String>() {
+                @Override
+                public int compare(String a, String b) {
+                    return Double.compare(scores.get(b).doubleValue(), scores.get(a).doubleValue());
+                }
+            });
+            HashSet<String> wanted = new HashSet<>(query);
+            for (String codice : ranked.subList(NOTHING, Math.min(max, ranked.size()))) {
+                Doc doc = docs.get(codice);
+                hits.add(new Hit(codice, doc.nome, scores.get(codice).doubleValue(), snippet(doc, wanted)));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return <code>int</code> - identificativo della rilevazione
+     */
+    public int getIdSurvey() {
+        return idSurvey;
+    }
+
+
+    /**
+     * @return <code>int</code> - numero di trattamenti indicizzati
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * <p>Restituisce una descrizione sintetica dell'indice,
+     * utile da scrivere nel log.</p>
+     *
+     * @return <code>String</code> - rilevazione, trattamenti e radici dell'indice
+     */
+    @Override
+    public String toString() {
+        lock.readLock().lock();
+        try {
+            return "SearchIndex [survey=" + idSurvey +
+                   ", stamp=" + stamp +
+                   ", docs=" + docs.size() +
+                   ", terms=" + postings.size() + "]";
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * <p>Estrae i testi dei campi indicizzati diversi dal nome:
+     * descrizione, finalit&agrave;, misure di sicurezza, attivit&agrave;,
+     * basi giuridiche e banche dati.</p>
+     *
+     * @param t trattamento
+     * @return <code>String[]</code> - testi dei campi, in HTML o testo semplice; mai null
+     * @throws AttributoNonValorizzatoException se un'entit&agrave; collegata non ha il nome
+     */
+    private static String[] fields(ProcessingBean t)
+                            throws AttributoNonValorizzatoException {
+        return new String[] {
+            t.getDescrizione(),
+            t.getFinalita(),
+            (t.getExtraInfos() == null) ? null : t.getExtraInfos().getExtraInfo1(),
+            names(t.getAttivita()),
+            names(t.getBasiGiuridiche()),
+            names(t.getBancheDati())
+        };
+    }
+
+
+    /**
+     * @param list  entit&agrave; collegate al trattamento
+     * @return <code>String</code> - nomi delle entit&agrave;, uno per riga; null se la lista &egrave; null
+     * @throws AttributoNonValorizzatoException se un'entit&agrave; non ha il nome
+     */
+    private static String names(List<? extends CodeBean> list)
+                         throws AttributoNonValorizzatoException {
+        if (list == null) {
+            return null;
+        }
+        StringBuilder s = new StringBuilder();
+        for (CodeBean item : list) {
+            s.append(item.getNome()).append(". \n");
+        }
+        return s.toString();
+    }
+
+
+    /**
+     * <p>Calcola l'impronta del contenuto indicizzato di un trattamento,
+     * che permette di riconoscere i trattamenti cambiati senza rianalizzarli.</p>
+     *
+     * @param t trattamento
+     * @return <code>long</code> - impronta del contenuto
+     * @throws AttributoNonValorizzatoException se un attributo obbligatorio non &egrave; valorizzato
+     */
+    private static long fingerprint(ProcessingBean t)
+                             throws AttributoNonValorizzatoException {
+        long h = 1125899906842597L;
+        h = 31 * h + String.valueOf(t.getNome()).hashCode();
+        for (String field : fields(t)) {
+            h = 31 * h + String.valueOf(field).hashCode();
+        }
+        return h;
+    }
+
+
+    /**
+     * <p>Analizza un trattamento: riduce i campi a testo semplice
+     * e ne conta le radici, pesando quelle del nome.</p>
+     *
+     * @param codice        codice del trattamento
+     * @param fingerprint   impronta del contenuto
+     * @param t             trattamento
+     * @return <code>Doc</code> - il trattamento analizzato
+     * @throws AttributoNonValorizzatoException se un attributo obbligatorio non &egrave; valorizzato
+     */
+    private static Doc document(String codice,
+                                long fingerprint,
+                                ProcessingBean t)
+                         throws AttributoNonValorizzatoException {
+        String nome = HtmlTextConverter.toText(t.getNome());
+        String[] raw = fields(t);
+        String[] texts = new String[raw.length];
+        HashMap<String, Integer> tf = new HashMap<>();
+        ArrayList<String> terms = new ArrayList<>();
+        analyze(nome, terms, null);
+        int length = count(tf, terms, WEIGHT_NAME);
+        for (int i = 0; i < raw.length; i++) {
+            texts[i] = HtmlTextConverter.toText(raw[i]);
+            terms.clear();
+            analyze(texts[i], terms, null);
+            length += count(tf, terms, 1);
+        }
+        return new Doc(codice, fingerprint, nome, texts, tf, length);
+    }
+
+
+    /**
+     * @param tf        frequenze da aggiornare
+     * @param terms     radici di un campo
+     * @param weight    peso del campo
+     * @return <code>int</code> - lunghezza pesata del campo
+     */
+    private static int count(HashMap<String, Integer> tf,
+                             List<String> terms,
+                             int weight) {
+        for (String term : terms) {
+            Integer previous = tf.get(term);
+            tf.put(term, Integer.valueOf(previous == null ? weight : previous.intValue() + weight));
+        }
+        return terms.size() * weight;
+    }
+
+
+    /**
+     * @param doc trattamento analizzato da aggiungere alle liste delle occorrenze
+     */
+    private void index(Doc doc) {
+        for (Map.Entry<String, Integer> e : doc.tf.entrySet()) {
+            HashMap<String, Integer> posting = postings.get(e.getKey());
+            if (posting == null) {
+                posting = new HashMap<>();
+                postings.put(e.getKey(), posting);
+            }
+            posting.put(doc.codice, e.getValue());
+        }
+        totalLength += doc.length;
+    }
+
+
+    /**
+     * @param codice codice del trattamento da togliere dalle liste delle occorrenze
+     */
+    private void unindex(String codice) {
+        Doc doc = docs.get(codice);
+        if (doc == null) {
+            return;
+        }
+        for (String term : doc.tf.keySet()) {
+            HashMap<String, Integer> posting = postings.get(term);
+            if (posting != null) {
+                posting.remove(codice);
+                if (posting.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+        totalLength -= doc.length;
+    }
+
+
+    /**
+     * <p>Compone l'estratto del campo pi&ugrave; pertinente:
+     * la finestra di {@link #SNIPPET_WORDS} parole che contiene
+     * il maggior numero di occorrenze delle parole cercate,
+     * con queste racchiuse in <code>&lt;mark&gt;</code>.</p>
+     *
+     * @param doc       trattamento
+     * @param wanted    radici cercate
+     * @return <code>String</code> - estratto in HTML
+     */
+    private static String snippet(Doc doc,
+                                  HashSet<String> wanted) {
+        String bestText = null;
+        ArrayList<int[]> bestSpans = null;
+        ArrayList<String> bestTerms = null;
+        int bestStart = NOTHING;
+        int bestHits = DEFAULT_ID;
+        for (String text : doc.texts) {
+            if (text.isEmpty()) {
+                continue;
+            }
+            ArrayList<String> terms = new ArrayList<>();
+            ArrayList<int[]> spans = new ArrayList<>();
+            analyze(text, terms, spans);
+            // Finestra scorrevole sulle parole del campo
+            int hits = NOTHING;
+            for (int i = 0; i < terms.size(); i++) {
+                if (wanted.contains(terms.get(i))) {
+                    hits++;
+                }
+                if (i >= SNIPPET_WORDS && wanted.contains(terms.get(i - SNIPPET_WORDS))) {
+                    hits--;
+                }
+                int start = Math.max(NOTHING, i - SNIPPET_WORDS + 1);
+                if (hits > bestHits) {
+                    bestHits = hits;
+                    bestText = text;
+                    bestSpans = spans;
+                    bestTerms = terms;
+                    bestStart = (hits == NOTHING) ? NOTHING : start;
+                }
+            }
+        }
+        if (bestText == null) {
+            return VOID_STRING;
+        }
+        // Apre l'estratto qualche parola prima della prima occorrenza
+        for (int i = bestStart; i < bestTerms.size() && bestHits > NOTHING; i++) {
+            if (wanted.contains(bestTerms.get(i))) {
+                bestStart = Math.max(NOTHING, i - SNIPPET_LEAD);
+                break;
+            }
+        }
+        int end = Math.min(bestSpans.size(), bestStart + SNIPPET_WORDS);
+        int from = (bestStart == NOTHING) ? NOTHING : bestSpans.get(bestStart)[0];
+        int to = (end == bestSpans.size()) ? bestText.length() : bestSpans.get(end - 1)[1];
+        StringBuilder s = new StringBuilder();
+        if (from > NOTHING) {
+            s.append("&hellip; ");
+        }
+        int pos = from;
+        for (int i = bestStart; i < end; i++) {
+            if (wanted.contains(bestTerms.get(i))) {
+                int[] span = bestSpans.get(i);
+                escape(s, bestText, pos, span[0]);
+                s.append("<mark>");
+                escape(s, bestText, span[0], span[1]);
+                s.append("</mark>");
+                pos = span[1];
+            }
+        }
+        escape(s, bestText, pos, to);
+        if (to < bestText.length()) {
+            s.append(" &hellip;");
+        }
+        return s.toString();
+    }
+
+
+    /**
+     * @param s     buffer su cui scrivere
+     * @param text  testo da scrivere
+     * @param from  inizio della porzione di testo
+     * @param to    fine (esclusa) della porzione di testo
+     */
+    private static void escape(StringBuilder s,
+                               String text,
+                               int from,
+                               int to) {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<':  s.append("&lt;");   break;
+                case '>':  s.append("&gt;");   break;
+                case '&':  s.append("&amp;");  break;
+                case '"':  s.append("&quot;"); break;
+                default:   s.append(c);
+            }
+        }
+    }
+
+
+    /**
+     * <p>Suddivide un testo in parole, scarta le parole vuote e riduce
+     * le altre alla radice; le parole sono sequenze di lettere e cifre,
+     * quindi gli articoli apostrofati si separano da s&eacute;
+     * (<em>dell'interessato</em> &rarr; <em>dell</em>, <em>interessato</em>).</p>
+     *
+     * @param text  testo semplice da analizzare
+     * @param terms lista da valorizzare per riferimento con le radici
+     * @param spans lista da valorizzare per riferimento con inizio e fine di ciascuna parola nel testo; null se non servono
+     */
+    static void analyze(String text,
+                        List<String> terms,
+                        List<int[]> spans) {
+        if (text == null) {
+            return;
+        }
+        int length = text.length();
+        int i = NOTHING;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                String word = normalize(text.substring(start, i));
+                if (!STOPWORDS.contains(word) && !(word.length() == 1 && Character.isLetter(word.charAt(0)))) {
+                    terms.add(stem(word));
+                    if (spans != null) {
+                        spans.add(new int[] { start, i });
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @param word  parola
+     * @return <code>String</code> - la parola in minuscolo, priva di accenti
+     */
+    static String normalize(String word) {
+        String lower = word.toLowerCase(Locale.ITALIAN);
+        for (int i = 0; i < lower.length(); i++) {
+            if (lower.charAt(i) > 0x7f) {
+                return DIACRITICS.matcher(Normalizer.normalize(lower, Normalizer.Form.NFD)).replaceAll(VOID_STRING);
+            }
+        }
+        return lower;
+    }
+
+
+    /**
+     * <p>Riduce leggermente una parola italiana alla radice:
+     * il plurale in <em>-che/-chi/-ghe/-ghi</em> perde l'acca
+     * e vengono tolte fino a due vocali finali, lasciando almeno
+     * tre lettere (<em>sanitarie</em> &rarr; <em>sanitar</em>,
+     * <em>gestioni</em> &rarr; <em>gestion</em>).</p>
+     *
+     * @param word  parola normalizzata
+     * @return <code>String</code> - radice della parola
+     */
+    private static String stem(String word) {
+        int end = word.length();
+        if (end > 4 && word.charAt(end - 2) == 'h' && (word.charAt(end - 1) == 'e' || word.charAt(end - 1) == 'i')
+                && (word.charAt(end - 3) == 'c' || word.charAt(end - 3) == 'g')) {
+            return word.substring(NOTHING, end - 2);
+        }
+        for (int k = 0; k < 2 && end > 3 && "aeiou".indexOf(word.charAt(end - 1)) >= NOTHING; k++) {
+            end--;
+        }
+        return word.substring(NOTHING, end);
+    }
+
+}
@@ -0,0 +1,410 @@
+/*
+ *   Trattamenti On Line (tol): Applicazione web per la gestione del 
+ *   registro delle attività di trattamento.
+ *
+ *   TOL:
+ *   web application to manage and publish information about
+ *   databases containing personal data, which are managed by subjects 
+ *   belonging to the university or involving 
+ *   the university as manager.
+ *   Copyright (C) 2023 Giovanroberto Torre
+ *   all right reserved
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA<br>
+ *
+ *   Giovanroberto Torre <gianroberto.torre@gmail.com>
+ *   Universita' degli Studi di Verona
+ *   Via Dell'Artigliere, 8
+ *   37129 Verona (Italy)
+ */
+
+package it.tol.wrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import it.tol.exception.CommandException;
+
+
+/**
+ * <p><code>SingleFlight</code> accorpa le elaborazioni identiche
+ * richieste contemporaneamente: la prima richiesta per una certa chiave
+ * esegue l'elaborazione, le richieste con la stessa chiave che arrivano
+ * mentre questa &egrave; in corso ne attendono la conclusione e ricevono
+ * lo stesso risultato (o la stessa eccezione), senza ripeterla.</p>
+ * <p>Se il risultato &egrave; modificabile (p.es. i bean dei trattamenti)
+ * l'accorpatore va creato con un {@link Copier}: la richiesta che esegue
+ * l'elaborazione riceve il risultato originale, ciascuna richiesta accorpata
+ * una propria copia, ricavata da un'istantanea presa prima di restituire
+ * l'originale, cos&igrave; che nessuna richiesta veda le modifiche delle altre.</p>
+ * <p>L'attesa di una richiesta accorpata &egrave; limitata (v.
+ * {@link #DEFAULT_MAX_WAIT}): se l'elaborazione in corso non si conclude
+ * entro il limite, p.es. perch&eacute; la richiesta che la esegue &egrave;
+ * bloccata su una connessione al database, la richiesta in attesa smette
+ * di attenderla ed esegue l'elaborazione per proprio conto, senza accorparvi
+ * altre richieste; cos&igrave; un'elaborazione bloccata non blocca con s&eacute;
+ * tutte le richieste con la stessa chiave.</p>
+ * <p>Non &egrave; una cache: terminata l'elaborazione la chiave viene
+ * liberata e la richiesta successiva ne avvia una nuova.
+ * Serve nei momenti di picco, p.es. quando alla pubblicazione di una
+ * rilevazione molti utenti aprono lo stesso registro o ne scaricano
+ * il PDF nello stesso minuto.</p>
+ * <p>I contatori delle elaborazioni eseguite, delle richieste accorpate
+ * e delle attese scadute vengono riportati nel log a ogni elaborazione che ne ha servite pi&ugrave;
+ * di una.</p>
+ *
+ * @param <V> tipo del risultato dell'elaborazione
+ * @author <a href="mailto:gianroberto.torre@gmail.com">Giovanroberto Torre</a>
+ */
+public class SingleFlight<V> {
+
+    /**
+     * <p>Logger della classe per scrivere i messaggi di errore.
+     * All logging goes through this logger.</p>
+     */
+    private static Logger LOG = Logger.getLogger(SingleFlight.class.getName());
+    /**
+     * <p>Nome di questa classe
+     * (viene utilizzato per contestualizzare i messaggi di errore).</p>
+     */
+    static final String FOR_NAME = "\n" + Logger.getLogger(new Throwable().getStackTrace()[0].getClassName()) + ": ";
+    /**
+     * <p>Attesa massima predefinita, in millisecondi, di una richiesta accorpata.</p>
+     */
+    public static final long DEFAULT_MAX_WAIT = 60L * 1000;
+    /**
+     * <p>Nome dell'accorpatore, usato nel log.</p>
+     */
+    private final String name;
+    /**
+     * <p>Produce le copie del risultato per le richieste accorpate,
+     * oppure null se il risultato pu&ograve; essere condiviso.</p>
+     */
+    private final Copier<V> copier;
+    /**
+     * <p>Attesa massima, in millisecondi, di una richiesta accorpata,
+     * scaduta la quale la richiesta esegue l'elaborazione per proprio conto.</p>
+     */
+    private final long maxWait;
+    /**
+     * <p>Elaborazioni in corso, indicizzate per chiave.</p>
+     */
+    private final ConcurrentHashMap<String, Flight<V>> flights = new ConcurrentHashMap<>();
+    /** Numero di elaborazioni effettivamente eseguite */
+    private final AtomicLong executions = new AtomicLong();
+    /** Numero di richieste servite dall'elaborazione di un'altra richiesta */
+    private final AtomicLong coalesced = new AtomicLong();
+    /** Numero di richieste accorpate che hanno smesso di attendere e hanno eseguito l'elaborazione per proprio conto */
+    private final AtomicLong timeouts = new AtomicLong();
+
+
+    /**
+     * <p>Elaborazione da eseguire una sola volta per chiave.</p>
+     *
+     * @param <V> tipo del risultato
+     */
+    public interface Call<V> {
+        /**
+         * @return il risultato dell'elaborazione
+         * @throws CommandException se l'elaborazione non va a buon fine
+         */
+        V call() throws CommandException;
+    }
+
+
+    /**
+     * <p>Produce una copia indipendente del risultato di un'elaborazione.</p>
+     *
+     * @param <V> tipo del risultato
+     */
+    public interface Copier<V> {
+        /**
+         * @param value risultato da copiare, che non va modificato
+         * @return una copia del risultato, modificabile senza effetti sull'originale
+         * @throws CommandException se non &egrave; possibile copiare il risultato
+         */
+        V copy(V value) throws CommandException;
+    }
+
+
+    /**
+     * <p>Elaborazione in corso: il risultato, o l'eccezione, viene
+     * pubblicato una volta sola e letto da tutte le richieste accorpate.</p>
+     *
+     * @param <V> tipo del risultato
+     */
+    private static final class Flight<V> {
+        /** Si apre quando l'elaborazione &egrave; conclusa */
+        final CountDownLatch done = new CountDownLatch(1);
+        /** Richieste in attesa dell'elaborazione, oltre a quella che la esegue */
+        private int waiting;
+        /** Vale true quando l'elaborazione non accetta pi&ugrave; richieste accorpate */
+        private boolean sealed;
+        /** Vale true se l'elaborazione si &egrave; conclusa regolarmente (anche con un risultato null) */
+        boolean completed;
+        /** Risultato dell'elaborazione */
+        V value;
+        /** Istantanea del risultato da cui copiano le richieste accorpate, se c'&egrave; un {@link Copier} */
+        V shared;
+        /** Eccezione sollevata dall'elaborazione */
+        CommandException error;
+
+        /**
+         * @return <code>boolean</code> - true se la richiesta &egrave; stata accorpata, false se l'elaborazione si sta gi&agrave; chiudendo
+         */
+        synchronized boolean join() {
+            if (sealed) {
+                return false;
+            }
+            waiting++;
+            return true;
+        }
+
+        /**
+         * <p>Ritira una richiesta accorpata che smette di attendere.</p>
+         *
+         * @return <code>boolean</code> - true se la richiesta &egrave; stata ritirata, false se l'elaborazione si sta gi&agrave; chiudendo (e il risultato &egrave; imminente)
+         */
+        synchronized boolean leave() {
+            if (sealed) {
+                return false;
+            }
+            waiting--;
+            return true;
+        }
+
+        /**
+         * <p>Chiude l'elaborazione alle richieste accorpate.</p>
+         *
+         * @return <code>int</code> - numero definitivo delle richieste accorpate
+         */
+        synchronized int seal() {
+            sealed = true;
+            return waiting;
+        }
+    }
+
+
+    /**
+     * <p>Crea un nuovo accorpatore, il cui risultato viene condiviso
+     * cos&igrave; com'&egrave; da tutte le richieste accorpate.</p>
+     *
+     * @param name nome dell'accorpatore, usato nel log
+     */
+    public SingleFlight(String name) {
+        this(name, null);
+    }
+
+
+    /**
+     * <p>Crea un nuovo accorpatore le cui richieste accorpate ricevono
+     * ciascuna una copia del risultato.</p>
+     *
+     * @param name      nome dell'accorpatore, usato nel log
+     * @param copier    produce le copie del risultato, oppure null per condividerlo
+     */
+    public SingleFlight(String name,
+                        Copier<V> copier) {
+        this(name, copier, DEFAULT_MAX_WAIT);
+    }
+
+
+    /**
+     * <p>Crea un nuovo accorpatore con un'attesa massima diversa da quella
+     * predefinita (p.es. per elaborazioni che durano normalmente a lungo).</p>
+     *
+     * @param name      nome dell'accorpatore, usato nel log
+     * @param copier    produce le copie del risultato, oppure null per condividerlo
+     * @param maxWait   attesa massima, in millisecondi, di una richiesta accorpata
+     */
+    public SingleFlight(String name,
+                        Copier<V> copier,
+                        long maxWait) {
+        this.name = name;
+        this.copier = copier;
+        this.maxWait = maxWait;
+    }
+
+
+    /**
+     * <p>Restituisce un {@link Copier} che copia il risultato
+     * serializzandolo e ricostruendolo (copia profonda).</p>
+     *
+     * @param <T> tipo del risultato, serializzabile
+     * @return <code>Copier&lt;T&gt;</code> - copiatore per serializzazione
+     */
+    public static <T extends Serializable> Copier<T> bySerialization() {
+        return new Copier<T>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public T copy(T value) throws CommandException {
+                if (value == null) {
+                    return null;
+                }
+                try {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+                    try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                        oos.writeObject(value);
+                    }
+                    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                        return (T) ois.readObject();
+                    }
+                } catch (IOException | ClassNotFoundException e) {
+                    String msg = FOR_NAME + "Impossibile copiare il risultato di un'elaborazione condivisa.\n";
+                    LOG.severe(msg);
+                    throw new CommandException(msg + e.getMessage(), e);
+                }
+            }
+        };
+    }
+
+
+    /**
+     * <p>Esegue l'elaborazione associata alla chiave oppure, se un'elaborazione
+     * con la stessa chiave &egrave; gi&agrave; in corso, ne attende il risultato;
+     * se l'attesa supera il limite dell'accorpatore esegue l'elaborazione
+     * per proprio conto.</p>
+     *
+     * @param key   chiave dell'elaborazione: due richieste con la stessa chiave devono produrre lo stesso risultato
+     * @param call  elaborazione da eseguire se non ce n'&egrave; una in corso
+     * @return il risultato dell'elaborazione (null compreso), condiviso da tutte le richieste accorpate oppure copiato per ciascuna
+     * @throws CommandException se l'elaborazione fallisce o se l'attesa viene interrotta
+     */
+    public V execute(String key,
+                     Call<V> call)
+              throws CommandException {
+        Flight<V> flight = new Flight<>();
+        Flight<V> current = flights.putIfAbsent(key, flight);
+        // L'elaborazione trovata si sta chiudendo: attende che liberi la chiave e riprova
+        while (current != null && !current.join()) {
+            Thread.yield();
+            current = flights.putIfAbsent(key, flight);
+        }
+        if (current != null) {
+            // Un'altra richiesta sta gia' elaborando: ne attende il risultato
+            boolean expired = false;
+            try {
+                // Scaduta l'attesa si ritira, a meno che l'elaborazione non si stia gia' chiudendo
+                if (!current.done.await(maxWait, TimeUnit.MILLISECONDS)) {
+                    expired = current.leave();
+                    if (!expired) {
+                        current.done.await();
+                    }
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new CommandException(FOR_NAME + "Attesa interrotta dell'elaborazione " + key + ".\n", ie);
+            }
+            if (expired) {
+                // L'elaborazione in corso non si e' conclusa in tempo: la esegue per proprio conto, fuori dall'accorpamento
+                timeouts.incrementAndGet();
+                executions.incrementAndGet();
+                LOG.warning(FOR_NAME + name + ": elaborazione " + key + " non conclusa dopo " + maxWait + " ms, la richiesta in attesa la esegue per proprio conto; " + this);
+                return call.call();
+            }
+            coalesced.incrementAndGet();
+            if (current.error != null) {
+                throw current.error;
+            }
+            return (copier == null) ? current.value : copier.copy(current.shared);
+        }
+        executions.incrementAndGet();
+        try {
+            flight.value = call.call();
+            flight.completed = true;
+            return flight.value;
+        } catch (CommandException ce) {
+            flight.error = ce;
+            throw ce;
+        } finally {
+            // Qualunque altro problema viene comunque segnalato alle richieste in attesa
+            if (!flight.completed && flight.error == null) {
+                flight.error = new CommandException(FOR_NAME + "Elaborazione " + key + " non riuscita.\n");
+            }
+            int waiting = flight.seal();
+            // Istantanea per le richieste accorpate, presa prima che l'originale esca da qui
+            if (waiting > 0 && flight.completed && copier != null) {
+                try {
+                    flight.shared = copier.copy(flight.value);
+                } catch (CommandException ce) {
+                    flight.error = ce;
+                }
+            }
+            // Libera la chiave prima di sbloccare le attese: le richieste successive ripartono da capo
+            flights.remove(key, flight);
+            flight.done.countDown();
+            if (waiting > 0) {
+                LOG.info(FOR_NAME + name + ": " + (waiting + 1) + " richieste servite da un'unica elaborazione (" + key + "); " + this);
+            }
+        }
+    }
+
+
+    /**
+     * @return <code>long</code> - numero di elaborazioni eseguite
+     */
+    public long getExecutions() {
+        return executions.get();
+    }
+
+
+    /**
+     * @return <code>long</code> - numero di richieste servite dall'elaborazione di un'altra richiesta
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+
+    /**
+     * @return <code>long</code> - numero di richieste che hanno smesso di attendere e hanno eseguito l'elaborazione per proprio conto
+     */
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+
+    /**
+     * @return <code>int</code> - numero di elaborazioni in corso
+     */
+    public int getInFlight() {
+        return flights.size();
+    }
+
+
+    /**
+     * <p>Restituisce una descrizione dei contatori dell'accorpatore,
+     * utile da scrivere nel log.</p>
+     *
+     * @return <code>String</code> - contatori dell'accorpatore
+     */
+    @Override
+    public String toString() {
+        return "SingleFlight " + name + " [executions=" + executions.get() +
+               ", coalesced=" + coalesced.get() +
+               ", timeouts=" + timeouts.get() +
+               ", inFlight=" + flights.size() + "]";
+    }
+
+}
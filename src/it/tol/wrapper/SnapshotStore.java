@@ -0,0 +1,754 @@
+/*
+ *   Trattamenti On Line (tol): Applicazione web per la gestione del 
+ *   registro delle attività di trattamento.
+ *
+ *   TOL:
+ *   web application to manage and publish information about
+ *   databases containing personal data, which are managed by subjects 
+ *   belonging to the university or involving 
+ *   the university as manager.
+ *   Copyright (C) 2023 Giovanroberto Torre
+ *   all right reserved
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA<br>
+ *
+ *   Giovanroberto Torre <gianroberto.torre@gmail.com>
+ *   Universita' degli Studi di Verona
+ *   Via Dell'Artigliere, 8
+ *   37129 Verona (Italy)
+ */
+
+package it.tol.wrapper;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import it.tol.ConfigManager;
+import it.tol.bean.ActivityBean;
+import it.tol.bean.CodeBean;
+import it.tol.bean.DepartmentBean;
+import it.tol.bean.ItemBean;
+import it.tol.bean.ProcessBean;
+import it.tol.bean.ProcessingBean;
+import it.tol.exception.AttributoNonValorizzatoException;
+import it.tol.exception.WebStorageException;
+import it.tol.interfaces.Constants;
+import it.tol.interfaces.RegistryListener;
+import it.tol.utils.Utils;
+
+
+/**
+ * <p><code>SnapshotStore.java</code> gestisce le istantanee su disco
+ * dei registri dei trattamenti relativi alle rilevazioni chiuse.</p>
+ * <p>Una rilevazione chiusa non cambia pi&uacute;: il suo registro completo
+ * (trattamenti in qualunque stato, con attivit&agrave;, interessati,
+ * basi giuridiche, banche dati e ulteriori informazioni) viene quindi
+ * scritto una sola volta in un file binario, nella sottodirectory
+ * <code>snapshot</code> della directory dei documenti, e da quel momento
+ * letto attraverso una mappatura in memoria del file,
+ * senza alcun accesso al database.</p>
+ * <p>Il file &egrave; composto da:<ul>
+ * <li>un'intestazione (firma, versione, impronta delle classi serializzate,
+ * identificativo della rilevazione, ultima modifica, momento di creazione,
+ * numero di trattamenti);</li>
+ * <li>un indice con codice, stato, posizione e lunghezza di ciascun trattamento;</li>
+ * <li>i trattamenti serializzati, uno di seguito all'altro.</li>
+ * </ul>
+ * L'indice permette di estrarre un singolo trattamento senza leggere
+ * il resto del file.</p>
+ * <p>Un file scritto con una versione del formato o con classi dei bean
+ * diverse da quelle correnti, oppure illeggibile, viene cancellato e ricostruito;
+ * se la ricostruzione non riesce la rilevazione viene servita dal database.
+ * L'istantanea di una rilevazione riaperta o modificata dopo la sua scrittura
+ * viene scartata alla creazione dell'archivio e a ogni ricaricamento
+ * del registro delle rilevazioni (v. {@link #check(List, DBWrapper)}).</p>
+ *
+ * @author <a href="mailto:gianroberto.torre@gmail.com">Giovanroberto Torre</a>
+ */
+public class SnapshotStore implements Constants {
+
+    /**
+     * <p>Logger della classe per scrivere i messaggi di errore.
+     * All logging goes through this logger.</p>
+     */
+    private static Logger LOG = Logger.getLogger(SnapshotStore.class.getName());
+    /**
+     * <p>Nome di questa classe
+     * (viene utilizzato per contestualizzare i messaggi di errore).</p>
+     */
+    static final String FOR_NAME = "\n" + Logger.getLogger(new Throwable().getStackTrace()[0].getClassName()) + ": ";
+    /**
+     * <p>Firma dei file di istantanea ('TOLS').</p>
+     */
+    private static final int MAGIC = 0x544F4C53;
+    /**
+     * <p>Versione del formato dei file di istantanea.</p>
+     */
+    private static final int VERSION = 2;
+    /**
+     * <p>Classi i cui oggetti vengono serializzati nei file di istantanea.</p>
+     */
+    private static final Class<?>[] BEANS = { ProcessingBean.class, ProcessBean.class, ActivityBean.class,
+                                              DepartmentBean.class, CodeBean.class, ItemBean.class };
+    /**
+     * <p>Impronta della struttura serializzata delle classi dei bean:
+     * un'istantanea scritta con classi diverse non viene letta.</p>
+     */
+    private static final long SCHEMA = schema();
+    /**
+     * <p>Istanza unica dell'archivio (Singleton).</p>
+     */
+    private static SnapshotStore instance = null;
+    /**
+     * <p>Directory contenente i file di istantanea (null se non configurata).</p>
+     */
+    private final File dir;
+    /**
+     * <p>Istantanee gi&agrave; aperte, indicizzate per identificativo di rilevazione.</p>
+     */
+    private final ConcurrentHashMap<Integer, Snapshot> snapshots = new ConcurrentHashMap<>();
+    /**
+     * <p>Rilevazioni per le quali non &egrave; stato possibile scrivere
+     * o rileggere l'istantanea: per esse non si ritenta fino al riavvio
+     * dell'applicazione o all'invalidazione dell'istantanea.</p>
+     */
+    private final ConcurrentHashMap<Integer, Boolean> failures = new ConcurrentHashMap<>();
+    /**
+     * <p>Rilevazioni la cui istantanea &egrave; gi&agrave; stata scartata una volta
+     * perch&eacute; illeggibile: un secondo scarto non d&agrave; luogo a ricostruzione.</p>
+     */
+    private final ConcurrentHashMap<Integer, Boolean> discarded = new ConcurrentHashMap<>();
+    /**
+     * <p>Lock per rilevazione, che serializzano costruzione e rimozione
+     * dell'istantanea di una stessa rilevazione.</p>
+     */
+    private final ConcurrentHashMap<Integer, Object> locks = new ConcurrentHashMap<>();
+
+
+    /**
+     * <p>Sorgente del registro da cui costruire un'istantanea:
+     * viene interrogata solo da chi ottiene il lock della rilevazione
+     * e trova l'istantanea ancora assente.</p>
+     */
+    public interface Source {
+        /**
+         * @return <code>long</code> - ultima modifica del registro, in millisecondi, letta prima dei trattamenti
+         * @throws WebStorageException se si verifica un problema nell'accesso al database
+         */
+        long getLastModified() throws WebStorageException;
+
+        /**
+         * @return <code>ArrayList&lt;ProcessingBean&gt;</code> - registro completo (trattamenti in qualunque stato)
+         * @throws WebStorageException se si verifica un problema nell'accesso al database
+         */
+        ArrayList<ProcessingBean> getTrattamenti() throws WebStorageException;
+    }
+
+
+    /**
+     * <p>Istantanea di un registro: vista in sola lettura, mappata in memoria,
+     * del file corrispondente, con il relativo indice.</p>
+     */
+    public static class Snapshot {
+        /** Identificativo della rilevazione */
+        private final int idSurvey;
+        /** Ultima modifica rilevata tra tutti i trattamenti del registro */
+        private final long lastModified;
+        /** Momento di creazione dell'istantanea */
+        private final long created;
+        /** Contenuto del file mappato in memoria */
+        private final MappedByteBuffer buffer;
+        /** Indice dei trattamenti: codice &rarr; {stato, posizione, lunghezza} */
+        private final LinkedHashMap<String, long[]> index;
+
+        Snapshot(int idSurvey,
+                 long lastModified,
+                 long created,
+                 MappedByteBuffer buffer,
+                 LinkedHashMap<String, long[]> index) {
+            this.idSurvey = idSurvey;
+            this.lastModified = lastModified;
+            this.created = created;
+            this.buffer = buffer;
+            this.index = index;
+        }
+
+        /**
+         * <p>Restituisce il trattamento avente il codice passato come argomento,
+         * se si trova nello stato richiesto.</p>
+         *
+         * @param codice    codice del trattamento
+         * @param idStato   identificativo dello stato, oppure -1 per qualunque stato
+         * @return <code>ProcessingBean</code> - il trattamento, oppure null se non trovato
+         * @throws IOException se il contenuto del file non pu&ograve; essere letto
+         */
+        public ProcessingBean getTrattamento(String codice,
+                                             int idStato)
+                                      throws IOException {
+            long[] entry = index.get(codice);
+            if (entry == null || !matches(entry, idStato)) {
+                return null;
+            }
+            return read(entry);
+        }
+
+        /**
+         * <p>Restituisce i trattamenti del registro che si trovano
+         * nello stato richiesto, nell'ordine di codice.</p>
+         *
+         * @param idStato   identificativo dello stato, oppure -1 per qualunque stato
+         * @return <code>ArrayList&lt;ProcessingBean&gt;</code> - i trattamenti trovati
+         * @throws IOException se il contenuto del file non pu&ograve; essere letto
+         */
+        public ArrayList<ProcessingBean> getTrattamenti(int idStato)
+                                                 throws IOException {
+            ArrayList<ProcessingBean> trattamenti = new ArrayList<>();
+            for (long[] entry : index.values()) {
+                if (matches(entry, idStato)) {
+                    trattamenti.add(read(entry));
+                }
+            }
+            return trattamenti;
+        }
+
+        /**
+         * @return <code>int</code> - identificativo della rilevazione
+         */
+        public int getIdSurvey() {
+            return idSurvey;
+        }
+
+        /**
+         * @return <code>long</code> - ultima modifica del registro, in millisecondi
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return <code>long</code> - momento di creazione dell'istantanea, in millisecondi
+         */
+        public long getCreated() {
+            return created;
+        }
+
+        /**
+         * @return <code>int</code> - numero di trattamenti contenuti nell'istantanea
+         */
+        public int size() {
+            return index.size();
+        }
+
+        private static boolean matches(long[] entry,
+                                       int idStato) {
+            return idStato == GET_ALL_BY_CLAUSE || entry[0] == idStato;
+        }
+
+        private ProcessingBean read(long[] entry)
+                             throws IOException {
+            // Ogni lettura lavora su una propria vista del buffer condiviso
+            ByteBuffer slice = buffer.duplicate();
+            slice.position((int) entry[1]);
+            slice.limit((int) (entry[1] + entry[2]));
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteBufferInputStream(slice))) {
+                return (ProcessingBean) ois.readObject();
+            } catch (ClassNotFoundException cnfe) {
+                throw new IOException(FOR_NAME + "Contenuto dell\'istantanea non riconosciuto.\n" + cnfe.getMessage(), cnfe);
+            }
+        }
+    }
+
+
+    /**
+     * <p>InputStream che legge da un ByteBuffer (tipicamente una vista
+     * su un file mappato in memoria), senza copie intermedie.</p>
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buf;
+
+        ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? (buf.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+    }
+
+
+    /**
+     * <p>Costruttore privato: l'istanza si ottiene tramite {@link #getInstance()}.</p>
+     *
+     * @param dir directory dei file di istantanea
+     */
+    private SnapshotStore(File dir) {
+        this.dir = dir;
+    }
+
+
+    /**
+     * <p>Restituisce l'istanza unica dell'archivio, creandola al primo utilizzo
+     * sulla directory configurata in ConfigManager.</p>
+     *
+     * @return <code>SnapshotStore</code> - l'archivio delle istantanee
+     */
+    public static synchronized SnapshotStore getInstance() {
+        if (instance == null) {
+            String path = ConfigManager.getDirSnapshot();
+            final SnapshotStore store = new SnapshotStore(path == null ? null : new File(path));
+            instance = store;
+            // Verifica le istantanee gia' su disco e poi a ogni ricaricamento del registro
+            ConfigManager.addRegistryListener(new RegistryListener() {
+                @Override
+                public void registryLoaded(List<CodeBean> surveys, DBWrapper db) {
+                    store.check(surveys, db);
+                }
+                @Override
+                public void shutdown() {
+                    /*;*/   // Nessuna risorsa da rilasciare
+                }
+            });
+        }
+        return instance;
+    }
+
+
+    /**
+     * <p>Restituisce l'istantanea del registro della rilevazione
+     * indicata, aprendo il file corrispondente se esiste su disco
+     * e non &egrave; ancora stato aperto.</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     * @return <code>Snapshot</code> - l'istantanea, oppure null se non esiste
+     */
+    public Snapshot get(int idSurvey) {
+        Snapshot snapshot = snapshots.get(Integer.valueOf(idSurvey));
+        if (snapshot == null && dir != null) {
+            File file = getFile(idSurvey);
+            if (file.isFile()) {
+                synchronized (lock(idSurvey)) {
+                    snapshot = snapshots.get(Integer.valueOf(idSurvey));
+                    if (snapshot == null && file.isFile()) {
+                        try {
+                            snapshot = open(file, idSurvey);
+                            snapshots.put(Integer.valueOf(idSurvey), snapshot);
+                        } catch (IOException ioe) {
+                            // Formato superato o file danneggiato: si cancella, cosi' che venga ricostruito
+                            LOG.warning(FOR_NAME + "Istantanea " + file + " non leggibile, viene ricostruita: " + ioe.getMessage());
+                            file.delete();
+                            return null;
+                        }
+                    }
+                }
+            }
+        }
+        return snapshot;
+    }
+
+
+    /**
+     * <p>Restituisce <code>true</code> se per la rilevazione indicata
+     * &egrave; disponibile un'istantanea, gi&agrave; aperta o presente su disco.</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     * @return <code>boolean</code> - true se l'istantanea &egrave; disponibile
+     */
+    public boolean contains(int idSurvey) {
+        return get(idSurvey) != null;
+    }
+
+
+    /**
+     * <p>Restituisce <code>true</code> se ha senso tentare di scrivere
+     * l'istantanea della rilevazione indicata (directory configurata
+     * e nessun tentativo precedente fallito).</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     * @return <code>boolean</code> - true se l'istantanea pu&ograve; essere costruita
+     */
+    public boolean canBuild(int idSurvey) {
+        return dir != null && !failures.containsKey(Integer.valueOf(idSurvey));
+    }
+
+
+    /**
+     * <p>Scrive su disco l'istantanea del registro di una rilevazione chiusa
+     * e la rende immediatamente disponibile.</p>
+     * <p>Il registro viene letto dalla sorgente tenendo il lock della rilevazione:
+     * richieste contemporanee attendono la prima costruzione
+     * invece di caricare ciascuna l'intero registro.<br>
+     * Il file viene prima scritto con un nome temporaneo e poi rinominato,
+     * cos&igrave; che un lettore non possa mai trovarlo incompleto.</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     * @param source    sorgente del registro completo
+     * @return <code>Snapshot</code> - l'istantanea appena scritta (o trovata gi&agrave; scritta), oppure null se non &egrave; stato possibile scriverla
+     * @throws WebStorageException se si verifica un problema nel caricamento del registro dalla sorgente
+     */
+    public Snapshot build(int idSurvey,
+                          Source source)
+                   throws WebStorageException {
+        synchronized (lock(idSurvey)) {
+            Snapshot existing = get(idSurvey);
+            if (existing != null || !canBuild(idSurvey)) {
+                return existing;
+            }
+            // L'ultima modifica viene letta prima del registro: una modifica concorrente rende l'istantanea subito superata
+            long lastModified = source.getLastModified();
+            return write(idSurvey, lastModified, source.getTrattamenti());
+        }
+    }
+
+
+    /**
+     * <p>Scrive il file di istantanea e lo apre.
+     * Va invocato tenendo il lock della rilevazione.</p>
+     *
+     * @param idSurvey      identificativo della rilevazione
+     * @param lastModified  ultima modifica del registro, in millisecondi
+     * @param trattamenti   registro completo (trattamenti in qualunque stato)
+     * @return <code>Snapshot</code> - l'istantanea appena scritta, oppure null se non &egrave; stato possibile scriverla
+     */
+    private Snapshot write(int idSurvey,
+                           long lastModified,
+                           ArrayList<ProcessingBean> trattamenti) {
+        File file = getFile(idSurvey);
+        File temp = new File(dir, file.getName() + ".tmp");
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Impossibile creare la directory " + dir);
+            }
+            // Serializza ciascun trattamento separatamente
+            ArrayList<byte[]> blobs = new ArrayList<>(trattamenti.size());
+            int indexSize = 0;
+            for (ProcessingBean t : trattamenti) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                    oos.writeObject(t);
+                }
+                blobs.add(bytes.toByteArray());
+                lastModified = Math.max(lastModified, getLastModified(t));
+                indexSize += 2 + t.getCodice().getBytes(StandardCharsets.UTF_8).length + 4 + 8 + 4;
+            }
+            // Posizione del primo trattamento: intestazione + indice
+            long offset = 4 + 4 + 8 + 4 + 8 + 8 + 4 + indexSize;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(SCHEMA);
+                out.writeInt(idSurvey);
+                out.writeLong(lastModified);
+                out.writeLong(System.currentTimeMillis());
+                out.writeInt(trattamenti.size());
+                for (int i = 0; i < trattamenti.size(); i++) {
+                    byte[] codice = trattamenti.get(i).getCodice().getBytes(StandardCharsets.UTF_8);
+                    out.writeShort(codice.length);
+                    out.write(codice);
+                    out.writeInt(trattamenti.get(i).getIdStato());
+                    out.writeLong(offset);
+                    out.writeInt(blobs.get(i).length);
+                    offset += blobs.get(i).length;
+                }
+                for (byte[] blob : blobs) {
+                    out.write(blob);
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Snapshot snapshot = open(file, idSurvey);
+            snapshots.put(Integer.valueOf(idSurvey), snapshot);
+            LOG.info("Scritta istantanea del registro della rilevazione " + idSurvey + " (" + trattamenti.size() + " trattamenti, " + file.length() + " byte).");
+            return snapshot;
+        } catch (IOException | AttributoNonValorizzatoException e) {
+            LOG.warning(FOR_NAME + "Impossibile scrivere l\'istantanea della rilevazione " + idSurvey + ": " + e.getMessage());
+            failures.put(Integer.valueOf(idSurvey), Boolean.TRUE);
+            temp.delete();
+            return null;
+        }
+    }
+
+
+    /**
+     * <p>Scarta l'istantanea di una rilevazione, rimuovendo il file
+     * (p.es. se la rilevazione viene riaperta o modificata):
+     * al prossimo accesso l'istantanea viene ricostruita.</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     */
+    public void remove(int idSurvey) {
+        synchronized (lock(idSurvey)) {
+            snapshots.remove(Integer.valueOf(idSurvey));
+            failures.remove(Integer.valueOf(idSurvey));
+            discarded.remove(Integer.valueOf(idSurvey));
+            if (dir != null) {
+                getFile(idSurvey).delete();
+            }
+        }
+    }
+
+
+    /**
+     * <p>Scarta un'istantanea di cui non &egrave; stato possibile rileggere
+     * un trattamento, rimuovendo il file; la prima volta l'istantanea
+     * viene ricostruita al prossimo accesso, la seconda la rilevazione
+     * viene servita dal database fino all'invalidazione o al riavvio.</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     * @param snapshot  istantanea non leggibile
+     * @param e         problema riscontrato nella lettura
+     */
+    public void discard(int idSurvey,
+                        Snapshot snapshot,
+                        Exception e) {
+        synchronized (lock(idSurvey)) {
+            // Un'altra richiesta potrebbe averla gia' scartata e ricostruita
+            if (!snapshots.remove(Integer.valueOf(idSurvey), snapshot)) {
+                return;
+            }
+            LOG.warning(FOR_NAME + "Istantanea della rilevazione " + idSurvey + " non leggibile, viene scartata: " + e.getMessage());
+            if (discarded.putIfAbsent(Integer.valueOf(idSurvey), Boolean.TRUE) != null) {
+                failures.put(Integer.valueOf(idSurvey), Boolean.TRUE);
+            }
+            if (dir != null) {
+                getFile(idSurvey).delete();
+            }
+        }
+    }
+
+
+    /**
+     * <p>Restituisce gli identificativi delle rilevazioni
+     * di cui esiste un'istantanea, aperta o presente su disco.</p>
+     *
+     * @return <code>ArrayList&lt;Integer&gt;</code> - identificativi delle rilevazioni
+     */
+    public ArrayList<Integer> getIds() {
+        ArrayList<Integer> ids = new ArrayList<>(snapshots.keySet());
+        File[] files = (dir == null) ? null : dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith("rilevazione-") && name.endsWith(".snap")) {
+                    try {
+                        Integer id = Integer.valueOf(name.substring(12, name.length() - 5));
+                        if (!ids.contains(id)) {
+                            ids.add(id);
+                        }
+                    } catch (NumberFormatException nfe) {
+                        // Non e' un file di istantanea
+                    }
+                }
+            }
+        }
+        return ids;
+    }
+
+
+    /**
+     * <p>Scarta le istantanee non pi&uacute; allineate al database:
+     * quelle di rilevazioni che non risultano pi&uacute; chiuse e quelle
+     * di rilevazioni modificate dopo la scrittura dell'istantanea.
+     * Le istantanee scartate vengono ricostruite al primo accesso successivo.<br>
+     * Un problema nella verifica viene soltanto registrato nel log.</p>
+     *
+     * @param surveys   rilevazioni del registro appena caricato
+     * @param db        databound gia' istanziato
+     */
+    void check(List<CodeBean> surveys,
+               DBWrapper db) {
+        HashMap<Integer, CodeBean> closed = new HashMap<>();
+        try {
+            for (CodeBean survey : surveys) {
+                closed.put(Integer.valueOf(survey.getId()), survey);
+            }
+        } catch (AttributoNonValorizzatoException anve) {
+            LOG.severe(FOR_NAME + "Impossibile verificare le istantanee dei registri.\n" + anve.getMessage());
+            return;
+        }
+        for (Integer id : getIds()) {
+            CodeBean survey = closed.get(id);
+            if (survey == null) {
+                LOG.info("La rilevazione " + id + " non risulta chiusa: la sua istantanea viene scartata.");
+                remove(id.intValue());
+                continue;
+            }
+            Snapshot snapshot = get(id.intValue());
+            if (snapshot == null) {
+                continue;
+            }
+            try {
+                Timestamp lastModified = db.getUltimaModifica(survey);
+                if (lastModified != null && lastModified.getTime() > snapshot.getLastModified()) {
+                    LOG.info("La rilevazione " + id + " e\' stata modificata dopo la scrittura della sua istantanea, che viene scartata.");
+                    remove(id.intValue());
+                }
+            } catch (WebStorageException wse) {
+                LOG.severe(FOR_NAME + "Impossibile verificare l\'istantanea della rilevazione " + id + ".\n" + wse.getMessage());
+            }
+        }
+    }
+
+
+    /**
+     * <p>Restituisce il lock della rilevazione indicata, creandolo al primo utilizzo.</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     * @return <code>Object</code> - il lock della rilevazione
+     */
+    private Object lock(int idSurvey) {
+        Object lock = locks.get(Integer.valueOf(idSurvey));
+        if (lock == null) {
+            Object fresh = new Object();
+            lock = locks.putIfAbsent(Integer.valueOf(idSurvey), fresh);
+            if (lock == null) {
+                lock = fresh;
+            }
+        }
+        return lock;
+    }
+
+
+    /**
+     * <p>Apre un file di istantanea mappandolo in memoria e ne legge l'indice.</p>
+     *
+     * @param file      il file di istantanea
+     * @param expected  identificativo della rilevazione attesa
+     * @return <code>Snapshot</code> - l'istantanea aperta
+     * @throws IOException se il file non &egrave; leggibile, non &egrave; un'istantanea valida o &egrave; stato scritto con un formato diverso da quello corrente
+     */
+    private static Snapshot open(File file,
+                                 int expected)
+                          throws IOException {
+        MappedByteBuffer buffer = null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // La mappatura resta valida anche dopo la chiusura del canale
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != SCHEMA) {
+            throw new IOException("Il file " + file + " non e\' un\'istantanea valida o e\' in un formato superato.");
+        }
+        int idSurvey = buffer.getInt();
+        if (idSurvey != expected) {
+            throw new IOException("Il file " + file + " contiene l\'istantanea di un\'altra rilevazione (" + idSurvey + ").");
+        }
+        long lastModified = buffer.getLong();
+        long created = buffer.getLong();
+        int count = buffer.getInt();
+        LinkedHashMap<String, long[]> index = new LinkedHashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            byte[] codice = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(codice);
+            long[] entry = new long[3];
+            entry[0] = buffer.getInt();
+            entry[1] = buffer.getLong();
+            entry[2] = buffer.getInt();
+            index.put(new String(codice, StandardCharsets.UTF_8), entry);
+        }
+        return new Snapshot(idSurvey, lastModified, created, buffer, index);
+    }
+
+
+    /**
+     * <p>Restituisce il file di istantanea relativo a una rilevazione.</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     * @return <code>File</code> - il file di istantanea
+     */
+    private File getFile(int idSurvey) {
+        return new File(dir, "rilevazione-" + idSurvey + ".snap");
+    }
+
+
+    /**
+     * <p>Restituisce l'ultima modifica di un trattamento o delle banche dati
+     * ad esso collegate, in millisecondi.</p>
+     *
+     * @param t trattamento
+     * @return <code>long</code> - ultima modifica, in millisecondi
+     */
+    private static long getLastModified(ProcessingBean t) {
+        long lastModified = Utils.getTimestamp(t.getDataUltimaModifica(), t.getOraUltimaModifica());
+        if (t.getBancheDati() != null) {
+            for (ProcessBean bd : t.getBancheDati()) {
+                lastModified = Math.max(lastModified, Utils.getTimestamp(bd.getDataUltimaModifica(), bd.getOraUltimaModifica()));
+            }
+        }
+        return lastModified;
+    }
+
+
+
+    /**
+     * <p>Calcola l'impronta della struttura serializzata delle classi
+     * dei bean contenuti nelle istantanee (serialVersionUID, nomi e tipi
+     * degli attributi serializzati): cambia se cambia una di esse, anche
+     * quando il serialVersionUID dichiarato resta invariato.</p>
+     *
+     * @return <code>long</code> - impronta delle classi serializzate
+     */
+    private static long schema() {
+        long hash = 1125899906842597L;
+        for (Class<?> bean : BEANS) {
+            ObjectStreamClass osc = ObjectStreamClass.lookup(bean);
+            hash = 31 * hash + osc.getName().hashCode();
+            hash = 31 * hash + osc.getSerialVersionUID();
+            for (ObjectStreamField field : osc.getFields()) {
+                hash = 31 * hash + field.getName().hashCode();
+                hash = 31 * hash + field.getTypeCode();
+                hash = 31 * hash + (field.getTypeString() == null ? 0 : field.getTypeString().hashCode());
+            }
+        }
+        return hash;
+    }
+
+}
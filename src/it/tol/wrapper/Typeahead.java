@@ -0,0 +1,645 @@
+/*
+ *   Trattamenti On Line (tol): Applicazione web per la gestione del 
+ *   registro delle attività di trattamento.
+ *
+ *   TOL:
+ *   web application to manage and publish information about
+ *   databases containing personal data, which are managed by subjects 
+ *   belonging to the university or involving 
+ *   the university as manager.
+ *   Copyright (C) 2023 Giovanroberto Torre
+ *   all right reserved
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA<br>
+ *
+ *   Giovanroberto Torre <gianroberto.torre@gmail.com>
+ *   Universita' degli Studi di Verona
+ *   Via Dell'Artigliere, 8
+ *   37129 Verona (Italy)
+ */
+
+package it.tol.wrapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import it.tol.bean.CodeBean;
+import it.tol.bean.ProcessingBean;
+import it.tol.exception.AttributoNonValorizzatoException;
+import it.tol.interfaces.Constants;
+
+
+/**
+ * <p><code>Typeahead.java</code> fornisce i suggerimenti per il
+ * completamento automatico mentre l'utente digita il codice o il nome
+ * di un trattamento.</p>
+ * <p>Le chiavi (codice e nome del trattamento, nomi delle attivit&agrave;
+ * e delle banche dati collegate, ciascuno a partire da ogni parola
+ * significativa) sono normalizzate in minuscolo e senza accenti e
+ * conservate in un albero dei prefissi compresso: ogni arco porta
+ * una sequenza di caratteri e i nodi con un solo figlio vengono fusi.
+ * Ogni nodo conserva gi&agrave; pronti i {@link #TOP_K} trattamenti
+ * migliori del proprio sottoalbero; un suggerimento costa quindi
+ * la discesa lungo il prefisso digitato, senza visitare il sottoalbero
+ * e senza accedere al database.</p>
+ * <p>I trattamenti sono ordinati per tipo di corrispondenza (codice, nome,
+ * attivit&agrave;, banca dati), poi preferendo le chiavi che iniziano
+ * con la prima parola, poi le chiavi pi&ugrave; corte e infine secondo
+ * l'ordine del registro.</p>
+ * <p>L'albero &egrave; immutabile: quando il registro della rilevazione
+ * cambia se ne costruisce uno nuovo, che sostituisce il precedente
+ * in un'unica operazione (v. {@link #put(Typeahead)}); le richieste
+ * in corso terminano sull'albero precedente.</p>
+ *
+ * @author <a href="mailto:gianroberto.torre@gmail.com">Giovanroberto Torre</a>
+ */
+public final class Typeahead implements Constants {
+
+    /**
+     * <p>Logger della classe per scrivere i messaggi di errore.
+     * All logging goes through this logger.</p>
+     */
+    private static Logger LOG = Logger.getLogger(Typeahead.class.getName());
+    /**
+     * <p>Nome di questa classe
+     * (viene utilizzato per contestualizzare i messaggi di errore).</p>
+     */
+    static final String FOR_NAME = "\n" + Logger.getLogger(new Throwable().getStackTrace()[0].getClassName()) + ": ";
+    /**
+     * <p>Validit&agrave; massima, in millisecondi, dell'albero
+     * di una rilevazione priva di istantanea.</p>
+     */
+    public static final long MAX_AGE = 60 * 1000L;
+    /**
+     * <p>Numero massimo di suggerimenti restituiti.</p>
+     */
+    public static final int TOP_K = 10;
+    /** Lunghezza massima di una chiave: i caratteri successivi non servono a completare */
+    private static final int MAX_KEY = 48;
+    /** Tipo di corrispondenza: codice del trattamento */
+    public static final String MATCH_CODE = "codice";
+    /** Tipo di corrispondenza: nome del trattamento */
+    public static final String MATCH_NAME = "trattamento";
+    /** Tipo di corrispondenza: nome di un'attivit&agrave; */
+    public static final String MATCH_ACTIVITY = "attivita";
+    /** Tipo di corrispondenza: nome di una banca dati */
+    public static final String MATCH_DATABASE = "banca dati";
+    /**
+     * <p>Alberi costruiti, per identificativo della rilevazione.</p>
+     */
+    private static final ConcurrentHashMap<Integer, Typeahead> indexes = new ConcurrentHashMap<>();
+    /**
+     * <p>Identificativo della rilevazione.</p>
+     */
+    private final int idSurvey;
+    /**
+     * <p>Momento di creazione dell'istantanea da cui deriva l'albero;
+     * negativo se la rilevazione non ha istantanea.</p>
+     */
+    private final long stamp;
+    /**
+     * <p>Momento di costruzione dell'albero.</p>
+     */
+    private final long built;
+    /**
+     * <p>Suggerimenti, nell'ordine di preferenza: i nodi li citano per posizione.</p>
+     */
+    private final Suggestion[] ranked;
+    /**
+     * <p>Radice dell'albero.</p>
+     */
+    private final Node root;
+
+
+    /**
+     * <p>Suggerimento: il trattamento e il testo che corrisponde
+     * a quanto digitato.</p>
+     */
+    public static final class Suggestion {
+        /** Posizione del trattamento nel registro */
+        final int doc;
+        /** Codice del trattamento */
+        private final String codice;
+        /** Nome del trattamento */
+        private final String nome;
+        /** Testo corrispondente a quanto digitato */
+        private final String match;
+        /** Tipo di corrispondenza */
+        private final String tipo;
+        /** Priorit&agrave; del tipo di corrispondenza */
+        final int kind;
+        /** Posizione della chiave nel testo (0 se inizia con la prima parola) */
+        final int offset;
+
+        Suggestion(int doc, String codice, String nome, String match, String tipo, int kind, int offset) {
+            this.doc = doc;
+            this.codice = codice;
+            this.nome = nome;
+            this.match = match;
+            this.tipo = tipo;
+            this.kind = kind;
+            this.offset = offset;
+        }
+
+        /** @return <code>String</code> - codice del trattamento */
+        public String getCodice() {
+            return codice;
+        }
+
+        /** @return <code>String</code> - nome del trattamento */
+        public String getNome() {
+            return nome;
+        }
+
+        /** @return <code>String</code> - testo corrispondente a quanto digitato */
+        public String getMatch() {
+            return match;
+        }
+
+        /** @return <code>String</code> - tipo di corrispondenza */
+        public String getTipo() {
+            return tipo;
+        }
+    }
+
+
+    /**
+     * <p>Nodo dell'albero compresso: l'etichetta dell'arco entrante,
+     * i figli ordinati per primo carattere, i suggerimenti delle chiavi
+     * che terminano nel nodo e i migliori del sottoalbero.</p>
+     */
+    private static final class Node {
+        /** Caratteri dell'arco entrante */
+        String label;
+        /** Figli, ordinati per primo carattere dell'etichetta */
+        Node[] children = new Node[NOTHING];
+        /** Posizioni dei suggerimenti delle chiavi che terminano nel nodo */
+        int[] own = new int[NOTHING];
+        /** Posizioni dei migliori suggerimenti del sottoalbero, uno per trattamento */
+        int[] top;
+
+        Node(String label) {
+            this.label = label;
+        }
+    }
+
+
+    /**
+     * <p>Chiave da inserire nell'albero, con il suggerimento che rappresenta.</p>
+     */
+    private static final class Key {
+        /** Chiave normalizzata */
+        final String text;
+        /** Suggerimento */
+        final Suggestion suggestion;
+
+        Key(String text, Suggestion suggestion) {
+            this.text = text;
+            this.suggestion = suggestion;
+        }
+    }
+
+
+    /**
+     * <p>Costruttore privato: l'albero si ottiene tramite
+     * {@link #build(int, long, List)}.</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     * @param stamp     momento di creazione dell'istantanea, negativo se assente
+     * @param ranked    suggerimenti in ordine di preferenza
+     * @param root      radice dell'albero
+     */
+    private Typeahead(int idSurvey,
+                      long stamp,
+                      Suggestion[] ranked,
+                      Node root) {
+        this.idSurvey = idSurvey;
+        this.stamp = stamp;
+        this.built = System.currentTimeMillis();
+        this.ranked = ranked;
+        this.root = root;
+    }
+
+
+    /**
+     * <p>Costruisce l'albero dei suggerimenti di un registro di trattamenti.</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     * @param stamp     momento di creazione dell'istantanea del registro, negativo se assente
+     * @param list      trattamenti della rilevazione, nell'ordine del registro
+     * @return <code>Typeahead</code> - l'albero costruito
+     * @throws AttributoNonValorizzatoException se un trattamento o un'entit&agrave; collegata non ha codice o nome
+     */
+    public static Typeahead build(int idSurvey,
+                                  long stamp,
+                                  List<ProcessingBean> list)
+                           throws AttributoNonValorizzatoException {
+        ArrayList<Key> keys = new ArrayList<>();
+        for (int doc = 0; doc < list.size(); doc++) {
+            ProcessingBean t = list.get(doc);
+            String codice = t.getCodice();
+            String nome = t.getNome();
+            keys(keys, doc, codice, nome, codice, MATCH_CODE, 0);
+            keys(keys, doc, codice, nome, nome, MATCH_NAME, 1);
+            if (t.getAttivita() != null) {
+                for (CodeBean a : t.getAttivita()) {
+                    keys(keys, doc, codice, nome, a.getNome(), MATCH_ACTIVITY, 2);
+                }
+            }
+            if (t.getBancheDati() != null) {
+                for (CodeBean b : t.getBancheDati()) {
+                    keys(keys, doc, codice, nome, b.getNome(), MATCH_DATABASE, 3);
+                }
+            }
+        }
+        // Ordina i suggerimenti una volta per tutte: i nodi ne confrontano solo le posizioni
+        Collections.sort(keys, new Comparator<Key>() {
+            @Override
+            public int compare(Key a, Key b) {
+                Suggestion x = a.suggestion;
+                Suggestion y = b.suggestion;
+                if (x.kind != y.kind) {
+                    return x.kind - y.kind;
+                }
+                if ((x.offset == NOTHING) != (y.offset == NOTHING)) {
+                    return (x.offset == NOTHING) ? -1 : 1;
+                }
+                if (a.text.length() != b.text.length()) {
+                    return a.text.length() - b.text.length();
+                }
+                return x.doc - y.doc;
+            }
+        });
+        Suggestion[] ranked = new Suggestion[keys.size()];
+        Node root = new Node(VOID_STRING);
+        for (int i = 0; i < keys.size(); i++) {
+            ranked[i] = keys.get(i).suggestion;
+            insert(root, keys.get(i).text, i);
+        }
+        collect(root, ranked);
+        return new Typeahead(idSurvey, stamp, ranked, root);
+    }
+
+
+    /**
+     * <p>Restituisce l'albero conservato per la rilevazione, se &egrave;
+     * ancora valido rispetto all'istantanea corrente.</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     * @param stamp     momento di creazione dell'istantanea corrente, negativo se assente
+     * @return <code>Typeahead</code> - l'albero, oppure null se assente o scaduto
+     */
+    public static Typeahead get(int idSurvey,
+                                long stamp) {
+        Typeahead index = indexes.get(idSurvey);
+        if (index == null) {
+            return null;
+        }
+        if (stamp >= NOTHING) {
+            return (index.stamp == stamp) ? index : null;
+        }
+        return (index.stamp < NOTHING && System.currentTimeMillis() - index.built < MAX_AGE) ? index : null;
+    }
+
+
+    /**
+     * <p>Sostituisce in un'unica operazione l'albero della rilevazione
+     * con uno appena costruito.</p>
+     *
+     * @param index albero da conservare
+     */
+    public static void put(Typeahead index) {
+        indexes.put(index.idSurvey, index);
+        LOG.info(FOR_NAME + "Costruito " + index);
+    }
+
+
+    /**
+     * <p>Scarta l'albero di una rilevazione: al prossimo accesso
+     * ne viene costruito uno nuovo.</p>
+     *
+     * @param idSurvey  identificativo della rilevazione
+     */
+    public static void remove(int idSurvey) {
+        indexes.remove(Integer.valueOf(idSurvey));
+    }
+
+
+    /**
+     * <p>Restituisce gli identificativi delle rilevazioni
+     * di cui esiste un albero.</p>
+     *
+     * @return <code>ArrayList&lt;Integer&gt;</code> - identificativi delle rilevazioni
+     */
+    public static ArrayList<Integer> getIds() {
+        return new ArrayList<>(indexes.keySet());
+    }
+
+
+    /**
+     * <p>Restituisce i migliori suggerimenti per quanto digitato,
+     * al pi&ugrave; uno per trattamento.</p>
+     *
+     * @param typed testo digitato
+     * @param k     numero massimo di suggerimenti (al pi&ugrave; {@link #TOP_K})
+     * @return <code>ArrayList&lt;Suggestion&gt;</code> - suggerimenti, dal migliore; vuota se nulla corrisponde
+     */
+    public ArrayList<Suggestion> suggest(String typed,
+                                         int k) {
+        ArrayList<Suggestion> result = new ArrayList<>();
+        String prefix = normalize(typed);
+        if (prefix.isEmpty() || k <= NOTHING) {
+            return result;
+        }
+        Node node = root;
+        int pos = NOTHING;
+        while (pos < prefix.length()) {
+            Node child = child(node, prefix.charAt(pos));
+            if (child == null) {
+                return result;
+            }
+            // Il prefisso puo' terminare a meta' dell'arco
+            int n = Math.min(child.label.length(), prefix.length() - pos);
+            if (!prefix.regionMatches(pos, child.label, NOTHING, n)) {
+                return result;
+            }
+            pos += n;
+            node = child;
+        }
+        for (int i = 0; i < node.top.length && i < k; i++) {
+            result.add(ranked[node.top[i]]);
+        }
+        return result;
+    }
+
+
+    /**
+     * @return <code>int</code> - identificativo della rilevazione
+     */
+    public int getIdSurvey() {
+        return idSurvey;
+    }
+
+
+    /**
+     * @return <code>long</code> - momento di creazione dell'istantanea da cui deriva l'albero, negativo se assente
+     */
+    public long getStamp() {
+        return stamp;
+    }
+
+
+    /**
+     * <p>Restituisce una descrizione sintetica dell'albero,
+     * utile da scrivere nel log.</p>
+     *
+     * @return <code>String</code> - rilevazione e numero di chiavi dell'albero
+     */
+    @Override
+    public String toString() {
+        return "Typeahead [survey=" + idSurvey +
+               ", stamp=" + stamp +
+               ", keys=" + ranked.length + "]";
+    }
+
+
+    /**
+     * <p>Aggiunge le chiavi di un testo: una per ciascuna parola
+     * significativa, dalla parola fino al pi&ugrave; a {@link #MAX_KEY} caratteri.</p>
+     *
+     * @param keys      chiavi da valorizzare per riferimento
+     * @param doc       posizione del trattamento nel registro
+     * @param codice    codice del trattamento
+     * @param nome      nome del trattamento
+     * @param text      testo da cui ricavare le chiavi
+     * @param tipo      tipo di corrispondenza
+     * @param kind      priorit&agrave; del tipo di corrispondenza
+     */
+    private static void keys(List<Key> keys,
+                             int doc,
+                             String codice,
+                             String nome,
+                             String text,
+                             String tipo,
+                             int kind) {
+        String normalized = normalize(text);
+        if (normalized.isEmpty()) {
+            return;
+        }
+        Suggestion first = new Suggestion(doc, codice, nome, text, tipo, kind, NOTHING);
+        keys.add(new Key(clip(normalized, NOTHING), first));
+        // Il codice si completa solo dall'inizio
+        if (kind == NOTHING) {
+            return;
+        }
+        HashSet<String> seen = new HashSet<>();
+        for (int i = 1; i < normalized.length(); i++) {
+            if (normalized.charAt(i - 1) != BLANK_SPACE) {
+                continue;
+            }
+            int end = normalized.indexOf(BLANK_SPACE, i);
+            String word = normalized.substring(i, (end < NOTHING) ? normalized.length() : end);
+            if (SearchIndex.STOPWORDS.contains(word) || !seen.add(clip(normalized, i))) {
+                continue;
+            }
+            keys.add(new Key(clip(normalized, i), new Suggestion(doc, codice, nome, text, tipo, kind, i)));
+        }
+    }
+
+
+    /**
+     * @param s     testo normalizzato
+     * @param from  inizio della chiave
+     * @return <code>String</code> - chiave di al pi&ugrave; {@link #MAX_KEY} caratteri
+     */
+    private static String clip(String s,
+                               int from) {
+        return s.substring(from, Math.min(s.length(), from + MAX_KEY));
+    }
+
+
+    /**
+     * <p>Riduce un testo in minuscolo, senza accenti, con le sequenze
+     * di caratteri non alfanumerici (a parte il trattino dei codici)
+     * ridotte a un solo spazio.</p>
+     *
+     * @param text  testo
+     * @return <code>String</code> - testo normalizzato; vuoto se null
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return VOID_STRING;
+        }
+        String folded = SearchIndex.normalize(text);
+        StringBuilder s = new StringBuilder(folded.length());
+        boolean blank = true;
+        for (int i = 0; i < folded.length(); i++) {
+            char c = folded.charAt(i);
+            if (Character.isLetterOrDigit(c) || c == HYPHEN) {
+                s.append(c);
+                blank = false;
+            } else if (!blank) {
+                s.append(BLANK_SPACE);
+                blank = true;
+            }
+        }
+        int length = s.length();
+        if (length > NOTHING && s.charAt(length - 1) == BLANK_SPACE) {
+            s.setLength(length - 1);
+        }
+        return s.toString();
+    }
+
+
+    /**
+     * @param node  nodo
+     * @param c     primo carattere dell'etichetta cercata
+     * @return <code>Node</code> - il figlio il cui arco inizia con il carattere dato, oppure null
+     */
+    private static Node child(Node node,
+                              char c) {
+        Node[] children = node.children;
+        int low = NOTHING;
+        int high = children.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char m = children[mid].label.charAt(NOTHING);
+            if (m < c) {
+                low = mid + 1;
+            } else if (m > c) {
+                high = mid - 1;
+            } else {
+                return children[mid];
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * <p>Inserisce una chiave, spezzando l'arco che ne condivide solo una parte.</p>
+     *
+     * @param root  radice dell'albero
+     * @param key   chiave normalizzata
+     * @param rank  posizione del suggerimento
+     */
+    private static void insert(Node root,
+                               String key,
+                               int rank) {
+        Node node = root;
+        int pos = NOTHING;
+        while (pos < key.length()) {
+            Node child = child(node, key.charAt(pos));
+            if (child == null) {
+                Node leaf = new Node(key.substring(pos));
+                leaf.own = new int[] { rank };
+                addChild(node, leaf);
+                return;
+            }
+            // Lunghezza del tratto comune tra arco e chiave
+            int common = 1;
+            int max = Math.min(child.label.length(), key.length() - pos);
+            while (common < max && child.label.charAt(common) == key.charAt(pos + common)) {
+                common++;
+            }
+            if (common < child.label.length()) {
+                // Spezza l'arco: il nodo intermedio eredita il tratto comune
+                Node middle = new Node(child.label.substring(NOTHING, common));
+                child.label = child.label.substring(common);
+                middle.children = new Node[] { child };
+                replaceChild(node, child, middle);
+                child = middle;
+            }
+            pos += common;
+            node = child;
+        }
+        node.own = Arrays.copyOf(node.own, node.own.length + 1);
+        node.own[node.own.length - 1] = rank;
+    }
+
+
+    /**
+     * @param node  nodo
+     * @param child figlio da aggiungere mantenendo l'ordine per primo carattere
+     */
+    private static void addChild(Node node,
+                                 Node child) {
+        Node[] children = Arrays.copyOf(node.children, node.children.length + 1);
+        int i = children.length - 1;
+        while (i > NOTHING && children[i - 1].label.charAt(NOTHING) > child.label.charAt(NOTHING)) {
+            children[i] = children[i - 1];
+            i--;
+        }
+        children[i] = child;
+        node.children = children;
+    }
+
+
+    /**
+     * @param node      nodo
+     * @param previous  figlio da sostituire
+     * @param child     figlio che prende il suo posto (stesso primo carattere)
+     */
+    private static void replaceChild(Node node,
+                                     Node previous,
+                                     Node child) {
+        for (int i = 0; i < node.children.length; i++) {
+            if (node.children[i] == previous) {
+                node.children[i] = child;
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * <p>Calcola, dalle foglie verso la radice, i migliori
+     * {@link #TOP_K} suggerimenti di ogni sottoalbero, uno per trattamento.</p>
+     *
+     * @param node      nodo
+     * @param ranked    suggerimenti in ordine di preferenza
+     */
+    private static void collect(Node node,
+                                Suggestion[] ranked) {
+        int size = node.own.length;
+        for (Node child : node.children) {
+            collect(child, ranked);
+            size += child.top.length;
+        }
+        int[] candidates = Arrays.copyOf(node.own, size);
+        int n = node.own.length;
+        for (Node child : node.children) {
+            System.arraycopy(child.top, NOTHING, candidates, n, child.top.length);
+            n += child.top.length;
+        }
+        Arrays.sort(candidates);
+        int[] top = new int[Math.min(TOP_K, candidates.length)];
+        HashSet<Integer> docs = new HashSet<>();
+        int count = NOTHING;
+        for (int i = 0; i < candidates.length && count < top.length; i++) {
+            if (docs.add(Integer.valueOf(ranked[candidates[i]].doc))) {
+                top[count++] = candidates[i];
+            }
+        }
+        node.top = Arrays.copyOf(top, count);
+    }
+
+}
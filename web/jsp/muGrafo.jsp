@@ -0,0 +1,103 @@
+<%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
+<%@ taglib prefix="fn" uri="http://java.sun.com/jsp/jstl/functions" %>
+<%@ include file="URL.jspf" %>
+    <h3 class="mt-1 m-0 font-weight-bold">Analisi delle relazioni del registro</h3>
+    <hr class="riga"/>
+    <div class="row">
+      <div class="col-md-6">
+        <form action="${initParam.appName}/" method="get" class="form-inline mb-2">
+          <input type="hidden" name="q" value="<c:out value="${param['q']}" />" />
+          <input type="hidden" name="p" value="grf" />
+          <input type="hidden" name="r" value="<c:out value="${ril}" />" />
+          <label for="grfDb" class="mr-2">Se viene violato il database</label>
+          <select id="grfDb" name="n" class="form-control form-control-sm mr-2">
+          <c:forEach var="db" items="${requestScope.database}">
+            <option value="<c:out value="${db.key}" />" <c:if test="${db.key eq param['n']}">selected</c:if>><c:out value="${db.nome}" /></option>
+          </c:forEach>
+          </select>
+          <button type="submit" class="btn btn-sm btn-warning">Raggio d'impatto</button>
+        </form>
+      </div>
+      <div class="col-md-6">
+        <form action="${initParam.appName}/" method="get" class="form-inline mb-2">
+          <input type="hidden" name="q" value="<c:out value="${param['q']}" />" />
+          <input type="hidden" name="p" value="grf" />
+          <input type="hidden" name="r" value="<c:out value="${ril}" />" />
+          <label for="grfBase" class="mr-2">Trattamenti con base giuridica</label>
+          <select id="grfBase" name="n" class="form-control form-control-sm mr-2">
+          <c:forEach var="base" items="${requestScope.basiGiuridiche}">
+            <option value="<c:out value="${base.key}" />" <c:if test="${base.key eq param['n']}">selected</c:if>><c:out value="${base.nome}" /></option>
+          </c:forEach>
+          </select>
+          <button type="submit" class="btn btn-sm btn-success">Cerca</button>
+        </form>
+      </div>
+    </div>
+    <c:if test="${not empty requestScope.nodo}">
+      <c:set var="nodo" value="${requestScope.nodo}" scope="page" />
+      <hr class="riga"/>
+      <c:choose>
+        <c:when test="${nodo.tipo eq 'database' or nodo.tipo eq 'tipo' or nodo.tipo eq 'banca' or nodo.tipo eq 'trattamento'}">
+          <c:set var="impatto" value="${requestScope.impatto}" scope="page" />
+          <h4>Raggio d'impatto di <c:out value="${nodo.nome}" /></h4>
+          <p class="text-muted">
+            ${fn:length(impatto.banche)} banche dati, ${fn:length(impatto.trattamenti)} trattamenti,
+            ${fn:length(impatto.interessati)} categorie di interessati esposte.
+          </p>
+          <div class="row">
+            <div class="col-md-6">
+              <table class="table table-bordered table-hover table-sm">
+                <thead class="thead-light"><tr><th>Trattamento coinvolto</th><th width="20%">Codice</th></tr></thead>
+                <tbody>
+                <c:forEach var="t" items="${impatto.trattamenti}">
+                  <c:url var="trNode" context="${initParam.appName}" value="/" scope="page">
+                    <c:param name="q" value="tr" />
+                    <c:param name="idT" value="${t.codice}" />
+                    <c:param name="r" value="${ril}" />
+                  </c:url>
+                  <tr><td><a href="${trNode}"><c:out value="${t.nome}" /></a></td><td><c:out value="${t.codice}" /></td></tr>
+                </c:forEach>
+                </tbody>
+              </table>
+            </div>
+            <div class="col-md-6">
+              <table class="table table-bordered table-hover table-sm">
+                <thead class="thead-light"><tr><th>Interessati esposti</th><th width="20%">Trattamenti</th></tr></thead>
+                <tbody>
+                <c:forEach var="entry" items="${impatto.interessati}">
+                  <tr><td><c:out value="${entry.key.nome}" /></td><td>${entry.value}</td></tr>
+                </c:forEach>
+                </tbody>
+              </table>
+            </div>
+          </div>
+        </c:when>
+        <c:otherwise>
+          <h4>Trattamenti collegati a <c:out value="${nodo.nome}" /></h4>
+          <ul>
+          <c:forEach var="t" items="${requestScope.condivisi}">
+            <c:url var="trNode" context="${initParam.appName}" value="/" scope="page">
+              <c:param name="q" value="tr" />
+              <c:param name="idT" value="${t.codice}" />
+              <c:param name="r" value="${ril}" />
+            </c:url>
+            <li><a href="${trNode}"><c:out value="${t.nome}" /></a> <small class="text-muted"><c:out value="${t.codice}" /></small></li>
+          </c:forEach>
+          </ul>
+        </c:otherwise>
+      </c:choose>
+    </c:if>
+    <hr class="riga"/>
+    <h4>Banche dati non collegate ad alcun trattamento</h4>
+    <c:choose>
+      <c:when test="${empty requestScope.orfane}">
+        <p class="text-muted">Tutte le banche dati della rilevazione sono collegate ad almeno un trattamento.</p>
+      </c:when>
+      <c:otherwise>
+        <ul>
+        <c:forEach var="b" items="${requestScope.orfane}">
+          <li><c:out value="${b.nome}" /></li>
+        </c:forEach>
+        </ul>
+      </c:otherwise>
+    </c:choose>
@@ -0,0 +1,37 @@
+<%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
+<%@ taglib prefix="fn" uri="http://java.sun.com/jsp/jstl/functions" %>
+<%@ include file="URL.jspf" %>
+    <h3 class="mt-1 m-0 font-weight-bold">Ricerca nel Registro</h3>
+    <hr class="riga"/>
+    <form action="${initParam.appName}/" method="get" class="form-inline mb-3">
+      <input type="hidden" name="q" value="<c:out value="${param['q']}" />" />
+      <input type="hidden" name="p" value="ris" />
+      <input type="hidden" name="r" value="<c:out value="${ril}" />" />
+      <input type="text" name="s" class="form-control mr-2" style="width:60%;" value="<c:out value="${requestScope.ricerca}" />" placeholder="Cerca nei nomi, nelle descrizioni, nelle finalit&agrave;, nelle attivit&agrave;, nelle basi giuridiche e nelle banche dati" />
+      <button type="submit" class="btn btn-success"><i class="fas fa-search"></i> Cerca</button>
+    </form>
+    <c:if test="${not empty requestScope.ricerca}">
+      <c:choose>
+        <c:when test="${empty requestScope.risultati}">
+          <div class="alert alert-warning">Nessun trattamento corrisponde alla ricerca.</div>
+        </c:when>
+        <c:otherwise>
+          <p class="text-muted">${fn:length(requestScope.risultati)} trattamenti trovati, in ordine di pertinenza.</p>
+          <ul class="list-unstyled">
+          <c:forEach var="hit" items="${requestScope.risultati}">
+            <c:url var="trHit" context="${initParam.appName}" value="/" scope="page">
+              <c:param name="q" value="tr" />
+              <c:param name="idT" value="${hit.codice}" />
+              <c:param name="r" value="${ril}" />
+            </c:url>
+            <li class="mb-3">
+              <a href="${trHit}" title="Vedi dettagli Trattamento"><strong><c:out value="${hit.nome}" /></strong></a>
+              <span class="badge badge-pill lightTable"><c:out value="${hit.codice}" /></span><br/>
+              <%-- L'estratto e' gia' codificato in HTML: contiene solo i marcatori delle parole cercate --%>
+              <small>${hit.snippet}</small>
+            </li>
+          </c:forEach>
+          </ul>
+        </c:otherwise>
+      </c:choose>
+    </c:if>
@@ -1,12 +1,18 @@
 <%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
 <%@ taglib prefix="fn" uri="http://java.sun.com/jsp/jstl/functions" %>
 <%@ include file="URL.jspf" %>
-<c:set var="trattamenti" value="${requestScope.registro}" scope="page" />
     <h3 class="mt-1 m-0 font-weight-bold float-left">Registro Trattamenti</h3>
-    <a href="${trPDF}" class="float-right badge badge-pill lightTable" style="top:-10px;" title="Scarica il registro completo dei trattamenti (PDF)" onclick="pleaseWait();">
-      <i class="fas fa-download"></i>Scarica Registro
+    <a href="${trPDF}" id="trPDF" class="float-right badge badge-pill lightTable" style="top:-10px;" title="Scarica il registro completo dei trattamenti (PDF)" onclick="return exportRegister(this);">
+      <i class="fas fa-download"></i><span>Scarica Registro</span>
+    </a>
+    <a href="${trCSV}" class="float-right badge badge-pill lightTable mr-2" style="top:-10px;" title="Scarica il registro completo dei trattamenti in formato tabellare (CSV)">
+      <i class="fas fa-file-csv"></i>Esporta CSV
     </a><br/>
     <hr class="riga"/>
+    <div class="form-inline mb-2">
+      <input type="text" id="trGoto" class="form-control form-control-sm" style="width:40%;" list="trSuggestions" autocomplete="off" placeholder="Vai al trattamento: codice, nome, attivit&agrave; o banca dati" />
+      <datalist id="trSuggestions"></datalist>
+    </div>
     <div>
       <div class="row">
         <div class="col-md-offset-1">
@@ -24,38 +30,6 @@
                     </tr>
                   </thead>
                   <tbody>
-                  <c:forEach var="trattamento" items="${trattamenti}" varStatus="status">
-                    <tr class="active">
-                      <td width="5%" class="bgcolor1">
-                    <c:choose>
-                      <c:when test="${fn:endsWith(trattamento.codice, \"-T\")}">
-                        Titolare
-                      </c:when>
-                      <c:when test="${fn:endsWith(trattamento.codice, \"-R\")}">
-                        Responsabile
-                      </c:when>
-                    </c:choose>
-                      </td>
-                      <td width="2%">${status.count}</td>
-                      <td width="*">
-                        <a href="${initParam.appName}/?q=tr&idT=${trattamento.codice}&r=${param['r']}" title="Vedi dettagli Trattamento">
-                          <c:out value="${trattamento.nome}" />
-                        </a>
-                      </td>
-                      <td width="10%">${trattamento.codice}</td>
-                      <td width="14%">
-                        <ul class="action-list">
-                          <li>
-                            <a href="${initParam.appName}/?q=tr&idT=${trattamento.codice}&r=${param['r']}" class="btn btn-sm btn-success" title="Vedi dettagli Trattamento">
-                              <i class="fa-regular fa-eye"></i>
-                            </a>
-                          </li>
-                          <li>&nbsp;<a href="${initParam.appName}/data?q=tr&idT=${trattamento.codice}&r=${param['r']}&out=pdf" class="btn btn-warning" style="color:black;" title="Stampa Trattamento (PDF)"><i class="fa fa-print"></i></a></li>
-                          <li>&nbsp;<a href="#" class="btn btn-primary" title="Modifica dettagli Trattamento"><i class="fa fa-pencil-alt"></i></a></li>
-                        </ul>
-                      </td>
-                    </tr>
-                  </c:forEach>
                   </tbody>
                 </table>
               </div>
@@ -66,13 +40,92 @@
     </div>
     <script type="text/javascript">
       $(document).ready(function() {
+        var base = "${initParam.appName}";
+        var ril = "<c:out value="${param['r']}" />";
+        // Chiave dell'ultima riga di ogni pagina ricevuta, per posizionare la pagina successiva
+        var keys = {};
+        var last = null;
+        function signature(d) {
+          return d.length + "|" + d.order[0].column + "|" + d.order[0].dir + "|" + d.search.value;
+        }
+        function escapeHtml(s) {
+          return $("<div>").text(s == null ? "" : s).html();
+        }
+        // Suggerimenti per il completamento automatico, serviti dalla memoria del server
+        var suggested = {};
+        var pending = null;
+        $("#trGoto").on("input", function() {
+          var term = $(this).val();
+          if (suggested[term]) {
+            window.location = base + "/?q=tr&idT=" + encodeURIComponent(suggested[term]) + "&r=" + encodeURIComponent(ril);
+            return;
+          }
+          if (pending) {
+            pending.abort();
+          }
+          pending = $.getJSON("${trSuggest}", { term: term }, function(list) {
+            var options = $("#trSuggestions").empty();
+            suggested = {};
+            $.each(list, function(i, s) {
+              var label = s.codice + " - " + s.nome;
+              suggested[label] = s.codice;
+              options.append($("<option>").attr("value", label).text(s.tipo === "codice" || s.tipo === "trattamento" ? "" : s.match));
+            });
+          });
+        });
         $('#listTr').DataTable({
-          "ordering": true,  
+          "serverSide": true,
+          "processing": true,
+          "ordering": true,
+          "order": [[3, "asc"]],
           "paging": true,
           "bInfo": true,
-          "searchPanes": {
-              "viewTotal": false
-              },
+          "lengthMenu": [10, 25, 50, 100],
+          "searchDelay": 400,
+          "ajax": {
+            "url": "${trJSON}",
+            "data": function(d) {
+              var k = keys[d.start];
+              if (k && k.sig === signature(d)) {
+                d.afterCodice = k.codice;
+                d.afterNome = k.nome;
+              }
+              last = { start: d.start, length: d.length, sig: signature(d) };
+            },
+            "dataSrc": function(json) {
+              if (last && json.data.length > 0) {
+                var row = json.data[json.data.length - 1];
+                keys[last.start + last.length] = { sig: last.sig, codice: row.codice, nome: row.nome == null ? "" : row.nome };
+              }
+              return json.data;
+            }
+          },
+          "columns": [
+            { "data": "codice", "orderable": false, "className": "bgcolor1", "render": function(codice) {
+                return codice.endsWith("-T") ? "Titolare" : (codice.endsWith("-R") ? "Responsabile" : "");
+              } },
+            { "data": null, "orderable": false, "render": function(data, type, row, meta) {
+                return meta.settings._iDisplayStart + meta.row + 1;
+              } },
+            { "data": "nome", "render": function(nome, type, row) {
+                return '<a href="' + base + '/?q=tr&idT=' + encodeURIComponent(row.codice) + '&r=' + encodeURIComponent(ril) + '" title="Vedi dettagli Trattamento">' + escapeHtml(nome) + '</a>';
+              } },
+            { "data": "codice", "render": function(codice) {
+                return escapeHtml(codice);
+              } },
+            { "data": "codice", "orderable": false, "render": function(codice) {
+                var idT = encodeURIComponent(codice);
+                var r = encodeURIComponent(ril);
+                return '<ul class="action-list">' +
+                       '<li><a href="' + base + '/?q=tr&idT=' + idT + '&r=' + r + '" class="btn btn-sm btn-success" title="Vedi dettagli Trattamento"><i class="fa-regular fa-eye"></i></a></li>' +
+                       '<li>&nbsp;<a href="' + base + '/data?q=tr&idT=' + idT + '&r=' + r + '&out=pdf" class="btn btn-warning" style="color:black;" title="Stampa Trattamento (PDF)"><i class="fa fa-print"></i></a></li>' +
+                       '<li>&nbsp;<a href="#" class="btn btn-primary" title="Modifica dettagli Trattamento"><i class="fa fa-pencil-alt"></i></a></li>' +
+                       '</ul>';
+              } }
+          ],
+          "createdRow": function(row) {
+            $(row).addClass("active");
+          },
           "language": {
               "url": "//cdn.datatables.net/plug-ins/1.10.18/i18n/Italian.json"
             }
@@ -80,10 +133,29 @@
       });
     </script>
     <script>
-      function pleaseWait() {
-        setTimeout(function() { 
-          alert("Generazione del registro dei trattamenti in corso.\nSar necessario attendere qualche minuto..."); 
-        }, 900);
+      /* Genera il registro in background e lo scarica quando e' pronto */
+      function exportRegister(link) {
+        var label = $(link).find("span");
+        var base = "${trPDF}&job=";
+        function poll(job) {
+          if (job.state === "done") {
+            label.text("Scarica Registro");
+            window.location = base + encodeURIComponent(job.id) + "&file=true";
+          } else if (job.state === "failed") {
+            label.text("Scarica Registro");
+            alert("Non \u00e8 stato possibile generare il registro dei trattamenti.\n" + (job.error || ""));
+          } else {
+            label.text("Generazione " + job.done + "/" + (job.total || "?"));
+            setTimeout(function() {
+              $.getJSON(base + encodeURIComponent(job.id), poll);
+            }, 2000);
+          }
+        }
+        $.getJSON("${trJob}", poll).fail(function() {
+          // Coda piena o errore: ripiega sulla generazione diretta
+          window.location = link.href;
+        });
+        return false;
       }
     </script>
 